@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy;
+
+import java.util.HashMap;
+
+/**
+ * Validated, encoded token attributes which are decoded on demand.
+ * <p>
+ * An index holds the encoded token and the positions of each attribute name
+ * and value within it, so a single attribute can be found without decoding
+ * the others.
+ *
+ * @author steve_siebert
+ */
+interface AttributeIndex {
+
+    /**
+     * Decode the value of the named attribute.
+     *
+     * @param name attribute name
+     * @return attribute value or null if the token has no such attribute
+     */
+    String find(String name);
+
+    /**
+     * Decode all attributes.
+     *
+     * @return token attributes
+     */
+    HashMap<String, String> decodeAll();
+
+    /**
+     * The token string the attributes were read from; for a binary token the
+     * URL-safe base64 of its encoding.
+     *
+     * @return token string as read
+     */
+    String encodedString();
+
+    /**
+     * The encoded token the attributes were read from; for a text token the
+     * UTF-8 of its string.
+     * <p>
+     * The returned array may be shared and must not be modified.
+     *
+     * @return token bytes as read
+     */
+    byte[] encodedBytes();
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Completion stage running each dependent function in the
+ * {@link ExecutionContext execution context} of the thread which registered
+ * it.
+ * <p>
+ * Stages returned are also contextual, so context propagates along a chain
+ * of dependent stages.
+ *
+ * @param <T> stage result type
+ * @author steve_siebert
+ */
+final class ContextualCompletionStage<T> implements CompletionStage<T> {
+
+    private final CompletionStage<T> delegate;
+
+    ContextualCompletionStage(CompletionStage<T> delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenApply(
+            Function<? super T, ? extends U> fn) {
+        return wrap(delegate.thenApply(context().function(fn)));
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenApplyAsync(
+            Function<? super T, ? extends U> fn) {
+        return wrap(delegate.thenApplyAsync(context().function(fn)));
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenApplyAsync(
+            Function<? super T, ? extends U> fn,
+            Executor executor) {
+        return wrap(delegate.thenApplyAsync(context().function(fn), executor));
+    }
+
+    @Override
+    public CompletionStage<Void> thenAccept(Consumer<? super T> action) {
+        return wrap(delegate.thenAccept(context().consumer(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> thenAcceptAsync(Consumer<? super T> action) {
+        return wrap(delegate.thenAcceptAsync(context().consumer(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> thenAcceptAsync(Consumer<? super T> action,
+            Executor executor) {
+        return wrap(delegate.thenAcceptAsync(
+                context().consumer(action), executor));
+    }
+
+    @Override
+    public CompletionStage<Void> thenRun(Runnable action) {
+        return wrap(delegate.thenRun(context().wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> thenRunAsync(Runnable action) {
+        return wrap(delegate.thenRunAsync(context().wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> thenRunAsync(Runnable action,
+            Executor executor) {
+        return wrap(delegate.thenRunAsync(context().wrap(action), executor));
+    }
+
+    @Override
+    public <U, V> CompletionStage<V> thenCombine(
+            CompletionStage<? extends U> other,
+            BiFunction<? super T, ? super U, ? extends V> fn) {
+        return wrap(delegate.thenCombine(other, context().biFunction(fn)));
+    }
+
+    @Override
+    public <U, V> CompletionStage<V> thenCombineAsync(
+            CompletionStage<? extends U> other,
+            BiFunction<? super T, ? super U, ? extends V> fn) {
+        return wrap(delegate.thenCombineAsync(other, context().biFunction(fn)));
+    }
+
+    @Override
+    public <U, V> CompletionStage<V> thenCombineAsync(
+            CompletionStage<? extends U> other,
+            BiFunction<? super T, ? super U, ? extends V> fn,
+            Executor executor) {
+        return wrap(delegate.thenCombineAsync(
+                other, context().biFunction(fn), executor));
+    }
+
+    @Override
+    public <U> CompletionStage<Void> thenAcceptBoth(
+            CompletionStage<? extends U> other,
+            BiConsumer<? super T, ? super U> action) {
+        return wrap(delegate.thenAcceptBoth(
+                other, context().biConsumer(action)));
+    }
+
+    @Override
+    public <U> CompletionStage<Void> thenAcceptBothAsync(
+            CompletionStage<? extends U> other,
+            BiConsumer<? super T, ? super U> action) {
+        return wrap(delegate.thenAcceptBothAsync(
+                other, context().biConsumer(action)));
+    }
+
+    @Override
+    public <U> CompletionStage<Void> thenAcceptBothAsync(
+            CompletionStage<? extends U> other,
+            BiConsumer<? super T, ? super U> action, Executor executor) {
+        return wrap(delegate.thenAcceptBothAsync(
+                other, context().biConsumer(action), executor));
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterBoth(
+            CompletionStage<?> other, Runnable action) {
+        return wrap(delegate.runAfterBoth(other, context().wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterBothAsync(
+            CompletionStage<?> other, Runnable action) {
+        return wrap(delegate.runAfterBothAsync(other, context().wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterBothAsync(
+            CompletionStage<?> other, Runnable action,
+            Executor executor) {
+        return wrap(delegate.runAfterBothAsync(
+                other, context().wrap(action), executor));
+    }
+
+    @Override
+    public <U> CompletionStage<U> applyToEither(
+            CompletionStage<? extends T> other,
+            Function<? super T, U> fn) {
+        return wrap(delegate.applyToEither(other, context().function(fn)));
+    }
+
+    @Override
+    public <U> CompletionStage<U> applyToEitherAsync(
+            CompletionStage<? extends T> other,
+            Function<? super T, U> fn) {
+        return wrap(delegate.applyToEitherAsync(other, context().function(fn)));
+    }
+
+    @Override
+    public <U> CompletionStage<U> applyToEitherAsync(
+            CompletionStage<? extends T> other,
+            Function<? super T, U> fn, Executor executor) {
+        return wrap(delegate.applyToEitherAsync(
+                other, context().function(fn), executor));
+    }
+
+    @Override
+    public CompletionStage<Void> acceptEither(
+            CompletionStage<? extends T> other,
+            Consumer<? super T> action) {
+        return wrap(delegate.acceptEither(other, context().consumer(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> acceptEitherAsync(
+            CompletionStage<? extends T> other,
+            Consumer<? super T> action) {
+        return wrap(delegate.acceptEitherAsync(
+                other, context().consumer(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> acceptEitherAsync(
+            CompletionStage<? extends T> other,
+            Consumer<? super T> action, Executor executor) {
+        return wrap(delegate.acceptEitherAsync(
+                other, context().consumer(action), executor));
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterEither(
+            CompletionStage<?> other, Runnable action) {
+        return wrap(delegate.runAfterEither(other, context().wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterEitherAsync(
+            CompletionStage<?> other, Runnable action) {
+        return wrap(delegate.runAfterEitherAsync(
+                other, context().wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterEitherAsync(
+            CompletionStage<?> other, Runnable action,
+            Executor executor) {
+        return wrap(delegate.runAfterEitherAsync(
+                other, context().wrap(action), executor));
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenCompose(
+            Function<? super T, ? extends CompletionStage<U>> fn) {
+        return wrap(delegate.thenCompose(context().function(fn)));
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenComposeAsync(
+            Function<? super T, ? extends CompletionStage<U>> fn) {
+        return wrap(delegate.thenComposeAsync(context().function(fn)));
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenComposeAsync(
+            Function<? super T, ? extends CompletionStage<U>> fn,
+            Executor executor) {
+        return wrap(delegate.thenComposeAsync(
+                context().function(fn), executor));
+    }
+
+    @Override
+    public CompletionStage<T> exceptionally(
+            Function<Throwable, ? extends T> fn) {
+        return wrap(delegate.exceptionally(context().function(fn)));
+    }
+
+    @Override
+    public CompletionStage<T> whenComplete(
+            BiConsumer<? super T, ? super Throwable> action) {
+        return wrap(delegate.whenComplete(context().biConsumer(action)));
+    }
+
+    @Override
+    public CompletionStage<T> whenCompleteAsync(
+            BiConsumer<? super T, ? super Throwable> action) {
+        return wrap(delegate.whenCompleteAsync(context().biConsumer(action)));
+    }
+
+    @Override
+    public CompletionStage<T> whenCompleteAsync(
+            BiConsumer<? super T, ? super Throwable> action,
+            Executor executor) {
+        return wrap(delegate.whenCompleteAsync(
+                context().biConsumer(action), executor));
+    }
+
+    @Override
+    public <U> CompletionStage<U> handle(
+            BiFunction<? super T, Throwable, ? extends U> fn) {
+        return wrap(delegate.handle(context().biFunction(fn)));
+    }
+
+    @Override
+    public <U> CompletionStage<U> handleAsync(
+            BiFunction<? super T, Throwable, ? extends U> fn) {
+        return wrap(delegate.handleAsync(context().biFunction(fn)));
+    }
+
+    @Override
+    public <U> CompletionStage<U> handleAsync(
+            BiFunction<? super T, Throwable, ? extends U> fn,
+            Executor executor) {
+        return wrap(delegate.handleAsync(context().biFunction(fn), executor));
+    }
+
+    @Override
+    public CompletableFuture<T> toCompletableFuture() {
+        return delegate.toCompletableFuture();
+    }
+
+    @Override
+    public String toString() {
+        return "contextual " + delegate.toString();
+    }
+
+    private static ExecutionContext context() {
+        return ExecutionContext.capture();
+    }
+
+    private static <U> CompletionStage<U> wrap(CompletionStage<U> stage) {
+        return new ContextualCompletionStage<>(stage);
+    }
+}
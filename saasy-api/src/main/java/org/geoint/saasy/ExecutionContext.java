@@ -0,0 +1,250 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy;
+
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.geoint.saasy.session.SecuritySession;
+
+/**
+ * Immutable execution context, holding the
+ * {@link IdentityManager#getExecutionSession() execution session}, which is
+ * propagated to work handed to other threads.
+ * <p>
+ * Each thread holds a single reference to its current context, so
+ * {@link #capture() capturing} the context is a single read and
+ * {@link #run(Runnable) running} work in a captured context is a reference
+ * swap, restored when the work completes. No per-thread map of values is
+ * kept, so the cost per thread (including virtual threads) is one
+ * thread-local entry, which is removed when a thread leaves all contexts.
+ * <p>
+ * Work handed to an {@link #executor(Executor) executor},
+ * {@link #executorService(ExecutorService) executor service}, or
+ * {@link #completionStage(CompletionStage) completion stage} wrapped by this
+ * class runs in the context of the thread which submitted it.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author steve_siebert
+ */
+public final class ExecutionContext {
+
+    private static final ExecutionContext EMPTY = new ExecutionContext(null);
+    private static final ThreadLocal<ExecutionContext> CURRENT
+            = new ThreadLocal<>();
+
+    private final SecuritySession session;
+
+    private ExecutionContext(SecuritySession session) {
+        this.session = session;
+    }
+
+    /**
+     * The context of the calling thread.
+     *
+     * @return current context, which may have no session
+     */
+    public static ExecutionContext capture() {
+        final ExecutionContext c = CURRENT.get();
+        return (c == null) ? EMPTY : c;
+    }
+
+    /**
+     * A context holding the provided session.
+     *
+     * @param session execution session, may be null
+     * @return context
+     */
+    public static ExecutionContext of(SecuritySession session) {
+        return (session == null) ? EMPTY : new ExecutionContext(session);
+    }
+
+    /**
+     * The execution session of the calling thread.
+     *
+     * @return execution session or null
+     */
+    public static SecuritySession currentSession() {
+        return capture().session;
+    }
+
+    /**
+     * Sets the execution session of the calling thread, until it is changed.
+     * <p>
+     * Prefer {@link #run(Runnable)}, which restores the previous session.
+     *
+     * @param session execution session, or null to clear
+     */
+    public static void setSession(SecuritySession session) {
+        attach(of(session));
+    }
+
+    /**
+     * The execution session of this context.
+     *
+     * @return execution session, if any
+     */
+    public Optional<SecuritySession> getSession() {
+        return Optional.ofNullable(session);
+    }
+
+    /**
+     * Run the task in this context, restoring the context of the calling
+     * thread on completion.
+     *
+     * @param task task
+     */
+    public void run(Runnable task) {
+        final ExecutionContext previous = attach(this);
+        try {
+            task.run();
+        } finally {
+            attach(previous);
+        }
+    }
+
+    /**
+     * Call the task in this context, restoring the context of the calling
+     * thread on completion.
+     *
+     * @param <T> result type
+     * @param task task
+     * @return task result
+     * @throws Exception thrown by the task
+     */
+    public <T> T call(Callable<T> task) throws Exception {
+        final ExecutionContext previous = attach(this);
+        try {
+            return task.call();
+        } finally {
+            attach(previous);
+        }
+    }
+
+    /**
+     * Wrap the task to run in this context.
+     *
+     * @param task task
+     * @return task running in this context
+     */
+    public Runnable wrap(Runnable task) {
+        return () -> run(task);
+    }
+
+    /**
+     * Wrap the task to be called in this context.
+     *
+     * @param <T> result type
+     * @param task task
+     * @return task called in this context
+     */
+    public <T> Callable<T> wrap(Callable<T> task) {
+        return () -> call(task);
+    }
+
+    <T> Supplier<T> supplier(Supplier<T> fn) {
+        return () -> {
+            final ExecutionContext previous = attach(this);
+            try {
+                return fn.get();
+            } finally {
+                attach(previous);
+            }
+        };
+    }
+
+    <T> Consumer<T> consumer(Consumer<T> fn) {
+        return (t) -> run(() -> fn.accept(t));
+    }
+
+    <T, U> BiConsumer<T, U> biConsumer(BiConsumer<T, U> fn) {
+        return (t, u) -> run(() -> fn.accept(t, u));
+    }
+
+    <T, R> Function<T, R> function(Function<T, R> fn) {
+        return (t) -> supplier(() -> fn.apply(t)).get();
+    }
+
+    <T, U, R> BiFunction<T, U, R> biFunction(BiFunction<T, U, R> fn) {
+        return (t, u) -> supplier(() -> fn.apply(t, u)).get();
+    }
+
+    /**
+     * Executor running each task in the context of the thread which
+     * submitted it.
+     *
+     * @param executor executor
+     * @return context propagating executor
+     */
+    public static Executor executor(Executor executor) {
+        return (task) -> executor.execute(capture().wrap(task));
+    }
+
+    /**
+     * Executor service running each task in the context of the thread which
+     * submitted it.
+     *
+     * @param executor executor service
+     * @return context propagating executor service
+     */
+    public static ExecutorService executorService(ExecutorService executor) {
+        return new ContextualExecutorService(executor);
+    }
+
+    /**
+     * Completion stage running each dependent function in the context of the
+     * thread which registered it, including dependents of the stages it
+     * returns.
+     *
+     * @param <T> stage result type
+     * @param stage completion stage
+     * @return context propagating completion stage
+     */
+    public static <T> CompletionStage<T> completionStage(
+            CompletionStage<T> stage) {
+        return (stage instanceof ContextualCompletionStage)
+                ? stage
+                : new ContextualCompletionStage<>(stage);
+    }
+
+    /**
+     * Make the context current, returning the previous context.
+     */
+    private static ExecutionContext attach(ExecutionContext context) {
+        final ExecutionContext previous = capture();
+        if (context == EMPTY) {
+            CURRENT.remove();
+        } else if (context != previous) {
+            CURRENT.set(context);
+        }
+        return previous;
+    }
+
+    @Override
+    public String toString() {
+        return (session == null)
+                ? "execution context without session"
+                : "execution context of session " + session.getSessionGuid();
+    }
+}
@@ -29,6 +29,10 @@ public interface IdentityManager {
 
     /**
      * Initialize the identity manager.
+     * <p>
+     * Managers which issue {@link SignedSecurityToken signed tokens} read
+     * their signing keys from the config with
+     * {@link TokenSigner#fromConfig(Map)}.
      *
      * @param config manager config
      * @throws IdentityException if the manage could not be initialized
@@ -44,17 +48,27 @@ public interface IdentityManager {
 
     /**
      * Returns the security session associated with the calling thread.
+     * <p>
+     * By default the session is held by the {@link ExecutionContext} of the
+     * calling thread, which may be propagated to other threads.
      *
      * @return security session associated with current thread
      */
-    SecuritySession getExecutionSession();
+    default SecuritySession getExecutionSession() {
+        return ExecutionContext.currentSession();
+    }
 
     /**
      * Sets the security session associated for the calling thread.
+     * <p>
+     * By default the session is set on the {@link ExecutionContext} of the
+     * calling thread.
      *
      * @param sub execution thread security session, may be null
      */
-    void setExecutionSession(SecuritySession sub);
+    default void setExecutionSession(SecuritySession sub) {
+        ExecutionContext.setSession(sub);
+    }
 
     /**
      * Session details for the specified session GUID, or null if no session 
@@ -38,6 +38,20 @@ public interface SecurityTenant {
      */
     String getGuid();
 
+    /**
+     * Process-local {@link TenantDictionary dictionary} identifier of the
+     * tenant, allowing tenants to be compared with a single integer
+     * comparison.
+     * <p>
+     * Implementations must look up the identifier of the tenant GUID once,
+     * with {@link TenantDictionary#idOf(String)}, and return the cached
+     * identifier; tenant comparisons rely on this method not consulting the
+     * dictionary.
+     *
+     * @return process-local tenant identifier
+     */
+    int getTenantId();
+
     /**
      * Human-readable name of the tenant.
      *
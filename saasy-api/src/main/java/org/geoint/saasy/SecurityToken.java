@@ -15,6 +15,9 @@
  */
 package org.geoint.saasy;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Supplier;
@@ -76,6 +79,59 @@ public interface SecurityToken {
      */
     String asString();
 
+    /**
+     * Wire format the token is written in.
+     *
+     * @return token format
+     */
+    default Format getFormat() {
+        return Format.TEXT;
+    }
+
+    /**
+     * Append the {@link #asString() token string} to the provided output,
+     * such as a response writer.
+     *
+     * @param out token destination
+     * @throws IOException thrown if the token could not be appended
+     */
+    default void writeTo(Appendable out) throws IOException {
+        out.append(asString());
+    }
+
+    /**
+     * Write the token to the provided buffer in its {@link #getFormat()
+     * format}: the UTF-8 encoded {@link #asString() token string} for
+     * {@link Format#TEXT}, the {@link SecurityTokenCodec} encoding for
+     * {@link Format#BINARY}.
+     *
+     * @param out token destination
+     * @throws java.nio.BufferOverflowException if there is insufficient space
+     * remaining in the buffer, in which case the buffer is not modified
+     */
+    default void writeTo(ByteBuffer out) {
+        if (getFormat() == Format.BINARY) {
+            SecurityTokenCodec.encode(this, out);
+        } else {
+            out.put(asString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Wire formats of a security token.
+     */
+    public enum Format {
+        /**
+         * Token written as text, suitable for headers and cookies.
+         */
+        TEXT,
+        /**
+         * Token written with the compact {@link SecurityTokenCodec} binary
+         * encoding, for service-to-service calls.
+         */
+        BINARY;
+    }
+
     /**
      * SecurityToken builder API.
      * <p>
@@ -92,6 +148,23 @@ public interface SecurityToken {
          */
         Builder attribute(String attributeName, String attributeValue);
 
+        /**
+         * Wire format of the created token, defaults to {@link Format#TEXT}.
+         *
+         * @param format token format
+         * @return this builder (fluid interface)
+         * @throws UnsupportedOperationException if the builder does not
+         * support the format
+         */
+        default Builder format(Format format) {
+            if (format != Format.TEXT) {
+                throw new UnsupportedOperationException(String.format(
+                        "%s tokens are not supported by %s", format,
+                        getClass().getName()));
+            }
+            return this;
+        }
+
         /**
          * Create an instance of SecurityToken from the contents of the builder.
          *
@@ -0,0 +1,478 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of {@link SecurityToken} attributes, intended for
+ * service-to-service calls where the text form is not needed.
+ * <p>
+ * A binary token is a version byte, the varint attribute count and, for each
+ * attribute in name order, the varint UTF-8 length and UTF-8 bytes of the
+ * name followed by those of the value. Varints are unsigned, seven bits per
+ * byte, least significant group first.
+ * <p>
+ * Names and values are encoded directly into and decoded directly from the
+ * buffer, without intermediate byte arrays. Neither heap nor direct buffers
+ * are required.
+ *
+ * @author steve_siebert
+ */
+public final class SecurityTokenCodec {
+
+    /**
+     * Binary token format version.
+     */
+    public static final byte VERSION = 1;
+
+    private SecurityTokenCodec() {
+    }
+
+    /**
+     * Number of bytes the binary encoding of the token occupies.
+     *
+     * @param token token to encode
+     * @return encoded length in bytes
+     */
+    public static int encodedLength(SecurityToken token) {
+        return encodedLength(token.getAttributes());
+    }
+
+    static int encodedLength(Map<String, String> attributes) {
+        int length = 1 + varintLength(attributes.size());
+        for (Map.Entry<String, String> e : attributes.entrySet()) {
+            length += fieldLength(e.getKey()) + fieldLength(e.getValue());
+        }
+        return length;
+    }
+
+    /**
+     * Encode the token attributes into the buffer, starting at its current
+     * position.
+     *
+     * @param token token to encode
+     * @param out destination buffer, on return positioned after the token
+     * @throws BufferOverflowException if there is insufficient space
+     * remaining in the buffer, in which case the buffer is not modified
+     */
+    public static void encode(SecurityToken token, ByteBuffer out) {
+        encode(token.getAttributes(), out);
+    }
+
+    static void encode(Map<String, String> attributes, ByteBuffer out) {
+        if (encodedLength(attributes) > out.remaining()) {
+            throw new BufferOverflowException();
+        }
+
+        final String[] names = attributes.keySet()
+                .toArray(new String[attributes.size()]);
+        Arrays.sort(names);
+
+        out.put(VERSION);
+        putVarint(out, names.length);
+        for (String name : names) {
+            putField(out, name);
+            putField(out, attributes.get(name));
+        }
+    }
+
+    /**
+     * Decode token attributes from the buffer, starting at its current
+     * position.
+     *
+     * @param in source buffer, on return positioned after the token
+     * @return token attributes
+     * @throws UnsupportedSecurityTokenException if the buffer does not hold a
+     * well-formed binary token, in which case the buffer position is not
+     * changed
+     */
+    public static Map<String, String> decode(ByteBuffer in)
+            throws UnsupportedSecurityTokenException {
+        return new Decoder(in).decode();
+    }
+
+    /**
+     * Validate the binary token starting at the buffer position and index its
+     * attributes, copying only the token bytes.
+     *
+     * @param in source buffer, on return positioned after the token
+     * @return token attribute index
+     * @throws UnsupportedSecurityTokenException if the buffer does not hold a
+     * well-formed binary token, in which case the buffer position is not
+     * changed
+     */
+    static AttributeIndex index(ByteBuffer in)
+            throws UnsupportedSecurityTokenException {
+        return new Decoder(in).index();
+    }
+
+    private static int fieldLength(String s) {
+        final int utf8 = utf8Length(s);
+        return varintLength(utf8) + utf8;
+    }
+
+    private static int varintLength(int value) {
+        int length = 1;
+        while ((value >>>= 7) != 0) {
+            length++;
+        }
+        return length;
+    }
+
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (isPair(s, i)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static boolean isPair(String s, int i) {
+        return Character.isHighSurrogate(s.charAt(i)) && i + 1 < s.length()
+                && Character.isLowSurrogate(s.charAt(i + 1));
+    }
+
+    private static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static void putField(ByteBuffer out, String s) {
+        putVarint(out, utf8Length(s));
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (isPair(s, i)) {
+                final int cp = Character.toCodePoint(c, s.charAt(++i));
+                out.put((byte) (0xF0 | (cp >> 18)));
+                out.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                //unpaired surrogate, replaced as String.getBytes does
+                out.put((byte) 0xEF);
+                out.put((byte) 0xBF);
+                out.put((byte) 0xBD);
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private static final class BinaryIndex implements AttributeIndex {
+
+        private final byte[] token;
+        private final int[] offsets;
+
+        private BinaryIndex(byte[] token, int[] offsets) {
+            this.token = token;
+            this.offsets = offsets;
+        }
+
+        @Override
+        public String find(String name) {
+            for (int i = 0; i < offsets.length; i += 4) {
+                if (encodedEquals(offsets[i], offsets[i + 1], name)) {
+                    return string(offsets[i + 2], offsets[i + 3]);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public HashMap<String, String> decodeAll() {
+            final HashMap<String, String> attributes
+                    = new HashMap<>((int) (offsets.length / 4 / 0.75f) + 1);
+            for (int i = 0; i < offsets.length; i += 4) {
+                attributes.put(string(offsets[i], offsets[i + 1]),
+                        string(offsets[i + 2], offsets[i + 3]));
+            }
+            return attributes;
+        }
+
+        @Override
+        public String encodedString() {
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(token);
+        }
+
+        @Override
+        public byte[] encodedBytes() {
+            return token;
+        }
+
+        /**
+         * Compare the UTF-8 field with a name, without decoding the field.
+         */
+        private boolean encodedEquals(int start, int end, String name) {
+            //ascii names, the common case, are compared byte for char
+            if (end - start < name.length()) {
+                return false;
+            }
+            int p = start;
+            for (int i = 0; i < name.length(); i++) {
+                final char c = name.charAt(i);
+                if (c >= 0x80) {
+                    return string(start, end).equals(name);
+                }
+                if (p == end || token[p++] != c) {
+                    return false;
+                }
+            }
+            return p == end;
+        }
+
+        private String string(int start, int end) {
+            return new String(token, start, end - start,
+                    StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Reads the token with absolute gets, moving the buffer position only
+     * once the whole token has been decoded.
+     */
+    private static final class Decoder {
+
+        private final ByteBuffer in;
+        private int pos;
+        private char[] chars;
+        //start and end of the last field read
+        private int fieldStart;
+        private int fieldEnd;
+
+        private Decoder(ByteBuffer in) {
+            this.in = in;
+            this.pos = in.position();
+        }
+
+        private Map<String, String> decode()
+                throws UnsupportedSecurityTokenException {
+            final int count = readHeader();
+            chars = new char[64];
+            final HashMap<String, String> attributes
+                    = new HashMap<>((int) (count / 0.75f) + 1);
+            for (int i = 0; i < count; i++) {
+                final int attribute = pos;
+                final String name = readField(true);
+                if (attributes.put(name, readField(true)) != null) {
+                    throw malformed(String.format("Duplicate attribute '%s'",
+                            name), attribute);
+                }
+            }
+            in.position(pos);
+            return attributes;
+        }
+
+        private AttributeIndex index()
+                throws UnsupportedSecurityTokenException {
+            final int start = in.position();
+            final int count = readHeader();
+            final int[] offsets = new int[count * 4];
+            for (int i = 0; i < offsets.length; i += 4) {
+                final int attribute = pos;
+                readField(false);
+                offsets[i] = fieldStart - start;
+                offsets[i + 1] = fieldEnd - start;
+                readField(false);
+                offsets[i + 2] = fieldStart - start;
+                offsets[i + 3] = fieldEnd - start;
+                //strict UTF-8 is canonical, so equal names have equal bytes
+                for (int j = 0; j < i; j += 4) {
+                    if (regionEquals(start, offsets, j, i)) {
+                        throw malformed("Duplicate attribute", attribute);
+                    }
+                }
+            }
+            final byte[] token = new byte[pos - start];
+            in.get(token);
+            return new BinaryIndex(token, offsets);
+        }
+
+        private int readHeader() throws UnsupportedSecurityTokenException {
+            final byte version = read();
+            if (version != VERSION) {
+                throw malformed(String.format("Unsupported binary token "
+                        + "version %d", version), pos - 1);
+            }
+            final int start = pos;
+            final int count = readVarint();
+            //every attribute takes at least two bytes
+            if (count > (in.limit() - pos) / 2) {
+                throw malformed("Invalid attribute count", start);
+            }
+            return count;
+        }
+
+        private boolean regionEquals(int start, int[] offsets, int a, int b) {
+            final int length = offsets[a + 1] - offsets[a];
+            if (offsets[b + 1] - offsets[b] != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (in.get(start + offsets[a] + i)
+                        != in.get(start + offsets[b] + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private byte read() throws UnsupportedSecurityTokenException {
+            if (pos >= in.limit()) {
+                throw malformed("Unexpected end of token", pos);
+            }
+            return in.get(pos++);
+        }
+
+        private int readVarint() throws UnsupportedSecurityTokenException {
+            final int start = pos;
+            int value = 0;
+            for (int shift = 0; shift < 28; shift += 7) {
+                final byte b = read();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            //fifth byte holds the remaining bits of a non-negative int
+            final byte b = read();
+            if ((b & 0xF8) != 0) {
+                throw malformed("Invalid length", start);
+            }
+            return value | (b << 28);
+        }
+
+        /**
+         * Read a field, decoding it if requested.
+         *
+         * @param decode true to decode the field, otherwise it is only
+         * validated
+         * @return decoded field or null if not decoded
+         */
+        private String readField(boolean decode)
+                throws UnsupportedSecurityTokenException {
+            final int start = pos;
+            final int length = readVarint();
+            if (length > in.limit() - pos) {
+                throw malformed("Length exceeds token", start);
+            }
+            fieldStart = pos;
+            fieldEnd = pos + length;
+            if (decode && chars.length < length) {
+                chars = new char[Math.max(length, chars.length * 2)];
+            }
+            //a UTF-8 field never decodes to more chars than it has bytes
+            int n = 0;
+            while (pos < fieldEnd) {
+                final int cp = readCodePoint(fieldEnd);
+                if (!decode) {
+                    continue;
+                }
+                if (cp >= 0x10000) {
+                    chars[n++] = Character.highSurrogate(cp);
+                    chars[n++] = Character.lowSurrogate(cp);
+                } else {
+                    chars[n++] = (char) cp;
+                }
+            }
+            return decode ? new String(chars, 0, n) : null;
+        }
+
+        /**
+         * Read one strictly encoded UTF-8 code point.
+         */
+        private int readCodePoint(int end)
+                throws UnsupportedSecurityTokenException {
+            final int b = in.get(pos) & 0xFF;
+            final int cp;
+            if (b < 0x80) {
+                pos++;
+                return b;
+            } else if ((b & 0xE0) == 0xC0) {
+                cp = ((b & 0x1F) << 6) | continuation(1, end);
+                if (cp < 0x80) {
+                    throw malformed("Invalid UTF-8", pos);
+                }
+                pos += 2;
+            } else if ((b & 0xF0) == 0xE0) {
+                cp = ((b & 0x0F) << 12)
+                        | (continuation(1, end) << 6)
+                        | continuation(2, end);
+                if (cp < 0x800 || Character.isSurrogate((char) cp)) {
+                    throw malformed("Invalid UTF-8", pos);
+                }
+                pos += 3;
+            } else if ((b & 0xF8) == 0xF0) {
+                cp = ((b & 0x07) << 18)
+                        | (continuation(1, end) << 12)
+                        | (continuation(2, end) << 6)
+                        | continuation(3, end);
+                if (cp < 0x10000 || cp > Character.MAX_CODE_POINT) {
+                    throw malformed("Invalid UTF-8", pos);
+                }
+                pos += 4;
+            } else {
+                throw malformed("Invalid UTF-8", pos);
+            }
+            return cp;
+        }
+
+        private int continuation(int offset, int end)
+                throws UnsupportedSecurityTokenException {
+            if (pos + offset >= end) {
+                throw malformed("Truncated UTF-8", pos);
+            }
+            final int b = in.get(pos + offset);
+            if ((b & 0xC0) != 0x80) {
+                throw malformed("Invalid UTF-8", pos);
+            }
+            return b & 0x3F;
+        }
+
+        private UnsupportedSecurityTokenException malformed(String message,
+                int position) {
+            return new UnsupportedSecurityTokenException(String.format(
+                    "%s (at byte %d)", message, position - in.position()));
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * {@link SecurityToken} signed with an HMAC by a {@link TokenSigner}.
+ * <p>
+ * The signature is computed over the {@link SecurityTokenCodec} encoding of
+ * the token attributes, the payload. As a string, the token is the URL-safe
+ * base64 payload, the signing key id and the URL-safe base64 signature,
+ * separated by periods. As {@link SecurityToken.Format#BINARY binary}, the
+ * token is the payload followed by the length-prefixed key id and signature.
+ * <p>
+ * Integrity and originator are verified by the signer which created or read
+ * the token. The payload includes a signed {@link TokenSigner#EXPIRES_ATTRIBUTE
+ * expiry time}, after which the token no longer verifies. Verification does
+ * not show that the session of the token is still open: a token of a session
+ * closed or revoked before the token expires still verifies, so callers which
+ * must not accept such tokens still need to check the session store.
+ *
+ * @author steve_siebert
+ */
+public final class SignedSecurityToken implements SecurityToken {
+
+    private final Map<String, String> attributes;
+    private final byte[] payload;
+    private final String keyId;
+    private final byte[] signature;
+    private final TokenSigner signer;
+    private final Format format;
+    private final long expires;
+    //lazily encoded; benign race as with String.hashCode, both are immutable
+    private String encoded;
+
+    /**
+     *
+     * @param attributes token attributes owned by this token
+     * @param payload encoded attributes owned by this token
+     * @param keyId signing key id
+     * @param signature payload signature owned by this token
+     * @param signer signer verifying the token
+     * @param format token format
+     */
+    SignedSecurityToken(Map<String, String> attributes, byte[] payload,
+            String keyId, byte[] signature, TokenSigner signer,
+            Format format) {
+        this.attributes = Collections.unmodifiableMap(attributes);
+        this.payload = payload;
+        this.keyId = keyId;
+        this.signature = signature;
+        this.signer = signer;
+        this.format = format;
+        this.expires = parseExpiry(attributes.get(TokenSigner.EXPIRES_ATTRIBUTE));
+    }
+
+    /**
+     * Time after which the token no longer verifies.
+     *
+     * @return expiry time, or {@link Instant#MIN} if the token has no valid
+     * expiry attribute
+     */
+    public Instant getExpires() {
+        return (expires == Long.MIN_VALUE)
+                ? Instant.MIN
+                : Instant.ofEpochSecond(expires);
+    }
+
+    /**
+     * Id of the key the token was signed with.
+     *
+     * @return signing key id
+     */
+    public String getKeyId() {
+        return keyId;
+    }
+
+    @Override
+    public Map<String, String> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public Optional<String> findAttribute(String name) {
+        return Optional.ofNullable(attributes.get(name));
+    }
+
+    @Override
+    public String getAttribute(String name, Supplier<String> defaultValue) {
+        final String value = attributes.get(name);
+        return (value != null) ? value : defaultValue.get();
+    }
+
+    /**
+     * Verify the signature with the signing key, if the key is still held by
+     * the signer.
+     * <p>
+     * Recently verified signatures are cached by the signer, so repeated
+     * verification of a token does not recompute the HMAC.
+     *
+     * @return true if the token has not expired and the signature was made
+     * with a current signer key over the token content
+     */
+    @Override
+    public boolean verifyIntegrity() {
+        return signer.verify(this);
+    }
+
+    /**
+     * A valid HMAC signature shows the token was created by a holder of the
+     * shared signing key.
+     *
+     * @return true if the token {@link #verifyIntegrity() verifies}
+     */
+    @Override
+    public boolean verifyOriginator() {
+        return signer.verify(this);
+    }
+
+    @Override
+    public Format getFormat() {
+        return format;
+    }
+
+    @Override
+    public String asString() {
+        String s = encoded;
+        if (s == null) {
+            final Base64.Encoder base64 = Base64.getUrlEncoder()
+                    .withoutPadding();
+            s = base64.encodeToString(payload) + TokenSigner.SEPARATOR
+                    + keyId + TokenSigner.SEPARATOR
+                    + base64.encodeToString(signature);
+            encoded = s;
+        }
+        return s;
+    }
+
+    /**
+     * Write the token to the provided buffer in its {@link #getFormat()
+     * format}.
+     *
+     * @param out token destination
+     * @throws BufferOverflowException if there is insufficient space
+     * remaining in the buffer, in which case the buffer is not modified
+     */
+    @Override
+    public void writeTo(ByteBuffer out) {
+        if (format != Format.BINARY) {
+            out.put(asString().getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        //key ids are ascii
+        if (payload.length + 2 + keyId.length() + signature.length
+                > out.remaining()) {
+            throw new BufferOverflowException();
+        }
+        out.put(payload);
+        out.put((byte) keyId.length());
+        for (int i = 0; i < keyId.length(); i++) {
+            out.put((byte) keyId.charAt(i));
+        }
+        out.put((byte) signature.length);
+        out.put(signature);
+    }
+
+    long getExpiresEpochSecond() {
+        return expires;
+    }
+
+    /**
+     * Tokens without a valid expiry are treated as already expired.
+     */
+    private static long parseExpiry(String value) {
+        if (value == null) {
+            return Long.MIN_VALUE;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    byte[] getPayload() {
+        return payload;
+    }
+
+    byte[] getSignature() {
+        return signature;
+    }
+}
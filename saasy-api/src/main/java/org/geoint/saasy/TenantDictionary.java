@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process-wide dictionary assigning each distinct tenant GUID a dense
+ * {@code int} identifier, allowing tenant comparisons to be made with a single
+ * integer comparison rather than a string comparison.
+ * <p>
+ * Identifiers are assigned on first request, starting at zero, and are never
+ * reassigned for the life of the process. Identifiers are process-local and
+ * must not be persisted or shared with other processes.
+ * <p>
+ * The dictionary holds every tenant GUID it has seen for the life of the
+ * process.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @see SecurityTenant#getTenantId()
+ * @author steve_siebert
+ */
+public final class TenantDictionary {
+
+    /**
+     * Identifier used when there is no tenant, which never matches an
+     * assigned tenant identifier.
+     */
+    public static final int NO_TENANT = -1;
+
+    private static final ConcurrentMap<String, Integer> IDS
+            = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<UUID, Integer> UUID_IDS
+            = new ConcurrentHashMap<>();
+    private static volatile String[] guids = new String[64];
+    private static int next;
+
+    private TenantDictionary() {
+    }
+
+    /**
+     * Return the identifier of the tenant GUID, assigning a new identifier if
+     * the GUID has not been seen before.
+     *
+     * @param tenantGuid tenant GUID
+     * @return tenant identifier, or {@link #NO_TENANT} if the GUID is null
+     */
+    public static int idOf(String tenantGuid) {
+        if (tenantGuid == null) {
+            return NO_TENANT;
+        }
+        Integer id = IDS.get(tenantGuid);
+        return (id != null) ? id : assign(tenantGuid);
+    }
+
+    /**
+     * Return the identifier of the tenant UUID, which is the same identifier
+     * as the string form of the UUID.
+     *
+     * @param tenantGuid tenant GUID
+     * @return tenant identifier, or {@link #NO_TENANT} if the GUID is null
+     */
+    public static int idOf(UUID tenantGuid) {
+        if (tenantGuid == null) {
+            return NO_TENANT;
+        }
+        Integer id = UUID_IDS.get(tenantGuid);
+        if (id == null) {
+            id = idOf(tenantGuid.toString());
+            UUID_IDS.putIfAbsent(tenantGuid, id);
+        }
+        return id;
+    }
+
+    /**
+     * Return the tenant GUID of a previously assigned identifier.
+     *
+     * @param tenantId tenant identifier
+     * @return tenant GUID or null if the identifier was not assigned
+     */
+    public static String guidOf(int tenantId) {
+        final String[] assigned = guids;
+        return (tenantId >= 0 && tenantId < assigned.length)
+                ? assigned[tenantId]
+                : null;
+    }
+
+    /**
+     * Number of tenant identifiers assigned.
+     *
+     * @return number of identifiers
+     */
+    public static synchronized int size() {
+        return next;
+    }
+
+    private static synchronized int assign(String tenantGuid) {
+        Integer existing = IDS.get(tenantGuid);
+        if (existing != null) {
+            return existing;
+        }
+        final int id = next++;
+        String[] assigned = guids;
+        if (id >= assigned.length) {
+            assigned = Arrays.copyOf(assigned, assigned.length * 2);
+        }
+        assigned[id] = tenantGuid;
+        guids = assigned; //publish before the id is visible
+        IDS.put(tenantGuid, id);
+        return id;
+    }
+}
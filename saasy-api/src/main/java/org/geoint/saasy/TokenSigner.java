@@ -0,0 +1,666 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Creates and verifies HMAC {@link SignedSecurityToken signed tokens}.
+ * <p>
+ * The signer holds a ring of named keys: tokens are signed with the active
+ * key and verified with whichever key they name. Keys are rotated by adding
+ * a new active key, which leaves tokens signed with earlier keys valid until
+ * those keys are retired.
+ * <p>
+ * Every token is signed with an {@link #EXPIRES_ATTRIBUTE expiry time}, a
+ * {@link Builder#tokenLifetime(Duration) lifetime} after it is created, and no
+ * longer verifies once expired. A token of a session which is closed or
+ * revoked before the token expires continues to verify until it expires, so
+ * the lifetime bounds how long such a token may be trusted without a session
+ * store lookup.
+ * <p>
+ * Each thread keeps its own {@link Mac} instance per key, initialized once,
+ * and successfully verified signatures are held in a bounded cache so a
+ * token presented on every hop is only verified once while its key is held.
+ * <p>
+ * Signers are normally created from the {@link IdentityManager#initialize}
+ * config with {@link #fromConfig(Map)}. Instances are thread-safe.
+ *
+ * @author steve_siebert
+ */
+public final class TokenSigner {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(TokenSigner.class.getName());
+    /**
+     * HMAC algorithm config key, defaults to {@link #DEFAULT_ALGORITHM}.
+     */
+    public static final String CONFIG_ALGORITHM = "saasy.token.hmac.algorithm";
+    /**
+     * Prefix of signing key config keys; the remainder of the key is the key
+     * id and the value is the base64 encoded secret.
+     */
+    public static final String CONFIG_KEY_PREFIX = "saasy.token.hmac.key.";
+    /**
+     * Active signing key id config key, optional if only one key is
+     * configured.
+     */
+    public static final String CONFIG_ACTIVE_KEY
+            = "saasy.token.hmac.activeKey";
+    /**
+     * Verified signature cache size config key, defaults to
+     * {@link #DEFAULT_VERIFIED_CACHE_SIZE}.
+     */
+    public static final String CONFIG_VERIFIED_CACHE_SIZE
+            = "saasy.token.hmac.verifiedCacheSize";
+    /**
+     * Token lifetime config key, in seconds, defaults to
+     * {@link #DEFAULT_TOKEN_LIFETIME}.
+     */
+    public static final String CONFIG_TOKEN_LIFETIME
+            = "saasy.token.hmac.lifetimeSeconds";
+    /**
+     * Signed attribute holding the token expiry time, in epoch seconds.
+     */
+    public static final String EXPIRES_ATTRIBUTE = "saasy.expires";
+    public static final String DEFAULT_ALGORITHM = "HmacSHA256";
+    public static final Duration DEFAULT_TOKEN_LIFETIME
+            = Duration.ofMinutes(15);
+    public static final int DEFAULT_VERIFIED_CACHE_SIZE = 4096;
+    static final char SEPARATOR = '.';
+    private static final Pattern KEY_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private static final int CACHE_SHARDS = 16;
+
+    private final String algorithm;
+    private final Duration tokenLifetime;
+    private final Clock clock;
+    private volatile KeyRing keys;
+    private final ThreadLocal<Map<SecretKeySpec, Mac>> macs
+            = ThreadLocal.withInitial(IdentityHashMap::new);
+    private final Shard[] verified;
+
+    private TokenSigner(Builder builder) {
+        this.algorithm = builder.algorithm;
+        this.tokenLifetime = builder.tokenLifetime;
+        this.clock = builder.clock;
+        this.keys = new KeyRing(new HashMap<>(builder.keys),
+                builder.activeKey);
+        final int shardCapacity = Math.max(1,
+                (builder.verifiedCacheSize + CACHE_SHARDS - 1) / CACHE_SHARDS);
+        this.verified = new Shard[CACHE_SHARDS];
+        for (int i = 0; i < verified.length; i++) {
+            verified[i] = new Shard(shardCapacity);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Create a signer from identity manager config.
+     *
+     * @param config identity manager config
+     * @return token signer
+     * @throws IllegalArgumentException if no keys are configured, or the
+     * algorithm, a key, or the active key id is invalid
+     * @see #CONFIG_ALGORITHM
+     * @see #CONFIG_KEY_PREFIX
+     * @see #CONFIG_ACTIVE_KEY
+     * @see #CONFIG_TOKEN_LIFETIME
+     * @see #CONFIG_VERIFIED_CACHE_SIZE
+     */
+    public static TokenSigner fromConfig(Map<String, String> config) {
+        Builder builder = builder()
+                .algorithm(config.getOrDefault(CONFIG_ALGORITHM,
+                        DEFAULT_ALGORITHM));
+        config.forEach((k, v) -> {
+            if (k.startsWith(CONFIG_KEY_PREFIX)) {
+                final byte[] secret;
+                try {
+                    secret = Base64.getDecoder().decode(v.trim());
+                } catch (IllegalArgumentException ex) {
+                    throw new IllegalArgumentException(String.format("Signing "
+                            + "key '%s' is not base64 encoded.", k), ex);
+                }
+                builder.key(k.substring(CONFIG_KEY_PREFIX.length()), secret);
+            }
+        });
+        if (config.containsKey(CONFIG_ACTIVE_KEY)) {
+            builder.activeKey(config.get(CONFIG_ACTIVE_KEY));
+        }
+        if (config.containsKey(CONFIG_TOKEN_LIFETIME)) {
+            try {
+                builder.tokenLifetime(Duration.ofSeconds(Long.parseLong(
+                        config.get(CONFIG_TOKEN_LIFETIME).trim())));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException(String.format("%s must be "
+                        + "an integer.", CONFIG_TOKEN_LIFETIME), ex);
+            }
+        }
+        if (config.containsKey(CONFIG_VERIFIED_CACHE_SIZE)) {
+            try {
+                builder.verifiedCacheSize(Integer.parseInt(
+                        config.get(CONFIG_VERIFIED_CACHE_SIZE).trim()));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException(String.format("%s must be "
+                        + "an integer.", CONFIG_VERIFIED_CACHE_SIZE), ex);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Builder of tokens signed with the active key.
+     * <p>
+     * The signer sets the {@link #EXPIRES_ATTRIBUTE expiry attribute} of the
+     * created tokens, replacing any value provided to the builder.
+     *
+     * @return token builder
+     */
+    public SecurityToken.Builder tokenBuilder() {
+        return new TokenBuilder();
+    }
+
+    /**
+     * Read a signed token from its {@link SignedSecurityToken#asString()
+     * string form}.
+     * <p>
+     * The token is not verified when read; see
+     * {@link SignedSecurityToken#verifyIntegrity()}.
+     *
+     * @param tokenString token string
+     * @return signed token
+     * @throws UnsupportedSecurityTokenException if the token is malformed
+     */
+    public SignedSecurityToken valueOf(CharSequence tokenString)
+            throws UnsupportedSecurityTokenException {
+        final int payloadEnd = indexOf(tokenString, 0);
+        final int keyEnd = (payloadEnd < 0)
+                ? -1
+                : indexOf(tokenString, payloadEnd + 1);
+        if (keyEnd < 0 || indexOf(tokenString, keyEnd + 1) >= 0) {
+            throw new UnsupportedSecurityTokenException("Not a signed "
+                    + "security token.");
+        }
+        final String keyId = tokenString.subSequence(payloadEnd + 1, keyEnd)
+                .toString();
+        final byte[] payload;
+        final byte[] signature;
+        try {
+            final Base64.Decoder base64 = Base64.getUrlDecoder();
+            payload = base64.decode(
+                    tokenString.subSequence(0, payloadEnd).toString());
+            signature = base64.decode(tokenString
+                    .subSequence(keyEnd + 1, tokenString.length()).toString());
+        } catch (IllegalArgumentException ex) {
+            throw new UnsupportedSecurityTokenException("Signed security "
+                    + "token is not base64 encoded.", ex);
+        }
+        final ByteBuffer in = ByteBuffer.wrap(payload);
+        final Map<String, String> attributes = SecurityTokenCodec.decode(in);
+        if (in.hasRemaining()) {
+            throw new UnsupportedSecurityTokenException("Unexpected content "
+                    + "after signed token attributes.");
+        }
+        return new SignedSecurityToken(attributes, payload, keyId, signature,
+                this, SecurityToken.Format.TEXT);
+    }
+
+    /**
+     * Read a signed token written by {@link SignedSecurityToken#writeTo(
+     * ByteBuffer)} in binary format, starting at the current buffer position.
+     * <p>
+     * The token is not verified when read; see
+     * {@link SignedSecurityToken#verifyIntegrity()}.
+     *
+     * @param tokenBytes binary token, on return positioned after the token
+     * @return signed token
+     * @throws UnsupportedSecurityTokenException if the token is malformed, in
+     * which case the buffer position is not changed
+     */
+    public SignedSecurityToken valueOf(ByteBuffer tokenBytes)
+            throws UnsupportedSecurityTokenException {
+        final int start = tokenBytes.position();
+        try {
+            final Map<String, String> attributes
+                    = SecurityTokenCodec.decode(tokenBytes);
+            final byte[] payload = new byte[tokenBytes.position() - start];
+            tokenBytes.position(start);
+            tokenBytes.get(payload);
+
+            final byte[] keyId = new byte[tokenBytes.get() & 0xFF];
+            tokenBytes.get(keyId);
+            final byte[] signature = new byte[tokenBytes.get() & 0xFF];
+            tokenBytes.get(signature);
+            return new SignedSecurityToken(attributes, payload,
+                    new String(keyId, StandardCharsets.US_ASCII),
+                    signature, this, SecurityToken.Format.BINARY);
+        } catch (BufferUnderflowException ex) {
+            tokenBytes.position(start);
+            throw new UnsupportedSecurityTokenException("Truncated signed "
+                    + "security token.", ex);
+        }
+    }
+
+    /**
+     * Add a signing key and make it the active key.
+     * <p>
+     * Tokens signed with other keys continue to verify until those keys are
+     * {@link #retire(String) retired}.
+     *
+     * @param keyId key id
+     * @param secret key secret, at least the mac length of the algorithm (32
+     * bytes for {@link #DEFAULT_ALGORITHM})
+     * @throws IllegalArgumentException if the key id or secret is invalid, or
+     * the key id is already in use
+     */
+    public synchronized void rotate(String keyId, byte[] secret) {
+        final KeyRing current = keys;
+        if (current.keys.containsKey(keyId)) {
+            throw new IllegalArgumentException(String.format("Signing key "
+                    + "'%s' is already in use.", keyId));
+        }
+        final Map<String, SecretKeySpec> rotated = new HashMap<>(current.keys);
+        rotated.put(keyId, secretKey(keyId, secret, algorithm));
+        keys = new KeyRing(rotated, keyId);
+        LOGGER.info(() -> String.format("Rotated token signing key to '%s'.",
+                keyId));
+    }
+
+    /**
+     * Remove a signing key; tokens signed with the key no longer verify.
+     *
+     * @param keyId key id
+     * @return true if the key was removed
+     * @throws IllegalArgumentException if the key is the active key
+     */
+    public synchronized boolean retire(String keyId) {
+        final KeyRing current = keys;
+        if (keyId.equals(current.active)) {
+            throw new IllegalArgumentException(String.format("Active signing "
+                    + "key '%s' can not be retired.", keyId));
+        }
+        if (!current.keys.containsKey(keyId)) {
+            return false;
+        }
+        final Map<String, SecretKeySpec> retired = new HashMap<>(current.keys);
+        retired.remove(keyId);
+        keys = new KeyRing(retired, current.active);
+        //verifications made with the key are ignored once it is retired, but
+        //no longer need the cache space
+        for (Shard s : verified) {
+            s.removeKey(keyId);
+        }
+        LOGGER.info(() -> String.format("Retired token signing key '%s'.",
+                keyId));
+        return true;
+    }
+
+    /**
+     * Id of the key new tokens are signed with.
+     *
+     * @return active key id
+     */
+    public String getActiveKeyId() {
+        return keys.active;
+    }
+
+    boolean verify(SignedSecurityToken token) {
+        //checked before the cache so cached verifications also expire
+        if (clock.instant().getEpochSecond() >= token.getExpiresEpochSecond()) {
+            return false;
+        }
+        final SecretKeySpec key = keys.keys.get(token.getKeyId());
+        if (key == null) {
+            return false;
+        }
+        final Verified v = new Verified(token.getKeyId(), token.getPayload(),
+                token.getSignature());
+        final Shard shard = verified[v.hash & (verified.length - 1)];
+        if (shard.get(v) == key) {
+            return true;
+        }
+        if (!MessageDigest.isEqual(sign(key, token.getPayload()),
+                token.getSignature())) {
+            return false;
+        }
+        shard.put(v, key);
+        return true;
+    }
+
+    private byte[] sign(SecretKeySpec key, byte[] payload) {
+        final Map<SecretKeySpec, Mac> threadMacs = macs.get();
+        Mac mac = threadMacs.get(key);
+        if (mac == null) {
+            if (threadMacs.size() >= keys.keys.size()) {
+                //drop macs of retired keys
+                threadMacs.keySet().retainAll(keys.keys.values());
+            }
+            mac = newMac(key);
+            threadMacs.put(key, mac);
+        }
+        return mac.doFinal(payload);
+    }
+
+    private Mac newMac(SecretKeySpec key) {
+        try {
+            final Mac mac = Mac.getInstance(algorithm);
+            mac.init(key);
+            return mac;
+        } catch (NoSuchAlgorithmException | InvalidKeyException ex) {
+            //the algorithm and key were checked when added to the signer
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static SecretKeySpec secretKey(String keyId, byte[] secret,
+            String algorithm) {
+        if (!KEY_ID.matcher(keyId).matches()) {
+            throw new IllegalArgumentException(String.format("Invalid signing "
+                    + "key id '%s', must be 1-64 letters, digits, '_' or '-'.",
+                    keyId));
+        }
+        if (secret.length == 0) {
+            throw new IllegalArgumentException(String.format("Signing key "
+                    + "'%s' has an empty secret.", keyId));
+        }
+        final SecretKeySpec key = new SecretKeySpec(secret, algorithm);
+        final Mac mac;
+        try {
+            mac = Mac.getInstance(algorithm);
+            mac.init(key);
+        } catch (NoSuchAlgorithmException | InvalidKeyException ex) {
+            throw new IllegalArgumentException(String.format("Signing key "
+                    + "'%s' can not be used with %s.", keyId, algorithm), ex);
+        }
+        //HMAC accepts any key length, but a secret shorter than the mac
+        //is weaker than the signature it produces
+        if (secret.length < mac.getMacLength()) {
+            throw new IllegalArgumentException(String.format("Signing key "
+                    + "'%s' secret must be at least %d bytes for %s.", keyId,
+                    mac.getMacLength(), algorithm));
+        }
+        return key;
+    }
+
+    private static int indexOf(CharSequence s, int from) {
+        for (int i = from; i < s.length(); i++) {
+            if (s.charAt(i) == SEPARATOR) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Immutable snapshot of the signer keys, replaced on rotation.
+     */
+    private static final class KeyRing {
+
+        private final Map<String, SecretKeySpec> keys;
+        private final String active;
+
+        private KeyRing(Map<String, SecretKeySpec> keys, String active) {
+            this.keys = keys;
+            this.active = active;
+        }
+    }
+
+    private final class TokenBuilder implements SecurityToken.Builder {
+
+        private final Map<String, String> attributes = new HashMap<>();
+        private SecurityToken.Format format = SecurityToken.Format.TEXT;
+
+        @Override
+        public TokenBuilder attribute(String attributeName,
+                String attributeValue) {
+            attributes.put(attributeName, attributeValue);
+            return this;
+        }
+
+        @Override
+        public TokenBuilder format(SecurityToken.Format format) {
+            this.format = Objects.requireNonNull(format);
+            return this;
+        }
+
+        @Override
+        public SecurityToken create() {
+            attributes.put(EXPIRES_ATTRIBUTE, Long.toString(clock.instant()
+                    .plus(tokenLifetime).getEpochSecond()));
+            final ByteBuffer payload = ByteBuffer.allocate(
+                    SecurityTokenCodec.encodedLength(attributes));
+            SecurityTokenCodec.encode(attributes, payload);
+
+            final KeyRing ring = keys;
+            final SecretKeySpec key = ring.keys.get(ring.active);
+            final SignedSecurityToken token = new SignedSecurityToken(
+                    new HashMap<>(attributes), payload.array(), ring.active,
+                    sign(key, payload.array()), TokenSigner.this, format);
+            final Verified v = new Verified(ring.active, token.getPayload(),
+                    token.getSignature());
+            verified[v.hash & (verified.length - 1)].put(v, key);
+            return token;
+        }
+    }
+
+    /**
+     * Verified signature cache key; the payload is part of the key so a
+     * cached signature is never accepted for other content.
+     */
+    private static final class Verified {
+
+        private final String keyId;
+        private final byte[] payload;
+        private final byte[] signature;
+        private final int hash;
+
+        private Verified(String keyId, byte[] payload, byte[] signature) {
+            this.keyId = keyId;
+            this.payload = payload;
+            this.signature = signature;
+            this.hash = Arrays.hashCode(signature) * 0x9E3779B9;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Verified)) {
+                return false;
+            }
+            final Verified other = (Verified) obj;
+            return hash == other.hash
+                    && keyId.equals(other.keyId)
+                    && Arrays.equals(signature, other.signature)
+                    && Arrays.equals(payload, other.payload);
+        }
+    }
+
+    private static final class Shard {
+
+        private final LinkedHashMap<Verified, SecretKeySpec> entries;
+
+        private Shard(final int capacity) {
+            this.entries = new LinkedHashMap<Verified, SecretKeySpec>(
+                    Math.min(capacity, 1024), 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<Verified, SecretKeySpec> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        private synchronized SecretKeySpec get(Verified v) {
+            return entries.get(v);
+        }
+
+        private synchronized void put(Verified v, SecretKeySpec key) {
+            entries.put(v, key);
+        }
+
+        private synchronized void removeKey(String keyId) {
+            entries.keySet().removeIf((v) -> v.keyId.equals(keyId));
+        }
+    }
+
+    public static final class Builder {
+
+        private String algorithm = DEFAULT_ALGORITHM;
+        private final Map<String, byte[]> secrets = new LinkedHashMap<>();
+        private final Map<String, SecretKeySpec> keys = new HashMap<>();
+        private String activeKey;
+        private int verifiedCacheSize = DEFAULT_VERIFIED_CACHE_SIZE;
+        private Duration tokenLifetime = DEFAULT_TOKEN_LIFETIME;
+        private Clock clock = Clock.systemUTC();
+
+        private Builder() {
+        }
+
+        /**
+         * HMAC algorithm, defaults to {@link #DEFAULT_ALGORITHM}.
+         *
+         * @param algorithm JCA Mac algorithm name
+         * @return this builder (fluid interface)
+         */
+        public Builder algorithm(String algorithm) {
+            this.algorithm = Objects.requireNonNull(algorithm);
+            return this;
+        }
+
+        /**
+         * Add a signing key.
+         *
+         * @param keyId key id, 1-64 letters, digits, '_' or '-'
+         * @param secret key secret, at least the mac length of the algorithm
+         * (32 bytes for {@link #DEFAULT_ALGORITHM})
+         * @return this builder (fluid interface)
+         */
+        public Builder key(String keyId, byte[] secret) {
+            secrets.put(keyId, secret.clone());
+            return this;
+        }
+
+        /**
+         * Id of the key new tokens are signed with, optional if only one key
+         * is added.
+         *
+         * @param keyId active key id
+         * @return this builder (fluid interface)
+         */
+        public Builder activeKey(String keyId) {
+            this.activeKey = keyId;
+            return this;
+        }
+
+        /**
+         * Time a created token remains valid, defaults to
+         * {@link #DEFAULT_TOKEN_LIFETIME}.
+         *
+         * @param lifetime token lifetime
+         * @return this builder (fluid interface)
+         */
+        public Builder tokenLifetime(Duration lifetime) {
+            if (lifetime.isNegative() || lifetime.isZero()) {
+                throw new IllegalArgumentException("Token lifetime must be "
+                        + "positive.");
+            }
+            this.tokenLifetime = lifetime;
+            return this;
+        }
+
+        /**
+         * Clock used to set and check token expiry, defaults to the system
+         * clock.
+         *
+         * @param clock expiry clock
+         * @return this builder (fluid interface)
+         */
+        public Builder clock(Clock clock) {
+            this.clock = Objects.requireNonNull(clock);
+            return this;
+        }
+
+        /**
+         * Maximum number of verified signatures cached, defaults to
+         * {@link #DEFAULT_VERIFIED_CACHE_SIZE}.
+         *
+         * @param size cache size
+         * @return this builder (fluid interface)
+         */
+        public Builder verifiedCacheSize(int size) {
+            if (size < 1) {
+                throw new IllegalArgumentException("Verified signature cache "
+                        + "size must be positive.");
+            }
+            this.verifiedCacheSize = size;
+            return this;
+        }
+
+        /**
+         *
+         * @return token signer
+         * @throws IllegalArgumentException if no keys were added, a key is
+         * invalid, or the active key is not one of the keys
+         */
+        public TokenSigner build() {
+            if (secrets.isEmpty()) {
+                throw new IllegalArgumentException("No token signing keys "
+                        + "were provided.");
+            }
+            keys.clear();
+            secrets.forEach((id, s) -> keys.put(id, secretKey(id, s, algorithm)));
+            if (activeKey == null) {
+                if (keys.size() > 1) {
+                    throw new IllegalArgumentException("The active token "
+                            + "signing key must be set when more than one key "
+                            + "is provided.");
+                }
+                activeKey = keys.keySet().iterator().next();
+            } else if (!keys.containsKey(activeKey)) {
+                throw new IllegalArgumentException(String.format("Active "
+                        + "signing key '%s' was not provided.", activeKey));
+            }
+            return new TokenSigner(this);
+        }
+    }
+}
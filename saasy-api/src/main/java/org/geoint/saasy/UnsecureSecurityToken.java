@@ -15,28 +15,46 @@
  */
 package org.geoint.saasy;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.function.Supplier;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import org.geoint.saasy.util.StringParseException;
 
 /**
  * Simple {@link SecurityToken} implementation which does not support data
  * integrity or non-repudiation.
+ * <p>
+ * The token is immutable; its string form is encoded once, when first
+ * requested, and reused thereafter. A {@link SecurityToken.Format#BINARY}
+ * token is written to buffers with the {@link SecurityTokenCodec} encoding,
+ * and as a string in the URL-safe base64 of that encoding.
+ * <p>
+ * A token read with {@code valueOf} is validated up front but keeps its
+ * encoded form: {@link #findAttribute(String)} decodes only the attribute
+ * asked for, the attribute map is decoded when first requested by
+ * {@link #getAttributes()}, and the token is written in the encoding it was
+ * read from rather than re-encoded.
  *
  * @author steve_siebert
  */
 public class UnsecureSecurityToken implements SecurityToken {
 
-    private static final Pattern PARSER_REGEX
-            = Pattern.compile("(\\{'(\\w+)':'(\\w+)'\\})");
-
-    private final Map<String, String> attributes;
+    //lazily decoded from the index of a read token
+    private volatile Map<String, String> attributes;
+    private final AttributeIndex index;
+    private final Format format;
+    //lazily encoded; racing threads may each encode, but the String is
+    //safely published by its final fields, and the array, which has no such
+    //guarantee, by the volatile write
+    private String encoded;
+    private volatile byte[] encodedBytes;
 //    private static final Supplier<MessageDigest> DIGEST_SUPPLIER;
 //    private static final String SHA1_ALGORITHM = "sha1";
 //
@@ -53,7 +71,29 @@ public class UnsecureSecurityToken implements SecurityToken {
 //    }
 
     public UnsecureSecurityToken(Map<String, String> attributes) {
+        this(new HashMap<>(attributes), Format.TEXT);
+    }
+
+    /**
+     *
+     * @param attributes attributes map owned by this token
+     * @param format token format
+     */
+    private UnsecureSecurityToken(Map<String, String> attributes,
+            Format format) {
         this.attributes = Collections.unmodifiableMap(attributes);
+        this.index = null;
+        this.format = format;
+    }
+
+    /**
+     *
+     * @param index encoded attributes of a read token
+     * @param format token format
+     */
+    private UnsecureSecurityToken(AttributeIndex index, Format format) {
+        this.index = index;
+        this.format = format;
     }
 
     public static SecurityToken.Builder builder() {
@@ -71,32 +111,91 @@ public class UnsecureSecurityToken implements SecurityToken {
      */
     public static UnsecureSecurityToken valueOf(String tokenString)
             throws UnsupportedSecurityTokenException {
-        if (!tokenString.startsWith("{'attributes':[")) {
-            throw new UnsupportedSecurityTokenException("Not a valid security token");
+        return valueOf((CharSequence) tokenString);
+    }
+
+    /**
+     * Convert a token output from {@link UnsecureSecurityToken#asString()},
+     * held in any character sequence, to a UnsecureSecurityToken instance.
+     * <p>
+     * Both text and base64 encoded binary tokens are accepted. A text token
+     * is parsed directly from the sequence; unless the sequence is an
+     * (immutable) {@link String}, its attributes are decoded when read, as the
+     * token can not keep a reference to a sequence the caller may modify.
+     *
+     * @param tokenString token characters
+     * @return default security token instance
+     * @throws UnsupportedSecurityTokenException thrown if the token is
+     * malformed, with the position of the malformed content
+     */
+    public static UnsecureSecurityToken valueOf(CharSequence tokenString)
+            throws UnsupportedSecurityTokenException {
+        if (tokenString.length() > 0 && tokenString.charAt(0) != '{') {
+            final byte[] binary;
+            try {
+                binary = Base64.getUrlDecoder()
+                        .decode(tokenString.toString());
+            } catch (IllegalArgumentException ex) {
+                throw new UnsupportedSecurityTokenException("Not a valid "
+                        + "security token: " + ex.getMessage(), ex);
+            }
+            return valueOf(ByteBuffer.wrap(binary));
         }
-        
-        Matcher m = PARSER_REGEX.matcher(tokenString);
-        Map<String, String> attributes = new HashMap<>();
-        while (m.find()) {
-            attributes.put(m.group(2), m.group(3));
+
+        try {
+            final AttributeIndex parsed = UnsecureTokenParser.parse(tokenString);
+            return (tokenString instanceof String)
+                    ? new UnsecureSecurityToken(parsed, Format.TEXT)
+                    : new UnsecureSecurityToken(parsed.decodeAll(), Format.TEXT);
+        } catch (StringParseException ex) {
+            throw new UnsupportedSecurityTokenException("Not a valid security "
+                    + "token: " + ex.getMessage(), ex);
         }
+    }
 
-        return new UnsecureSecurityToken(attributes);
+    /**
+     * Decode a binary token written by {@link #writeTo(ByteBuffer)}, starting
+     * at the current buffer position.
+     *
+     * @param tokenBytes binary token, on return positioned after the token
+     * @return binary security token instance
+     * @throws UnsupportedSecurityTokenException thrown if the buffer does not
+     * hold a well-formed binary token
+     */
+    public static UnsecureSecurityToken valueOf(ByteBuffer tokenBytes)
+            throws UnsupportedSecurityTokenException {
+        return new UnsecureSecurityToken(
+                SecurityTokenCodec.index(tokenBytes), Format.BINARY);
     }
 
     @Override
     public Map<String, String> getAttributes() {
-        return this.attributes;
+        Map<String, String> m = attributes;
+        if (m == null) {
+            m = Collections.unmodifiableMap(index.decodeAll());
+            attributes = m;
+        }
+        return m;
     }
 
     @Override
     public Optional<String> findAttribute(String name) {
-        return Optional.ofNullable(this.attributes.get(name));
+        return Optional.ofNullable(attribute(name));
     }
 
     @Override
     public String getAttribute(String name, Supplier<String> defaultValue) {
-        return this.attributes.getOrDefault(name, defaultValue.get());
+        final String value = attribute(name);
+        return (value != null) ? value : defaultValue.get();
+    }
+
+    /**
+     * Read the attribute from the decoded map, if it has been decoded,
+     * otherwise from the encoded token.
+     */
+    private String attribute(String name) {
+        final Map<String, String> m = attributes;
+        return (m != null) ? m.get(name) : index.find(name);
     }
 
     @Override
@@ -109,19 +208,142 @@ public class UnsecureSecurityToken implements SecurityToken {
         return false;
     }
 
+    @Override
+    public Format getFormat() {
+        return format;
+    }
+
     @Override
     public String asString() {
-        //simplified JSON formatted token (does not try to be JWT spec compliant}
-        return new StringBuilder()
-                .append("{'attributes':")
-                .append(this.attributes.entrySet()
-                        .stream()
-                        .sorted(Entry.comparingByKey())
-                        .map((e) -> String.format("{'%s':'%s'}", e.getKey(), e.getValue()))
-                        .collect(Collectors.joining(",", "[", "]"))
-                )
-                .append("}")
-                .toString();
+        String s = encoded;
+        if (s == null) {
+            if (index != null) {
+                s = index.encodedString();
+            } else if (format == Format.BINARY) {
+                s = Base64.getUrlEncoder().withoutPadding()
+                        .encodeToString(bytes());
+            } else {
+                s = encode();
+            }
+            encoded = s;
+        }
+        return s;
+    }
+
+    /**
+     * Append the token string to the provided output.
+     *
+     * @param out token destination
+     * @throws IOException thrown if the token could not be appended
+     */
+    @Override
+    public void writeTo(Appendable out) throws IOException {
+        out.append(asString());
+    }
+
+    /**
+     * Write the token to the provided buffer in its {@link #getFormat()
+     * format}.
+     *
+     * @param out token destination
+     * @throws java.nio.BufferOverflowException if there is insufficient space
+     * remaining in the buffer, in which case the buffer is not modified
+     */
+    @Override
+    public void writeTo(ByteBuffer out) {
+        out.put(bytes());
+    }
+
+    private byte[] bytes() {
+        byte[] b = encodedBytes;
+        if (b == null) {
+            if (index != null) {
+                b = index.encodedBytes();
+            } else if (format == Format.BINARY) {
+                final ByteBuffer buffer = ByteBuffer.allocate(
+                        SecurityTokenCodec.encodedLength(this));
+                SecurityTokenCodec.encode(this, buffer);
+                b = buffer.array();
+            } else {
+                b = asString().getBytes(StandardCharsets.UTF_8);
+            }
+            encodedBytes = b;
+        }
+        return b;
+    }
+
+    /**
+     * Encode the token, in sorted attribute order, into an exactly sized
+     * buffer.
+     * <p>
+     * Simplified JSON formatted token (does not try to be JWT spec compliant).
+     *
+     * @return token string
+     */
+    private String encode() {
+        final Map<String, String> attributes = getAttributes();
+        final String[] names = attributes.keySet()
+                .toArray(new String[attributes.size()]);
+        Arrays.sort(names);
+
+        final String prefix = UnsecureTokenParser.PREFIX;
+        final String suffix = UnsecureTokenParser.SUFFIX;
+        //{'':''} and a separating comma per attribute
+        int length = prefix.length() + suffix.length()
+                + Math.max(0, names.length * 8 - 1);
+        for (String name : names) {
+            length += escapedLength(name)
+                    + escapedLength(attributes.get(name));
+        }
+
+        final char[] chars = new char[length];
+        int pos = put(prefix, chars, 0);
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                chars[pos++] = ',';
+            }
+            chars[pos++] = '{';
+            chars[pos++] = '\'';
+            pos = putEscaped(names[i], chars, pos);
+            chars[pos++] = '\'';
+            chars[pos++] = ':';
+            chars[pos++] = '\'';
+            pos = putEscaped(attributes.get(names[i]), chars, pos);
+            chars[pos++] = '\'';
+            chars[pos++] = '}';
+        }
+        put(suffix, chars, pos);
+        return new String(chars);
+    }
+
+    private static int put(String s, char[] chars, int pos) {
+        s.getChars(0, s.length(), chars, pos);
+        return pos + s.length();
+    }
+
+    /**
+     * Copy the string, escaping quotes and backslashes.
+     */
+    private static int putEscaped(String s, char[] chars, int pos) {
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '\'' || c == '\\') {
+                chars[pos++] = '\\';
+            }
+            chars[pos++] = c;
+        }
+        return pos;
+    }
+
+    private static int escapedLength(String s) {
+        int length = s.length();
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '\'' || c == '\\') {
+                length++;
+            }
+        }
+        return length;
     }
 
 //    /**
@@ -145,6 +367,7 @@ public class UnsecureSecurityToken implements SecurityToken {
             implements SecurityToken.Builder {
 
         private final Map<String, String> attributes = new HashMap<>();
+        private Format format = Format.TEXT;
 
         @Override
         public Builder attribute(String attributeName, String attributeValue) {
@@ -152,9 +375,16 @@ public class UnsecureSecurityToken implements SecurityToken {
             return this;
         }
 
+        @Override
+        public Builder format(Format format) {
+            this.format = format;
+            return this;
+        }
+
         @Override
         public SecurityToken create() {
-            return new UnsecureSecurityToken(attributes);
+            return new UnsecureSecurityToken(new HashMap<>(attributes),
+                    format);
         }
 
     }
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import org.geoint.saasy.util.StringParseException;
+
+/**
+ * Single-pass parser of the {@link UnsecureSecurityToken#asString() string
+ * form} of an {@link UnsecureSecurityToken}.
+ * <p>
+ * The token format is:
+ * <pre>
+ * {'attributes':[{'name':'value'},{'name':'value'}]}
+ * </pre>
+ * where names and values are single-quoted, and a quote or backslash within
+ * a name or value is escaped with a backslash. Attribute names must be
+ * unique.
+ * <p>
+ * Input is read once, without backtracking, directly from the character
+ * sequence, and malformed input is reported with the position it was found.
+ * Parsing only records where each name and value is; they are decoded on
+ * demand by the returned {@link AttributeIndex}, which reads the parsed
+ * sequence, so the sequence must not be modified while the index is used.
+ *
+ * @author steve_siebert
+ */
+final class UnsecureTokenParser {
+
+    static final String PREFIX = "{'attributes':[";
+    static final String SUFFIX = "]}";
+
+    private final CharSequence in;
+    private int pos;
+    //name start, name end, value start, value end of each attribute
+    private int[] offsets = new int[32];
+    private int count;
+
+    private UnsecureTokenParser(CharSequence in) {
+        this.in = in;
+    }
+
+    /**
+     * Validate the token and index its attributes.
+     *
+     * @param token token characters
+     * @return token attribute index
+     * @throws StringParseException if the token is malformed
+     */
+    static AttributeIndex parse(CharSequence token)
+            throws StringParseException {
+        return new UnsecureTokenParser(token).parse();
+    }
+
+    private AttributeIndex parse() throws StringParseException {
+        expect(PREFIX);
+        if (peek() != ']') {
+            attribute();
+            while (peek() == ',') {
+                pos++;
+                attribute();
+            }
+        }
+        expect(SUFFIX);
+        if (pos != in.length()) {
+            throw new StringParseException("Unexpected content after token",
+                    pos);
+        }
+        return new TextIndex(in, Arrays.copyOf(offsets, count));
+    }
+
+    private void attribute() throws StringParseException {
+        final int start = pos;
+        if (count + 4 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        expect('{');
+        quoted(count);
+        expect(':');
+        quoted(count + 2);
+        expect('}');
+        //escaping is canonical, so equal names are equal when encoded
+        final int nameStart = offsets[count];
+        final int nameLength = offsets[count + 1] - nameStart;
+        for (int i = 0; i < count; i += 4) {
+            if (offsets[i + 1] - offsets[i] == nameLength
+                    && regionMatches(in, offsets[i], nameStart, nameLength)) {
+                throw new StringParseException(String.format("Duplicate "
+                        + "attribute '%s'", decode(in, nameStart,
+                                nameStart + nameLength)), start);
+            }
+        }
+        count += 4;
+    }
+
+    /**
+     * Record the start and end of the quoted content at the offset slot.
+     */
+    private void quoted(int slot) throws StringParseException {
+        expect('\'');
+        final int start = pos;
+        for (;;) {
+            if (pos >= in.length()) {
+                throw new StringParseException("Unterminated string", start - 1);
+            }
+            final char c = in.charAt(pos);
+            if (c == '\'') {
+                break;
+            }
+            if (c == '\\') {
+                if (pos + 1 >= in.length()) {
+                    throw new StringParseException("Incomplete escape", pos);
+                }
+                final char escaped = in.charAt(pos + 1);
+                if (escaped != '\'' && escaped != '\\') {
+                    throw new StringParseException(String.format(
+                            "Invalid escape '\\%c'", escaped), pos);
+                }
+                pos += 2;
+                continue;
+            }
+            pos++;
+        }
+        offsets[slot] = start;
+        offsets[slot + 1] = pos;
+        pos++; //closing quote
+    }
+
+    private int peek() {
+        return (pos < in.length()) ? in.charAt(pos) : -1;
+    }
+
+    private void expect(char c) throws StringParseException {
+        if (peek() != c) {
+            throw new StringParseException(String.format("Expected '%c'", c),
+                    pos);
+        }
+        pos++;
+    }
+
+    private void expect(String s) throws StringParseException {
+        for (int i = 0; i < s.length(); i++) {
+            if (peek() != s.charAt(i)) {
+                throw new StringParseException(String.format("Expected "
+                        + "'%s'", s), pos);
+            }
+            pos++;
+        }
+    }
+
+    private static boolean regionMatches(CharSequence in, int a, int b,
+            int length) {
+        for (int i = 0; i < length; i++) {
+            if (in.charAt(a + i) != in.charAt(b + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decode the encoded content between start and end, copying it once and
+     * only through a buffer if it contains escapes.
+     */
+    private static String decode(CharSequence in, int start, int end) {
+        int escape = start;
+        while (escape < end && in.charAt(escape) != '\\') {
+            escape++;
+        }
+        if (escape == end) {
+            return in.subSequence(start, end).toString();
+        }
+        final StringBuilder sb = new StringBuilder(end - start);
+        sb.append(in, start, escape);
+        for (int i = escape; i < end; i++) {
+            final char c = in.charAt(i);
+            sb.append((c == '\\') ? in.charAt(++i) : c);
+        }
+        return sb.toString();
+    }
+
+    private static final class TextIndex implements AttributeIndex {
+
+        private final CharSequence token;
+        private final int[] offsets;
+
+        private TextIndex(CharSequence token, int[] offsets) {
+            this.token = token;
+            this.offsets = offsets;
+        }
+
+        @Override
+        public String find(String name) {
+            for (int i = 0; i < offsets.length; i += 4) {
+                if (encodedEquals(offsets[i], offsets[i + 1], name)) {
+                    return decode(token, offsets[i + 2], offsets[i + 3]);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public HashMap<String, String> decodeAll() {
+            //sized so the map is never resized
+            final HashMap<String, String> attributes
+                    = new HashMap<>((int) (offsets.length / 4 / 0.75f) + 1);
+            for (int i = 0; i < offsets.length; i += 4) {
+                attributes.put(decode(token, offsets[i], offsets[i + 1]),
+                        decode(token, offsets[i + 2], offsets[i + 3]));
+            }
+            return attributes;
+        }
+
+        @Override
+        public String encodedString() {
+            return token.toString();
+        }
+
+        @Override
+        public byte[] encodedBytes() {
+            return encodedString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Compare the encoded content with a name, without decoding it.
+         */
+        private boolean encodedEquals(int start, int end, String name) {
+            int n = 0;
+            for (int i = start; i < end; i++, n++) {
+                char c = token.charAt(i);
+                if (c == '\\') {
+                    c = token.charAt(++i);
+                }
+                if (n == name.length() || name.charAt(n) != c) {
+                    return false;
+                }
+            }
+            return n == name.length();
+        }
+    }
+}
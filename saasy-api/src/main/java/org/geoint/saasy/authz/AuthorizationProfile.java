@@ -21,6 +21,12 @@ import org.geoint.saasy.TenantMembership;
 
 /**
  * Subject authorizations associated with a {@link TenantMembership}.
+ * <p>
+ * Profiles are versioned. Each modification of the profile atomically
+ * publishes a new, immutable {@link AuthorizationSnapshot snapshot} with a
+ * higher {@link #getVersion() version}, allowing readers to evaluate a
+ * consistent set of authorizations without locking and allowing consumers of
+ * derived state to detect staleness with a version comparison.
  *
  * @author steve_siebert
  */
@@ -41,6 +47,20 @@ public interface AuthorizationProfile {
      */
     Stream<Authorization> stream();
 
+    /**
+     * Determine if this profile holds the authorization.
+     * <p>
+     * The default implementation searches the authorization stream,
+     * implementations should override this method with a more efficient
+     * lookup.
+     *
+     * @param authz authorization
+     * @return true if the authorization is granted to this profile
+     */
+    default boolean contains(Authorization authz) {
+        return stream().anyMatch(authz::equals);
+    }
+
 //    /**
 //     * Determine if this authorization profile provides the authorizations
 //     * necessary to access the specified resource.
@@ -52,8 +72,26 @@ public interface AuthorizationProfile {
 //     */
 //    boolean isAuthorized(OperationModel resource, Object instance);
 
+    /**
+     * The current version of this profile, which increases each time the
+     * authorizations of the profile are changed.
+     *
+     * @return profile version
+     */
+    long getVersion();
+
+    /**
+     * Return an immutable snapshot of the current profile authorizations.
+     *
+     * @return current snapshot
+     */
+    AuthorizationSnapshot snapshot();
+
     /**
      * Grant the provided authorization for this profile.
+     * <p>
+     * If the authorization was not already granted a new profile version is
+     * published.
      *
      * @param authz authorization
      */
@@ -61,6 +99,8 @@ public interface AuthorizationProfile {
 
     /**
      * Revoke the specified authorization for this profile.
+     * <p>
+     * If the authorization was granted a new profile version is published.
      *
      * @param authz authorization to revoke
      */
@@ -68,7 +108,8 @@ public interface AuthorizationProfile {
 
     /**
      * Revoke all authorizations for this profile.
-     *
+     * <p>
+     * If any authorizations were granted a new profile version is published.
      */
     void revokeAll();
 }
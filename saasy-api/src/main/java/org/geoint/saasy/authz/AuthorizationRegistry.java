@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.authz;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process-wide registry assigning each distinct {@link Authorization} a dense
+ * {@code int} index, allowing authorization profiles to be stored as an
+ * {@link AuthorizationSet} of indices.
+ * <p>
+ * Authorizations are considered distinct by {@link Object#equals(Object)}.
+ * Indices are assigned on first request, starting at zero, and are never
+ * reassigned for the life of the process. Indices are process-local and must
+ * not be persisted or shared with other processes.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author steve_siebert
+ */
+public final class AuthorizationRegistry {
+
+    private static final ConcurrentMap<Authorization, Integer> INDICES
+            = new ConcurrentHashMap<>();
+    private static volatile Authorization[] authorizations
+            = new Authorization[64];
+    private static int next;
+
+    private AuthorizationRegistry() {
+    }
+
+    /**
+     * Return the index of the authorization, registering the authorization if
+     * it has not been seen before.
+     *
+     * @param authz authorization
+     * @return authorization index
+     */
+    public static int indexOf(Authorization authz) {
+        Integer index = INDICES.get(authz);
+        return (index != null) ? index : register(authz);
+    }
+
+    /**
+     * Return the index of the authorization, if registered.
+     *
+     * @param authz authorization
+     * @return authorization index or -1 if the authorization has not been
+     * registered
+     */
+    public static int findIndex(Authorization authz) {
+        Integer index = INDICES.get(authz);
+        return (index != null) ? index : -1;
+    }
+
+    /**
+     * Return the authorization registered at the index.
+     *
+     * @param index authorization index
+     * @return authorization or null if no authorization is registered at the
+     * index
+     */
+    public static Authorization get(int index) {
+        final Authorization[] registered = authorizations;
+        return (index >= 0 && index < registered.length)
+                ? registered[index]
+                : null;
+    }
+
+    /**
+     * Number of authorizations registered.
+     *
+     * @return number of registered authorizations
+     */
+    public static synchronized int size() {
+        return next;
+    }
+
+    private static synchronized int register(Authorization authz) {
+        Integer existing = INDICES.get(authz);
+        if (existing != null) {
+            return existing;
+        }
+        final int index = next++;
+        Authorization[] registered = authorizations;
+        if (index >= registered.length) {
+            registered = Arrays.copyOf(registered, registered.length * 2);
+        }
+        registered[index] = authz;
+        authorizations = registered; //publish before the index is visible
+        INDICES.put(authz, index);
+        return index;
+    }
+}
@@ -48,7 +48,7 @@ public enum AuthorizationResult {
             return AuthorizationResult.DENIED;
         }
         if (this.equals(AuthorizationResult.AUTHORIZED)
-                || this.equals(AuthorizationResult.AUTHORIZED)) {
+                || other.equals(AuthorizationResult.AUTHORIZED)) {
             return AuthorizationResult.AUTHORIZED;
         }
         return AuthorizationResult.ABSTAIN;
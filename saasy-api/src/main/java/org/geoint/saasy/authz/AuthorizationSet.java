@@ -0,0 +1,717 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.authz;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Immutable, compressed set of non-negative {@code int} values, used to store
+ * the {@link AuthorizationRegistry} indices of the authorizations held by a
+ * profile.
+ * <p>
+ * Values are partitioned by their high 16 bits into containers of up to 65536
+ * values. Sparse containers hold a sorted array of the low 16 bits; once a
+ * container holds more than {@value #ARRAY_MAX} values it is converted to a
+ * fixed 8KB bitmap. A profile holding a handful of authorizations is therefore
+ * stored in a few bytes regardless of how many authorizations are registered,
+ * while a dense profile costs one bit per registered authorization.
+ * <p>
+ * Membership checks are a lookup of the (usually single) container followed by
+ * either a bitmap probe or a binary search of at most {@value #ARRAY_MAX}
+ * values. Union, intersection and difference are computed container by
+ * container, operating on whole 64-bit words when both containers are bitmaps.
+ * <p>
+ * Mutating operations return a new set, leaving this set unchanged; unchanged
+ * containers are shared between the sets.
+ *
+ * @author steve_siebert
+ */
+public final class AuthorizationSet {
+
+    private static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_WORDS = 1024;
+    private static final char[] NO_KEYS = new char[0];
+    private static final Container[] NO_CONTAINERS = new Container[0];
+
+    private static final AuthorizationSet EMPTY
+            = new AuthorizationSet(NO_KEYS, NO_CONTAINERS);
+
+    private final char[] keys; //sorted high 16 bits
+    private final Container[] containers;
+
+    private AuthorizationSet(char[] keys, Container[] containers) {
+        this.keys = keys;
+        this.containers = containers;
+    }
+
+    /**
+     * Empty set.
+     *
+     * @return empty set
+     */
+    public static AuthorizationSet empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Create a set containing the provided values.
+     *
+     * @param values non-negative values
+     * @return set
+     * @throws IllegalArgumentException if a value is negative
+     */
+    public static AuthorizationSet of(int... values) {
+        AuthorizationSet set = EMPTY;
+        for (int v : values) {
+            set = set.with(v);
+        }
+        return set;
+    }
+
+    /**
+     * Determine if the set contains the value.
+     *
+     * @param value value
+     * @return true if the value is a member of this set
+     */
+    public boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+        final int i = indexOfKey(keys, keys.length, high(value));
+        return i >= 0 && containers[i].contains(low(value));
+    }
+
+    /**
+     * Return a set containing the members of this set and the value.
+     *
+     * @param value non-negative value
+     * @return set containing the value, which is this set if the value was
+     * already a member
+     * @throws IllegalArgumentException if the value is negative
+     */
+    public AuthorizationSet with(int value) {
+        checkValue(value);
+        final char key = high(value);
+        final int i = indexOfKey(keys, keys.length, key);
+        if (i >= 0) {
+            final Container c = containers[i].with(low(value));
+            if (c == containers[i]) {
+                return this;
+            }
+            final Container[] cs = containers.clone();
+            cs[i] = c;
+            return new AuthorizationSet(keys, cs);
+        }
+        final int insert = -(i + 1);
+        final char[] ks = new char[keys.length + 1];
+        final Container[] cs = new Container[containers.length + 1];
+        System.arraycopy(keys, 0, ks, 0, insert);
+        System.arraycopy(containers, 0, cs, 0, insert);
+        ks[insert] = key;
+        cs[insert] = new ArrayContainer(new char[]{low(value)});
+        System.arraycopy(keys, insert, ks, insert + 1, keys.length - insert);
+        System.arraycopy(containers, insert, cs, insert + 1,
+                containers.length - insert);
+        return new AuthorizationSet(ks, cs);
+    }
+
+    /**
+     * Return a set containing the members of this set except the value.
+     *
+     * @param value value
+     * @return set without the value, which is this set if the value was not a
+     * member
+     */
+    public AuthorizationSet without(int value) {
+        if (value < 0) {
+            return this;
+        }
+        final int i = indexOfKey(keys, keys.length, high(value));
+        if (i < 0) {
+            return this;
+        }
+        final Container c = containers[i].without(low(value));
+        if (c == containers[i]) {
+            return this;
+        }
+        if (c != null) {
+            final Container[] cs = containers.clone();
+            cs[i] = c;
+            return new AuthorizationSet(keys, cs);
+        }
+        if (keys.length == 1) {
+            return EMPTY;
+        }
+        final char[] ks = new char[keys.length - 1];
+        final Container[] cs = new Container[containers.length - 1];
+        System.arraycopy(keys, 0, ks, 0, i);
+        System.arraycopy(containers, 0, cs, 0, i);
+        System.arraycopy(keys, i + 1, ks, i, keys.length - i - 1);
+        System.arraycopy(containers, i + 1, cs, i, containers.length - i - 1);
+        return new AuthorizationSet(ks, cs);
+    }
+
+    /**
+     * Union of this set and the other set.
+     *
+     * @param other other set
+     * @return set containing the members of either set
+     */
+    public AuthorizationSet or(AuthorizationSet other) {
+        if (other.isEmpty() || other == this) {
+            return this;
+        }
+        if (isEmpty()) {
+            return other;
+        }
+        final char[] ks = new char[keys.length + other.keys.length];
+        final Container[] cs = new Container[ks.length];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < keys.length && j < other.keys.length) {
+            if (keys[i] < other.keys[j]) {
+                ks[n] = keys[i];
+                cs[n++] = containers[i++];
+            } else if (keys[i] > other.keys[j]) {
+                ks[n] = other.keys[j];
+                cs[n++] = other.containers[j++];
+            } else {
+                ks[n] = keys[i];
+                cs[n++] = containers[i++].or(other.containers[j++]);
+            }
+        }
+        while (i < keys.length) {
+            ks[n] = keys[i];
+            cs[n++] = containers[i++];
+        }
+        while (j < other.keys.length) {
+            ks[n] = other.keys[j];
+            cs[n++] = other.containers[j++];
+        }
+        return create(ks, cs, n);
+    }
+
+    /**
+     * Intersection of this set and the other set.
+     *
+     * @param other other set
+     * @return set containing the members of both sets
+     */
+    public AuthorizationSet and(AuthorizationSet other) {
+        if (other == this) {
+            return this;
+        }
+        final int max = Math.min(keys.length, other.keys.length);
+        final char[] ks = new char[max];
+        final Container[] cs = new Container[max];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < keys.length && j < other.keys.length) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                final Container c = containers[i].and(other.containers[j]);
+                if (c != null) {
+                    ks[n] = keys[i];
+                    cs[n++] = c;
+                }
+                i++;
+                j++;
+            }
+        }
+        return create(ks, cs, n);
+    }
+
+    /**
+     * Difference of this set and the other set.
+     *
+     * @param other other set
+     * @return set containing the members of this set which are not members of
+     * the other set
+     */
+    public AuthorizationSet andNot(AuthorizationSet other) {
+        if (other == this) {
+            return EMPTY;
+        }
+        if (other.isEmpty() || isEmpty()) {
+            return this;
+        }
+        final char[] ks = new char[keys.length];
+        final Container[] cs = new Container[keys.length];
+        int n = 0;
+        int j = 0;
+        for (int i = 0; i < keys.length; i++) {
+            while (j < other.keys.length && other.keys[j] < keys[i]) {
+                j++;
+            }
+            final Container c = (j < other.keys.length
+                    && other.keys[j] == keys[i])
+                            ? containers[i].andNot(other.containers[j])
+                            : containers[i];
+            if (c != null) {
+                ks[n] = keys[i];
+                cs[n++] = c;
+            }
+        }
+        return create(ks, cs, n);
+    }
+
+    /**
+     * Determine if every member of the other set is a member of this set.
+     *
+     * @param other other set
+     * @return true if this set contains all members of the other set
+     */
+    public boolean containsAll(AuthorizationSet other) {
+        return other.andNot(this).isEmpty();
+    }
+
+    /**
+     * Number of members of this set.
+     *
+     * @return set cardinality
+     */
+    public int cardinality() {
+        int card = 0;
+        for (Container c : containers) {
+            card += c.cardinality();
+        }
+        return card;
+    }
+
+    /**
+     * Determine if this set has no members.
+     *
+     * @return true if the set is empty
+     */
+    public boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    /**
+     * Provide each member of the set, in ascending order, to the consumer.
+     *
+     * @param consumer member consumer
+     */
+    public void forEach(IntConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            containers[i].forEach(keys[i] << 16, consumer);
+        }
+    }
+
+    /**
+     * Members of this set in ascending order.
+     *
+     * @return ordered member stream
+     */
+    public IntStream stream() {
+        final IntStream.Builder b = IntStream.builder();
+        forEach(b);
+        return b.build();
+    }
+
+    /**
+     * Authorizations registered at the indices held by this set.
+     *
+     * @return authorizations
+     */
+    public Stream<Authorization> authorizations() {
+        return stream().mapToObj(AuthorizationRegistry::get);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        hash = 53 * hash + Arrays.hashCode(keys);
+        for (Container c : containers) {
+            hash = 53 * hash + c.hashCode();
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final AuthorizationSet other = (AuthorizationSet) obj;
+        return Arrays.equals(keys, other.keys)
+                && Arrays.equals(containers, other.containers);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("[");
+        forEach((v) -> {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append(v);
+        });
+        return sb.append(']').toString();
+    }
+
+    private static AuthorizationSet create(char[] keys, Container[] containers,
+            int length) {
+        if (length == 0) {
+            return EMPTY;
+        }
+        return new AuthorizationSet(
+                (length == keys.length) ? keys : Arrays.copyOf(keys, length),
+                (length == containers.length)
+                        ? containers
+                        : Arrays.copyOf(containers, length));
+    }
+
+    private static void checkValue(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Authorization set values must not be negative: %d",
+                    value));
+        }
+    }
+
+    private static char high(int value) {
+        return (char) (value >>> 16);
+    }
+
+    private static char low(int value) {
+        return (char) value;
+    }
+
+    private static int indexOfKey(char[] values, int length, char key) {
+        if (length == 1) { //common case, a single container
+            return (values[0] == key) ? 0 : (key < values[0]) ? -1 : -2;
+        }
+        return Arrays.binarySearch(values, 0, length, key);
+    }
+
+    /**
+     * Set of the low 16 bits of the values sharing the same high 16 bits.
+     * <p>
+     * Containers are immutable; operations returning a container with no
+     * members return null.
+     */
+    private static abstract class Container {
+
+        abstract boolean contains(char low);
+
+        abstract Container with(char low);
+
+        abstract Container without(char low);
+
+        abstract int cardinality();
+
+        abstract void forEach(int high, IntConsumer consumer);
+
+        abstract long[] toWords();
+
+        Container or(Container other) {
+            final long[] words = toWords();
+            final long[] o = other.toWords();
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                words[i] |= o[i];
+            }
+            return fromWords(words);
+        }
+
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            final long[] words = toWords();
+            final long[] o = other.toWords();
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                words[i] &= o[i];
+            }
+            return fromWords(words);
+        }
+
+        Container andNot(Container other) {
+            final long[] words = toWords();
+            final long[] o = other.toWords();
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                words[i] &= ~o[i];
+            }
+            return fromWords(words);
+        }
+
+        static Container fromWords(long[] words) {
+            int card = 0;
+            for (long w : words) {
+                card += Long.bitCount(w);
+            }
+            if (card == 0) {
+                return null;
+            }
+            if (card > ARRAY_MAX) {
+                return new BitmapContainer(words, card);
+            }
+            final char[] values = new char[card];
+            int n = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long w = words[i];
+                while (w != 0) {
+                    values[n++] = (char) ((i << 6)
+                            + Long.numberOfTrailingZeros(w));
+                    w &= w - 1;
+                }
+            }
+            return new ArrayContainer(values);
+        }
+    }
+
+    private static final class ArrayContainer extends Container {
+
+        private final char[] values; //sorted
+
+        ArrayContainer(char[] values) {
+            this.values = values;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return indexOfKey(values, values.length, low) >= 0;
+        }
+
+        @Override
+        Container with(char low) {
+            final int i = indexOfKey(values, values.length, low);
+            if (i >= 0) {
+                return this;
+            }
+            if (values.length == ARRAY_MAX) {
+                final long[] words = toWords();
+                words[low >>> 6] |= 1L << low;
+                return new BitmapContainer(words, ARRAY_MAX + 1);
+            }
+            final int insert = -(i + 1);
+            final char[] vs = new char[values.length + 1];
+            System.arraycopy(values, 0, vs, 0, insert);
+            vs[insert] = low;
+            System.arraycopy(values, insert, vs, insert + 1,
+                    values.length - insert);
+            return new ArrayContainer(vs);
+        }
+
+        @Override
+        Container without(char low) {
+            final int i = indexOfKey(values, values.length, low);
+            if (i < 0) {
+                return this;
+            }
+            if (values.length == 1) {
+                return null;
+            }
+            final char[] vs = new char[values.length - 1];
+            System.arraycopy(values, 0, vs, 0, i);
+            System.arraycopy(values, i + 1, vs, i, values.length - i - 1);
+            return new ArrayContainer(vs);
+        }
+
+        @Override
+        Container or(Container other) {
+            if (!(other instanceof ArrayContainer)) {
+                return other.or(this);
+            }
+            final char[] o = ((ArrayContainer) other).values;
+            if (values.length + o.length > ARRAY_MAX) {
+                return super.or(other);
+            }
+            final char[] vs = new char[values.length + o.length];
+            int n = 0;
+            int i = 0;
+            int j = 0;
+            while (i < values.length && j < o.length) {
+                if (values[i] < o[j]) {
+                    vs[n++] = values[i++];
+                } else if (values[i] > o[j]) {
+                    vs[n++] = o[j++];
+                } else {
+                    vs[n++] = values[i++];
+                    j++;
+                }
+            }
+            while (i < values.length) {
+                vs[n++] = values[i++];
+            }
+            while (j < o.length) {
+                vs[n++] = o[j++];
+            }
+            if (n == values.length) {
+                return this;
+            }
+            return new ArrayContainer((n == vs.length)
+                    ? vs
+                    : Arrays.copyOf(vs, n));
+        }
+
+        @Override
+        Container and(Container other) {
+            return filter(other, true);
+        }
+
+        @Override
+        Container andNot(Container other) {
+            return filter(other, false);
+        }
+
+        private Container filter(Container other, boolean retain) {
+            final char[] vs = new char[values.length];
+            int n = 0;
+            for (char v : values) {
+                if (other.contains(v) == retain) {
+                    vs[n++] = v;
+                }
+            }
+            if (n == 0) {
+                return null;
+            }
+            if (n == values.length) {
+                return this;
+            }
+            return new ArrayContainer(Arrays.copyOf(vs, n));
+        }
+
+        @Override
+        int cardinality() {
+            return values.length;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer consumer) {
+            for (char v : values) {
+                consumer.accept(high | v);
+            }
+        }
+
+        @Override
+        long[] toWords() {
+            final long[] words = new long[BITMAP_WORDS];
+            for (char v : values) {
+                words[v >>> 6] |= 1L << v;
+            }
+            return words;
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj instanceof ArrayContainer) {
+                return Arrays.equals(values, ((ArrayContainer) obj).values);
+            }
+            //containers are normalized, an array never equals a bitmap
+            return false;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+
+        private final long[] words;
+        private final int cardinality;
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        Container with(char low) {
+            if (contains(low)) {
+                return this;
+            }
+            final long[] ws = words.clone();
+            ws[low >>> 6] |= 1L << low;
+            return new BitmapContainer(ws, cardinality + 1);
+        }
+
+        @Override
+        Container without(char low) {
+            if (!contains(low)) {
+                return this;
+            }
+            final long[] ws = words.clone();
+            ws[low >>> 6] &= ~(1L << low);
+            return (cardinality - 1 > ARRAY_MAX)
+                    ? new BitmapContainer(ws, cardinality - 1)
+                    : fromWords(ws);
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer consumer) {
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long w = words[i];
+                while (w != 0) {
+                    consumer.accept(high | (i << 6)
+                            + Long.numberOfTrailingZeros(w));
+                    w &= w - 1;
+                }
+            }
+        }
+
+        @Override
+        long[] toWords() {
+            return words.clone();
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(words);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj instanceof BitmapContainer) {
+                return Arrays.equals(words, ((BitmapContainer) obj).words);
+            }
+            return false;
+        }
+    }
+}
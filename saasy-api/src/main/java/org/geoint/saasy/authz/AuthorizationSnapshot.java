@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.authz;
+
+import java.util.Objects;
+import java.util.stream.Stream;
+import org.geoint.saasy.SecuritySubject;
+
+/**
+ * Immutable, versioned view of the authorizations of an
+ * {@link AuthorizationProfile} at a point in time.
+ * <p>
+ * A snapshot never changes after it is taken; modifications to the profile
+ * publish a new snapshot with a higher version. A consumer which derived
+ * state from a snapshot (for example, a cached authorization decision) may
+ * determine if that state is stale by comparing the snapshot version to the
+ * current {@link AuthorizationProfile#getVersion() profile version}.
+ *
+ * @author steve_siebert
+ */
+public final class AuthorizationSnapshot {
+
+    private final SecuritySubject subject;
+    private final long version;
+    private final AuthorizationSet authorizations;
+
+    public AuthorizationSnapshot(SecuritySubject subject, long version,
+            AuthorizationSet authorizations) {
+        this.subject = subject;
+        this.version = version;
+        this.authorizations = Objects.requireNonNull(authorizations,
+                "Authorization set is required.");
+    }
+
+    /**
+     * Create a snapshot of the authorizations currently provided by the
+     * profile stream.
+     *
+     * @param profile authorization profile
+     * @param version snapshot version
+     * @return snapshot
+     */
+    public static AuthorizationSnapshot of(AuthorizationProfile profile,
+            long version) {
+        return new AuthorizationSnapshot(profile.getSubject(), version,
+                AuthorizationSet.of(profile.stream()
+                        .mapToInt(AuthorizationRegistry::indexOf)
+                        .toArray()));
+    }
+
+    /**
+     * The subject of the profile.
+     *
+     * @return associated subject
+     */
+    public SecuritySubject getSubject() {
+        return subject;
+    }
+
+    /**
+     * The profile version this snapshot represents.
+     *
+     * @return profile version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * The authorizations granted at this version.
+     *
+     * @return authorization set
+     */
+    public AuthorizationSet getAuthorizationSet() {
+        return authorizations;
+    }
+
+    /**
+     * Determine if the authorization was granted at this version.
+     *
+     * @param authz authorization
+     * @return true if the authorization was granted
+     */
+    public boolean contains(Authorization authz) {
+        return authorizations.contains(AuthorizationRegistry.findIndex(authz));
+    }
+
+    /**
+     * Authorizations granted at this version.
+     *
+     * @return authorization stream
+     */
+    public Stream<Authorization> stream() {
+        return authorizations.authorizations();
+    }
+
+    /**
+     * Return a snapshot with the provided authorizations at the next version,
+     * or this snapshot if the authorizations are unchanged.
+     *
+     * @param authzs authorizations
+     * @return snapshot
+     */
+    public AuthorizationSnapshot next(AuthorizationSet authzs) {
+        return (authzs.equals(authorizations))
+                ? this
+                : new AuthorizationSnapshot(subject, version + 1, authzs);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s authorizations %s (version %d)", subject,
+                authorizations, version);
+    }
+}
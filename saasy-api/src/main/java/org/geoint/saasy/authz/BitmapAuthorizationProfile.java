@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.authz;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import org.geoint.saasy.SecuritySubject;
+
+/**
+ * {@link AuthorizationProfile} storing the profile authorizations as a
+ * compressed {@link AuthorizationSet} of {@link AuthorizationRegistry}
+ * indices.
+ * <p>
+ * Authorization checks are a lookup of the authorization index followed by a
+ * set membership check, and profiles may be merged or compared with the
+ * bitwise set operations of their {@link #getAuthorizationSet() authorization
+ * sets}.
+ * <p>
+ * The profile holds a reference to its current immutable
+ * {@link AuthorizationSnapshot snapshot}. Reads are lock-free and see a
+ * consistent snapshot; modifications build the next snapshot and publish it
+ * with a compare-and-set, retrying if a concurrent modification published
+ * first. A modification which does not change the authorizations does not
+ * publish a new version.
+ *
+ * @author steve_siebert
+ */
+public class BitmapAuthorizationProfile implements AuthorizationProfile {
+
+    private final AtomicReference<AuthorizationSnapshot> current;
+
+    public BitmapAuthorizationProfile(SecuritySubject subject) {
+        this(subject, AuthorizationSet.empty());
+    }
+
+    public BitmapAuthorizationProfile(SecuritySubject subject,
+            AuthorizationSet authorizations) {
+        this.current = new AtomicReference<>(new AuthorizationSnapshot(subject,
+                0, Objects.requireNonNull(authorizations,
+                        "Authorization set is required.")));
+    }
+
+    @Override
+    public SecuritySubject getSubject() {
+        return current.get().getSubject();
+    }
+
+    @Override
+    public Stream<Authorization> stream() {
+        return current.get().stream();
+    }
+
+    @Override
+    public boolean contains(Authorization authz) {
+        return current.get().contains(authz);
+    }
+
+    /**
+     * Determine if this profile holds every authorization of the provided
+     * set.
+     *
+     * @param required required authorizations
+     * @return true if all the authorizations are granted to this profile
+     */
+    public boolean containsAll(AuthorizationSet required) {
+        return current.get().getAuthorizationSet().containsAll(required);
+    }
+
+    /**
+     * The authorizations currently granted to this profile.
+     *
+     * @return immutable authorization set
+     */
+    public AuthorizationSet getAuthorizationSet() {
+        return current.get().getAuthorizationSet();
+    }
+
+    @Override
+    public long getVersion() {
+        return current.get().getVersion();
+    }
+
+    @Override
+    public AuthorizationSnapshot snapshot() {
+        return current.get();
+    }
+
+    @Override
+    public void grant(Authorization authz) {
+        final int index = AuthorizationRegistry.indexOf(authz);
+        update((s) -> s.with(index));
+    }
+
+    /**
+     * Grant all the authorizations of the provided set to this profile.
+     *
+     * @param authzs authorizations
+     */
+    public void grantAll(AuthorizationSet authzs) {
+        update((s) -> s.or(authzs));
+    }
+
+    @Override
+    public void revoke(Authorization authz) {
+        final int index = AuthorizationRegistry.findIndex(authz);
+        update((s) -> s.without(index));
+    }
+
+    /**
+     * Revoke all the authorizations of the provided set from this profile.
+     *
+     * @param authzs authorizations to revoke
+     */
+    public void revokeAll(AuthorizationSet authzs) {
+        update((s) -> s.andNot(authzs));
+    }
+
+    @Override
+    public void revokeAll() {
+        update((s) -> AuthorizationSet.empty());
+    }
+
+    @Override
+    public String toString() {
+        return current.get().toString();
+    }
+
+    private void update(UnaryOperator<AuthorizationSet> change) {
+        current.updateAndGet((s) -> s.next(
+                change.apply(s.getAuthorizationSet())));
+    }
+}
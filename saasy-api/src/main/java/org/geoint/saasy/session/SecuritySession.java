@@ -39,6 +39,7 @@ import org.geoint.saasy.session.event.NoSessionProfile;
 import org.geoint.saasy.session.event.SecuritySessionBound;
 import org.geoint.saasy.session.event.SecuritySessionClosed;
 import org.geoint.saasy.session.event.SecuritySessionPropertyChanged;
+import org.geoint.saasy.session.event.SecuritySessionSubscriberHeartbeat;
 import org.geoint.saasy.session.event.SecuritySessionUnbound;
 import org.geoint.saasy.session.event.SessionProfileChanged;
 
@@ -49,6 +50,12 @@ import org.geoint.saasy.session.event.SessionProfileChanged;
  */
 public interface SecuritySession {
 
+    /**
+     * {@link #getVersion() Version} of a session which does not track its
+     * mutations; state derived from such a session must not be cached.
+     */
+    long UNVERSIONED = -1;
+
     /**
      * Unique session identifier which is generated by the server on session
      * creation.
@@ -171,6 +178,24 @@ public interface SecuritySession {
      */
     ZonedDateTime getCloseTime();
 
+    /**
+     * Mutation version of the session, increased each time the session
+     * properties, profile, authentications, or assurance level change.
+     * <p>
+     * The version is monotonically increasing for the life of the session, so
+     * state derived from the session (for example its
+     * {@link #tokenize(SecurityToken.Builder) token}) may be cached against
+     * the version.
+     * <p>
+     * By default a session is {@link #UNVERSIONED}, which caches treat as
+     * always changed.
+     *
+     * @return session mutation version, or {@link #UNVERSIONED}
+     */
+    default long getVersion() {
+        return UNVERSIONED;
+    }
+
     /**
      * An immutable map of session properties, which may be set from a
      * {@link SubscribedSession subscriber}.
@@ -225,6 +250,16 @@ public interface SecuritySession {
 
     /**
      * Appends session content to the security token.
+     * <p>
+     * The content appended must only change when the
+     * {@link #getVersion() session version} changes, unless the session is
+     * {@link #UNVERSIONED}.
+     * <p>
+     * This method always appends the current session content. An
+     * implementation which hands out its token repeatedly should hold a
+     * token cache (such as the session store's {@code SessionTokenCache})
+     * and serve the token from it, the cache calling this method only when
+     * the version changed; this method must not itself consult the cache.
      *
      * @param tokenBuilder token builder
      */
@@ -254,6 +289,17 @@ public interface SecuritySession {
             //default do nothing
         }
 
+        /**
+         * Subscriber heartbeats were received, possibly coalesced into a
+         * single event.
+         *
+         * @param heartbeat heartbeat event
+         */
+        default void subscriberHeartbeat(
+                SecuritySessionSubscriberHeartbeat heartbeat) {
+            //default do nothing
+        }
+
         default void propertyChange(SecuritySessionPropertyChanged change) {
             //default do nothing
         }
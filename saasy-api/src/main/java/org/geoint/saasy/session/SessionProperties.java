@@ -0,0 +1,332 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.session;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Immutable, compact map of session properties, suitable as the value of
+ * {@link SecuritySession#getProperties()}.
+ * <p>
+ * Sessions normally have a handful of properties drawn from a small,
+ * repeated set of names. Property names are interned in a process-wide key
+ * table, so each distinct name is held once and lookups normally match by
+ * reference. Names and values are held in a single flat, open-addressed
+ * array with no entry objects; values are held as {@link Optional} so
+ * {@link #findProperty(String)} does not allocate.
+ * <p>
+ * Changes are made by copy, with {@link #with(String, String)} and
+ * {@link #without(String)}, so a session may publish a new instance on each
+ * change while readers continue to use the instance they hold.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author steve_siebert
+ */
+public final class SessionProperties extends AbstractMap<String, String> {
+
+    /**
+     * Maximum number of distinct property names interned; names beyond this
+     * are used as provided.
+     */
+    static final int MAX_INTERNED = 4096;
+    private static final ConcurrentMap<String, String> KEYS
+            = new ConcurrentHashMap<>();
+    private static final SessionProperties EMPTY
+            = new SessionProperties(new Object[4], 0);
+
+    //key at even index, Optional value at the following odd index
+    private final Object[] table;
+    private final int size;
+    private Set<Map.Entry<String, String>> entries;
+
+    private SessionProperties(Object[] table, int size) {
+        this.table = table;
+        this.size = size;
+    }
+
+    /**
+     * Empty session properties.
+     *
+     * @return empty properties
+     */
+    public static SessionProperties empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Session properties containing each of the provided properties.
+     *
+     * @param properties properties
+     * @return session properties
+     */
+    public static SessionProperties of(Map<String, String> properties) {
+        if (properties instanceof SessionProperties) {
+            return (SessionProperties) properties;
+        }
+        if (properties.isEmpty()) {
+            return EMPTY;
+        }
+        Object[] table = new Object[tableLength(properties.size())];
+        for (Map.Entry<String, String> e : properties.entrySet()) {
+            insert(table, intern(e.getKey()),
+                    Optional.of(e.getValue()));
+        }
+        return new SessionProperties(table, properties.size());
+    }
+
+    /**
+     * Returns the value of the property, without allocating.
+     *
+     * @param name property name
+     * @return property value, if set
+     */
+    @SuppressWarnings("unchecked")
+    public Optional<String> findProperty(String name) {
+        final int i = indexOf(name);
+        return (i < 0) ? Optional.empty() : (Optional<String>) table[i + 1];
+    }
+
+    /**
+     * Returns the property value if set, otherwise the value of the supplier,
+     * which is only called if the property is not set.
+     *
+     * @param name property name
+     * @param defaultValue default value generator
+     * @return property value or default value
+     */
+    public String getProperty(String name, Supplier<String> defaultValue) {
+        final String v = get(name);
+        return (v != null) ? v : defaultValue.get();
+    }
+
+    /**
+     * Properties with the property set to the value.
+     *
+     * @param name property name
+     * @param value property value
+     * @return properties with the property set, or this instance if the
+     * property already had the value
+     */
+    public SessionProperties with(String name, String value) {
+        Objects.requireNonNull(name, "Property name is required.");
+        Objects.requireNonNull(value, "Property value is required.");
+        final int i = indexOf(name);
+        if (i >= 0) {
+            if (value.equals(get(name))) {
+                return this;
+            }
+            Object[] copy = table.clone();
+            copy[i + 1] = Optional.of(value);
+            return new SessionProperties(copy, size);
+        }
+        Object[] copy = (tableLength(size + 1) == table.length)
+                ? table.clone()
+                : rehash(table, tableLength(size + 1));
+        insert(copy, intern(name), Optional.of(value));
+        return new SessionProperties(copy, size + 1);
+    }
+
+    /**
+     * Properties without the named property.
+     *
+     * @param name property name
+     * @return properties without the property, or this instance if the
+     * property was not set
+     */
+    public SessionProperties without(String name) {
+        if (indexOf(name) < 0) {
+            return this;
+        }
+        if (size == 1) {
+            return EMPTY;
+        }
+        Object[] copy = new Object[tableLength(size - 1)];
+        for (int i = 0; i < table.length; i += 2) {
+            if (table[i] != null && !table[i].equals(name)) {
+                insert(copy, table[i], table[i + 1]);
+            }
+        }
+        return new SessionProperties(copy, size - 1);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public String get(Object key) {
+        final int i = indexOf(key);
+        return (i < 0) ? null : ((Optional<String>) table[i + 1]).get();
+    }
+
+    @Override
+    public String getOrDefault(Object key, String defaultValue) {
+        final String v = get(key);
+        return (v != null) ? v : defaultValue;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super String, ? super String> action) {
+        for (int i = 0; i < table.length; i += 2) {
+            if (table[i] != null) {
+                action.accept((String) table[i],
+                        ((Optional<String>) table[i + 1]).get());
+            }
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        if (entries == null) {
+            entries = new EntrySet();
+        }
+        return entries;
+    }
+
+    private int indexOf(Object key) {
+        if (key == null) {
+            return -1;
+        }
+        final int mask = table.length - 1;
+        int i = slot(key.hashCode(), mask);
+        Object k;
+        while ((k = table[i]) != null) {
+            if (k == key || k.equals(key)) {
+                return i;
+            }
+            i = (i + 2) & mask;
+        }
+        return -1;
+    }
+
+    private static void insert(Object[] table, Object key, Object value) {
+        final int mask = table.length - 1;
+        int i = slot(key.hashCode(), mask);
+        while (table[i] != null) {
+            i = (i + 2) & mask;
+        }
+        table[i] = key;
+        table[i + 1] = value;
+    }
+
+    private static Object[] rehash(Object[] table, int length) {
+        Object[] copy = new Object[length];
+        for (int i = 0; i < table.length; i += 2) {
+            if (table[i] != null) {
+                insert(copy, table[i], table[i + 1]);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Even table index of the first probe for the hash.
+     */
+    private static int slot(int hash, int mask) {
+        final int h = hash * 0x9E3779B9;
+        return ((h ^ (h >>> 16)) << 1) & mask;
+    }
+
+    /**
+     * Table length for the number of properties, keeping the load factor at
+     * or below one half.
+     */
+    private static int tableLength(int size) {
+        final int slots = Math.max(2, Integer.highestOneBit(
+                Math.max(1, size * 2 - 1)) << 1);
+        return slots * 2;
+    }
+
+    private static String intern(String name) {
+        Objects.requireNonNull(name, "Property name is required.");
+        String interned = KEYS.get(name);
+        if (interned == null) {
+            if (KEYS.size() >= MAX_INTERNED) {
+                return name;
+            }
+            interned = KEYS.putIfAbsent(name, name);
+            if (interned == null) {
+                interned = name;
+            }
+        }
+        return interned;
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String, String>> {
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, String>> iterator() {
+            return new Iterator<Map.Entry<String, String>>() {
+
+                private int next = advance(0);
+
+                @Override
+                public boolean hasNext() {
+                    return next < table.length;
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public Map.Entry<String, String> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    final int i = next;
+                    next = advance(i + 2);
+                    return new SimpleImmutableEntry<>((String) table[i],
+                            ((Optional<String>) table[i + 1]).get());
+                }
+
+                private int advance(int from) {
+                    while (from < table.length && table[from] == null) {
+                        from += 2;
+                    }
+                    return from;
+                }
+            };
+        }
+    }
+}
@@ -42,6 +42,11 @@ public interface SubscribedSession extends SecuritySession {
     /**
      * Manually send a subscription heatbeat, preventing the subscription 
      * from timing out.
+     * <p>
+     * Heartbeats are expected to be frequent and may be coalesced by the
+     * implementation; session activity and
+     * {@link SecuritySession.Listener#subscriberHeartbeat listeners} may be
+     * updated in batches rather than on each call.
      */
     void heartbeat();
     
@@ -15,11 +15,16 @@
  */
 package org.geoint.saasy.session.event;
 
+import java.time.ZonedDateTime;
 import java.util.Objects;
 
 /**
  * An event indicating that a session subscription continues to be associated
  * with a session.
+ * <p>
+ * Heartbeats may be coalesced, in which case a single event represents
+ * {@link #getCount() count} heartbeats, the latest received at the
+ * {@link #getLastHeartbeatTime() last heartbeat time}.
  *
  * @author steve_siebert
  */
@@ -27,11 +32,20 @@ public final class SecuritySessionSubscriberHeartbeat {
 
     private final String subscriberGuid;
     private final String sessionGuid;
+    private final int count;
+    private final ZonedDateTime lastHeartbeatTime;
 
     public SecuritySessionSubscriberHeartbeat(String subscriberGuid,
             String sessionGuid) {
+        this(subscriberGuid, sessionGuid, 1, ZonedDateTime.now());
+    }
+
+    public SecuritySessionSubscriberHeartbeat(String subscriberGuid,
+            String sessionGuid, int count, ZonedDateTime lastHeartbeatTime) {
         this.subscriberGuid = subscriberGuid;
         this.sessionGuid = sessionGuid;
+        this.count = count;
+        this.lastHeartbeatTime = lastHeartbeatTime;
     }
 
     public String getSubscriberGuid() {
@@ -42,10 +56,28 @@ public final class SecuritySessionSubscriberHeartbeat {
         return sessionGuid;
     }
 
+    /**
+     * Number of heartbeats represented by this event.
+     *
+     * @return heartbeat count
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Time of the latest heartbeat represented by this event.
+     *
+     * @return last heartbeat time
+     */
+    public ZonedDateTime getLastHeartbeatTime() {
+        return lastHeartbeatTime;
+    }
+
     @Override
     public String toString() {
-        return String.format("Subscriber '%s' sent heartbeat to session '%s'",
-                subscriberGuid, sessionGuid);
+        return String.format("Subscriber '%s' sent %d heartbeat(s) to session "
+                + "'%s'", subscriberGuid, count, sessionGuid);
     }
 
     @Override
@@ -53,6 +85,8 @@ public final class SecuritySessionSubscriberHeartbeat {
         int hash = 5;
         hash = 37 * hash + Objects.hashCode(this.subscriberGuid);
         hash = 37 * hash + Objects.hashCode(this.sessionGuid);
+        hash = 37 * hash + this.count;
+        hash = 37 * hash + Objects.hashCode(this.lastHeartbeatTime);
         return hash;
     }
 
@@ -71,9 +105,15 @@ public final class SecuritySessionSubscriberHeartbeat {
         if (!Objects.equals(this.subscriberGuid, other.subscriberGuid)) {
             return false;
         }
+        if (this.count != other.count) {
+            return false;
+        }
         if (!Objects.equals(this.sessionGuid, other.sessionGuid)) {
             return false;
         }
+        if (!Objects.equals(this.lastHeartbeatTime, other.lastHeartbeatTime)) {
+            return false;
+        }
         return true;
     }
 
@@ -22,19 +22,44 @@ package org.geoint.saasy.util;
  */
 public class StringParseException extends Exception {
 
+    private final int position;
+
     public StringParseException() {
+        this.position = -1;
+    }
+
+    /**
+     * Parse failure at a position of the parsed data.
+     *
+     * @param message failure description
+     * @param position zero-based position of the failure
+     */
+    public StringParseException(String message, int position) {
+        super(String.format("%s (at position %d)", message, position));
+        this.position = position;
     }
 
     public StringParseException(String message) {
         super(message);
+        this.position = -1;
     }
 
     public StringParseException(String message, Throwable cause) {
         super(message, cause);
+        this.position = -1;
     }
 
     public StringParseException(Throwable cause) {
         super(cause);
+        this.position = -1;
     }
 
+    /**
+     * Zero-based position of the parsed data at which parsing failed.
+     *
+     * @return failure position, or -1 if not known
+     */
+    public int getPosition() {
+        return position;
+    }
 }
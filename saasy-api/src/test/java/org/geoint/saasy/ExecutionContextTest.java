@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.geoint.saasy.session.SecuritySession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author steve_siebert
+ */
+public class ExecutionContextTest {
+
+    private ExecutorService pool;
+
+    @Before
+    public void setup() {
+        pool = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+        ExecutionContext.setSession(null);
+    }
+
+    @Test
+    public void testRunRestores() {
+        SecuritySession outer = session("outer");
+        SecuritySession inner = session("inner");
+        ExecutionContext.setSession(outer);
+        ExecutionContext.of(inner).run(() -> {
+            assertSame(inner, ExecutionContext.currentSession());
+        });
+        assertSame(outer, ExecutionContext.currentSession());
+
+        ExecutionContext.setSession(null);
+        assertNull(ExecutionContext.currentSession());
+        assertFalse(ExecutionContext.capture().getSession().isPresent());
+    }
+
+    @Test
+    public void testExecutor() throws Exception {
+        SecuritySession session = session("executor");
+        Executor executor = ExecutionContext.executor(pool);
+        AtomicReference<SecuritySession> seen = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        ExecutionContext.of(session).run(() -> executor.execute(() -> {
+            seen.set(ExecutionContext.currentSession());
+            done.countDown();
+        }));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertSame(session, seen.get());
+    }
+
+    /**
+     * Test the pool thread does not retain the context after the task.
+     */
+    @Test
+    public void testExecutorService() throws Exception {
+        SecuritySession session = session("service");
+        ExecutorService service = ExecutionContext.executorService(
+                Executors.newSingleThreadExecutor());
+        try {
+            Future<SecuritySession> f = ExecutionContext.of(session).call(
+                    () -> service.submit(ExecutionContext::currentSession));
+            assertSame(session, f.get());
+            assertNull(service.submit(ExecutionContext::currentSession).get());
+
+            List<Callable<SecuritySession>> tasks = Arrays.asList(
+                    ExecutionContext::currentSession,
+                    ExecutionContext::currentSession);
+            for (Future<SecuritySession> r : ExecutionContext.of(session)
+                    .call(() -> service.invokeAll(tasks))) {
+                assertSame(session, r.get());
+            }
+        } finally {
+            service.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCompletionStage() throws Exception {
+        SecuritySession session = session("stage");
+        CompletableFuture<String> source = new CompletableFuture<>();
+        CompletionStage<String> stage
+                = ExecutionContext.completionStage(source);
+
+        CompletionStage<SecuritySession> applied = ExecutionContext
+                .of(session).call(() -> stage
+                .thenApplyAsync((s) -> s, pool)
+                .thenApply((s) -> ExecutionContext.currentSession()));
+        //completed on a thread without a context
+        pool.execute(() -> source.complete("done"));
+        assertSame(session, applied.toCompletableFuture()
+                .get(5, TimeUnit.SECONDS));
+    }
+
+    private static SecuritySession session(String guid) {
+        return (SecuritySession) Proxy.newProxyInstance(
+                SecuritySession.class.getClassLoader(),
+                new Class<?>[]{SecuritySession.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getSessionGuid":
+                        case "toString":
+                            return guid;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            throw new UnsupportedOperationException();
+                    }
+                });
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author steve_siebert
+ */
+public class SecurityTokenCodecTest {
+
+    private static final Map<String, String> ATTRIBUTES;
+
+    static {
+        ATTRIBUTES = new HashMap<>();
+        ATTRIBUTES.put("att1", "val1");
+        ATTRIBUTES.put("caf\u00e9", "\u65e5\u672c");
+        ATTRIBUTES.put("emoji", "\ud83d\ude00");
+        ATTRIBUTES.put("empty", "");
+        ATTRIBUTES.put("long", new String(new char[300]).replace('\0', 'x'));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        assertRoundTrip(ByteBuffer.allocate(1024));
+    }
+
+    @Test
+    public void testRoundTripDirect() throws Exception {
+        assertRoundTrip(ByteBuffer.allocateDirect(1024));
+    }
+
+    private static void assertRoundTrip(ByteBuffer buffer) throws Exception {
+        final SecurityToken token = new UnsecureSecurityToken(ATTRIBUTES);
+        buffer.position(3);
+        SecurityTokenCodec.encode(token, buffer);
+        assertEquals(3 + SecurityTokenCodec.encodedLength(token),
+                buffer.position());
+        final int end = buffer.position();
+        buffer.flip().position(3);
+        assertEquals(ATTRIBUTES, SecurityTokenCodec.decode(buffer));
+        assertEquals(end, buffer.position());
+    }
+
+    @Test
+    public void testUnpairedSurrogate() throws Exception {
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("bad", "a\ud83db");
+        final SecurityToken token = new UnsecureSecurityToken(attributes);
+        ByteBuffer buffer
+                = ByteBuffer.allocate(SecurityTokenCodec.encodedLength(token));
+        SecurityTokenCodec.encode(token, buffer);
+        buffer.flip();
+        assertEquals("a\ufffdb", SecurityTokenCodec.decode(buffer).get("bad"));
+    }
+
+    @Test
+    public void testCanonical() {
+        Map<String, String> reversed = new HashMap<>();
+        reversed.put("b", "2");
+        reversed.put("a", "1");
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        SecurityTokenCodec.encode(new UnsecureSecurityToken(reversed), buffer);
+        assertArrayEquals(new byte[]{SecurityTokenCodec.VERSION, 2,
+            1, 'a', 1, '1', 1, 'b', 1, '2'},
+                Arrays.copyOf(buffer.array(), buffer.position()));
+    }
+
+    @Test
+    public void testOverflow() {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        try {
+            SecurityTokenCodec.encode(new UnsecureSecurityToken(ATTRIBUTES),
+                    buffer);
+            fail("token written past buffer limit");
+        } catch (BufferOverflowException ex) {
+            assertEquals(0, buffer.position());
+        }
+    }
+
+    @Test
+    public void testMalformed() {
+        assertMalformed(new byte[]{});
+        assertMalformed(new byte[]{2, 0});
+        assertMalformed(new byte[]{SecurityTokenCodec.VERSION, 1, 1, 'a'});
+        assertMalformed(new byte[]{SecurityTokenCodec.VERSION, 1, 5, 'a', 0});
+        assertMalformed(new byte[]{SecurityTokenCodec.VERSION, 1,
+            1, (byte) 0xC3, 1, 'a'});
+        assertMalformed(new byte[]{SecurityTokenCodec.VERSION, 1,
+            (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F});
+        assertMalformed(new byte[]{SecurityTokenCodec.VERSION, 2,
+            1, 'a', 1, '1', 1, 'a', 1, '2'});
+        assertMalformed(new byte[]{SecurityTokenCodec.VERSION, 100, 0, 0});
+    }
+
+    private static void assertMalformed(byte[] token) {
+        ByteBuffer buffer = ByteBuffer.wrap(token);
+        try {
+            SecurityTokenCodec.decode(buffer);
+            fail("decoded malformed token");
+        } catch (UnsupportedSecurityTokenException ex) {
+            assertEquals(0, buffer.position());
+        }
+    }
+}
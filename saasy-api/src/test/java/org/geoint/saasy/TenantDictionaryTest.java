@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy;
+
+import java.util.UUID;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author steve_siebert
+ */
+public class TenantDictionaryTest {
+
+    @Test
+    public void testSameGuidSameId() {
+        final String guid = UUID.randomUUID().toString();
+        final int id = TenantDictionary.idOf(guid);
+        assertTrue(id >= 0);
+        assertEquals(id, TenantDictionary.idOf(new String(guid)));
+        assertEquals(guid, TenantDictionary.guidOf(id));
+    }
+
+    @Test
+    public void testDistinctGuidsDistinctIds() {
+        assertNotEquals(TenantDictionary.idOf(UUID.randomUUID().toString()),
+                TenantDictionary.idOf(UUID.randomUUID().toString()));
+    }
+
+    @Test
+    public void testUuidMatchesString() {
+        final UUID guid = UUID.randomUUID();
+        assertEquals(TenantDictionary.idOf(guid.toString()),
+                TenantDictionary.idOf(guid));
+    }
+
+    @Test
+    public void testNoTenant() {
+        assertEquals(TenantDictionary.NO_TENANT,
+                TenantDictionary.idOf((String) null));
+        assertNull(TenantDictionary.guidOf(TenantDictionary.NO_TENANT));
+    }
+
+    @Test
+    public void testGrowth() {
+        final int start = TenantDictionary.size();
+        for (int i = 0; i < 200; i++) {
+            final String guid = UUID.randomUUID().toString();
+            assertEquals(guid, TenantDictionary.guidOf(TenantDictionary.idOf(guid)));
+        }
+        assertEquals(start + 200, TenantDictionary.size());
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author steve_siebert
+ */
+public class TokenSignerTest {
+
+    private static final byte[] SECRET_1
+            = "first-secret-key-material-0123456789".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SECRET_2
+            = "second-secret-key-material-0123456789".getBytes(StandardCharsets.UTF_8);
+
+    private static TokenSigner signer() {
+        return TokenSigner.builder().key("k1", SECRET_1).build();
+    }
+
+    private static SecurityToken token(TokenSigner signer,
+            SecurityToken.Format format) {
+        return signer.tokenBuilder()
+                .attribute("session", "abc")
+                .attribute("subject", "steve")
+                .format(format)
+                .create();
+    }
+
+    @Test
+    public void testCreatedTokenVerifies() {
+        SecurityToken token = token(signer(), SecurityToken.Format.TEXT);
+        assertTrue(token.verifyIntegrity());
+        assertTrue(token.verifyOriginator());
+        assertEquals("k1", ((SignedSecurityToken) token).getKeyId());
+    }
+
+    @Test
+    public void testStringRoundTrip() throws Exception {
+        TokenSigner signer = signer();
+        SecurityToken token = token(signer, SecurityToken.Format.TEXT);
+        SignedSecurityToken read = signer.valueOf(token.asString());
+        assertEquals(token.getAttributes(), read.getAttributes());
+        assertEquals(token.asString(), read.asString());
+        assertTrue(read.verifyIntegrity());
+        assertTrue(read.verifyIntegrity());
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws Exception {
+        TokenSigner signer = signer();
+        SecurityToken token = token(signer, SecurityToken.Format.BINARY);
+        ByteBuffer buffer = ByteBuffer.allocate(128);
+        token.writeTo(buffer);
+        buffer.put((byte) 42);
+        buffer.flip();
+        SignedSecurityToken read = signer.valueOf(buffer);
+        assertEquals(token.getAttributes(), read.getAttributes());
+        assertEquals(SecurityToken.Format.BINARY, read.getFormat());
+        assertTrue(read.verifyIntegrity());
+        assertEquals(42, buffer.get());
+    }
+
+    @Test
+    public void testOtherSignerDoesNotVerify() throws Exception {
+        SecurityToken token = token(signer(), SecurityToken.Format.TEXT);
+        TokenSigner other = TokenSigner.builder().key("k1", SECRET_2).build();
+        assertFalse(other.valueOf(token.asString()).verifyIntegrity());
+    }
+
+    @Test
+    public void testTamperedPayloadDoesNotVerify() throws Exception {
+        TokenSigner signer = signer();
+        SecurityToken token = token(signer, SecurityToken.Format.TEXT);
+        assertTrue(signer.valueOf(token.asString()).verifyIntegrity());
+
+        Map<String, String> tampered = new HashMap<>(token.getAttributes());
+        tampered.put("subject", "admin");
+        ByteBuffer payload = ByteBuffer.allocate(64);
+        SecurityTokenCodec.encode(new UnsecureSecurityToken(tampered), payload);
+        final String original = token.asString();
+        final String forged = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(Arrays.copyOf(payload.array(),
+                        payload.position()))
+                + original.substring(original.indexOf('.'));
+        SignedSecurityToken read = signer.valueOf(forged);
+        assertEquals("admin", read.findAttribute("subject").get());
+        assertTrue(read.getExpires().isAfter(Instant.now()));
+        assertFalse(read.verifyIntegrity());
+        assertFalse(read.verifyOriginator());
+    }
+
+    @Test
+    public void testUnknownKeyDoesNotVerify() throws Exception {
+        TokenSigner signer = signer();
+        final String s = token(signer, SecurityToken.Format.TEXT).asString();
+        assertFalse(signer.valueOf(s.replace(".k1.", ".k9.")).verifyIntegrity());
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        MutableClock clock = new MutableClock();
+        TokenSigner signer = TokenSigner.builder().key("k1", SECRET_1)
+                .tokenLifetime(Duration.ofMinutes(5)).clock(clock).build();
+        SignedSecurityToken token = (SignedSecurityToken) token(signer,
+                SecurityToken.Format.TEXT);
+        assertEquals(clock.instant().plusSeconds(300), token.getExpires());
+        assertEquals(Long.toString(token.getExpires().getEpochSecond()),
+                token.findAttribute(TokenSigner.EXPIRES_ATTRIBUTE).get());
+
+        //verified, and cached, before expiry
+        assertTrue(token.verifyIntegrity());
+        assertTrue(signer.valueOf(token.asString()).verifyIntegrity());
+
+        clock.advance(Duration.ofSeconds(299));
+        assertTrue(signer.valueOf(token.asString()).verifyIntegrity());
+        clock.advance(Duration.ofSeconds(1));
+        assertFalse(token.verifyIntegrity());
+        assertFalse(signer.valueOf(token.asString()).verifyOriginator());
+    }
+
+    @Test
+    public void testExpiryReplacesProvided() {
+        SignedSecurityToken token = (SignedSecurityToken) signer()
+                .tokenBuilder()
+                .attribute(TokenSigner.EXPIRES_ATTRIBUTE,
+                        Long.toString(Long.MAX_VALUE))
+                .create();
+        assertTrue(token.getExpires().isBefore(Instant.now()
+                .plus(TokenSigner.DEFAULT_TOKEN_LIFETIME).plusSeconds(1)));
+    }
+
+    @Test
+    public void testMissingExpiryDoesNotVerify() throws Exception {
+        TokenSigner signer = signer();
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("session", "abc");
+        ByteBuffer payload = ByteBuffer.allocate(64);
+        SecurityTokenCodec.encode(new UnsecureSecurityToken(attributes),
+                payload);
+        final byte[] bytes = Arrays.copyOf(payload.array(),
+                payload.position());
+        Mac mac = Mac.getInstance(TokenSigner.DEFAULT_ALGORITHM);
+        mac.init(new SecretKeySpec(SECRET_1, TokenSigner.DEFAULT_ALGORITHM));
+        final Base64.Encoder base64 = Base64.getUrlEncoder().withoutPadding();
+        SignedSecurityToken read = signer.valueOf(base64.encodeToString(bytes)
+                + ".k1." + base64.encodeToString(mac.doFinal(bytes)));
+        assertEquals(Instant.MIN, read.getExpires());
+        assertFalse(read.verifyIntegrity());
+    }
+
+    @Test(expected = UnsupportedSecurityTokenException.class)
+    public void testMalformed() throws Exception {
+        signer().valueOf("{'attributes':[]}");
+    }
+
+    @Test(expected = UnsupportedSecurityTokenException.class)
+    public void testTruncatedBinary() throws Exception {
+        TokenSigner signer = signer();
+        ByteBuffer buffer = ByteBuffer.allocate(128);
+        token(signer, SecurityToken.Format.BINARY).writeTo(buffer);
+        buffer.flip();
+        buffer.limit(buffer.limit() - 1);
+        signer.valueOf(buffer);
+    }
+
+    @Test
+    public void testRotation() throws Exception {
+        TokenSigner signer = signer();
+        final String old = token(signer, SecurityToken.Format.TEXT).asString();
+        assertTrue(signer.valueOf(old).verifyIntegrity());
+
+        signer.rotate("k2", SECRET_2);
+        assertEquals("k2", signer.getActiveKeyId());
+        SecurityToken rotated = token(signer, SecurityToken.Format.TEXT);
+        assertEquals("k2", ((SignedSecurityToken) rotated).getKeyId());
+        assertTrue(signer.valueOf(rotated.asString()).verifyIntegrity());
+        assertTrue(signer.valueOf(old).verifyIntegrity());
+
+        assertTrue(signer.retire("k1"));
+        assertFalse(signer.valueOf(old).verifyIntegrity());
+        assertTrue(signer.valueOf(rotated.asString()).verifyIntegrity());
+        assertFalse(signer.retire("k1"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRetireActiveKey() {
+        signer().retire("k1");
+    }
+
+    @Test
+    public void testFromConfig() throws Exception {
+        Map<String, String> config = new HashMap<>();
+        //HmacSHA512 requires 64 byte secrets
+        config.put(TokenSigner.CONFIG_KEY_PREFIX + "k1", Base64.getEncoder()
+                .encodeToString(Arrays.copyOf(SECRET_1, 64)));
+        config.put(TokenSigner.CONFIG_KEY_PREFIX + "k2", Base64.getEncoder()
+                .encodeToString(Arrays.copyOf(SECRET_2, 64)));
+        config.put(TokenSigner.CONFIG_ACTIVE_KEY, "k2");
+        config.put(TokenSigner.CONFIG_ALGORITHM, "HmacSHA512");
+        config.put(TokenSigner.CONFIG_TOKEN_LIFETIME, "60");
+        TokenSigner signer = TokenSigner.fromConfig(config);
+        assertEquals("k2", signer.getActiveKeyId());
+        assertTrue(((SignedSecurityToken) token(signer,
+                SecurityToken.Format.TEXT)).getExpires()
+                .isBefore(Instant.now().plusSeconds(61)));
+        assertTrue(signer.valueOf(token(signer, SecurityToken.Format.TEXT)
+                .asString()).verifyIntegrity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConfigNoActiveKey() {
+        Map<String, String> config = new HashMap<>();
+        config.put(TokenSigner.CONFIG_KEY_PREFIX + "k1",
+                Base64.getEncoder().encodeToString(SECRET_1));
+        config.put(TokenSigner.CONFIG_KEY_PREFIX + "k2",
+                Base64.getEncoder().encodeToString(SECRET_2));
+        TokenSigner.fromConfig(config);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConfigInvalidKey() {
+        TokenSigner.fromConfig(Collections.singletonMap(
+                TokenSigner.CONFIG_KEY_PREFIX + "k1", "not base64!"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testShortSecret() {
+        TokenSigner.builder().key("k1", Arrays.copyOf(SECRET_1, 31)).build();
+    }
+
+    @Test
+    public void testRotateShortSecret() {
+        TokenSigner signer = signer();
+        try {
+            signer.rotate("k2", Arrays.copyOf(SECRET_2, 31));
+            fail("Short secret accepted.");
+        } catch (IllegalArgumentException ex) {
+            assertEquals("k1", signer.getActiveKeyId());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConfigNoKeys() {
+        TokenSigner.fromConfig(new HashMap<>());
+    }
+
+    @Test
+    public void testConcurrentVerification() throws Exception {
+        final TokenSigner signer = signer();
+        final List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            tokens.add(signer.tokenBuilder().attribute("n", "" + i).create()
+                    .asString());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                results.add(executor.submit(() -> {
+                    for (String s : tokens) {
+                        if (!signer.valueOf(s).verifyIntegrity()) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> r : results) {
+                assertTrue(r.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private Instant now
+                = Instant.ofEpochSecond(Instant.now().getEpochSecond());
+
+        private void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -15,8 +15,14 @@
  */
 package org.geoint.saasy;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import org.geoint.saasy.util.StringParseException;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -44,6 +50,58 @@ public class UnsecureSecurityTokenTest {
         assertEquals(EXPECTED_FORMATTED, formatted);
     }
 
+    @Test
+    public void testFormatMemoized() {
+        UnsecureSecurityToken token
+                = new UnsecureSecurityToken(EXPECTED_ATTRIBUTES);
+        assertSame(token.asString(), token.asString());
+    }
+
+    @Test
+    public void testFormatEmpty() {
+        assertEquals("{'attributes':[]}",
+                new UnsecureSecurityToken(Collections.emptyMap()).asString());
+    }
+
+    @Test
+    public void testAttributesCopied() {
+        Map<String, String> source = new HashMap<>(EXPECTED_ATTRIBUTES);
+        UnsecureSecurityToken token = new UnsecureSecurityToken(source);
+        source.put("att3", "val3");
+        assertEquals(EXPECTED_FORMATTED, token.asString());
+        assertEquals(EXPECTED_ATTRIBUTES, token.getAttributes());
+    }
+
+    @Test
+    public void testWriteToAppendable() throws Exception {
+        StringBuilder sb = new StringBuilder("token=");
+        new UnsecureSecurityToken(EXPECTED_ATTRIBUTES).writeTo(sb);
+        assertEquals("token=" + EXPECTED_FORMATTED, sb.toString());
+    }
+
+    @Test
+    public void testWriteToBuffer() {
+        Map<String, String> attributes = new HashMap<>(EXPECTED_ATTRIBUTES);
+        attributes.put("name", "\u00e9t\u00e9");
+        UnsecureSecurityToken token = new UnsecureSecurityToken(attributes);
+        ByteBuffer buffer = ByteBuffer.allocate(128);
+        token.writeTo(buffer);
+        buffer.flip();
+        assertEquals(token.asString(),
+                StandardCharsets.UTF_8.decode(buffer).toString());
+    }
+
+    @Test
+    public void testWriteToBufferOverflow() {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        try {
+            new UnsecureSecurityToken(EXPECTED_ATTRIBUTES).writeTo(buffer);
+            fail("token written past buffer limit");
+        } catch (BufferOverflowException ex) {
+            assertEquals(0, buffer.position());
+        }
+    }
+
     @Test
     public void testParse() throws Exception {
         UnsecureSecurityToken token = UnsecureSecurityToken.valueOf(EXPECTED_FORMATTED);
@@ -63,6 +121,154 @@ public class UnsecureSecurityTokenTest {
         UnsecureSecurityToken.valueOf("junk");
     }
 
+    @Test
+    public void testEscapedRoundTrip() throws Exception {
+        Map<String, String> expected = new HashMap<>();
+        expected.put("quote'd", "it's");
+        expected.put("back\\slash", "c:\\tmp\\");
+        expected.put("spaced name", "a value, with {braces}");
+        final String formatted = new UnsecureSecurityToken(expected).asString();
+        assertEquals(expected,
+                UnsecureSecurityToken.valueOf(formatted).getAttributes());
+    }
+
+    @Test
+    public void testParseEmpty() throws Exception {
+        assertEquals(Collections.emptyMap(), UnsecureSecurityToken
+                .valueOf("{'attributes':[]}").getAttributes());
+    }
+
+    @Test
+    public void testParseCharSequence() throws Exception {
+        assertEquals(EXPECTED_ATTRIBUTES, UnsecureSecurityToken
+                .valueOf(new StringBuilder(EXPECTED_FORMATTED))
+                .getAttributes());
+    }
+
+    /**
+     * Test a token read from a mutable character sequence is not changed by
+     * later modification of the sequence.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testParseCharSequenceModified() throws Exception {
+        StringBuilder sb = new StringBuilder(EXPECTED_FORMATTED);
+        SecurityToken token = UnsecureSecurityToken.valueOf(sb);
+        sb.setLength(0);
+        sb.append("{'attributes':[]}");
+        assertEquals(EXPECTED_ATTRIBUTES, token.getAttributes());
+        assertEquals(EXPECTED_FORMATTED, token.asString());
+    }
+
+    @Test
+    public void testMalformedPosition() {
+        assertMalformed("{'attributes':[{'att1':'val1'}{'att2':'val2'}]}", 30);
+        assertMalformed("{'attributes':[{'att1':'val1}]}", 23);
+        assertMalformed("{'attributes':[{'att1':'v\\al1'}]}", 25);
+        assertMalformed("{'attributes':[{'att1':'val1'}]}junk", 32);
+        assertMalformed("{'attributes':[{'a':'1'},{'a':'2'}]}", 25);
+    }
+
+    private static void assertMalformed(String token, int position) {
+        try {
+            UnsecureSecurityToken.valueOf(token);
+            fail("parsed malformed token " + token);
+        } catch (UnsupportedSecurityTokenException ex) {
+            assertEquals(token, position,
+                    ((StringParseException) ex.getCause()).getPosition());
+        }
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws Exception {
+        SecurityToken.Builder builder = UnsecureSecurityToken.builder()
+                .format(SecurityToken.Format.BINARY);
+        EXPECTED_ATTRIBUTES.forEach(builder::attribute);
+        SecurityToken token = builder.create();
+        assertEquals(SecurityToken.Format.BINARY, token.getFormat());
+
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        token.writeTo(buffer);
+        buffer.flip();
+        UnsecureSecurityToken decoded = UnsecureSecurityToken.valueOf(buffer);
+        assertEquals(EXPECTED_ATTRIBUTES, decoded.getAttributes());
+        assertEquals(SecurityToken.Format.BINARY, decoded.getFormat());
+
+        assertEquals(EXPECTED_ATTRIBUTES, UnsecureSecurityToken
+                .valueOf(token.asString()).getAttributes());
+    }
+
+    @Test
+    public void testLazyFind() throws Exception {
+        Map<String, String> expected = new HashMap<>(EXPECTED_ATTRIBUTES);
+        expected.put("quote'd", "it's");
+        expected.put("att", "prefix of other names");
+        UnsecureSecurityToken token = UnsecureSecurityToken
+                .valueOf(new UnsecureSecurityToken(expected).asString());
+        assertLazyFind(expected, token);
+    }
+
+    @Test
+    public void testLazyFindBinary() throws Exception {
+        Map<String, String> expected = new HashMap<>(EXPECTED_ATTRIBUTES);
+        expected.put("caf\u00e9", "\u65e5\u672c");
+        expected.put("att", "prefix of other names");
+        SecurityToken.Builder builder = UnsecureSecurityToken.builder()
+                .format(SecurityToken.Format.BINARY);
+        expected.forEach(builder::attribute);
+        ByteBuffer buffer = ByteBuffer.allocate(128);
+        builder.create().writeTo(buffer);
+        buffer.flip();
+        assertLazyFind(expected, UnsecureSecurityToken.valueOf(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    private static void assertLazyFind(Map<String, String> expected,
+            UnsecureSecurityToken token) {
+        for (Map.Entry<String, String> e : expected.entrySet()) {
+            assertEquals(e.getValue(), token.findAttribute(e.getKey()).get());
+        }
+        assertFalse(token.findAttribute("missing").isPresent());
+        assertFalse(token.findAttribute("at").isPresent());
+        assertEquals("default", token.getAttribute("missing", () -> "default"));
+        assertEquals(expected, token.getAttributes());
+        assertSame(token.getAttributes(), token.getAttributes());
+        assertEquals("val1", token.findAttribute("att1").get());
+    }
+
+    /**
+     * Test that a read token is written in the encoding it was read from,
+     * which is not re-sorted as a re-encoded token would be.
+     */
+    @Test
+    public void testReadEncodingRetained() throws Exception {
+        final String text = "{'attributes':[{'b':'2'},{'a':'1'}]}";
+        assertEquals(text, UnsecureSecurityToken.valueOf(text).asString());
+
+        final byte[] binary = {
+            SecurityTokenCodec.VERSION, 2, 1, 'b', 1, '2', 1, 'a', 1, '1'};
+        UnsecureSecurityToken token
+                = UnsecureSecurityToken.valueOf(ByteBuffer.wrap(binary));
+        ByteBuffer buffer = ByteBuffer.allocate(binary.length);
+        token.writeTo(buffer);
+        assertArrayEquals(binary, buffer.array());
+        assertEquals(Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(binary), token.asString());
+    }
+
+    @Test
+    public void testBinaryDuplicate() {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{
+            SecurityTokenCodec.VERSION, 2, 1, 'a', 1, '1', 1, 'a', 1, '2'});
+        try {
+            UnsecureSecurityToken.valueOf(buffer);
+            fail("read binary token with duplicate attributes");
+        } catch (UnsupportedSecurityTokenException ex) {
+            assertEquals(0, buffer.position());
+        }
+    }
+
     @Test
     public void testBuilder() {
         SecurityToken.Builder builder = UnsecureSecurityToken.builder();
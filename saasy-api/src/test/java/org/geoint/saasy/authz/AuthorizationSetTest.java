@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.authz;
+
+import java.util.BitSet;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author steve_siebert
+ */
+public class AuthorizationSetTest {
+
+    @Test
+    public void testWithWithout() {
+        AuthorizationSet set = AuthorizationSet.of(3, 70000, 1);
+        assertEquals(3, set.cardinality());
+        assertTrue(set.contains(1));
+        assertTrue(set.contains(70000));
+        assertFalse(set.contains(2));
+        assertFalse(set.contains(-1));
+        assertSame(set, set.with(3));
+        assertSame(set, set.without(4));
+
+        set = set.without(70000);
+        assertFalse(set.contains(70000));
+        assertEquals(AuthorizationSet.of(1, 3), set);
+        assertTrue(set.without(1).without(3).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegative() {
+        AuthorizationSet.empty().with(-1);
+    }
+
+    @Test
+    public void testOrdered() {
+        assertArrayEquals(new int[]{0, 5, 65536, 131073},
+                AuthorizationSet.of(131073, 5, 65536, 0).stream().toArray());
+    }
+
+    @Test
+    public void testDenseConversion() {
+        AuthorizationSet set = AuthorizationSet.empty();
+        for (int i = 0; i < 10000; i += 2) {
+            set = set.with(i);
+        }
+        assertEquals(5000, set.cardinality());
+        assertTrue(set.contains(9998));
+        assertFalse(set.contains(9999));
+        for (int i = 0; i < 10000; i += 4) {
+            set = set.without(i);
+        }
+        assertEquals(2500, set.cardinality());
+        assertTrue(set.contains(2));
+        assertFalse(set.contains(4));
+    }
+
+    @Test
+    public void testSetOperations() {
+        final Random rand = new Random(42);
+        for (int round = 0; round < 20; round++) {
+            //alternate sparse and dense sets across a few containers
+            final BitSet a = random(rand, (round % 2 == 0) ? 50 : 20000);
+            final BitSet b = random(rand, (round % 3 == 0) ? 30 : 15000);
+            final AuthorizationSet sa = toSet(a);
+            final AuthorizationSet sb = toSet(b);
+
+            final BitSet or = (BitSet) a.clone();
+            or.or(b);
+            final BitSet and = (BitSet) a.clone();
+            and.and(b);
+            final BitSet andNot = (BitSet) a.clone();
+            andNot.andNot(b);
+
+            assertEquals(toSet(or), sa.or(sb));
+            assertEquals(toSet(and), sa.and(sb));
+            assertEquals(toSet(andNot), sa.andNot(sb));
+            assertArrayEquals(or.stream().toArray(), sa.or(sb).stream().toArray());
+            assertEquals(and.cardinality(), sa.and(sb).cardinality());
+            assertTrue(sa.or(sb).containsAll(sb));
+            assertEquals(sa.hashCode(), toSet(a).hashCode());
+        }
+    }
+
+    @Test
+    public void testProfile() {
+        final Authorization read = new Authorization() {
+        };
+        final Authorization write = new Authorization() {
+        };
+        final BitmapAuthorizationProfile profile
+                = new BitmapAuthorizationProfile(null);
+        assertFalse(profile.contains(read));
+        profile.grant(read);
+        assertTrue(profile.contains(read));
+        assertFalse(profile.contains(write));
+        profile.grant(write);
+        assertEquals(2, profile.stream().count());
+        profile.revoke(read);
+        assertFalse(profile.contains(read));
+        assertTrue(profile.contains(write));
+        profile.revokeAll();
+        assertEquals(0, profile.stream().count());
+    }
+
+    @Test
+    public void testProfileSnapshots() {
+        final Authorization read = new Authorization() {
+        };
+        final BitmapAuthorizationProfile profile
+                = new BitmapAuthorizationProfile(null);
+        final AuthorizationSnapshot initial = profile.snapshot();
+        assertEquals(0, profile.getVersion());
+
+        profile.grant(read);
+        assertEquals(1, profile.getVersion());
+        assertFalse(initial.contains(read));
+        assertTrue(profile.snapshot().contains(read));
+
+        profile.grant(read); //unchanged, no new version
+        assertEquals(1, profile.getVersion());
+        profile.revokeAll();
+        assertEquals(2, profile.getVersion());
+        assertTrue(profile.snapshot().getAuthorizationSet().isEmpty());
+    }
+
+    private static BitSet random(Random rand, int count) {
+        final BitSet bits = new BitSet();
+        for (int i = 0; i < count; i++) {
+            bits.set(rand.nextInt(3 * 65536));
+        }
+        return bits;
+    }
+
+    private static AuthorizationSet toSet(BitSet bits) {
+        return AuthorizationSet.of(bits.stream().toArray());
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.session;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author steve_siebert
+ */
+public class SessionPropertiesTest {
+
+    @Test
+    public void testWithWithout() {
+        SessionProperties props = SessionProperties.empty()
+                .with("locale", "en_US")
+                .with("theme", "dark");
+        assertEquals(2, props.size());
+        assertEquals("dark", props.get("theme"));
+        assertEquals(Optional.of("en_US"), props.findProperty("locale"));
+        assertFalse(props.findProperty("other").isPresent());
+        assertNull(props.get(null));
+
+        SessionProperties changed = props.with("theme", "light");
+        assertEquals("dark", props.get("theme"));
+        assertEquals("light", changed.get("theme"));
+        assertSame(changed, changed.with("theme", "light"));
+
+        SessionProperties removed = changed.without("locale");
+        assertEquals(1, removed.size());
+        assertFalse(removed.containsKey("locale"));
+        assertSame(removed, removed.without("locale"));
+        assertTrue(removed.without("theme").isEmpty());
+    }
+
+    /**
+     * Test the supplier is only called for missing properties.
+     */
+    @Test
+    public void testGetPropertyDefault() {
+        SessionProperties props = SessionProperties.empty().with("a", "1");
+        assertEquals("1", props.getProperty("a", () -> {
+            throw new AssertionError("supplier called");
+        }));
+        assertEquals("2", props.getProperty("b", () -> "2"));
+    }
+
+    /**
+     * Test the properties behave as a map against a HashMap with random
+     * changes.
+     */
+    @Test
+    public void testMatchesHashMap() {
+        Random rand = new Random(11);
+        Map<String, String> expected = new HashMap<>();
+        SessionProperties props = SessionProperties.empty();
+        for (int i = 0; i < 2_000; i++) {
+            final String key = "key" + rand.nextInt(24);
+            if (rand.nextInt(3) == 0) {
+                expected.remove(key);
+                props = props.without(key);
+            } else {
+                expected.put(key, "v" + i);
+                props = props.with(key, "v" + i);
+            }
+            assertEquals(expected, props);
+            assertEquals(expected.hashCode(), props.hashCode());
+        }
+        assertEquals(expected, SessionProperties.of(expected));
+    }
+
+    @Test
+    public void testInternedKeys() {
+        SessionProperties a = SessionProperties.empty()
+                .with(new String("interned"), "1");
+        SessionProperties b = SessionProperties.empty()
+                .with(new String("interned"), "2");
+        assertSame(a.keySet().iterator().next(), b.keySet().iterator().next());
+    }
+}
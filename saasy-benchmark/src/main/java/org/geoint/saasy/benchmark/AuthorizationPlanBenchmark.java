@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.benchmark;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.geoint.saasy.authz.AuthorizationResult;
+import org.geoint.saasy.authz.SecurityConstraint;
+import org.geoint.saasy.constraint.multitenant.TenantConstraint;
+import org.geoint.saasy.constraint.multitenant.TenantConstraintProvider;
+import org.geoint.saasy.session.SecuritySession;
+import org.geoint.saasy.spi.constraint.AuthorizationPlan;
+import org.geoint.saasy.spi.constraint.AuthorizationPlanCompiler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares a compiled {@link AuthorizationPlan} with the per-request stream
+ * pipeline it replaced.
+ * <p>
+ * Run with the {@code -prof gc} profiler to compare allocation rates.
+ *
+ * @author steve_siebert
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthorizationPlanBenchmark {
+
+    /**
+     * Number of unrelated (non-tenant) constraints on the resource action.
+     */
+    @Param({"0", "4"})
+    public int otherConstraints;
+
+    private TenantResource resource;
+    private SecuritySession session;
+    private Set<SecurityConstraint> constraints;
+    private AuthorizationPlan plan;
+
+    @Setup
+    public void setup() throws Exception {
+        resource = TenantResource.random();
+        session = BenchmarkSessions.forTenant(resource.getTenantGuid());
+
+        Method action = TenantResource.class.getMethod("increment");
+        constraints = new HashSet<>();
+        Collections.addAll(constraints, new TenantConstraintProvider()
+                .actionConstraints(action));
+        for (int i = 0; i < otherConstraints; i++) {
+            constraints.add(new OtherConstraint());
+        }
+
+        plan = new AuthorizationPlanCompiler(
+                Collections.singleton(new TenantConstraintProvider()))
+                .plan(action);
+    }
+
+    @Benchmark
+    public AuthorizationResult compiledPlan() {
+        return plan.authorize(session, resource);
+    }
+
+    @Benchmark
+    public AuthorizationResult streamPipeline() {
+        final Object instance = resource;
+        return constraints.stream()
+                .filter((c) -> c instanceof TenantConstraint)
+                .map((c) -> (TenantConstraint) c)
+                .filter((c) -> c.getResourceClassName().contentEquals(instance.getClass().getName()))
+                .map((c) -> {
+                    try {
+                        Method tenantMethod = instance.getClass().getMethod(c.getTenantMethodName());
+                        String tenantGuid = tenantMethod.invoke(instance).toString();
+                        if (session.getTenancy().getGuid().contentEquals(tenantGuid)) {
+                            return AuthorizationResult.AUTHORIZED;
+                        }
+                        return AuthorizationResult.DENIED;
+                    } catch (NoSuchMethodException
+                            | InvocationTargetException
+                            | IllegalAccessException ex) {
+                        return AuthorizationResult.DENIED;
+                    }
+                }).reduce((r1, r2) -> r1.merge(r2))
+                .orElse(AuthorizationResult.ABSTAIN);
+    }
+
+    /**
+     * Constraint from another provider, ignored by tenant authorization.
+     */
+    private static final class OtherConstraint implements SecurityConstraint {
+
+        private final String id = UUID.randomUUID().toString();
+
+        @Override
+        public String toString() {
+            return id;
+        }
+    }
+}
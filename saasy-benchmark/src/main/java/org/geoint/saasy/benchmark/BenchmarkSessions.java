@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.benchmark;
+
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+import org.geoint.saasy.SecuritySubject;
+import org.geoint.saasy.SecurityTenant;
+import org.geoint.saasy.TenantDictionary;
+import org.geoint.saasy.session.SecuritySession;
+
+/**
+ * Minimal {@link SecuritySession} fixtures for benchmarks.
+ * <p>
+ * Only the session identity, subject, and tenancy are supported, all other
+ * methods throw {@link UnsupportedOperationException}.
+ *
+ * @author steve_siebert
+ */
+public final class BenchmarkSessions {
+
+    private BenchmarkSessions() {
+    }
+
+    /**
+     * Create a session for the tenant.
+     *
+     * @param tenantGuid session tenancy
+     * @return session
+     */
+    public static SecuritySession forTenant(String tenantGuid) {
+        final String sessionGuid = UUID.randomUUID().toString();
+        final SecurityTenant tenant = tenant(tenantGuid);
+        return (SecuritySession) Proxy.newProxyInstance(
+                SecuritySession.class.getClassLoader(),
+                new Class<?>[]{SecuritySession.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getSessionGuid":
+                            return sessionGuid;
+                        case "getTenancy":
+                            return tenant;
+                        case "isActive":
+                            return true;
+                        case "hashCode":
+                            return sessionGuid.hashCode();
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return sessionGuid;
+                        default:
+                            throw new UnsupportedOperationException(
+                                    method.getName());
+                    }
+                });
+    }
+
+    /**
+     * Create a session for the subject.
+     *
+     * @param sessionGuid session GUID
+     * @param subject session subject
+     * @return session
+     */
+    public static SecuritySession forSubject(String sessionGuid,
+            SecuritySubject subject) {
+        return (SecuritySession) Proxy.newProxyInstance(
+                SecuritySession.class.getClassLoader(),
+                new Class<?>[]{SecuritySession.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getSessionGuid":
+                        case "toString":
+                            return sessionGuid;
+                        case "getSubject":
+                            return subject;
+                        case "isActive":
+                            return true;
+                        case "hashCode":
+                            return sessionGuid.hashCode();
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            throw new UnsupportedOperationException(
+                                    method.getName());
+                    }
+                });
+    }
+
+    /**
+     * Create a subject.
+     *
+     * @param subjectGuid subject GUID
+     * @return subject
+     */
+    public static SecuritySubject subject(String subjectGuid) {
+        return (SecuritySubject) Proxy.newProxyInstance(
+                SecuritySubject.class.getClassLoader(),
+                new Class<?>[]{SecuritySubject.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getGuid":
+                        case "getName":
+                        case "toString":
+                            return subjectGuid;
+                        case "isEnabled":
+                            return true;
+                        case "hashCode":
+                            return subjectGuid.hashCode();
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            throw new UnsupportedOperationException(
+                                    method.getName());
+                    }
+                });
+    }
+
+    /**
+     * Create a tenant.
+     *
+     * @param tenantGuid tenant GUID
+     * @return tenant
+     */
+    public static SecurityTenant tenant(String tenantGuid) {
+        final int tenantId = TenantDictionary.idOf(tenantGuid);
+        return (SecurityTenant) Proxy.newProxyInstance(
+                SecurityTenant.class.getClassLoader(),
+                new Class<?>[]{SecurityTenant.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getGuid":
+                        case "getName":
+                        case "toString":
+                            return tenantGuid;
+                        case "getTenantId":
+                            return tenantId;
+                        case "isEnabled":
+                            return true;
+                        case "hashCode":
+                            return tenantGuid.hashCode();
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            throw new UnsupportedOperationException(
+                                    method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.geoint.saasy.session.SessionProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link SessionProperties} with {@link HashMap} for session property
+ * lookups, for hits and misses, and for building the map of a new session.
+ * <p>
+ * Lookups use property names that are equal to, but not the same instance as,
+ * the names the map was built with, as names decoded from a request would be.
+ *
+ * @author steve_siebert
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class SessionPropertiesBenchmark {
+
+    @Param({"4", "12"})
+    public int properties;
+
+    private Map<String, String> source;
+    private HashMap<String, String> hashMap;
+    private SessionProperties compact;
+    private String[] names;
+    private String missing;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        source = new HashMap<>();
+        names = new String[properties];
+        for (int i = 0; i < properties; i++) {
+            source.put("session.property." + i, "value-" + i);
+            names[i] = new String("session.property." + i);
+        }
+        missing = "session.property.missing";
+        hashMap = new HashMap<>(source);
+        compact = SessionProperties.of(source);
+    }
+
+    private String name() {
+        next = (next + 1 == names.length) ? 0 : next + 1;
+        return names[next];
+    }
+
+    @Benchmark
+    public String hashMapGet() {
+        return hashMap.get(name());
+    }
+
+    @Benchmark
+    public String compactGet() {
+        return compact.get(name());
+    }
+
+    @Benchmark
+    public Optional<String> hashMapFind() {
+        return Optional.ofNullable(hashMap.get(name()));
+    }
+
+    @Benchmark
+    public Optional<String> compactFind() {
+        return compact.findProperty(name());
+    }
+
+    @Benchmark
+    public String hashMapMiss() {
+        return hashMap.getOrDefault(missing, "default");
+    }
+
+    @Benchmark
+    public String compactMiss() {
+        return compact.getProperty(missing, () -> "default");
+    }
+
+    @Benchmark
+    public Map<String, String> hashMapBuild() {
+        return new HashMap<>(source);
+    }
+
+    @Benchmark
+    public Map<String, String> compactBuild() {
+        return SessionProperties.of(source);
+    }
+}
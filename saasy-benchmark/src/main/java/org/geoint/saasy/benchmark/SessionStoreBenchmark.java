@@ -0,0 +1,187 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.geoint.saasy.SecuritySubject;
+import org.geoint.saasy.session.SecuritySession;
+import org.geoint.saasy.session.store.SessionStore;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.openjdk.jmh.runner.IterationType;
+
+/**
+ * Measures {@link SessionStore} lookups with up to 10M open sessions, and
+ * reports the heap retained by the store per session.
+ * <p>
+ * The retained heap is the difference in heap used, after a full collection,
+ * before and after the sessions are added to the store; it excludes the
+ * sessions and subjects themselves. It is reported as the
+ * {@code bytesPerSession} secondary result of the store benchmarks.
+ * <p>
+ * Every tenth subject has a second open session. The 10M session trial
+ * requires a large heap, the fork is configured with {@code -Xmx12g}.
+ *
+ * @author steve_siebert
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms12g", "-Xmx12g"})
+@Threads(4)
+public class SessionStoreBenchmark {
+
+    @Param({"100000", "1000000", "10000000"})
+    public int sessions;
+
+    private SessionStore store;
+    private double bytesPerSession;
+    private String[] sessionGuids;
+    private String[] subjectGuids;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final int numSubjects = sessions - sessions / 10;
+        subjectGuids = new String[numSubjects];
+        SecuritySubject[] subjects = new SecuritySubject[numSubjects];
+        for (int i = 0; i < numSubjects; i++) {
+            subjectGuids[i] = UUID.randomUUID().toString();
+            subjects[i] = BenchmarkSessions.subject(subjectGuids[i]);
+        }
+        sessionGuids = new String[sessions];
+        SecuritySession[] created = new SecuritySession[sessions];
+        for (int i = 0; i < sessions; i++) {
+            sessionGuids[i] = UUID.randomUUID().toString();
+            created[i] = BenchmarkSessions.forSubject(sessionGuids[i],
+                    subjects[i % numSubjects]);
+        }
+
+        final long before = usedHeap();
+        store = new SessionStore(sessions, SessionStore.DEFAULT_SHARDS);
+        for (SecuritySession s : created) {
+            store.add(s);
+        }
+        bytesPerSession = (usedHeap() - before) / (double) sessions;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store = null;
+        sessionGuids = null;
+        subjectGuids = null;
+    }
+
+    /**
+     * Reports the heap retained by the store per session.
+     * <p>
+     * Event counters are summed over threads and iterations, so the footprint
+     * is reported by a single thread in the first measurement iteration
+     * only. The counter is a method since JMH resets counter fields after
+     * the iteration setup.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+
+        private boolean reported;
+        private double bytesPerSession;
+
+        @Setup(Level.Iteration)
+        public void setup(SessionStoreBenchmark bench, ThreadParams thread,
+                IterationParams iteration) {
+            bytesPerSession = 0;
+            if (!reported && thread.getThreadIndex() == 0
+                    && iteration.getType() == IterationType.MEASUREMENT) {
+                bytesPerSession = bench.bytesPerSession;
+                reported = true;
+            }
+        }
+
+        public double bytesPerSession() {
+            return bytesPerSession;
+        }
+    }
+
+    @Benchmark
+    public SecuritySession findSession(Footprint footprint) {
+        return store.findSession(sessionGuids[ThreadLocalRandom.current()
+                .nextInt(sessionGuids.length)]).orElse(null);
+    }
+
+    @Benchmark
+    public SecuritySession currentSession(Footprint footprint) {
+        return store.currentSession(subjectGuids[ThreadLocalRandom.current()
+                .nextInt(subjectGuids.length)]).orElse(null);
+    }
+
+    /**
+     * Single {@link ConcurrentHashMap} lookup baseline.
+     */
+    @State(Scope.Benchmark)
+    public static class Baseline {
+
+        private ConcurrentHashMap<String, SecuritySession> map;
+
+        @Setup(Level.Trial)
+        public void setup(SessionStoreBenchmark bench) {
+            map = new ConcurrentHashMap<>(bench.sessions);
+            bench.store.forEach((s) -> map.put(s.getSessionGuid(), s));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            map = null;
+        }
+    }
+
+    @Benchmark
+    public SecuritySession baselineMap(Baseline baseline) {
+        return baseline.map.get(sessionGuids[ThreadLocalRandom.current()
+                .nextInt(sessionGuids.length)]);
+    }
+
+    private static long usedHeap() {
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+}
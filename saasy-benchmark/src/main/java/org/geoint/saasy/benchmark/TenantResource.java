@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.benchmark;
+
+import java.util.UUID;
+import org.geoint.saasy.constraint.multitenant.Tenant;
+import org.geoint.saasy.constraint.multitenant.TenantRestricted;
+
+/**
+ * Tenant-restricted resource used by benchmarks.
+ *
+ * @author steve_siebert
+ */
+public class TenantResource {
+
+    private final String tenantGuid;
+    private int increment;
+
+    public TenantResource(String tenantGuid) {
+        this.tenantGuid = tenantGuid;
+    }
+
+    public static TenantResource random() {
+        return new TenantResource(UUID.randomUUID().toString());
+    }
+
+    @Tenant
+    public String getTenantGuid() {
+        return tenantGuid;
+    }
+
+    @TenantRestricted
+    public void increment() {
+        increment++;
+    }
+
+    public int getIncrement() {
+        return increment;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.geoint.saasy.SecurityToken;
+import org.geoint.saasy.UnsecureSecurityToken;
+import org.geoint.saasy.UnsupportedSecurityTokenException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the single-pass {@link UnsecureSecurityToken#valueOf(String)}
+ * parser with the regular expression parser it replaced, and with decoding
+ * the binary token format.
+ * <p>
+ * Tokens are read lazily, so the full parse benchmarks also request the
+ * attribute map; the find benchmarks read a single attribute, as most
+ * handlers do.
+ *
+ * @author steve_siebert
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class TokenParseBenchmark {
+
+    //the parser previously used by UnsecureSecurityToken
+    private static final Pattern PARSER_REGEX
+            = Pattern.compile("(\\{'(\\w+)':'(\\w+)'\\})");
+
+    @Param({"4", "16"})
+    public int attributes;
+
+    private String token;
+    private ByteBuffer binary;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        SecurityToken.Builder builder = UnsecureSecurityToken.builder();
+        for (int i = 0; i < attributes; i++) {
+            builder.attribute("attribute" + i, "value" + i);
+        }
+        token = builder.create().asString();
+        binary = ByteBuffer.allocate(token.length());
+        builder.format(SecurityToken.Format.BINARY).create().writeTo(binary);
+        binary.flip();
+    }
+
+    @Benchmark
+    public Map<String, String> regex() {
+        Matcher m = PARSER_REGEX.matcher(token);
+        Map<String, String> parsed = new HashMap<>();
+        while (m.find()) {
+            parsed.put(m.group(2), m.group(3));
+        }
+        return new UnsecureSecurityToken(parsed).getAttributes();
+    }
+
+    @Benchmark
+    public Map<String, String> singlePass()
+            throws UnsupportedSecurityTokenException {
+        return UnsecureSecurityToken.valueOf(token).getAttributes();
+    }
+
+    @Benchmark
+    public Optional<String> singlePassFind()
+            throws UnsupportedSecurityTokenException {
+        return UnsecureSecurityToken.valueOf(token).findAttribute("attribute1");
+    }
+
+    @Benchmark
+    public Map<String, String> binary()
+            throws UnsupportedSecurityTokenException {
+        binary.rewind();
+        return UnsecureSecurityToken.valueOf(binary).getAttributes();
+    }
+
+    @Benchmark
+    public Optional<String> binaryFind()
+            throws UnsupportedSecurityTokenException {
+        binary.rewind();
+        return UnsecureSecurityToken.valueOf(binary).findAttribute("attribute1");
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.constraint.multitenant;
+
+/**
+ * Typed {@link Tenant} accessor generated at compile time by the
+ * {@link TenantConstraintProcessor} for each resource class declaring
+ * {@link TenantRestricted} actions.
+ * <p>
+ * A generated accessor is named after the binary name of its resource class
+ * with the {@link #ACCESSOR_SUFFIX} appended and is located in the same
+ * package, allowing the accessor of a resource class to be loaded by name
+ * rather than discovered by reflectively scanning the resource class.
+ * <p>
+ * Implementations must be stateless and thread-safe.
+ *
+ * @param <R> resource type
+ * @author steve_siebert
+ */
+public interface GeneratedTenantAccessor<R> {
+
+    /**
+     * Suffix appended to the binary name of the resource class to name its
+     * generated accessor.
+     */
+    String ACCESSOR_SUFFIX = "$$TenantAccessor";
+
+    /**
+     * The resource class this accessor was generated for.
+     *
+     * @return resource class
+     */
+    Class<R> getResourceClass();
+
+    /**
+     * Name of the resource method annotated with {@link Tenant}.
+     *
+     * @return tenant method name
+     */
+    String getTenantMethodName();
+
+    /**
+     * Names of the resource methods annotated with {@link TenantRestricted}.
+     *
+     * @return restricted action method names
+     */
+    String[] getRestrictedActions();
+
+    /**
+     * Return the tenant of the resource instance, as returned by the
+     * {@link Tenant} method.
+     *
+     * @param resource resource instance
+     * @return resource tenant, may be null
+     * @throws Throwable thrown by the resource tenant method
+     */
+    Object tenant(R resource) throws Throwable;
+}
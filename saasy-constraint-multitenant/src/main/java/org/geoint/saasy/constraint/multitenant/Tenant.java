@@ -20,11 +20,16 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.util.UUID;
+import org.geoint.saasy.SecurityTenant;
+import org.geoint.saasy.TenantDictionary;
 
 /**
  * Annotates the idempotent and safe resource method (action) that returns the
  * tenant which owns the resource as a String (ie GUID) or an object instance
  * which returns a unique identifier from its {@link Object#toString()} method.
+ * Tenants returned as a {@link SecurityTenant} or {@link UUID} are compared
+ * by {@link TenantDictionary identifier} without conversion to a String.
  * <p>
  * This annotation works in concert with {@link TenantRestricted}, which
  * identifies resource actions which are restricted by this entity. For tenant
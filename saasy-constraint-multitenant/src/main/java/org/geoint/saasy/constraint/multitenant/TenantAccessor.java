@@ -0,0 +1,254 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.constraint.multitenant;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.UUID;
+import org.geoint.saasy.SecurityTenant;
+import org.geoint.saasy.TenantDictionary;
+import org.geoint.saasy.authz.AuthorizationException;
+import org.geoint.saasy.authz.InvalidConstraintDefinitionException;
+
+/**
+ * Resolved {@link Tenant} accessor for a resource class.
+ * <p>
+ * Accessors are resolved once per resource class and cached for the life of
+ * the class. If the resource class was compiled with the
+ * {@link TenantConstraintProcessor} its {@link GeneratedTenantAccessor} is
+ * used, otherwise the {@link Tenant} method is found reflectively. Either
+ * way the accessor is converted to a {@link MethodHandle} so subsequent calls
+ * do not require any reflective lookups.
+ * <p>
+ * Instances are immutable and thread-safe.
+ *
+ * @author steve_siebert
+ */
+final class TenantAccessor {
+
+    private static final MethodType ACCESSOR_TYPE
+            = MethodType.methodType(Object.class, Object.class);
+
+    private static final ClassValue<TenantAccessor> ACCESSORS
+            = new ClassValue<TenantAccessor>() {
+        @Override
+        protected TenantAccessor computeValue(Class<?> resourceClass) {
+            return resolve(resourceClass);
+        }
+    };
+
+    private final String resourceClassName;
+    private final String methodName;
+    private final MethodHandle accessor;
+    private final InvalidConstraintDefinitionException failure;
+
+    private TenantAccessor(String resourceClassName, String methodName,
+            MethodHandle accessor, InvalidConstraintDefinitionException failure) {
+        this.resourceClassName = resourceClassName;
+        this.methodName = methodName;
+        this.accessor = accessor;
+        this.failure = failure;
+    }
+
+    /**
+     * Returns the tenant accessor for the resource class.
+     * <p>
+     * The accessor is resolved on first request and cached thereafter. If the
+     * resource class does not properly define a {@link Tenant} method the
+     * returned accessor is {@link #isValid() invalid} and throws a definition
+     * exception, caused by the resolution failure, when used.
+     *
+     * @param resourceClass resource class
+     * @return tenant accessor for the class
+     */
+    static TenantAccessor forClass(Class<?> resourceClass) {
+        return ACCESSORS.get(resourceClass);
+    }
+
+    private static TenantAccessor resolve(Class<?> resourceClass) {
+        GeneratedTenantAccessor<?> generated
+                = TenantConstraintIndex.generatedAccessor(resourceClass);
+        if (generated != null) {
+            try {
+                MethodHandle handle = MethodHandles.publicLookup()
+                        .findVirtual(GeneratedTenantAccessor.class, "tenant",
+                                ACCESSOR_TYPE)
+                        .bindTo(generated);
+                return new TenantAccessor(resourceClass.getName(),
+                        generated.getTenantMethodName(), handle, null);
+            } catch (NoSuchMethodException | IllegalAccessException ex) {
+                //unexpected, fall back to the reflective accessor
+            }
+        }
+        try {
+            Method tenantMethod
+                    = TenantConstraint.tenantAccessorMethod(resourceClass);
+            if (tenantMethod.getParameterCount() > 0) {
+                throw new InvalidConstraintDefinitionException("Tenant accessor "
+                        + "method must not require parameters.");
+            }
+            MethodHandle handle = MethodHandles.publicLookup()
+                    .unreflect(tenantMethod)
+                    .asType(ACCESSOR_TYPE);
+            return new TenantAccessor(resourceClass.getName(),
+                    tenantMethod.getName(), handle, null);
+        } catch (InvalidConstraintDefinitionException ex) {
+            return new TenantAccessor(resourceClass.getName(), null, null, ex);
+        } catch (IllegalAccessException ex) {
+            return new TenantAccessor(resourceClass.getName(), null, null,
+                    new InvalidConstraintDefinitionException(String.format(
+                            "Tenant accessor method of resource class '%s' "
+                            + "is not accessible.", resourceClass.getName()),
+                            ex));
+        }
+    }
+
+    /**
+     * Check if the resource class defines a valid tenant accessor.
+     *
+     * @return true if the accessor may be used, otherwise false
+     */
+    boolean isValid() {
+        return failure == null;
+    }
+
+    /**
+     * Throw the definition exception if the accessor is not valid.
+     *
+     * @throws InvalidConstraintDefinitionException if the resource class does
+     * not define a valid tenant accessor
+     */
+    void validate() throws InvalidConstraintDefinitionException {
+        if (failure != null) {
+            throw failure();
+        }
+    }
+
+    String getResourceClassName() {
+        return resourceClassName;
+    }
+
+    /**
+     * Name of the {@link Tenant} method, or null if the accessor is not valid.
+     *
+     * @return tenant method name or null
+     */
+    String getMethodName() {
+        return methodName;
+    }
+
+    /**
+     * Returns the tenant GUID of the resource instance.
+     *
+     * @param instance resource instance
+     * @return tenant GUID or null if the resource did not return a tenant
+     * @throws InvalidConstraintDefinitionException if the resource class does
+     * not define a valid tenant accessor
+     * @throws AuthorizationException if the tenant accessor threw an exception
+     */
+    String tenantGuid(Object instance) throws AuthorizationException {
+        Object tenant = invoke(instance);
+        if (tenant instanceof SecurityTenant) {
+            return ((SecurityTenant) tenant).getGuid();
+        }
+        return (tenant == null) ? null : tenant.toString();
+    }
+
+    /**
+     * Returns the {@link TenantDictionary dictionary} identifier of the tenant
+     * of the resource instance.
+     * <p>
+     * Resource tenants returned as a {@link SecurityTenant} or {@link UUID}
+     * are resolved without converting the tenant to a string.
+     *
+     * @param instance resource instance
+     * @return tenant identifier or {@link TenantDictionary#NO_TENANT} if the
+     * resource did not return a tenant
+     * @throws InvalidConstraintDefinitionException if the resource class does
+     * not define a valid tenant accessor
+     * @throws AuthorizationException if the tenant accessor threw an exception
+     */
+    int tenantId(Object instance) throws AuthorizationException {
+        Object tenant = invoke(instance);
+        if (tenant instanceof String) {
+            return TenantDictionary.idOf((String) tenant);
+        } else if (tenant instanceof SecurityTenant) {
+            return ((SecurityTenant) tenant).getTenantId();
+        } else if (tenant instanceof UUID) {
+            return TenantDictionary.idOf((UUID) tenant);
+        }
+        return (tenant == null)
+                ? TenantDictionary.NO_TENANT
+                : TenantDictionary.idOf(tenant.toString());
+    }
+
+    /**
+     * Check if the resource instance is owned by the tenant.
+     * <p>
+     * Resource tenants returned as a {@link SecurityTenant} or {@link UUID}
+     * are compared by {@link TenantDictionary dictionary} identifier. Tenant
+     * GUID strings are compared directly, as resolving their identifier costs
+     * as much as the string comparison it would replace.
+     *
+     * @param instance resource instance
+     * @param tenant tenant
+     * @return true if the resource is owned by the tenant
+     * @throws InvalidConstraintDefinitionException if the resource class does
+     * not define a valid tenant accessor
+     * @throws AuthorizationException if the tenant accessor threw an exception
+     */
+    boolean isTenant(Object instance, SecurityTenant tenant)
+            throws AuthorizationException {
+        Object resourceTenant = invoke(instance);
+        if (resourceTenant instanceof String) {
+            return tenant.getGuid().equals(resourceTenant);
+        } else if (resourceTenant instanceof SecurityTenant) {
+            return tenant.getTenantId()
+                    == ((SecurityTenant) resourceTenant).getTenantId();
+        } else if (resourceTenant instanceof UUID) {
+            return tenant.getTenantId()
+                    == TenantDictionary.idOf((UUID) resourceTenant);
+        }
+        return resourceTenant != null
+                && tenant.getGuid().equals(resourceTenant.toString());
+    }
+
+    private Object invoke(Object instance) throws AuthorizationException {
+        if (failure != null) {
+            throw failure();
+        }
+        try {
+            return (Object) accessor.invokeExact(instance);
+        } catch (Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new AuthorizationException(String.format("Tenant details "
+                    + "could not be retrieved from method '%s' of resource "
+                    + "instance type '%s'.", methodName, resourceClassName), ex);
+        }
+    }
+
+    /**
+     * The cached resolution failure is shared by all callers, so each is
+     * thrown a new exception with its own stack trace.
+     */
+    private InvalidConstraintDefinitionException failure() {
+        return new InvalidConstraintDefinitionException(failure.getMessage(),
+                failure);
+    }
+}
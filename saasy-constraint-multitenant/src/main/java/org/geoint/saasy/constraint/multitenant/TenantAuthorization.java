@@ -15,75 +15,300 @@
  */
 package org.geoint.saasy.constraint.multitenant;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.geoint.saasy.TenantDictionary;
 import org.geoint.saasy.authz.Authorization;
 import org.geoint.saasy.authz.AuthorizationException;
 import org.geoint.saasy.session.SecuritySession;
 import org.geoint.saasy.authz.AuthorizationResult;
+import org.geoint.saasy.spi.constraint.AuthorizationPlan;
+import org.geoint.saasy.spi.constraint.AuthorizationPlanCompiler;
 
 /**
  * Ensures the current tenancy of the session permits access to the tenant
  * resource.
+ * <p>
+ * The tenant constraints of each resource action are compiled into an
+ * {@link AuthorizationPlan} by an {@link AuthorizationPlanCompiler} using only
+ * the {@link TenantConstraintProvider}, on first authorization of the action,
+ * and reused thereafter.
+ * <p>
+ * Result sets may be authorized in bulk. Since a tenant decision depends only
+ * on the resource class and resource tenant, bulk authorization groups the
+ * instances by class and tenant and evaluates each group once. An instance is
+ * permitted by bulk authorization if it is not
+ * {@link AuthorizationResult#DENIED denied}.
  *
  * @author steve_siebert
  */
 public class TenantAuthorization implements Authorization {
 
-    private static final Logger LOGGER
-            = Logger.getLogger(TenantAuthorization.class.getName());
     public static final TenantAuthorization INSTANCE = new TenantAuthorization();
 
+    private final AuthorizationPlanCompiler compiler
+            = new AuthorizationPlanCompiler(
+                    Collections.singleton(new TenantConstraintProvider()));
+
     private TenantAuthorization() {
     }
 
-    @Override
-    public AuthorizationResult authorize(ResourceOperationModel context,
+    /**
+     * Authorize the resource action on the resource instance.
+     *
+     * @param resourceAction method representing the resource action
+     * @param session security session
+     * @param instance resource instance
+     * @return authorization result, {@link AuthorizationResult#ABSTAIN} if the
+     * action is not tenant restricted
+     * @throws AuthorizationException if a tenant constraint of the action was
+     * invalid
+     */
+    public AuthorizationResult authorize(Method resourceAction,
             SecuritySession session, Object instance)
             throws AuthorizationException {
-        return context.getConstraints().stream()
-                .filter((c) -> c instanceof TenantConstraint) //ignore non-tenant constraints
-                .map((c) -> (TenantConstraint) c)
-                .filter((c) -> c.getResourceClassName().contentEquals(instance.getClass().getName())) //only constraints associated with this resource type
-                .map((c) -> {
-                    //authorize if resource tenant is the same as the current 
-                    //session tenancy
-                    try {
-                        Method tenantMethod = instance.getClass().getMethod(c.getTenantMethodName());
-                        String tenantGuid = tenantMethod.invoke(instance).toString();
-                        if (session.getTenancy().getGuid().contentEquals(tenantGuid)) {
-                            return Authorization.AuthorizationResult.AUTHORIZED;
-                        }
-                        return Authorization.AuthorizationResult.DENIED; //session is not the same tenant
-                    } catch (NoSuchMethodException ex) {
-                        //tenant accessor defined by the constraint correct 
-                        //for this resource
-                        LOGGER.log(Level.SEVERE, String.format(
-                                "Authorization to tenant-protected resource '%s' "
-                                + "could not be completed, resource tenant "
-                                + "could not be determined from method '%s' "
-                                + "on class '%s'", context.toString(),
-                                c.getTenantMethodName(),
-                                c.getResourceClassName()), ex);
-                        return Authorization.AuthorizationResult.DENIED;
-                    } catch (InvocationTargetException |
-                            IllegalAccessException |
-                            IllegalArgumentException |
-                            SecurityException ex) {
-                        //tenant information could not be accessed
-                        LOGGER.log(Level.SEVERE, String.format("Tenant "
-                                + "details could not be retrieved method '%s' "
-                                + "of resource instance type '%s'.",
-                                c.getTenantMethodName(),
-                                c.getResourceClassName()
-                        ), ex);
-                        return Authorization.AuthorizationResult.DENIED;
-                    }
-                }).reduce((r1, r2) -> r1.merge(r2))
-                .orElse(AuthorizationResult.ABSTAIN);
+        return plan(resourceAction).authorize(session, instance);
+    }
+
+    /**
+     * Authorize each resource instance, returning the indices of the
+     * permitted instances.
+     *
+     * @param resourceAction method representing the resource action
+     * @param session security session
+     * @param instances resource instances
+     * @return bitmap of permitted instance indices
+     * @throws AuthorizationException if a tenant constraint of the action was
+     * invalid
+     */
+    public BitSet authorizeAll(Method resourceAction,
+            SecuritySession session, List<?> instances)
+            throws AuthorizationException {
+        return authorizeAll(plan(resourceAction), session, instances, false);
+    }
+
+    /**
+     * Authorize each resource instance, returning the indices of the
+     * permitted instances.
+     *
+     * @param resourceAction method representing the resource action
+     * @param session security session
+     * @param instances resource instances
+     * @param parallel true to authorize the instances in parallel, intended
+     * for very large result sets
+     * @return bitmap of permitted instance indices
+     * @throws AuthorizationException if a tenant constraint of the action was
+     * invalid
+     */
+    public BitSet authorizeAll(Method resourceAction,
+            SecuritySession session, List<?> instances, boolean parallel)
+            throws AuthorizationException {
+        return authorizeAll(plan(resourceAction), session, instances, parallel);
+    }
+
+    /**
+     * Return the resource instances permitted to the session, preserving the
+     * order of the instances.
+     *
+     * @param <T> resource type
+     * @param resourceAction method representing the resource action
+     * @param session security session
+     * @param instances resource instances
+     * @return permitted instances
+     * @throws AuthorizationException if a tenant constraint of the action was
+     * invalid
+     */
+    public <T> List<T> filter(Method resourceAction,
+            SecuritySession session, Collection<? extends T> instances)
+            throws AuthorizationException {
+        return filter(resourceAction, session, instances, false);
+    }
+
+    /**
+     * Return the resource instances permitted to the session, preserving the
+     * order of the instances.
+     *
+     * @param <T> resource type
+     * @param resourceAction method representing the resource action
+     * @param session security session
+     * @param instances resource instances
+     * @param parallel true to authorize the instances in parallel, intended
+     * for very large result sets
+     * @return permitted instances
+     * @throws AuthorizationException if a tenant constraint of the action was
+     * invalid
+     */
+    public <T> List<T> filter(Method resourceAction,
+            SecuritySession session, Collection<? extends T> instances,
+            boolean parallel)
+            throws AuthorizationException {
+        List<? extends T> list = (instances instanceof List)
+                ? (List<? extends T>) instances
+                : new ArrayList<>(instances);
+        BitSet permitted = authorizeAll(resourceAction, session, list, parallel);
+        List<T> filtered = new ArrayList<>(permitted.cardinality());
+        for (int i = permitted.nextSetBit(0); i >= 0;
+                i = permitted.nextSetBit(i + 1)) {
+            filtered.add(list.get(i));
+        }
+        return filtered;
+    }
+
+    /**
+     * Return the resource instances permitted to the session, preserving the
+     * encounter order of the stream.
+     * <p>
+     * Instances are authorized in parallel if the stream is parallel.
+     *
+     * @param <T> resource type
+     * @param resourceAction method representing the resource action
+     * @param session security session
+     * @param instances resource instances
+     * @return permitted instances
+     * @throws AuthorizationException if a tenant constraint of the action was
+     * invalid
+     */
+    public <T> List<T> filter(Method resourceAction,
+            SecuritySession session, Stream<? extends T> instances)
+            throws AuthorizationException {
+        final boolean parallel = instances.isParallel();
+        List<T> list = instances.collect(Collectors.toList());
+        return filter(resourceAction, session, list, parallel);
+    }
+
+    private AuthorizationPlan plan(Method resourceAction)
+            throws AuthorizationException {
+        return compiler.plan(resourceAction);
+    }
+
+    /**
+     * Authorize each instance against the tenant plan, evaluating the plan
+     * once for each distinct resource class and tenant.
+     *
+     * @param plan tenant authorization plan
+     * @param session security session
+     * @param instances resource instances
+     * @param parallel authorize in parallel
+     * @return bitmap of permitted instance indices
+     */
+    private static BitSet authorizeAll(AuthorizationPlan plan,
+            SecuritySession session, List<?> instances, boolean parallel) {
+        final int size = instances.size();
+        final BitSet permitted = new BitSet(size);
+        if (size == 0) {
+            return permitted;
+        }
+
+        if (!parallel) {
+            Map<Class<?>, Map<Integer, Boolean>> decisions
+                    = new IdentityHashMap<>();
+            for (int i = 0; i < size; i++) {
+                final Object instance = instances.get(i);
+                final Class<?> resourceClass = instance.getClass();
+                final int tenantId;
+                try {
+                    tenantId = tenantId(resourceClass, instance);
+                } catch (AuthorizationException ex) {
+                    //decide individually, failure handling is left to the plan
+                    permitted.set(i, isPermitted(plan, session, instance));
+                    continue;
+                }
+                Map<Integer, Boolean> tenants = decisions
+                        .computeIfAbsent(resourceClass, (c) -> new HashMap<>());
+                Boolean decision = tenants.get(tenantId);
+                if (decision == null) {
+                    decision = isPermitted(plan, session, instance);
+                    tenants.put(tenantId, decision);
+                }
+                permitted.set(i, decision);
+            }
+            return permitted;
+        }
+
+        final ConcurrentMap<Group, Boolean> decisions = new ConcurrentHashMap<>();
+        final boolean[] results = new boolean[size];
+        IntStream.range(0, size).parallel().forEach((i) -> {
+            final Object instance = instances.get(i);
+            final Class<?> resourceClass = instance.getClass();
+            try {
+                results[i] = decisions.computeIfAbsent(
+                        new Group(resourceClass, tenantId(resourceClass, instance)),
+                        (g) -> isPermitted(plan, session, instance));
+            } catch (AuthorizationException ex) {
+                results[i] = isPermitted(plan, session, instance);
+            }
+        });
+        for (int i = 0; i < size; i++) {
+            if (results[i]) {
+                permitted.set(i);
+            }
+        }
+        return permitted;
+    }
 
+    /**
+     * Tenant identifier of the instance, or {@link TenantDictionary#NO_TENANT}
+     * if the resource class does not define a valid tenant accessor (which
+     * are grouped together by class).
+     */
+    private static int tenantId(Class<?> resourceClass, Object instance)
+            throws AuthorizationException {
+        TenantAccessor accessor = TenantAccessor.forClass(resourceClass);
+        if (!accessor.isValid()) {
+            return TenantDictionary.NO_TENANT;
+        }
+        return accessor.tenantId(instance);
+    }
+
+    private static boolean isPermitted(AuthorizationPlan plan,
+            SecuritySession session, Object instance) {
+        return plan.authorize(session, instance) != AuthorizationResult.DENIED;
     }
 
+    /**
+     * Resource class and tenant of a group of resource instances.
+     */
+    private static final class Group {
+
+        private final Class<?> resourceClass;
+        private final int tenantId;
+
+        private Group(Class<?> resourceClass, int tenantId) {
+            this.resourceClass = resourceClass;
+            this.tenantId = tenantId;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 3;
+            hash = 29 * hash + resourceClass.hashCode();
+            hash = 29 * hash + tenantId;
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final Group other = (Group) obj;
+            return resourceClass == other.resourceClass
+                    && tenantId == other.tenantId;
+        }
+    }
 }
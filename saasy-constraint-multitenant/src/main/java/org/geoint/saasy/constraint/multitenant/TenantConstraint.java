@@ -43,22 +43,20 @@ public class TenantConstraint implements SecurityConstraint {
      * Create a constraint for the provided resource method.
      *
      * @param resourceActionMethod resource method
-     * @return
-     * @throws InvalidConstraintDefinitionException
+     * @return tenant constraint of the resource method
+     * @throws InvalidConstraintDefinitionException if the resource class does
+     * not define a valid {@link Tenant} method
      */
     public static TenantConstraint forMethod(Method resourceActionMethod)
             throws InvalidConstraintDefinitionException {
 
         Class<?> resourceClass = resourceActionMethod.getDeclaringClass();
 
-        Method tenantMethod = tenantAccessorMethod(resourceClass);
-        //verify the method takes no parameters
-        if (tenantMethod.getParameterCount() > 0) {
-            throw new InvalidConstraintDefinitionException("Tenant accessor "
-                    + "method must no require parameters.");
-        }
-        return new TenantConstraint(resourceClass.getName(), tenantMethod.getName());
-
+        //uses the generated accessor, if available, rather than a scan
+        TenantAccessor accessor = TenantAccessor.forClass(resourceClass);
+        accessor.validate();
+        return new TenantConstraint(resourceClass.getName(),
+                accessor.getMethodName());
     }
 
     /**
@@ -70,7 +68,7 @@ public class TenantConstraint implements SecurityConstraint {
      * @return method marked with {@link Tenant}
      * @throws InvalidConstraintDefinitionException if no such method exists
      */
-    private static Method tenantAccessorMethod(Class<?> resourceClass)
+    static Method tenantAccessorMethod(Class<?> resourceClass)
             throws InvalidConstraintDefinitionException {
 
         List<Method> tenantMethods = Arrays.stream(resourceClass.getMethods())
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.constraint.multitenant;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoint.saasy.authz.AuthorizationException;
+import org.geoint.saasy.authz.AuthorizationResult;
+import org.geoint.saasy.authz.InvalidConstraintDefinitionException;
+import org.geoint.saasy.session.SecuritySession;
+import org.geoint.saasy.spi.constraint.ConstraintEvaluator;
+
+/**
+ * Evaluates a {@link TenantConstraint}, authorizing the session if the
+ * resource tenant is the same as the current session tenancy.
+ * <p>
+ * Resource instances which are not of the constrained resource class are not
+ * subject to the constraint and the evaluator abstains.
+ *
+ * @author steve_siebert
+ */
+final class TenantConstraintEvaluator implements ConstraintEvaluator {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(TenantConstraintEvaluator.class.getName());
+
+    private final TenantConstraint constraint;
+
+    TenantConstraintEvaluator(TenantConstraint constraint) {
+        this.constraint = constraint;
+    }
+
+    @Override
+    public AuthorizationResult evaluate(SecuritySession session,
+            Object instance) {
+        final Class<?> resourceClass = instance.getClass();
+        if (!constraint.getResourceClassName().equals(resourceClass.getName())) {
+            //only constraints associated with this resource type
+            return AuthorizationResult.ABSTAIN;
+        }
+
+        try {
+            if (TenantAccessor.forClass(resourceClass)
+                    .isTenant(instance, session.getTenancy())) {
+                return AuthorizationResult.AUTHORIZED;
+            }
+            return AuthorizationResult.DENIED; //session is not the same tenant
+        } catch (InvalidConstraintDefinitionException ex) {
+            //tenant accessor defined by the constraint correct 
+            //for this resource
+            LOGGER.log(Level.SEVERE, String.format(
+                    "Authorization to tenant-protected resource could not be "
+                    + "completed, resource tenant could not be determined "
+                    + "from method '%s' on class '%s'",
+                    constraint.getTenantMethodName(),
+                    constraint.getResourceClassName()), ex);
+            return AuthorizationResult.DENIED;
+        } catch (AuthorizationException ex) {
+            //tenant information could not be accessed
+            LOGGER.log(Level.SEVERE, String.format("Tenant "
+                    + "details could not be retrieved method '%s' "
+                    + "of resource instance type '%s'.",
+                    constraint.getTenantMethodName(),
+                    constraint.getResourceClassName()
+            ), ex);
+            return AuthorizationResult.DENIED;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return constraint.toString();
+    }
+}
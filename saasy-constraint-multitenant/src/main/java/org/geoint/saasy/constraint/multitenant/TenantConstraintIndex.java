@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.constraint.multitenant;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Index of the tenant restricted resource classes, written at compile time
+ * by the {@link TenantConstraintProcessor}.
+ * <p>
+ * Each archive (or class output directory) compiled with the processor
+ * contains an index resource listing the binary names of its tenant
+ * restricted resource classes, one per line.
+ *
+ * @author steve_siebert
+ */
+public final class TenantConstraintIndex {
+
+    /**
+     * Name of the index resource.
+     */
+    public static final String INDEX_RESOURCE
+            = "META-INF/saasy/tenant-constraints";
+
+    private static final Logger LOGGER
+            = Logger.getLogger(TenantConstraintIndex.class.getName());
+
+    private TenantConstraintIndex() {
+    }
+
+    /**
+     * Load the generated tenant accessor of the resource class, if one was
+     * generated.
+     *
+     * @param resourceClass resource class
+     * @return generated accessor or null if the resource class was not
+     * compiled with the {@link TenantConstraintProcessor}
+     */
+    static GeneratedTenantAccessor<?> generatedAccessor(Class<?> resourceClass) {
+        final ClassLoader loader = resourceClass.getClassLoader();
+        if (loader == null) {
+            return null;
+        }
+        try {
+            Class<?> accessorClass = Class.forName(resourceClass.getName()
+                    + GeneratedTenantAccessor.ACCESSOR_SUFFIX, true, loader);
+            if (!GeneratedTenantAccessor.class.isAssignableFrom(accessorClass)) {
+                return null;
+            }
+            return (GeneratedTenantAccessor<?>) accessorClass
+                    .getConstructor().newInstance();
+        } catch (ClassNotFoundException ex) {
+            return null;
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            LOGGER.log(Level.WARNING, ex, () -> String.format("Unable to load "
+                    + "generated tenant accessor for resource class '%s'.",
+                    resourceClass.getName()));
+            return null;
+        }
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.constraint.multitenant;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Annotation processor which validates {@link TenantRestricted} resources at
+ * compile time and generates a {@link GeneratedTenantAccessor} for each.
+ * <p>
+ * A resource class declaring a {@link TenantRestricted} action must have
+ * exactly one public, parameterless, non-void method annotated with
+ * {@link Tenant}, and must itself be public. Definitions violating these
+ * rules are reported as compile errors rather than as an
+ * {@link org.geoint.saasy.authz.InvalidConstraintDefinitionException} on
+ * first use.
+ * <p>
+ * Only classes which themselves declare a {@link TenantRestricted} or
+ * {@link Tenant} method are processed, though inherited members of those
+ * classes are considered. A subclass which declares neither annotation does
+ * not get a generated accessor and falls back to the reflective accessor at
+ * runtime.
+ * <p>
+ * The binary names of all resource classes with a generated accessor are
+ * written to the {@link TenantConstraintIndex#INDEX_RESOURCE index resource},
+ * allowing the tenant restricted resources to be enumerated without scanning
+ * the classpath. On an incremental compile the existing index is merged,
+ * retaining entries for classes which were not recompiled. The processor
+ * therefore supports all annotation types (without claiming any) so the
+ * index is also maintained for compilations containing no tenant
+ * annotations.
+ * <p>
+ * The processor is registered as a service and runs automatically when this
+ * module is on the compile classpath.
+ *
+ * @author steve_siebert
+ */
+@SupportedAnnotationTypes("*")
+public class TenantConstraintProcessor extends AbstractProcessor {
+
+    private final Set<String> generated = new HashSet<>();
+    private final Set<String> indexed = new TreeSet<>();
+    private final Set<String> compiled = new HashSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations,
+            RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeIndex();
+            return false;
+        }
+
+        for (TypeElement type
+                : ElementFilter.typesIn(roundEnv.getRootElements())) {
+            addCompiled(type);
+        }
+
+        Set<TypeElement> resources = new LinkedHashSet<>();
+        for (Element e : roundEnv.getElementsAnnotatedWith(TenantRestricted.class)) {
+            resources.add((TypeElement) e.getEnclosingElement());
+        }
+        for (Element e : roundEnv.getElementsAnnotatedWith(Tenant.class)) {
+            resources.add((TypeElement) e.getEnclosingElement());
+        }
+        for (TypeElement resource : resources) {
+            processResource(resource);
+        }
+        return false; //other processors may also use these annotations
+    }
+
+    private void processResource(TypeElement resource) {
+        final Elements elements = processingEnv.getElementUtils();
+        final Messager messager = processingEnv.getMessager();
+
+        List<ExecutableElement> tenantMethods = new ArrayList<>();
+        List<String> restricted = new ArrayList<>();
+        for (ExecutableElement m
+                : ElementFilter.methodsIn(elements.getAllMembers(resource))) {
+            if (m.getAnnotation(Tenant.class) != null) {
+                tenantMethods.add(m);
+            }
+            if (m.getAnnotation(TenantRestricted.class) != null) {
+                restricted.add(m.getSimpleName().toString());
+            }
+        }
+
+        //validate @Tenant is defined properly for the resource
+        boolean valid = true;
+        if (tenantMethods.size() > 1) {
+            for (ExecutableElement m : tenantMethods) {
+                messager.printMessage(Diagnostic.Kind.ERROR, String.format(
+                        "%d methods were defined with @Tenant in resource "
+                        + "class '%s', there may be only one.",
+                        tenantMethods.size(), resource.getQualifiedName()), m);
+            }
+            valid = false;
+        }
+        for (ExecutableElement m : tenantMethods) {
+            valid &= validateTenantMethod(m);
+        }
+        if (restricted.isEmpty()) {
+            return; //@Tenant without restricted actions, nothing to generate
+        }
+        if (tenantMethods.isEmpty()) {
+            messager.printMessage(Diagnostic.Kind.ERROR, String.format(
+                    "Resource class '%s' declares @TenantRestricted actions "
+                    + "but did not contain a method annotated with @Tenant.",
+                    resource.getQualifiedName()), resource);
+            return;
+        }
+        if (!isPublic(resource)) {
+            messager.printMessage(Diagnostic.Kind.ERROR, String.format(
+                    "Tenant restricted resource class '%s' must be public.",
+                    resource.getQualifiedName()), resource);
+            return;
+        }
+        if (!valid) {
+            return;
+        }
+
+        final String binaryName = elements.getBinaryName(resource).toString();
+        if (generated.add(binaryName)) {
+            generateAccessor(resource, binaryName, tenantMethods.get(0),
+                    restricted);
+            indexed.add(binaryName);
+        }
+    }
+
+    private boolean validateTenantMethod(ExecutableElement m) {
+        final Messager messager = processingEnv.getMessager();
+        String error = null;
+        if (!m.getModifiers().contains(Modifier.PUBLIC)) {
+            error = "Tenant accessor method must be public.";
+        } else if (m.getModifiers().contains(Modifier.STATIC)) {
+            error = "Tenant accessor method must not be static.";
+        } else if (!m.getParameters().isEmpty()) {
+            error = "Tenant accessor method must not require parameters.";
+        } else if (m.getReturnType().getKind() == TypeKind.VOID) {
+            error = "Tenant accessor method must return the resource tenant.";
+        }
+        if (error != null) {
+            messager.printMessage(Diagnostic.Kind.ERROR, error, m);
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isPublic(TypeElement type) {
+        Element e = type;
+        while (e.getKind().isClass() || e.getKind().isInterface()) {
+            if (!e.getModifiers().contains(Modifier.PUBLIC)) {
+                return false;
+            }
+            final TypeElement t = (TypeElement) e;
+            if (t.getNestingKind() == NestingKind.MEMBER
+                    && t.getKind() == ElementKind.CLASS
+                    && !t.getModifiers().contains(Modifier.STATIC)) {
+                return false; //inner class
+            }
+            e = e.getEnclosingElement();
+        }
+        return true;
+    }
+
+    private void generateAccessor(TypeElement resource, String binaryName,
+            ExecutableElement tenantMethod, List<String> restricted) {
+        final String pkg = processingEnv.getElementUtils()
+                .getPackageOf(resource).getQualifiedName().toString();
+        final String accessorName = binaryName
+                + GeneratedTenantAccessor.ACCESSOR_SUFFIX;
+        final String simpleName = pkg.isEmpty()
+                ? accessorName
+                : accessorName.substring(pkg.length() + 1);
+        final String resourceType = resource.getQualifiedName().toString();
+
+        try {
+            JavaFileObject file = processingEnv.getFiler()
+                    .createSourceFile(accessorName, resource);
+            try (PrintWriter out = new PrintWriter(file.openWriter())) {
+                if (!pkg.isEmpty()) {
+                    out.printf("package %s;%n%n", pkg);
+                }
+                out.printf("/**%n * Tenant accessor for {@link %s}.%n"
+                        + " * <p>%n * Generated by %s, do not edit.%n */%n",
+                        resourceType, getClass().getName());
+                out.printf("public final class %s implements %s<%s> {%n%n",
+                        simpleName, GeneratedTenantAccessor.class.getName(),
+                        resourceType);
+                out.printf("    private static final String[] "
+                        + "RESTRICTED_ACTIONS = {%s};%n%n",
+                        restricted.stream()
+                                .map((n) -> "\"" + n + "\"")
+                                .collect(Collectors.joining(", ")));
+                out.printf("    @Override%n"
+                        + "    public Class<%1$s> getResourceClass() {%n"
+                        + "        return %1$s.class;%n"
+                        + "    }%n%n", resourceType);
+                out.printf("    @Override%n"
+                        + "    public String getTenantMethodName() {%n"
+                        + "        return \"%s\";%n"
+                        + "    }%n%n", tenantMethod.getSimpleName());
+                out.printf("    @Override%n"
+                        + "    public String[] getRestrictedActions() {%n"
+                        + "        return RESTRICTED_ACTIONS.clone();%n"
+                        + "    }%n%n");
+                out.printf("    @Override%n"
+                        + "    public Object tenant(%s resource) "
+                        + "throws Throwable {%n"
+                        + "        return resource.%s();%n"
+                        + "    }%n", resourceType, tenantMethod.getSimpleName());
+                out.printf("}%n");
+            }
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    String.format("Unable to generate tenant accessor for "
+                            + "resource class '%s': %s", resourceType,
+                            ex.getMessage()), resource);
+        }
+    }
+
+    private void addCompiled(TypeElement type) {
+        compiled.add(processingEnv.getElementUtils()
+                .getBinaryName(type).toString());
+        for (TypeElement nested
+                : ElementFilter.typesIn(type.getEnclosedElements())) {
+            addCompiled(nested);
+        }
+    }
+
+    private void writeIndex() {
+        final Set<String> previous = readIndex();
+        if (indexed.isEmpty() && previous.isEmpty()) {
+            return;
+        }
+
+        //retain previously indexed classes which were not part of this
+        //compilation and still exist
+        for (String resource : previous) {
+            if (!compiled.contains(resource) && exists(resource)) {
+                indexed.add(resource);
+            }
+        }
+
+        try {
+            FileObject index = processingEnv.getFiler().createResource(
+                    StandardLocation.CLASS_OUTPUT, "",
+                    TenantConstraintIndex.INDEX_RESOURCE);
+            try (Writer out = index.openWriter()) {
+                for (String resource : indexed) {
+                    out.write(resource);
+                    out.write('\n');
+                }
+            }
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    String.format("Unable to write tenant constraint index "
+                            + "'%s': %s", TenantConstraintIndex.INDEX_RESOURCE,
+                            ex.getMessage()));
+        }
+    }
+
+    /**
+     * Whether a type with the binary name exists.
+     * <p>
+     * '$' separates nested type names in a binary name but is also legal
+     * within a type name, so each possible top level type is looked up and
+     * the binary names of its nested types compared.
+     */
+    private boolean exists(String binaryName) {
+        final Elements elements = processingEnv.getElementUtils();
+        final int simpleStart = binaryName.lastIndexOf('.') + 1;
+        int nested = binaryName.indexOf('$', simpleStart);
+        while (true) {
+            final String topLevel = (nested < 0)
+                    ? binaryName
+                    : binaryName.substring(0, nested);
+            final TypeElement type = elements.getTypeElement(topLevel);
+            if (type != null && type.getNestingKind() == NestingKind.TOP_LEVEL
+                    && exists(type, binaryName)) {
+                return true;
+            }
+            if (nested < 0) {
+                return false;
+            }
+            nested = binaryName.indexOf('$', nested + 1);
+        }
+    }
+
+    private boolean exists(TypeElement type, String binaryName) {
+        final String name = processingEnv.getElementUtils()
+                .getBinaryName(type).toString();
+        if (name.equals(binaryName)) {
+            return true;
+        }
+        if (!binaryName.startsWith(name + '$')) {
+            return false;
+        }
+        for (TypeElement nested
+                : ElementFilter.typesIn(type.getEnclosedElements())) {
+            if (exists(nested, binaryName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the index written by a previous compilation to the class output,
+     * if any.
+     *
+     * @return previously indexed binary names, empty if there is no index
+     */
+    private Set<String> readIndex() {
+        final Set<String> previous = new TreeSet<>();
+        try {
+            FileObject index = processingEnv.getFiler().getResource(
+                    StandardLocation.CLASS_OUTPUT, "",
+                    TenantConstraintIndex.INDEX_RESOURCE);
+            try (BufferedReader in = new BufferedReader(
+                    index.openReader(true))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    line = line.trim();
+                    if (!line.isEmpty()) {
+                        previous.add(line);
+                    }
+                }
+            }
+        } catch (IOException | IllegalArgumentException ex) {
+            //no previous index
+        }
+        return previous;
+    }
+}
@@ -20,6 +20,7 @@ import java.util.Map;
 import java.util.logging.Logger;
 import org.geoint.saasy.UnsupportedSecurityTokenException;
 import org.geoint.saasy.authz.InvalidConstraintDefinitionException;
+import org.geoint.saasy.spi.constraint.ConstraintEvaluator;
 import org.geoint.saasy.spi.constraint.SecurityConstraintProvider;
 
 /**
@@ -62,6 +63,12 @@ public class TenantConstraintProvider
 
     }
 
+    @Override
+    public ConstraintEvaluator createEvaluator(TenantConstraint constraint)
+            throws IllegalStateException, InvalidConstraintDefinitionException {
+        return new TenantConstraintEvaluator(constraint);
+    }
+
     @Override
     public void shutdown() {
         //no shutdown required
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.constraint.multitenant;
+
+import org.geoint.saasy.TenantDictionary;
+import org.geoint.saasy.authz.InvalidConstraintDefinitionException;
+import org.geoint.saasy.spi.constraint.MockTenant;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author steve_siebert
+ */
+public class TenantAccessorTest {
+
+    /**
+     * Test that the accessor returns the tenant of the resource instance.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testTenantGuid() throws Exception {
+        MockMultitenantResource resource = MockMultitenantResource.random();
+        TenantAccessor accessor
+                = TenantAccessor.forClass(MockMultitenantResource.class);
+
+        assertTrue(accessor.isValid());
+        assertEquals("getTenantGuid", accessor.getMethodName());
+        assertEquals(resource.getTenantGuid(), accessor.tenantGuid(resource));
+    }
+
+    /**
+     * Test that the accessor returns the dictionary identifier of the
+     * resource tenant.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testTenantId() throws Exception {
+        MockMultitenantResource resource = MockMultitenantResource.random();
+        TenantAccessor accessor
+                = TenantAccessor.forClass(MockMultitenantResource.class);
+
+        assertEquals(new MockTenant(resource.getTenantGuid()).getTenantId(),
+                accessor.tenantId(resource));
+        assertEquals(TenantDictionary.NO_TENANT,
+                accessor.tenantId(new MockMultitenantResource(null, "guid")));
+    }
+
+    /**
+     * Test tenant ownership checks of the resource instance.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testIsTenant() throws Exception {
+        MockMultitenantResource resource = MockMultitenantResource.random();
+        TenantAccessor accessor
+                = TenantAccessor.forClass(MockMultitenantResource.class);
+
+        assertTrue(accessor.isTenant(resource,
+                new MockTenant(resource.getTenantGuid())));
+        assertFalse(accessor.isTenant(resource,
+                new MockTenant(resource.getResourceGuid())));
+        assertFalse(accessor.isTenant(new MockMultitenantResource(null, "guid"),
+                new MockTenant(resource.getTenantGuid())));
+    }
+
+    /**
+     * Test that the accessor is resolved once per resource class.
+     */
+    @Test
+    public void testAccessorCached() {
+        assertSame(TenantAccessor.forClass(MockMultitenantResource.class),
+                TenantAccessor.forClass(MockMultitenantResource.class));
+    }
+
+    /**
+     * Test that a resource class without a {@link Tenant} method results in
+     * an invalid accessor which throws when used.
+     *
+     * @throws Exception
+     */
+    @Test(expected = InvalidConstraintDefinitionException.class)
+    public void testMissingTenantAccessor() throws Exception {
+        TenantAccessor accessor
+                = TenantAccessor.forClass(MockMissingTenantResource.class);
+        assertFalse(accessor.isValid());
+        accessor.tenantGuid(new MockMissingTenantResource());
+    }
+
+    /**
+     * Test that each use of an invalid accessor throws a new exception caused
+     * by the cached resolution failure.
+     */
+    @Test
+    public void testFailureNotShared() {
+        TenantAccessor accessor
+                = TenantAccessor.forClass(MockMissingTenantResource.class);
+        InvalidConstraintDefinitionException first = null;
+        InvalidConstraintDefinitionException second = null;
+        try {
+            accessor.validate();
+        } catch (InvalidConstraintDefinitionException ex) {
+            first = ex;
+        }
+        try {
+            accessor.validate();
+        } catch (InvalidConstraintDefinitionException ex) {
+            second = ex;
+        }
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNotSame(first, second);
+        assertSame(first.getCause(), second.getCause());
+        assertEquals(first.getCause().getMessage(), first.getMessage());
+    }
+}
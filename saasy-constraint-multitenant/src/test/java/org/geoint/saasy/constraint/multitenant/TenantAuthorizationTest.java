@@ -15,6 +15,17 @@
  */
 package org.geoint.saasy.constraint.multitenant;
 
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.UUID;
+import org.geoint.saasy.authz.AuthorizationResult;
+import org.geoint.saasy.spi.constraint.AuthorizationPlan;
+import org.geoint.saasy.spi.constraint.AuthorizationPlanCompiler;
+import org.geoint.saasy.spi.constraint.MockSession;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -23,19 +34,150 @@ import static org.junit.Assert.*;
  * @author steve_siebert
  */
 public class TenantAuthorizationTest {
-    
+
+    private static final AuthorizationPlanCompiler COMPILER
+            = new AuthorizationPlanCompiler(
+                    Collections.singleton(new TenantConstraintProvider()));
+
     @Test
     public void testAuthorized() throws Exception{
-        
+        MockMultitenantResource resource = MockMultitenantResource.random();
+        AuthorizationPlan plan = COMPILER.plan(
+                MockMultitenantResource.class.getMethod("increment"));
+
+        assertEquals(1, plan.size());
+        assertEquals(AuthorizationResult.AUTHORIZED, plan.authorize(
+                MockSession.forTenant(resource.getTenantGuid()),
+                resource));
     }
     
     @Test
     public void testInvalidTenantDenied () throws Exception {
-        
+        MockMultitenantResource resource = MockMultitenantResource.random();
+        AuthorizationPlan plan = COMPILER.plan(
+                MockMultitenantResource.class.getMethod("increment"));
+
+        assertEquals(AuthorizationResult.DENIED, plan.authorize(
+                MockSession.forTenant(UUID.randomUUID().toString()),
+                resource));
     }
     
     @Test
     public void testNotTenantRestrictedAbstained () throws Exception {
-        
+        MockMultitenantResource resource = MockMultitenantResource.random();
+        AuthorizationPlan plan = COMPILER.plan(
+                MockMultitenantResource.class.getMethod("getIncrement"));
+
+        assertTrue(plan.isEmpty());
+        assertEquals(AuthorizationResult.ABSTAIN, plan.authorize(
+                MockSession.forTenant(UUID.randomUUID().toString()),
+                resource));
+    }
+
+    @Test
+    public void testPlanCompiledOnce() throws Exception {
+        assertSame(COMPILER.plan(MockMultitenantResource.class.getMethod("increment")),
+                COMPILER.plan(MockMultitenantResource.class.getMethod("increment")));
+    }
+
+    @Test
+    public void testAuthorize() throws Exception {
+        MockMultitenantResource resource = MockMultitenantResource.random();
+        final Method increment
+                = MockMultitenantResource.class.getMethod("increment");
+        assertEquals(AuthorizationResult.AUTHORIZED,
+                TenantAuthorization.INSTANCE.authorize(increment,
+                        MockSession.forTenant(resource.getTenantGuid()),
+                        resource));
+        assertEquals(AuthorizationResult.DENIED,
+                TenantAuthorization.INSTANCE.authorize(increment,
+                        MockSession.forTenant(
+                                UUID.randomUUID().toString()), resource));
+    }
+
+    @Test
+    public void testAuthorizeAll() throws Exception {
+        final String tenantGuid = UUID.randomUUID().toString();
+        List<MockMultitenantResource> resources = resources(tenantGuid, 100);
+
+        BitSet permitted = TenantAuthorization.INSTANCE.authorizeAll(
+                MockMultitenantResource.class.getMethod("increment"),
+                MockSession.forTenant(tenantGuid), resources);
+        assertEquals(50, permitted.cardinality());
+        for (int i = 0; i < resources.size(); i++) {
+            assertEquals(tenantGuid.equals(resources.get(i).getTenantGuid()),
+                    permitted.get(i));
+        }
+    }
+
+    @Test
+    public void testAuthorizeAllParallel() throws Exception {
+        final String tenantGuid = UUID.randomUUID().toString();
+        List<MockMultitenantResource> resources = resources(tenantGuid, 10_000);
+        final Method increment
+                = MockMultitenantResource.class.getMethod("increment");
+
+        assertEquals(TenantAuthorization.INSTANCE.authorizeAll(increment,
+                MockSession.forTenant(tenantGuid), resources, false),
+                TenantAuthorization.INSTANCE.authorizeAll(increment,
+                        MockSession.forTenant(tenantGuid), resources,
+                        true));
+    }
+
+    @Test
+    public void testAuthorizeAllUnrestricted() throws Exception {
+        List<MockMultitenantResource> resources
+                = resources(UUID.randomUUID().toString(), 10);
+        assertEquals(10, TenantAuthorization.INSTANCE.authorizeAll(
+                MockMultitenantResource.class.getMethod("getIncrement"),
+                MockSession.forTenant(UUID.randomUUID().toString()),
+                resources).cardinality());
+    }
+
+    @Test
+    public void testFilter() throws Exception {
+        final String tenantGuid = UUID.randomUUID().toString();
+        List<MockMultitenantResource> resources = resources(tenantGuid, 100);
+        final Method increment
+                = MockMultitenantResource.class.getMethod("increment");
+
+        List<MockMultitenantResource> filtered
+                = TenantAuthorization.INSTANCE.filter(increment,
+                        MockSession.forTenant(tenantGuid),
+                        new LinkedHashSet<>(resources));
+        assertEquals(50, filtered.size());
+        for (int i = 0; i < filtered.size(); i++) {
+            assertSame(resources.get(i * 2), filtered.get(i));
+        }
+    }
+
+    @Test
+    public void testFilterStream() throws Exception {
+        final String tenantGuid = UUID.randomUUID().toString();
+        List<MockMultitenantResource> resources = resources(tenantGuid, 1_000);
+        final Method increment
+                = MockMultitenantResource.class.getMethod("increment");
+
+        List<MockMultitenantResource> expected
+                = TenantAuthorization.INSTANCE.filter(increment,
+                        MockSession.forTenant(tenantGuid), resources);
+        assertEquals(500, expected.size());
+        assertEquals(expected, TenantAuthorization.INSTANCE.filter(increment,
+                MockSession.forTenant(tenantGuid),
+                resources.parallelStream()));
+    }
+
+    /**
+     * Create resources, every other one owned by the tenant.
+     */
+    private static List<MockMultitenantResource> resources(String tenantGuid,
+            int num) {
+        List<MockMultitenantResource> resources = new ArrayList<>(num);
+        for (int i = 0; i < num; i++) {
+            resources.add((i % 2 == 0)
+                    ? MockMultitenantResource.tenantRandom(tenantGuid)
+                    : MockMultitenantResource.random());
+        }
+        return resources;
     }
 }
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.constraint.multitenant;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.geoint.saasy.SecurityTenant;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author steve_siebert
+ */
+public class TenantConstraintProcessorTest {
+
+    private static final String VALID_RESOURCE
+            = "package test.resource;\n"
+            + "import org.geoint.saasy.constraint.multitenant.*;\n"
+            + "public class ValidResource {\n"
+            + "    private final String tenant;\n"
+            + "    public ValidResource(String tenant) { this.tenant = tenant; }\n"
+            + "    @Tenant public String getTenant() { return tenant; }\n"
+            + "    @TenantRestricted public void update() { }\n"
+            + "    @TenantRestricted public void delete() { }\n"
+            + "}\n";
+
+    private Path output;
+    private DiagnosticCollector<JavaFileObject> diagnostics;
+
+    @Before
+    public void setup() throws IOException {
+        output = Files.createTempDirectory("saasy-processor");
+        diagnostics = new DiagnosticCollector<>();
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        Files.walk(output)
+                .sorted(Collections.reverseOrder())
+                .map(Path::toFile)
+                .forEach(File::delete);
+    }
+
+    /**
+     * Test that a valid resource generates an accessor which is used at
+     * runtime, and is written to the index.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGeneratedAccessor() throws Exception {
+        assertTrue(compile("test.resource.ValidResource", VALID_RESOURCE));
+
+        try (URLClassLoader loader = new URLClassLoader(
+                new URL[]{output.toUri().toURL()},
+                getClass().getClassLoader())) {
+            Class<?> resourceClass
+                    = loader.loadClass("test.resource.ValidResource");
+            GeneratedTenantAccessor<?> generated
+                    = TenantConstraintIndex.generatedAccessor(resourceClass);
+            assertNotNull(generated);
+            assertSame(resourceClass, generated.getResourceClass());
+            assertEquals("getTenant", generated.getTenantMethodName());
+            assertEquals(Arrays.asList("update", "delete"),
+                    Arrays.asList(generated.getRestrictedActions()));
+
+            Object resource = resourceClass.getConstructor(String.class)
+                    .newInstance("tenantGuid");
+            TenantAccessor accessor = TenantAccessor.forClass(resourceClass);
+            assertTrue(accessor.isValid());
+            assertEquals("getTenant", accessor.getMethodName());
+            assertEquals("tenantGuid", accessor.tenantGuid(resource));
+        }
+        assertTrue(indexed().contains("test.resource.ValidResource"));
+    }
+
+    /**
+     * Test that an incremental compile retains index entries of resources
+     * which were not recompiled, and drops recompiled classes which are no
+     * longer restricted.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testIncrementalIndex() throws Exception {
+        assertTrue(compile("test.resource.ValidResource", VALID_RESOURCE));
+        assertTrue(compile("test.resource.OtherResource",
+                "package test.resource;\n"
+                + "import org.geoint.saasy.constraint.multitenant.*;\n"
+                + "public class OtherResource {\n"
+                + "    @Tenant public String getTenant() { return null; }\n"
+                + "    @TenantRestricted public void update() { }\n"
+                + "}\n"));
+        assertEquals(new TreeSet<>(Arrays.asList(
+                "test.resource.OtherResource", "test.resource.ValidResource")),
+                indexed());
+
+        assertTrue(compile("test.resource.ValidResource",
+                "package test.resource;\n"
+                + "public class ValidResource {\n"
+                + "}\n"));
+        assertEquals(Collections.singleton("test.resource.OtherResource"),
+                indexed());
+    }
+
+    /**
+     * Test that a restricted resource without a {@link Tenant} method fails
+     * to compile.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMissingTenant() throws Exception {
+        assertFalse(compile("test.resource.MissingTenant",
+                "package test.resource;\n"
+                + "import org.geoint.saasy.constraint.multitenant.*;\n"
+                + "public class MissingTenant {\n"
+                + "    @TenantRestricted public void update() { }\n"
+                + "}\n"));
+        assertError("did not contain a method annotated with @Tenant");
+    }
+
+    /**
+     * Test that a resource with more than one {@link Tenant} method fails to
+     * compile.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMultipleTenants() throws Exception {
+        assertFalse(compile("test.resource.MultipleTenants",
+                "package test.resource;\n"
+                + "import org.geoint.saasy.constraint.multitenant.*;\n"
+                + "public class MultipleTenants {\n"
+                + "    @Tenant public String getTenant() { return null; }\n"
+                + "    @Tenant public String getOwner() { return null; }\n"
+                + "    @TenantRestricted public void update() { }\n"
+                + "}\n"));
+        assertError("there may be only one");
+    }
+
+    /**
+     * Test that a {@link Tenant} method requiring parameters fails to
+     * compile.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testTenantParameters() throws Exception {
+        assertFalse(compile("test.resource.TenantParameters",
+                "package test.resource;\n"
+                + "import org.geoint.saasy.constraint.multitenant.*;\n"
+                + "public class TenantParameters {\n"
+                + "    @Tenant public String getTenant(int i) { return null; }\n"
+                + "    @TenantRestricted public void update() { }\n"
+                + "}\n"));
+        assertError("must not require parameters");
+    }
+
+    /**
+     * Test that an incremental compile retains index entries of nested
+     * resources and resources with '$' in their name.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testIncrementalIndexBinaryNames() throws Exception {
+        assertTrue(compile("test.resource.Dollar$Resource",
+                "package test.resource;\n"
+                + "import org.geoint.saasy.constraint.multitenant.*;\n"
+                + "public class Dollar$Resource {\n"
+                + "    @Tenant public String getTenant() { return null; }\n"
+                + "    @TenantRestricted public void update() { }\n"
+                + "    public static class Nested$Resource {\n"
+                + "        @Tenant public String getTenant() { return null; }\n"
+                + "        @TenantRestricted public void update() { }\n"
+                + "    }\n"
+                + "}\n"));
+        final Set<String> expected = new TreeSet<>(Arrays.asList(
+                "test.resource.Dollar$Resource",
+                "test.resource.Dollar$Resource$Nested$Resource"));
+        assertEquals(expected, indexed());
+
+        assertTrue(compile("test.resource.ValidResource", VALID_RESOURCE));
+        expected.add("test.resource.ValidResource");
+        assertEquals(expected, indexed());
+    }
+
+    private Set<String> indexed() throws IOException {
+        final Set<String> indexed = new TreeSet<>();
+        for (String line : Files.readAllLines(output.resolve(
+                TenantConstraintIndex.INDEX_RESOURCE),
+                StandardCharsets.UTF_8)) {
+            if (!line.trim().isEmpty()) {
+                indexed.add(line.trim());
+            }
+        }
+        return indexed;
+    }
+
+    private boolean compile(String className, String source)
+            throws IOException, URISyntaxException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertNotNull("Tests require a JDK.", compiler);
+        try (StandardJavaFileManager files
+                = compiler.getStandardFileManager(diagnostics, null, null)) {
+            List<String> options = Arrays.asList(
+                    "-d", output.toString(),
+                    "-classpath", classpath(Tenant.class, SecurityTenant.class)
+                    + File.pathSeparator + output);
+            JavaCompiler.CompilationTask task = compiler.getTask(null, files,
+                    diagnostics, options, null,
+                    Collections.singletonList(new Source(className, source)));
+            task.setProcessors(Collections.singletonList(
+                    new TenantConstraintProcessor()));
+            return task.call();
+        }
+    }
+
+    private void assertError(String message) {
+        assertTrue(diagnostics.getDiagnostics().stream()
+                .filter((d) -> d.getKind() == Diagnostic.Kind.ERROR)
+                .anyMatch((d) -> d.getMessage(null).contains(message)));
+    }
+
+    private static String classpath(Class<?>... classes)
+            throws URISyntaxException {
+        StringBuilder sb = new StringBuilder();
+        for (Class<?> c : classes) {
+            if (sb.length() > 0) {
+                sb.append(File.pathSeparator);
+            }
+            sb.append(new File(c.getProtectionDomain().getCodeSource()
+                    .getLocation().toURI()).getPath());
+        }
+        return sb.toString();
+    }
+
+    private static class Source extends SimpleJavaFileObject {
+
+        private final String source;
+
+        private Source(String className, String source) {
+            super(URI.create("string:///" + className.replace('.', '/')
+                    + Kind.SOURCE.extension), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+}
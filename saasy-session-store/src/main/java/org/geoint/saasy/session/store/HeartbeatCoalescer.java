@@ -0,0 +1,241 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.session.store;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoint.saasy.session.SecuritySession;
+import org.geoint.saasy.session.SessionSubscriber;
+import org.geoint.saasy.session.event.SecuritySessionSubscriberHeartbeat;
+
+/**
+ * Coalesces subscriber heartbeats, applying them to session activity and
+ * notifying listeners in batches.
+ * <p>
+ * Recording a {@link #heartbeat(SecuritySession, SessionSubscriber)
+ * heartbeat} only updates a counter in one of a number of striped buffers,
+ * selected by the calling thread, so frequent heartbeats from many
+ * subscribers do not contend on shared session state. Each
+ * {@link #flush() flush} drains the buffers, hands the latest heartbeat of
+ * each subscriber to the {@link ActivityRecorder} and notifies registered
+ * {@link SecuritySession.Listener listeners} with a single
+ * {@link SecuritySessionSubscriberHeartbeat} per subscriber, carrying the
+ * number of heartbeats coalesced.
+ * <p>
+ * The coalescer is {@link Runnable} and is expected to be run periodically by
+ * a scheduler; the scheduling period is the rate at which listeners receive
+ * heartbeat events.
+ * <p>
+ * Instances are thread-safe.
+ *
+ * @author steve_siebert
+ */
+public class HeartbeatCoalescer implements Runnable {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(HeartbeatCoalescer.class.getName());
+
+    private final Clock clock;
+    private final ActivityRecorder recorder;
+    private final Stripe[] stripes;
+    private final int stripeBits;
+    private final List<SecuritySession.Listener> listeners
+            = new CopyOnWriteArrayList<>();
+
+    /**
+     * Coalescer using the system clock which only notifies listeners.
+     */
+    public HeartbeatCoalescer() {
+        this(Clock.systemUTC(), (s, sub, t) -> {
+        });
+    }
+
+    /**
+     * Coalescer using the provided clock, applying flushed heartbeats to the
+     * activity recorder.
+     *
+     * @param clock clock
+     * @param recorder applies heartbeats to session activity
+     */
+    public HeartbeatCoalescer(Clock clock, ActivityRecorder recorder) {
+        this.clock = clock;
+        this.recorder = recorder;
+        final int n = Integer.highestOneBit(
+                Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+        this.stripes = new Stripe[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.stripeBits = Integer.numberOfTrailingZeros(n);
+    }
+
+    /**
+     * Register a listener to be notified of coalesced heartbeats.
+     *
+     * @param listener listener
+     */
+    public void addListener(SecuritySession.Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(SecuritySession.Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Record a subscriber heartbeat, to be applied on the next flush.
+     *
+     * @param session subscribed session
+     * @param subscriber session subscriber
+     */
+    public void heartbeat(SecuritySession session, SessionSubscriber subscriber) {
+        final long now = clock.millis();
+        final Stripe stripe = stripes[stripe(Thread.currentThread().getId())];
+        synchronized (stripe) {
+            Beats b = stripe.beats.get(subscriber);
+            if (b == null) {
+                b = new Beats(session, subscriber);
+                stripe.beats.put(subscriber, b);
+            }
+            b.count++;
+            b.lastMillis = Math.max(b.lastMillis, now);
+        }
+    }
+
+    /**
+     * Drain the heartbeat buffers, recording activity and notifying listeners
+     * once for each subscriber that sent a heartbeat since the last flush.
+     *
+     * @return number of subscribers flushed
+     */
+    public int flush() {
+        Map<SessionSubscriber, Beats> pending = null;
+        for (Stripe stripe : stripes) {
+            final Map<SessionSubscriber, Beats> drained;
+            synchronized (stripe) {
+                if (stripe.beats.isEmpty()) {
+                    continue;
+                }
+                drained = stripe.beats;
+                stripe.beats = new HashMap<>();
+            }
+            if (pending == null) {
+                pending = drained;
+            } else {
+                for (Beats b : drained.values()) {
+                    pending.merge(b.subscriber, b, Beats::merge);
+                }
+            }
+        }
+        if (pending == null) {
+            return 0;
+        }
+
+        for (Beats b : pending.values()) {
+            final ZonedDateTime last = ZonedDateTime.ofInstant(
+                    Instant.ofEpochMilli(b.lastMillis), clock.getZone());
+            try {
+                recorder.recordActivity(b.session, b.subscriber, last);
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, ex, () -> String.format("Unable to "
+                        + "record heartbeat activity for subscriber '%s' of "
+                        + "session '%s'.", b.subscriber.getSubscriber().getGuid(),
+                        b.session.getSessionGuid()));
+            }
+            fireEvent(new SecuritySessionSubscriberHeartbeat(
+                    b.subscriber.getSubscriber().getGuid(),
+                    b.session.getSessionGuid(), b.count, last));
+        }
+        final int flushed = pending.size();
+        LOGGER.finer(() -> String.format("Flushed heartbeats for %d "
+                + "subscribers.", flushed));
+        return flushed;
+    }
+
+    @Override
+    public void run() {
+        flush();
+    }
+
+    private int stripe(long threadId) {
+        return Stripes.index(Long.hashCode(threadId), stripeBits);
+    }
+
+    private void fireEvent(SecuritySessionSubscriberHeartbeat heartbeat) {
+        for (SecuritySession.Listener l : listeners) {
+            try {
+                l.subscriberHeartbeat(heartbeat);
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Session listener failed.", ex);
+            }
+        }
+    }
+
+    /**
+     * Applies flushed heartbeats to session activity, for example by updating
+     * the subscriber activity time and then
+     * {@link SessionExpiry#touch(SecuritySession, SessionSubscriber) touching}
+     * its expiry.
+     */
+    @FunctionalInterface
+    public interface ActivityRecorder {
+
+        /**
+         * Record the latest heartbeat of a subscriber.
+         *
+         * @param session subscribed session
+         * @param subscriber session subscriber
+         * @param lastHeartbeat time of the latest heartbeat
+         */
+        void recordActivity(SecuritySession session,
+                SessionSubscriber subscriber, ZonedDateTime lastHeartbeat);
+    }
+
+    /**
+     * Heartbeats recorded by threads mapped to this stripe since the last
+     * flush; guarded by the stripe monitor.
+     */
+    private static final class Stripe {
+
+        private Map<SessionSubscriber, Beats> beats = new HashMap<>();
+    }
+
+    private static final class Beats {
+
+        private final SecuritySession session;
+        private final SessionSubscriber subscriber;
+        private int count;
+        private long lastMillis;
+
+        private Beats(SecuritySession session, SessionSubscriber subscriber) {
+            this.session = session;
+            this.subscriber = subscriber;
+        }
+
+        private static Beats merge(Beats a, Beats b) {
+            a.count += b.count;
+            a.lastMillis = Math.max(a.lastMillis, b.lastMillis);
+            return a;
+        }
+    }
+}
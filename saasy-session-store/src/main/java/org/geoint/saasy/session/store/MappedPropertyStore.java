@@ -0,0 +1,632 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.session.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+import org.geoint.saasy.session.SecuritySession;
+import org.geoint.saasy.session.event.SecuritySessionClosed;
+
+/**
+ * Off-heap session property store backed by a memory-mapped file.
+ * <p>
+ * Each session's properties are encoded as a single record in a slab-allocated
+ * chunk of the file: the file is divided into 64KiB pages, each page is
+ * carved into chunks of a single power-of-two size class (64B to 64KiB), and
+ * a record is written to a free chunk of the smallest class that fits. The
+ * only on-heap state per session is the offset of its record, so property
+ * values of idle sessions do not occupy the heap.
+ * <p>
+ * {@link #findProperty(String, String)} reads directly from the mapping,
+ * comparing encoded property names in place and decoding only the matching
+ * value. Updates write a new record, publish its offset, and then free the
+ * previous chunk, so a record is never partially visible.
+ * <p>
+ * Records carry their session GUID and a sequence number, so reopening an
+ * existing file rebuilds the offsets and free lists from the mapping without
+ * reading any other source, allowing fast warm starts.
+ * <p>
+ * The store may be registered as a {@link SecuritySession.Listener} to remove
+ * the properties of sessions as they are closed.
+ * <p>
+ * Instances are thread-safe.
+ *
+ * @author steve_siebert
+ */
+public final class MappedPropertyStore
+        implements SecuritySession.Listener, Closeable {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(MappedPropertyStore.class.getName());
+    static final int PAGE_SIZE = 1 << 16;
+    static final int DEFAULT_SEGMENT_PAGES = 1024; //64MiB segments
+    private static final int MIN_CHUNK_BITS = 6; //64B
+    private static final int NUM_CLASSES = 11; //64B..64KiB
+    private static final long MAGIC = 0x5341415359505250L;
+    private static final int FORMAT_VERSION = 1;
+    private static final int PAGE_TABLE = 64;
+    private static final byte PAGE_META = (byte) 0xFF;
+    private static final int RECORD_HEADER = 12; //int length, long seq
+    /**
+     * Largest encoded record, including the record header.
+     */
+    public static final int MAX_RECORD = PAGE_SIZE;
+    private static final int LOCK_BITS = 6;
+    private static final int LOCK_STRIPES = 1 << LOCK_BITS;
+
+    private final FileChannel channel;
+    private final int segmentPages;
+    private final int segmentShift;
+    private volatile MappedByteBuffer[] segments;
+    private final ConcurrentMap<String, Long> offsets
+            = new ConcurrentHashMap<>();
+    private final ReadWriteLock[] locks = new ReadWriteLock[LOCK_STRIPES];
+    private final AtomicLong seq = new AtomicLong();
+    //allocator state is guarded by the allocator monitor
+    private final Object allocator = new Object();
+    private final FreeList[] free = new FreeList[NUM_CLASSES];
+    private long nextPage;
+    private volatile boolean closed;
+
+    private MappedPropertyStore(FileChannel channel, int segmentPages)
+            throws IOException {
+        this.channel = channel;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+        for (int i = 0; i < NUM_CLASSES; i++) {
+            free[i] = new FreeList();
+        }
+
+        if (channel.size() == 0) {
+            this.segmentPages = segmentPages;
+            this.segmentShift = segmentShift(segmentPages);
+            this.segments = new MappedByteBuffer[]{mapSegment(0)};
+            segments[0].putLong(0, MAGIC);
+            segments[0].putInt(8, FORMAT_VERSION);
+            segments[0].putInt(12, segmentPages);
+            this.nextPage = 1;
+        } else {
+            MappedByteBuffer meta = channel.map(FileChannel.MapMode.READ_WRITE,
+                    0, PAGE_SIZE);
+            if (meta.getLong(0) != MAGIC || meta.getInt(8) != FORMAT_VERSION) {
+                throw new IOException("File is not a session property store "
+                        + "or is an unsupported version.");
+            }
+            this.segmentPages = meta.getInt(12);
+            this.segmentShift = segmentShift(this.segmentPages);
+            final long segmentBytes = 1L << segmentShift;
+            final int numSegments
+                    = (int) ((channel.size() + segmentBytes - 1) / segmentBytes);
+            MappedByteBuffer[] mapped = new MappedByteBuffer[numSegments];
+            for (int i = 0; i < numSegments; i++) {
+                mapped[i] = mapSegment(i);
+            }
+            this.segments = mapped;
+            recover();
+        }
+    }
+
+    /**
+     * Open, or create, the property store file.
+     *
+     * @param file store file
+     * @return property store
+     * @throws IOException if the file could not be opened or is not a
+     * property store
+     */
+    public static MappedPropertyStore open(Path file) throws IOException {
+        return open(file, DEFAULT_SEGMENT_PAGES);
+    }
+
+    /**
+     * Open, or create, the property store file mapped in segments of the
+     * provided number of pages; ignored if the file already exists.
+     *
+     * @param file store file
+     * @param segmentPages pages per mapped segment, a power of two
+     * @return property store
+     * @throws IOException if the file could not be opened or is not a
+     * property store
+     */
+    static MappedPropertyStore open(Path file, int segmentPages)
+            throws IOException {
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return new MappedPropertyStore(ch, segmentPages);
+        } catch (IOException | RuntimeException ex) {
+            ch.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the value of a session property, read directly from the
+     * mapping.
+     *
+     * @param sessionGuid session guid
+     * @param name property name
+     * @return property value, if set
+     */
+    public Optional<String> findProperty(String sessionGuid, String name) {
+        final byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        final Lock lock = lockFor(sessionGuid).readLock();
+        lock.lock();
+        try {
+            ensureOpen();
+            final Long offset = offsets.get(sessionGuid);
+            if (offset == null) {
+                return Optional.empty();
+            }
+            final ByteBuffer seg = segmentOf(offset);
+            int p = positionOf(offset) + RECORD_HEADER;
+            p += 4 + seg.getInt(p); //session guid
+            final int count = seg.getInt(p);
+            p += 4;
+            for (int i = 0; i < count; i++) {
+                final int klen = seg.getInt(p);
+                p += 4;
+                final boolean match = (klen == key.length)
+                        && regionEquals(seg, p, key);
+                p += klen;
+                final int vlen = seg.getInt(p);
+                p += 4;
+                if (match) {
+                    return Optional.of(readString(seg, p, vlen));
+                }
+                p += vlen;
+            }
+            return Optional.empty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * An immutable copy of the session properties.
+     *
+     * @param sessionGuid session guid
+     * @return session properties, empty if none are set
+     */
+    public Map<String, String> getProperties(String sessionGuid) {
+        final Lock lock = lockFor(sessionGuid).readLock();
+        lock.lock();
+        try {
+            ensureOpen();
+            final Long offset = offsets.get(sessionGuid);
+            return (offset == null)
+                    ? Collections.emptyMap()
+                    : Collections.unmodifiableMap(read(offset));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the session property value, returning the old value or null.
+     *
+     * @param sessionGuid session guid
+     * @param name property name
+     * @param value property value
+     * @return old property value or null if not previously set
+     * @throws IllegalArgumentException if the session properties would
+     * exceed the {@link #MAX_RECORD maximum record size}
+     * @throws UncheckedIOException if the store file could not be grown
+     */
+    public String putProperty(String sessionGuid, String name, String value) {
+        Objects.requireNonNull(name, "Property name is required.");
+        Objects.requireNonNull(value, "Property value is required.");
+        return update(sessionGuid, name, value);
+    }
+
+    /**
+     * Removes the session property, returning the old value or null.
+     *
+     * @param sessionGuid session guid
+     * @param name property name
+     * @return old property value or null if not previously set
+     */
+    public String removeProperty(String sessionGuid, String name) {
+        return update(sessionGuid, name, null);
+    }
+
+    /**
+     * Removes all properties of the session.
+     *
+     * @param sessionGuid session guid
+     * @return true if the session had properties
+     */
+    public boolean remove(String sessionGuid) {
+        final Lock lock = lockFor(sessionGuid).writeLock();
+        lock.lock();
+        try {
+            ensureOpen();
+            final Long offset = offsets.remove(sessionGuid);
+            if (offset == null) {
+                return false;
+            }
+            release(offset);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of sessions with properties.
+     *
+     * @return number of sessions
+     */
+    public int size() {
+        return offsets.size();
+    }
+
+    @Override
+    public void sessionClosed(SecuritySessionClosed closed) {
+        remove(closed.getSessionGuid());
+    }
+
+    /**
+     * Flush changes to the mapping to the store file.
+     */
+    public void force() {
+        for (MappedByteBuffer seg : segments) {
+            seg.force();
+        }
+    }
+
+    /**
+     * Flushes and closes the store file.
+     * <p>
+     * The mapping is released when the store is garbage collected.
+     *
+     * @throws IOException if the file could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        for (ReadWriteLock l : locks) {
+            l.writeLock().lock();
+        }
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            force();
+            channel.close();
+        } finally {
+            for (ReadWriteLock l : locks) {
+                l.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Sets, or removes if the value is null, a session property.
+     */
+    private String update(String sessionGuid, String name, String value) {
+        final Lock lock = lockFor(sessionGuid).writeLock();
+        lock.lock();
+        try {
+            ensureOpen();
+            final Long offset = offsets.get(sessionGuid);
+            final Map<String, String> props = (offset == null)
+                    ? new LinkedHashMap<>()
+                    : read(offset);
+            final String old = (value == null)
+                    ? props.remove(name)
+                    : props.put(name, value);
+            if (Objects.equals(old, value)) {
+                return old;
+            }
+            if (props.isEmpty()) {
+                offsets.remove(sessionGuid);
+            } else {
+                offsets.put(sessionGuid, write(sessionGuid, props));
+            }
+            if (offset != null) {
+                release(offset);
+            }
+            return old;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Map<String, String> read(long offset) {
+        final ByteBuffer seg = segmentOf(offset);
+        int p = positionOf(offset) + RECORD_HEADER;
+        p += 4 + seg.getInt(p); //session guid
+        final int count = seg.getInt(p);
+        p += 4;
+        Map<String, String> props = new LinkedHashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            final int klen = seg.getInt(p);
+            final String k = readString(seg, p + 4, klen);
+            p += 4 + klen;
+            final int vlen = seg.getInt(p);
+            final String v = readString(seg, p + 4, vlen);
+            p += 4 + vlen;
+            props.put(k, v);
+        }
+        return props;
+    }
+
+    private long write(String sessionGuid, Map<String, String> props) {
+        final byte[] guid = sessionGuid.getBytes(StandardCharsets.UTF_8);
+        final byte[][] encoded = new byte[props.size() * 2][];
+        int length = 4 + guid.length + 4;
+        int i = 0;
+        for (Map.Entry<String, String> e : props.entrySet()) {
+            encoded[i] = e.getKey().getBytes(StandardCharsets.UTF_8);
+            encoded[i + 1] = e.getValue().getBytes(StandardCharsets.UTF_8);
+            length += 8 + encoded[i].length + encoded[i + 1].length;
+            i += 2;
+        }
+        if (length + RECORD_HEADER > MAX_RECORD) {
+            throw new IllegalArgumentException(String.format("Properties of "
+                    + "session '%s' exceed the maximum record size of %d "
+                    + "bytes.", sessionGuid, MAX_RECORD));
+        }
+
+        final long offset = allocate(classFor(length + RECORD_HEADER));
+        final ByteBuffer seg = segmentOf(offset).duplicate();
+        final int start = positionOf(offset);
+        seg.position(start + RECORD_HEADER);
+        seg.putInt(guid.length).put(guid);
+        seg.putInt(props.size());
+        for (byte[] b : encoded) {
+            seg.putInt(b.length).put(b);
+        }
+        seg.putLong(start + 4, seq.incrementAndGet());
+        seg.putInt(start, length); //record is live once the length is set
+        return offset;
+    }
+
+    /**
+     * Marks the chunk free and returns it to its free list.
+     */
+    private void release(long offset) {
+        final ByteBuffer seg = segmentOf(offset);
+        final int pos = positionOf(offset);
+        final int cls = classFor(seg.getInt(pos) + RECORD_HEADER);
+        seg.putInt(pos, 0);
+        synchronized (allocator) {
+            free[cls].push(offset);
+        }
+    }
+
+    private long allocate(int cls) {
+        synchronized (allocator) {
+            if (free[cls].isEmpty()) {
+                assignPage(cls);
+            }
+            return free[cls].pop();
+        }
+    }
+
+    /**
+     * Assigns the next unused page to the size class, growing the file by a
+     * segment if required; called holding the allocator monitor.
+     */
+    private void assignPage(int cls) {
+        if (nextPage % segmentPages == 0) {
+            nextPage++; //first page of each segment holds its page table
+        }
+        final int segIndex = (int) (nextPage / segmentPages);
+        if (segIndex >= segments.length) {
+            try {
+                MappedByteBuffer[] grown
+                        = Arrays.copyOf(segments, segIndex + 1);
+                grown[segIndex] = mapSegment(segIndex);
+                segments = grown;
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Unable to grow session "
+                        + "property store.", ex);
+            }
+            LOGGER.fine(() -> String.format("Session property store grown to "
+                    + "%d segments.", segIndex + 1));
+        }
+        final int page = (int) (nextPage % segmentPages);
+        segments[segIndex].put(PAGE_TABLE + page, (byte) (cls + 1));
+        carve(nextPage, cls);
+        nextPage++;
+    }
+
+    /**
+     * Adds each free chunk of the page to its class free list, highest first
+     * so that chunks are allocated in address order.
+     */
+    private void carve(long globalPage, int cls) {
+        final int chunk = chunkSize(cls);
+        final long base = globalPage * PAGE_SIZE;
+        final ByteBuffer seg = segmentOf(base);
+        for (int off = PAGE_SIZE - chunk; off >= 0; off -= chunk) {
+            if (seg.getInt(positionOf(base + off)) == 0) {
+                free[cls].push(base + off);
+            }
+        }
+    }
+
+    /**
+     * Rebuild the session offsets and free lists from the mapping, keeping
+     * the newest record of a session if an update was interrupted.
+     */
+    private void recover() {
+        long lastPage = 0;
+        long maxSeq = 0;
+        int discarded = 0;
+        for (int s = 0; s < segments.length; s++) {
+            final MappedByteBuffer seg = segments[s];
+            for (int page = 1; page < segmentPages; page++) {
+                final int cls = seg.get(PAGE_TABLE + page) - 1;
+                if (cls < 0) {
+                    continue;
+                }
+                final long globalPage = (long) s * segmentPages + page;
+                lastPage = globalPage;
+                final int chunk = chunkSize(cls);
+                for (int off = 0; off < PAGE_SIZE; off += chunk) {
+                    final long offset = globalPage * PAGE_SIZE + off;
+                    final int pos = positionOf(offset);
+                    if (seg.getInt(pos) == 0) {
+                        continue;
+                    }
+                    final long recordSeq = seg.getLong(pos + 4);
+                    maxSeq = Math.max(maxSeq, recordSeq);
+                    final String guid = readString(seg, pos + RECORD_HEADER + 4,
+                            seg.getInt(pos + RECORD_HEADER));
+                    final Long existing = offsets.get(guid);
+                    if (existing == null) {
+                        offsets.put(guid, offset);
+                    } else {
+                        discarded++;
+                        if (segmentOf(existing).getLong(positionOf(existing) + 4)
+                                < recordSeq) {
+                            offsets.put(guid, offset);
+                            segmentOf(existing).putInt(positionOf(existing), 0);
+                        } else {
+                            seg.putInt(pos, 0);
+                        }
+                    }
+                }
+            }
+        }
+        for (long p = 1; p <= lastPage; p++) {
+            if (p % segmentPages != 0) {
+                final int cls = segments[(int) (p / segmentPages)]
+                        .get(PAGE_TABLE + (int) (p % segmentPages)) - 1;
+                if (cls >= 0) {
+                    carve(p, cls);
+                }
+            }
+        }
+        this.nextPage = lastPage + 1;
+        this.seq.set(maxSeq);
+        final int dups = discarded;
+        LOGGER.info(() -> String.format("Recovered properties of %d sessions "
+                + "from session property store, %d interrupted updates "
+                + "discarded.", offsets.size(), dups));
+    }
+
+    private MappedByteBuffer mapSegment(int index) throws IOException {
+        final long size = 1L << segmentShift;
+        MappedByteBuffer seg = channel.map(FileChannel.MapMode.READ_WRITE,
+                index * size, size);
+        seg.put(PAGE_TABLE, PAGE_META);
+        return seg;
+    }
+
+    private ByteBuffer segmentOf(long offset) {
+        return segments[(int) (offset >>> segmentShift)];
+    }
+
+    private int positionOf(long offset) {
+        return (int) (offset & ((1L << segmentShift) - 1));
+    }
+
+    private ReadWriteLock lockFor(String sessionGuid) {
+        return locks[Stripes.index(sessionGuid, LOCK_BITS)];
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Session property store is "
+                    + "closed.");
+        }
+    }
+
+    private static int segmentShift(int segmentPages) {
+        //segments are addressed by int positions, so at most 1GiB
+        if (segmentPages < 2 || segmentPages > (1 << 14)
+                || Integer.bitCount(segmentPages) != 1) {
+            throw new IllegalArgumentException("Segment pages must be a power "
+                    + "of two between 2 and 16384.");
+        }
+        return Integer.numberOfTrailingZeros(segmentPages) + 16;
+    }
+
+    private static int classFor(int size) {
+        final int bits = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return Math.max(bits, MIN_CHUNK_BITS) - MIN_CHUNK_BITS;
+    }
+
+    private static int chunkSize(int cls) {
+        return 1 << (cls + MIN_CHUNK_BITS);
+    }
+
+    private static boolean regionEquals(ByteBuffer seg, int pos, byte[] b) {
+        for (int i = 0; i < b.length; i++) {
+            if (seg.get(pos + i) != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String readString(ByteBuffer seg, int pos, int len) {
+        final byte[] b = new byte[len];
+        final ByteBuffer dup = seg.duplicate();
+        dup.position(pos);
+        dup.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Stack of free chunk offsets of a single size class.
+     */
+    private static final class FreeList {
+
+        private long[] offsets = new long[64];
+        private int size;
+
+        private void push(long offset) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            offsets[size++] = offset;
+        }
+
+        private long pop() {
+            return offsets[--size];
+        }
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.session.store;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.geoint.saasy.session.SubscribedSession;
+
+/**
+ * Generates one-time-use nonces and detects their replay, suitable for backing
+ * {@link SubscribedSession#generateNonce()}.
+ * <p>
+ * Each thread generates nonces from its own {@link SecureRandom} instance
+ * (DRBG where available), prefetching random bytes in batches, so nonce
+ * generation does not serialize threads on a shared generator. A nonce
+ * encodes its issue time and 128 random bits, authenticated with a truncated
+ * HMAC-SHA256 under the service key, so a verifier only records nonces it (or
+ * a service sharing its key) issued.
+ * <p>
+ * Used nonces are recorded in buckets by issue time, each bucket covering one
+ * window. The most recent buckets record nonces exactly; older buckets are
+ * folded into a Bloom filter, which may reject a small fraction of unused
+ * nonces but never accepts a replayed nonce. Nonces issued before the oldest
+ * retained bucket are rejected as expired, so memory is bounded by the number
+ * of nonces used within the exact windows plus a fixed size filter per older
+ * window. Each verification is constant time.
+ * <p>
+ * Instances are thread-safe.
+ *
+ * @author steve_siebert
+ */
+public class NonceService {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(NonceService.class.getName());
+    public static final Duration DEFAULT_WINDOW = Duration.ofMinutes(1);
+    public static final int DEFAULT_WINDOWS = 10;
+    public static final int DEFAULT_EXACT_WINDOWS = 2;
+    public static final int DEFAULT_EXPECTED_PER_WINDOW = 100_000;
+    private static final int RANDOM_BYTES = 16;
+    private static final int SIGNED_BYTES = 8 + RANDOM_BYTES;
+    private static final int MAC_BYTES = 16;
+    private static final int NONCE_BYTES = SIGNED_BYTES + MAC_BYTES;
+    private static final int KEY_BYTES = 32;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int PREFETCH_BYTES = RANDOM_BYTES * 64;
+    private static final int BLOOM_HASHES = 20; //~1 in 10^6 false positives
+    private static final int BLOOM_BITS_PER_NONCE = 29;
+
+    private final Clock clock;
+    private final long windowMillis;
+    private final int exactWindows;
+    private final int expectedPerWindow;
+    private final Bucket[] buckets;
+    private volatile long rotated = Long.MIN_VALUE;
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
+    private final ThreadLocal<Generator> generators
+            = ThreadLocal.withInitial(Generator::new);
+
+    /**
+     * Nonce service with the default windows using the system clock.
+     */
+    public NonceService() {
+        this(DEFAULT_WINDOW, DEFAULT_WINDOWS, DEFAULT_EXACT_WINDOWS,
+                DEFAULT_EXPECTED_PER_WINDOW, Clock.systemUTC());
+    }
+
+    /**
+     * Nonce service accepting nonces for {@code windows * window} after they
+     * are issued, authenticating nonces with a random key.
+     *
+     * @param window duration of each replay bucket
+     * @param windows number of buckets retained
+     * @param exactWindows number of most recent buckets recorded exactly
+     * @param expectedPerWindow expected nonces used per window, sizing the
+     * Bloom filters
+     * @param clock clock
+     */
+    public NonceService(Duration window, int windows, int exactWindows,
+            int expectedPerWindow, Clock clock) {
+        this(window, windows, exactWindows, expectedPerWindow, clock,
+                randomKey());
+    }
+
+    /**
+     * Nonce service accepting nonces for {@code windows * window} after they
+     * are issued, authenticating nonces with the provided key.
+     * <p>
+     * Services sharing a key accept each others nonces, though each records
+     * its own nonce use.
+     *
+     * @param window duration of each replay bucket
+     * @param windows number of buckets retained
+     * @param exactWindows number of most recent buckets recorded exactly
+     * @param expectedPerWindow expected nonces used per window, sizing the
+     * Bloom filters
+     * @param clock clock
+     * @param secret nonce authentication key, at least 32 bytes
+     */
+    public NonceService(Duration window, int windows, int exactWindows,
+            int expectedPerWindow, Clock clock, byte[] secret) {
+        if (windows < 1 || exactWindows < 1 || exactWindows > windows
+                || expectedPerWindow < 1) {
+            throw new IllegalArgumentException("At least one window must be "
+                    + "retained, and no more exact windows than windows.");
+        }
+        if (secret == null || secret.length < KEY_BYTES) {
+            throw new IllegalArgumentException(String.format("Nonce key must "
+                    + "be at least %d bytes.", KEY_BYTES));
+        }
+        this.key = new SecretKeySpec(secret, MAC_ALGORITHM);
+        this.clock = clock;
+        this.windowMillis = window.toMillis();
+        this.exactWindows = exactWindows;
+        this.expectedPerWindow = expectedPerWindow;
+        this.buckets = new Bucket[windows];
+        for (int i = 0; i < windows; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    /**
+     * Generates a new one-time-use nonce.
+     *
+     * @return nonce
+     */
+    public String generateNonce() {
+        return generators.get().next(clock.millis());
+    }
+
+    /**
+     * Verify the nonce is well formed, was issued by this service within the
+     * retained windows, and has not been used, recording its use.
+     * <p>
+     * Nonces which fail authentication are rejected without being recorded.
+     *
+     * @param nonce nonce
+     * @return true if the nonce is valid and was not previously used
+     */
+    public boolean verifyNonce(String nonce) {
+        final ByteBuffer decoded;
+        try {
+            byte[] b = Base64.getUrlDecoder().decode(nonce);
+            if (b.length != NONCE_BYTES) {
+                return false;
+            }
+            decoded = ByteBuffer.wrap(b);
+        } catch (IllegalArgumentException | NullPointerException ex) {
+            return false;
+        }
+        final long issued = decoded.getLong(0);
+        final long issuedWindow = Math.floorDiv(issued, windowMillis);
+        final long currentWindow = Math.floorDiv(clock.millis(), windowMillis);
+        if (issuedWindow > currentWindow
+                || issuedWindow <= currentWindow - buckets.length) {
+            return false; //expired, or issued in the future
+        }
+        if (!authentic(decoded.array())) {
+            return false;
+        }
+        if (currentWindow > rotated) {
+            rotate(currentWindow);
+        }
+        final Bucket bucket = buckets[(int) Math.floorMod(issuedWindow,
+                (long) buckets.length)];
+        //keyed on the decoded random bytes, as base64 has several encodings
+        //of the same bytes
+        return bucket.record(issuedWindow, currentWindow,
+                new Used(decoded.getLong(8), decoded.getLong(16)));
+    }
+
+    /**
+     * Compares, in constant time, the MAC of the nonce to the one it carries.
+     */
+    private boolean authentic(byte[] nonce) {
+        final byte[] expected = mac(nonce);
+        int diff = 0;
+        for (int i = 0; i < MAC_BYTES; i++) {
+            diff |= expected[i] ^ nonce[SIGNED_BYTES + i];
+        }
+        return diff == 0;
+    }
+
+    /**
+     * MAC of the issue time and random bytes of the nonce; only the first
+     * {@link #MAC_BYTES} are carried by the nonce.
+     */
+    private byte[] mac(byte[] nonce) {
+        final Mac mac = macs.get();
+        mac.update(nonce, 0, SIGNED_BYTES);
+        return mac.doFinal();
+    }
+
+    private Mac newMac() {
+        try {
+            final Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException ex) {
+            //HmacSHA256 is required of all java platforms
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static byte[] randomKey() {
+        final byte[] secret = new byte[KEY_BYTES];
+        new SecureRandom().nextBytes(secret);
+        return secret;
+    }
+
+    /**
+     * Fold the buckets which are no longer recent into Bloom filters, once
+     * for each window.
+     */
+    private void rotate(long currentWindow) {
+        synchronized (buckets) {
+            if (currentWindow <= rotated) {
+                return;
+            }
+            rotated = currentWindow;
+        }
+        for (Bucket b : buckets) {
+            b.foldBefore(currentWindow - exactWindows + 1);
+        }
+    }
+
+    /**
+     * Nonces used within a single window of issue times.
+     */
+    private final class Bucket {
+
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        //guarded by the lock
+        private long window = Long.MIN_VALUE;
+        private Set<Used> exact;
+        private long[] bloom;
+
+        /**
+         * Record the use of the nonce issued in the window, returning false
+         * if it has already been used.
+         */
+        private boolean record(long issuedWindow, long currentWindow,
+                Used nonce) {
+            final boolean recent = issuedWindow > currentWindow - exactWindows;
+            Lock read = lock.readLock();
+            read.lock();
+            try {
+                if (window == issuedWindow && exact != null && recent) {
+                    return exact.add(nonce);
+                }
+            } finally {
+                read.unlock();
+            }
+
+            lock.writeLock().lock();
+            try {
+                if (window != issuedWindow) {
+                    if (window > issuedWindow) {
+                        //reused for a later window; the nonce has expired
+                        return false;
+                    }
+                    window = issuedWindow;
+                    exact = ConcurrentHashMap.newKeySet();
+                    bloom = null;
+                }
+                if (exact != null && !recent) {
+                    fold();
+                }
+                if (exact != null) {
+                    return exact.add(nonce);
+                }
+                return bloomAdd(nonce.h1, nonce.h2);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void foldBefore(long recentWindow) {
+            lock.writeLock().lock();
+            try {
+                if (exact != null && window < recentWindow) {
+                    fold();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Replace the exact set with a Bloom filter; called holding the write
+         * lock.
+         */
+        private void fold() {
+            final long bits = (long) Math.max(exact.size(), expectedPerWindow)
+                    * BLOOM_BITS_PER_NONCE;
+            bloom = new long[(int) ((bits + 63) >>> 6)];
+            for (Used n : exact) {
+                bloomAdd(n.h1, n.h2);
+            }
+            final int folded = exact.size();
+            exact = null;
+            LOGGER.fine(() -> String.format("Folded %d nonces of window %d "
+                    + "into a Bloom filter.", folded, window));
+        }
+
+        /**
+         * Set the bits of the nonce, returning false if they were all already
+         * set.
+         */
+        private boolean bloomAdd(long h1, long h2) {
+            final long m = (long) bloom.length << 6;
+            boolean added = false;
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                final long bit = Math.floorMod(h1 + i * h2, m);
+                final int word = (int) (bit >>> 6);
+                final long mask = 1L << bit;
+                if ((bloom[word] & mask) == 0) {
+                    bloom[word] |= mask;
+                    added = true;
+                }
+            }
+            return added;
+        }
+    }
+
+    /**
+     * Random bytes of a used nonce.
+     */
+    private static final class Used {
+
+        private final long h1;
+        private final long h2;
+
+        private Used(long h1, long h2) {
+            this.h1 = h1;
+            this.h2 = h2;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(h1 ^ h2);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Used)) {
+                return false;
+            }
+            final Used other = (Used) obj;
+            return h1 == other.h1 && h2 == other.h2;
+        }
+    }
+
+    /**
+     * Per-thread nonce generator.
+     */
+    private final class Generator {
+
+        private final SecureRandom random = newRandom();
+        private final byte[] prefetched = new byte[PREFETCH_BYTES];
+        private final byte[] nonce = new byte[NONCE_BYTES];
+        private int position = PREFETCH_BYTES;
+
+        private String next(long issued) {
+            if (position == PREFETCH_BYTES) {
+                random.nextBytes(prefetched);
+                position = 0;
+            }
+            ByteBuffer.wrap(nonce).putLong(issued);
+            System.arraycopy(prefetched, position, nonce, 8, RANDOM_BYTES);
+            position += RANDOM_BYTES;
+            System.arraycopy(mac(nonce), 0, nonce, SIGNED_BYTES, MAC_BYTES);
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(nonce);
+        }
+
+        private SecureRandom newRandom() {
+            try {
+                return SecureRandom.getInstance("DRBG");
+            } catch (NoSuchAlgorithmException ex) {
+                //DRBG was added in Java 9
+                try {
+                    return SecureRandom.getInstance("SHA1PRNG");
+                } catch (NoSuchAlgorithmException ex2) {
+                    return new SecureRandom();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.session.store;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.geoint.saasy.SecurityTenant;
+import org.geoint.saasy.TenantMembership;
+import org.geoint.saasy.authc.SubjectAuthenticated;
+import org.geoint.saasy.session.SecuritySession;
+import org.geoint.saasy.session.SessionSubscriber;
+
+/**
+ * State of a passivated session, sufficient for a session implementation to
+ * reactivate the session.
+ * <p>
+ * The session profile is held by reference, as the tenant GUID and membership
+ * nickname, and times are held to the millisecond in UTC.
+ * <p>
+ * Instances are immutable.
+ *
+ * @see SessionPassivator
+ * @author steve_siebert
+ */
+public final class PassivatedSession {
+
+    private final String sessionGuid;
+    private final String subjectGuid;
+    private final String tenancyGuid;
+    private final String profileTenantGuid;
+    private final String profileNickname;
+    private final long version;
+    private final int assuranceLevel;
+    private final ZonedDateTime createdTime;
+    private final ZonedDateTime closeTime;
+    private final Map<String, String> properties;
+    private final List<SubjectAuthenticated> authentications;
+    private final List<Subscriber> subscribers;
+
+    private PassivatedSession(String sessionGuid, String subjectGuid,
+            String tenancyGuid, String profileTenantGuid,
+            String profileNickname, long version, int assuranceLevel,
+            ZonedDateTime createdTime, ZonedDateTime closeTime,
+            Map<String, String> properties,
+            List<SubjectAuthenticated> authentications,
+            List<Subscriber> subscribers) {
+        this.sessionGuid = sessionGuid;
+        this.subjectGuid = subjectGuid;
+        this.tenancyGuid = tenancyGuid;
+        this.profileTenantGuid = profileTenantGuid;
+        this.profileNickname = profileNickname;
+        this.version = version;
+        this.assuranceLevel = assuranceLevel;
+        this.createdTime = createdTime;
+        this.closeTime = closeTime;
+        this.properties = Collections.unmodifiableMap(properties);
+        this.authentications = Collections.unmodifiableList(authentications);
+        this.subscribers = Collections.unmodifiableList(subscribers);
+    }
+
+    /**
+     * Capture the state of the session.
+     *
+     * @param session session
+     * @return passivated session state
+     */
+    public static PassivatedSession of(SecuritySession session) {
+        final SecurityTenant tenancy = session.getTenancy();
+        final Optional<TenantMembership> profile = session.getProfile();
+        List<Subscriber> subscribers = new ArrayList<>();
+        for (SessionSubscriber s : session.getSubscribers()) {
+            subscribers.add(new Subscriber(s.getSubscriber().getGuid(),
+                    s.getCreatedTime(), s.getClosedTime(),
+                    s.getLastActivityTime()));
+        }
+        return new PassivatedSession(session.getSessionGuid(),
+                session.getSubject().getGuid(),
+                (tenancy == null) ? null : tenancy.getGuid(),
+                profile.map((p) -> p.getTenant().getGuid()).orElse(null),
+                profile.map(TenantMembership::getMembershipNickname)
+                .orElse(null),
+                session.getVersion(), session.getAssuranceLevel(),
+                session.getCreatedTime(), session.getCloseTime(),
+                new LinkedHashMap<>(session.getProperties()),
+                new ArrayList<>(session.getAuthentications()), subscribers);
+    }
+
+    public String getSessionGuid() {
+        return sessionGuid;
+    }
+
+    public String getSubjectGuid() {
+        return subjectGuid;
+    }
+
+    /**
+     * GUID of the session tenancy.
+     *
+     * @return tenancy GUID, if the session has a tenancy
+     */
+    public Optional<String> getTenancyGuid() {
+        return Optional.ofNullable(tenancyGuid);
+    }
+
+    /**
+     * GUID of the tenant of the session profile.
+     *
+     * @return profile tenant GUID, if a profile was selected
+     */
+    public Optional<String> getProfileTenantGuid() {
+        return Optional.ofNullable(profileTenantGuid);
+    }
+
+    /**
+     * Membership nickname of the session profile.
+     *
+     * @return profile nickname, if a profile was selected
+     */
+    public Optional<String> getProfileNickname() {
+        return Optional.ofNullable(profileNickname);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getAssuranceLevel() {
+        return assuranceLevel;
+    }
+
+    public ZonedDateTime getCreatedTime() {
+        return createdTime;
+    }
+
+    public ZonedDateTime getCloseTime() {
+        return closeTime;
+    }
+
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    public List<SubjectAuthenticated> getAuthentications() {
+        return authentications;
+    }
+
+    public List<Subscriber> getSubscribers() {
+        return subscribers;
+    }
+
+    /**
+     * Write the session state in its binary form.
+     *
+     * @param out output
+     * @throws IOException if the state could not be written
+     */
+    void writeTo(DataOutput out) throws IOException {
+        writeString(out, sessionGuid);
+        writeString(out, subjectGuid);
+        writeString(out, tenancyGuid);
+        writeString(out, profileTenantGuid);
+        writeString(out, profileNickname);
+        out.writeLong(version);
+        out.writeInt(assuranceLevel);
+        writeTime(out, createdTime);
+        writeTime(out, closeTime);
+        out.writeInt(properties.size());
+        for (Map.Entry<String, String> e : properties.entrySet()) {
+            writeString(out, e.getKey());
+            writeString(out, e.getValue());
+        }
+        out.writeInt(authentications.size());
+        for (SubjectAuthenticated a : authentications) {
+            writeString(out, a.getCredentialType());
+            writeTime(out, a.getAuthenticationTime());
+            out.writeInt(a.getAssuranceLevel());
+            writeString(out, a.getRemoteAddress().orElse(null));
+        }
+        out.writeInt(subscribers.size());
+        for (Subscriber s : subscribers) {
+            writeString(out, s.subscriberGuid);
+            writeTime(out, s.createdTime);
+            writeTime(out, s.closedTime);
+            writeTime(out, s.lastActivityTime);
+        }
+    }
+
+    /**
+     * Read session state written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in input
+     * @return session state
+     * @throws IOException if the state could not be read
+     */
+    static PassivatedSession readFrom(DataInput in) throws IOException {
+        final String sessionGuid = readString(in);
+        final String subjectGuid = readString(in);
+        final String tenancyGuid = readString(in);
+        final String profileTenantGuid = readString(in);
+        final String profileNickname = readString(in);
+        final long version = in.readLong();
+        final int assuranceLevel = in.readInt();
+        final ZonedDateTime created = readTime(in);
+        final ZonedDateTime close = readTime(in);
+        final int numProperties = in.readInt();
+        Map<String, String> properties = new LinkedHashMap<>(numProperties * 2);
+        for (int i = 0; i < numProperties; i++) {
+            properties.put(readString(in), readString(in));
+        }
+        final int numAuthentications = in.readInt();
+        List<SubjectAuthenticated> authentications
+                = new ArrayList<>(numAuthentications);
+        for (int i = 0; i < numAuthentications; i++) {
+            final String type = readString(in);
+            final ZonedDateTime time = readTime(in);
+            final int level = in.readInt();
+            authentications.add(new SubjectAuthenticated(subjectGuid, type,
+                    time, level, readString(in)));
+        }
+        final int numSubscribers = in.readInt();
+        List<Subscriber> subscribers = new ArrayList<>(numSubscribers);
+        for (int i = 0; i < numSubscribers; i++) {
+            subscribers.add(new Subscriber(readString(in), readTime(in),
+                    readTime(in), readTime(in)));
+        }
+        return new PassivatedSession(sessionGuid, subjectGuid, tenancyGuid,
+                profileTenantGuid, profileNickname, version, assuranceLevel,
+                created, close, properties, authentications, subscribers);
+    }
+
+    private static void writeString(DataOutput out, String s)
+            throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        final int len = in.readInt();
+        if (len < 0) {
+            return null;
+        }
+        final byte[] b = new byte[len];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static void writeTime(DataOutput out, ZonedDateTime time)
+            throws IOException {
+        out.writeLong((time == null)
+                ? Long.MIN_VALUE
+                : time.toInstant().toEpochMilli());
+    }
+
+    private static ZonedDateTime readTime(DataInput in) throws IOException {
+        final long millis = in.readLong();
+        return (millis == Long.MIN_VALUE)
+                ? null
+                : ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis),
+                        ZoneOffset.UTC);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("passivated session '%s' of subject '%s'",
+                sessionGuid, subjectGuid);
+    }
+
+    /**
+     * State of a subscriber of a passivated session.
+     */
+    public static final class Subscriber {
+
+        private final String subscriberGuid;
+        private final ZonedDateTime createdTime;
+        private final ZonedDateTime closedTime;
+        private final ZonedDateTime lastActivityTime;
+
+        private Subscriber(String subscriberGuid, ZonedDateTime createdTime,
+                ZonedDateTime closedTime, ZonedDateTime lastActivityTime) {
+            this.subscriberGuid = subscriberGuid;
+            this.createdTime = createdTime;
+            this.closedTime = closedTime;
+            this.lastActivityTime = lastActivityTime;
+        }
+
+        public String getSubscriberGuid() {
+            return subscriberGuid;
+        }
+
+        public ZonedDateTime getCreatedTime() {
+            return createdTime;
+        }
+
+        public ZonedDateTime getClosedTime() {
+            return closedTime;
+        }
+
+        public ZonedDateTime getLastActivityTime() {
+            return lastActivityTime;
+        }
+    }
+}
@@ -0,0 +1,595 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.session.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoint.saasy.authc.SubjectAuthenticated;
+import org.geoint.saasy.authz.Authorization;
+import org.geoint.saasy.authz.event.AuthorizationGranted;
+import org.geoint.saasy.authz.event.AuthorizationRevoked;
+import org.geoint.saasy.session.SecuritySession;
+import org.geoint.saasy.session.event.AssuranceLevelElevated;
+import org.geoint.saasy.session.event.NoSessionProfile;
+import org.geoint.saasy.session.event.SecuritySessionBound;
+import org.geoint.saasy.session.event.SecuritySessionClosed;
+import org.geoint.saasy.session.event.SecuritySessionPropertyChanged;
+import org.geoint.saasy.session.event.SecuritySessionSubscriberHeartbeat;
+import org.geoint.saasy.session.event.SecuritySessionUnbound;
+import org.geoint.saasy.session.event.SessionProfileChanged;
+
+/**
+ * Asynchronous dispatcher of session events, delivering
+ * {@link SecuritySession.Listener} callbacks on dedicated threads so a slow
+ * listener does not stall the thread raising the event.
+ * <p>
+ * The dispatcher is itself a listener: each callback it receives is published
+ * into a pre-allocated ring buffer. A publisher claims the next sequence,
+ * writes the claimed slot, and then publishes the slot's sequence. With a
+ * {@link Builder#singlePublisher() single publisher} the sequence has a
+ * single writer and is claimed without any atomic read-modify-write; by
+ * default, since session listener callbacks may be raised on any thread,
+ * concurrent publishers claim sequences with a compare-and-set on the
+ * shared cursor. Each claimed slot and each consumer sequence has a single
+ * writer. Every registered listener has its own consumer thread, which
+ * delivers all published events to the listener in publication order, in
+ * batches, waiting for new events with the configured {@link WaitStrategy}.
+ * Once every listener has been delivered an event the slot releases its
+ * reference to the event.
+ * <p>
+ * When the slowest listener is a full buffer behind, publishers either drop
+ * the event or block until space is available, according to the
+ * {@link OverflowPolicy}.
+ * <p>
+ * Instances are thread-safe.
+ *
+ * @author steve_siebert
+ */
+public final class SessionEventDispatcher
+        implements SecuritySession.Listener, AutoCloseable {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(SessionEventDispatcher.class.getName());
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    private static final long CLOSE_TIMEOUT_MILLIS = 10_000;
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLongArray published;
+    //listeners yet to be delivered the event in each slot
+    private final AtomicIntegerArray undelivered;
+    private final AtomicLong cursor = new AtomicLong();
+    private final boolean singlePublisher;
+    private final Consumer[] consumers;
+    private final WaitStrategy waitStrategy;
+    private final OverflowPolicy overflow;
+    private final LongAdder dropped = new LongAdder();
+    private volatile long cachedGate;
+    private volatile boolean running = true;
+
+    private SessionEventDispatcher(Builder builder) {
+        this.slots = new Slot[builder.bufferSize];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = builder.bufferSize - 1;
+        this.published = new AtomicLongArray(builder.bufferSize);
+        for (int i = 0; i < slots.length; i++) {
+            published.set(i, -1);
+        }
+        this.undelivered = new AtomicIntegerArray(builder.bufferSize);
+        this.singlePublisher = builder.singlePublisher;
+        this.waitStrategy = builder.waitStrategy;
+        this.overflow = builder.overflow;
+        this.consumers = new Consumer[builder.listeners.size()];
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i] = new Consumer(builder.listeners.get(i));
+            consumers[i].thread = builder.threadFactory.newThread(consumers[i]);
+        }
+        for (Consumer c : consumers) {
+            c.thread.start();
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Number of events dropped because the buffer was full.
+     *
+     * @return dropped events
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Stop accepting events, waiting for the consumers to deliver all
+     * published events.
+     * <p>
+     * If interrupted while waiting, the consumers still delivering are
+     * interrupted and the interrupt status of the calling thread is restored.
+     */
+    @Override
+    public void close() {
+        running = false;
+        final long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MILLIS;
+        for (Consumer c : consumers) {
+            try {
+                c.thread.join(Math.max(1,
+                        deadline - System.currentTimeMillis()));
+            } catch (InterruptedException ex) {
+                for (Consumer remaining : consumers) {
+                    remaining.thread.interrupt();
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (c.thread.isAlive()) {
+                LOGGER.warning(() -> String.format("Session listener %s did "
+                        + "not complete delivery within %d ms.", c.listener,
+                        CLOSE_TIMEOUT_MILLIS));
+                c.thread.interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void sessionClosed(SecuritySessionClosed closed) {
+        publish(EventType.CLOSED, closed, null);
+    }
+
+    @Override
+    public void subscriberBound(SecuritySessionBound binding) {
+        publish(EventType.BOUND, binding, null);
+    }
+
+    @Override
+    public void subscriberUnbound(SecuritySessionUnbound unbound) {
+        publish(EventType.UNBOUND, unbound, null);
+    }
+
+    @Override
+    public void subscriberHeartbeat(SecuritySessionSubscriberHeartbeat heartbeat) {
+        publish(EventType.HEARTBEAT, heartbeat, null);
+    }
+
+    @Override
+    public void propertyChange(SecuritySessionPropertyChanged change) {
+        publish(EventType.PROPERTY_CHANGE, change, null);
+    }
+
+    @Override
+    public void authentication(SubjectAuthenticated auth) {
+        publish(EventType.AUTHENTICATION, auth, null);
+    }
+
+    @Override
+    public void assuranceElevated(AssuranceLevelElevated assurance) {
+        publish(EventType.ASSURANCE_ELEVATED, assurance, null);
+    }
+
+    @Override
+    public void authorizationGranted(AuthorizationGranted event,
+            Authorization authz) {
+        publish(EventType.AUTHORIZATION_GRANTED, event, authz);
+    }
+
+    @Override
+    public void authorizationRevoked(AuthorizationRevoked event) {
+        publish(EventType.AUTHORIZATION_REVOKED, event, null);
+    }
+
+    @Override
+    public void profileChanged(SessionProfileChanged event) {
+        publish(EventType.PROFILE_CHANGED, event, null);
+    }
+
+    @Override
+    public void authorizationsRemoved(NoSessionProfile event) {
+        publish(EventType.AUTHORIZATIONS_REMOVED, event, null);
+    }
+
+    private void publish(EventType type, Object event, Object arg) {
+        if (!running) {
+            throw new IllegalStateException("Session event dispatcher is "
+                    + "closed.");
+        }
+        if (consumers.length == 0) {
+            return; //no listener to deliver to
+        }
+        long seq;
+        for (;;) {
+            seq = cursor.get();
+            final long wrap = seq - slots.length;
+            if (wrap >= cachedGate && wrap >= (cachedGate = gate())) {
+                //buffer is full
+                if (overflow == OverflowPolicy.DROP
+                        || Thread.currentThread().isInterrupted()) {
+                    dropped.increment();
+                    return;
+                }
+                if (!running) {
+                    throw new IllegalStateException("Session event "
+                            + "dispatcher was closed while waiting to "
+                            + "publish.");
+                }
+                LockSupport.parkNanos(1_000);
+            } else if (singlePublisher) {
+                //the only writer of the cursor
+                cursor.lazySet(seq + 1);
+                break;
+            } else if (cursor.compareAndSet(seq, seq + 1)) {
+                break;
+            }
+        }
+
+        final int index = (int) seq & mask;
+        final Slot slot = slots[index];
+        slot.type = type;
+        slot.event = event;
+        slot.arg = arg;
+        undelivered.lazySet(index, consumers.length);
+        published.lazySet(index, seq);
+    }
+
+    /**
+     * Sequence of the slowest consumer.
+     */
+    private long gate() {
+        long min = Long.MAX_VALUE;
+        for (Consumer c : consumers) {
+            min = Math.min(min, c.sequence.get());
+        }
+        return (consumers.length == 0) ? cursor.get() : min;
+    }
+
+    /**
+     * How a consumer waits for events to be published.
+     */
+    public enum WaitStrategy {
+
+        /**
+         * Spin, with the lowest latency and a fully occupied core per
+         * consumer.
+         */
+        BUSY_SPIN {
+            @Override
+            int idle(int idleCount) {
+                return idleCount + 1;
+            }
+        },
+        /**
+         * Spin briefly, then yield the processor.
+         */
+        YIELDING {
+            @Override
+            int idle(int idleCount) {
+                if (idleCount > 100) {
+                    Thread.yield();
+                }
+                return idleCount + 1;
+            }
+        },
+        /**
+         * Spin briefly, yield, then park for increasing periods up to a
+         * millisecond, using little processor when idle.
+         */
+        PARKING {
+            @Override
+            int idle(int idleCount) {
+                if (idleCount > 200) {
+                    LockSupport.parkNanos(Math.min(1_000_000,
+                            1_000L << Math.min(10, idleCount - 200)));
+                } else if (idleCount > 100) {
+                    Thread.yield();
+                }
+                return idleCount + 1;
+            }
+        };
+
+        /**
+         * Wait after finding no new events.
+         *
+         * @param idleCount number of consecutive idle waits
+         * @return next idle count
+         */
+        abstract int idle(int idleCount);
+    }
+
+    /**
+     * What a publisher does when the buffer is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Discard the event, counting it as
+         * {@link SessionEventDispatcher#getDropped() dropped}.
+         */
+        DROP,
+        /**
+         * Wait until the slowest listener has consumed an event.
+         * <p>
+         * A waiting publisher which is interrupted discards the event,
+         * counting it as {@link SessionEventDispatcher#getDropped() dropped}
+         * and leaving its interrupt status set. If the dispatcher is closed
+         * while waiting, the publisher fails with an
+         * {@link IllegalStateException}.
+         */
+        BLOCK
+    }
+
+    private enum EventType {
+        CLOSED {
+            @Override
+            void deliver(SecuritySession.Listener l, Object e, Object arg) {
+                l.sessionClosed((SecuritySessionClosed) e);
+            }
+        },
+        BOUND {
+            @Override
+            void deliver(SecuritySession.Listener l, Object e, Object arg) {
+                l.subscriberBound((SecuritySessionBound) e);
+            }
+        },
+        UNBOUND {
+            @Override
+            void deliver(SecuritySession.Listener l, Object e, Object arg) {
+                l.subscriberUnbound((SecuritySessionUnbound) e);
+            }
+        },
+        HEARTBEAT {
+            @Override
+            void deliver(SecuritySession.Listener l, Object e, Object arg) {
+                l.subscriberHeartbeat((SecuritySessionSubscriberHeartbeat) e);
+            }
+        },
+        PROPERTY_CHANGE {
+            @Override
+            void deliver(SecuritySession.Listener l, Object e, Object arg) {
+                l.propertyChange((SecuritySessionPropertyChanged) e);
+            }
+        },
+        AUTHENTICATION {
+            @Override
+            void deliver(SecuritySession.Listener l, Object e, Object arg) {
+                l.authentication((SubjectAuthenticated) e);
+            }
+        },
+        ASSURANCE_ELEVATED {
+            @Override
+            void deliver(SecuritySession.Listener l, Object e, Object arg) {
+                l.assuranceElevated((AssuranceLevelElevated) e);
+            }
+        },
+        AUTHORIZATION_GRANTED {
+            @Override
+            void deliver(SecuritySession.Listener l, Object e, Object arg) {
+                l.authorizationGranted((AuthorizationGranted) e,
+                        (Authorization) arg);
+            }
+        },
+        AUTHORIZATION_REVOKED {
+            @Override
+            void deliver(SecuritySession.Listener l, Object e, Object arg) {
+                l.authorizationRevoked((AuthorizationRevoked) e);
+            }
+        },
+        PROFILE_CHANGED {
+            @Override
+            void deliver(SecuritySession.Listener l, Object e, Object arg) {
+                l.profileChanged((SessionProfileChanged) e);
+            }
+        },
+        AUTHORIZATIONS_REMOVED {
+            @Override
+            void deliver(SecuritySession.Listener l, Object e, Object arg) {
+                l.authorizationsRemoved((NoSessionProfile) e);
+            }
+        };
+
+        abstract void deliver(SecuritySession.Listener listener, Object event,
+                Object arg);
+    }
+
+    /**
+     * Ring buffer entry, written by the publisher which claimed its sequence
+     * and released by the last consumer to deliver it.
+     */
+    private static final class Slot {
+
+        private EventType type;
+        private Object event;
+        private Object arg;
+    }
+
+    /**
+     * Delivers published events to a single listener.
+     */
+    private final class Consumer implements Runnable {
+
+        private final SecuritySession.Listener listener;
+        //next sequence to deliver; written only by the consumer thread
+        private final AtomicLong sequence = new AtomicLong();
+        private Thread thread;
+
+        private Consumer(SecuritySession.Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            long next = 0;
+            int idle = 0;
+            while (running || next < cursor.get()) {
+                long available = next;
+                while (available - next < slots.length
+                        && published.get((int) available & mask) == available) {
+                    available++;
+                }
+                if (available == next) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    idle = waitStrategy.idle(idle);
+                    continue;
+                }
+                idle = 0;
+                for (long s = next; s < available; s++) {
+                    final int index = (int) s & mask;
+                    final Slot slot = slots[index];
+                    try {
+                        slot.type.deliver(listener, slot.event, slot.arg);
+                    } catch (RuntimeException ex) {
+                        LOGGER.log(Level.WARNING, ex, () -> String.format(
+                                "Session listener %s failed.", listener));
+                    }
+                    if (undelivered.decrementAndGet(index) == 0) {
+                        //published before the consumer sequence, so the
+                        //slot is not reused until released
+                        slot.event = null;
+                        slot.arg = null;
+                    }
+                }
+                next = available;
+                sequence.lazySet(next);
+            }
+        }
+    }
+
+    public static final class Builder {
+
+        private int bufferSize = DEFAULT_BUFFER_SIZE;
+        private WaitStrategy waitStrategy = WaitStrategy.PARKING;
+        private OverflowPolicy overflow = OverflowPolicy.BLOCK;
+        private boolean singlePublisher;
+        private ThreadFactory threadFactory;
+        private final List<SecuritySession.Listener> listeners
+                = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Number of events buffered, rounded up to a power of two.
+         *
+         * @param size buffer size
+         * @return this builder (fluid interface)
+         */
+        public Builder bufferSize(int size) {
+            if (size < 1 || size > (1 << 30)) {
+                throw new IllegalArgumentException("Buffer size must be "
+                        + "between 1 and 2^30.");
+            }
+            this.bufferSize = (size == 1)
+                    ? 1
+                    : Integer.highestOneBit(size - 1) << 1;
+            return this;
+        }
+
+        /**
+         * How consumers wait for new events; defaults to
+         * {@link WaitStrategy#PARKING}.
+         *
+         * @param strategy wait strategy
+         * @return this builder (fluid interface)
+         */
+        public Builder waitStrategy(WaitStrategy strategy) {
+            this.waitStrategy = strategy;
+            return this;
+        }
+
+        /**
+         * What publishers do when the buffer is full; defaults to
+         * {@link OverflowPolicy#BLOCK}.
+         *
+         * @param policy overflow policy
+         * @return this builder (fluid interface)
+         */
+        public Builder overflow(OverflowPolicy policy) {
+            this.overflow = policy;
+            return this;
+        }
+
+        /**
+         * Claim sequences as the single writer of the ring buffer cursor,
+         * without an atomic read-modify-write per event.
+         * <p>
+         * Only for dispatchers whose events are all published by the same
+         * thread, or by threads which otherwise never publish concurrently;
+         * concurrent publishers would claim the same sequence. By default
+         * publishers may be concurrent.
+         *
+         * @return this builder (fluid interface)
+         */
+        public Builder singlePublisher() {
+            this.singlePublisher = true;
+            return this;
+        }
+
+        /**
+         * Factory of consumer threads; defaults to daemon threads.
+         *
+         * @param factory consumer thread factory
+         * @return this builder (fluid interface)
+         */
+        public Builder threadFactory(ThreadFactory factory) {
+            this.threadFactory = factory;
+            return this;
+        }
+
+        /**
+         * Add a listener, delivered events on its own consumer thread.
+         *
+         * @param listener session listener
+         * @return this builder (fluid interface)
+         */
+        public Builder listener(SecuritySession.Listener listener) {
+            listeners.add(listener);
+            return this;
+        }
+
+        /**
+         * Create the dispatcher, starting a consumer thread for each
+         * listener.
+         *
+         * @return dispatcher
+         */
+        public SessionEventDispatcher build() {
+            if (threadFactory == null) {
+                final AtomicInteger count = new AtomicInteger();
+                final ThreadFactory defaults = Executors.defaultThreadFactory();
+                threadFactory = (r) -> {
+                    Thread t = defaults.newThread(r);
+                    t.setName("saasy-session-events-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                };
+            }
+            return new SessionEventDispatcher(this);
+        }
+    }
+}
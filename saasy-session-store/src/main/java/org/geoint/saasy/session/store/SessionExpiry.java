@@ -0,0 +1,369 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.session.store;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoint.saasy.session.SecuritySession;
+import org.geoint.saasy.session.SessionSubscriber;
+import org.geoint.saasy.session.event.SecuritySessionClosed;
+import org.geoint.saasy.session.event.SecuritySessionUnbound;
+
+/**
+ * Closes idle session subscribers and sessions when their deadlines pass.
+ * <p>
+ * Session deadlines are the {@link SecuritySession#getCloseTime() session
+ * close time} and subscriber deadlines are the
+ * {@link SessionSubscriber#getClosedTime() subscriber close time}. Deadlines
+ * are tracked by a hierarchical {@link TimingWheel}, so tracking, updating,
+ * and untracking a deadline is constant time and no session is scanned or
+ * given its own scheduled task.
+ * <p>
+ * Activity should be reported with {@link #touch(SecuritySession)} or
+ * {@link #touch(SecuritySession, SessionSubscriber)}, which moves the
+ * deadline. Deadlines are only moved while the map entry of the session or
+ * subscriber is locked, so a touch racing an untrack either re-tracks the
+ * session or leaves it untracked, and never revives the cancelled deadline. Activity that was not reported is still honored: a deadline is
+ * re-checked before anything is closed, and rescheduled if the close time has
+ * moved into the future.
+ * <p>
+ * The expiry is {@link Runnable} and is expected to be run periodically, at
+ * the tick resolution, by a scheduler. Each run closes the expired subscribers
+ * and sessions as a batch, notifying registered
+ * {@link SecuritySession.Listener listeners} with a
+ * {@link SecuritySessionUnbound} for each subscriber and a
+ * {@link SecuritySessionClosed} for each session.
+ * <p>
+ * Instances are thread-safe.
+ *
+ * @author steve_siebert
+ */
+public class SessionExpiry implements Runnable {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(SessionExpiry.class.getName());
+    /**
+     * Value of {@link SecuritySessionClosed#getClosedBy()} for sessions closed
+     * on expiry.
+     */
+    public static final String CLOSED_BY = "session-expiry";
+    public static final Duration DEFAULT_TICK = Duration.ofSeconds(1);
+
+    private final Clock clock;
+    private final TimingWheel<Expiring> wheel;
+    private final ConcurrentMap<String, TimingWheel.Timeout<Expiring>> sessions
+            = new ConcurrentHashMap<>();
+    private final ConcurrentMap<SessionSubscriber, TimingWheel.Timeout<Expiring>> subscribers
+            = new ConcurrentHashMap<>();
+    private final List<SecuritySession.Listener> listeners
+            = new CopyOnWriteArrayList<>();
+
+    /**
+     * Expiry with the {@link #DEFAULT_TICK default tick} using the system
+     * clock.
+     */
+    public SessionExpiry() {
+        this(DEFAULT_TICK, Clock.systemUTC());
+    }
+
+    /**
+     * Expiry with the provided tick resolution and clock.
+     *
+     * @param tick deadline resolution
+     * @param clock clock
+     */
+    public SessionExpiry(Duration tick, Clock clock) {
+        this.clock = clock;
+        this.wheel = new TimingWheel<>(tick.toMillis(), clock.millis());
+    }
+
+    /**
+     * Register a listener to be notified of subscribers and sessions closed
+     * on expiry.
+     *
+     * @param listener listener
+     */
+    public void addListener(SecuritySession.Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(SecuritySession.Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Track the session, and each of its current subscribers.
+     *
+     * @param session session
+     */
+    public void track(SecuritySession session) {
+        touch(session);
+        for (SessionSubscriber s : session.getSubscribers()) {
+            touch(session, s);
+        }
+    }
+
+    /**
+     * Track, or update the deadline of, the session.
+     *
+     * @param session session
+     */
+    public void touch(SecuritySession session) {
+        final long deadline = millis(session.getCloseTime());
+        sessions.compute(session.getSessionGuid(), (k, timeout) -> {
+            if (timeout == null) {
+                return wheel.schedule(new Expiring(session, null), deadline);
+            }
+            wheel.reschedule(timeout, deadline);
+            return timeout;
+        });
+    }
+
+    /**
+     * Track, or update the deadline of, a subscriber of the session.
+     *
+     * @param session session
+     * @param subscriber session subscriber
+     */
+    public void touch(SecuritySession session, SessionSubscriber subscriber) {
+        final long deadline = millis(subscriber.getClosedTime());
+        subscribers.compute(subscriber, (k, timeout) -> {
+            if (timeout == null) {
+                return wheel.schedule(new Expiring(session, subscriber),
+                        deadline);
+            }
+            wheel.reschedule(timeout, deadline);
+            return timeout;
+        });
+    }
+
+    /**
+     * Stop tracking the session, for example when it was closed by the
+     * subject. Subscribers of the session are also no longer tracked.
+     *
+     * @param session session
+     */
+    public void untrack(SecuritySession session) {
+        final TimingWheel.Timeout<Expiring> timeout
+                = sessions.remove(session.getSessionGuid());
+        if (timeout != null) {
+            wheel.cancel(timeout);
+        }
+        for (SessionSubscriber s : session.getSubscribers()) {
+            untrack(s);
+        }
+    }
+
+    /**
+     * Stop tracking the subscriber.
+     *
+     * @param subscriber session subscriber
+     */
+    public void untrack(SessionSubscriber subscriber) {
+        final TimingWheel.Timeout<Expiring> timeout
+                = subscribers.remove(subscriber);
+        if (timeout != null) {
+            wheel.cancel(timeout);
+        }
+    }
+
+    /**
+     * Number of tracked sessions and subscribers.
+     *
+     * @return tracked deadlines
+     */
+    public int size() {
+        return wheel.size();
+    }
+
+    /**
+     * Close all subscribers and sessions whose deadlines have passed.
+     *
+     * @return number of subscribers and sessions closed
+     */
+    public int expire() {
+        final long now = clock.millis();
+        final List<Expiring> expired = wheel.advance(now);
+        int closed = 0;
+        for (Expiring e : expired) {
+            try {
+                closed += e.expire(now) ? 1 : 0;
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, ex, () -> String.format("Unable to "
+                        + "expire %s.", e));
+            }
+        }
+        if (!expired.isEmpty()) {
+            final int total = closed;
+            LOGGER.fine(() -> String.format("%d deadlines passed, %d "
+                    + "subscribers and sessions were closed.",
+                    expired.size(), total));
+        }
+        return closed;
+    }
+
+    @Override
+    public void run() {
+        expire();
+    }
+
+    /**
+     * Notify the listeners of a session which expired while untracked, such
+     * as a passivated session, and was discarded rather than closed.
+     *
+     * @param subjectGuid session subject
+     * @param sessionGuid session guid
+     */
+    void expired(String subjectGuid, String sessionGuid) {
+        fireEvent(new SecuritySessionClosed(subjectGuid, sessionGuid,
+                CLOSED_BY, ZonedDateTime.now(clock)));
+    }
+
+    /**
+     * Reschedule the timeout only while it is still tracked; the map entry is
+     * locked while rescheduling, so a concurrent untrack can not remove and
+     * cancel the timeout only to have it revived.
+     */
+    private <K> void reschedule(
+            ConcurrentMap<K, TimingWheel.Timeout<Expiring>> tracked, K key,
+            TimingWheel.Timeout<Expiring> timeout, long deadline) {
+        tracked.computeIfPresent(key, (k, current) -> {
+            if (current == timeout) {
+                wheel.reschedule(timeout, deadline);
+            }
+            return current;
+        });
+    }
+
+    private static long millis(ZonedDateTime time) {
+        return time.toInstant().toEpochMilli();
+    }
+
+    private void fireEvent(SecuritySessionUnbound unbound) {
+        for (SecuritySession.Listener l : listeners) {
+            try {
+                l.subscriberUnbound(unbound);
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Session listener failed.", ex);
+            }
+        }
+    }
+
+    private void fireEvent(SecuritySessionClosed closed) {
+        for (SecuritySession.Listener l : listeners) {
+            try {
+                l.sessionClosed(closed);
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Session listener failed.", ex);
+            }
+        }
+    }
+
+    /**
+     * A tracked session (subscriber is null) or session subscriber.
+     */
+    private final class Expiring {
+
+        private final SecuritySession session;
+        private final SessionSubscriber subscriber;
+
+        private Expiring(SecuritySession session, SessionSubscriber subscriber) {
+            this.session = session;
+            this.subscriber = subscriber;
+        }
+
+        /**
+         * Close the subscriber or session if its deadline has passed,
+         * otherwise reschedule it.
+         *
+         * @param now current time in milliseconds
+         * @return true if closed
+         */
+        private boolean expire(long now) {
+            if (subscriber != null) {
+                return expireSubscriber(now);
+            }
+            return expireSession(now);
+        }
+
+        private boolean expireSubscriber(long now) {
+            final TimingWheel.Timeout<Expiring> timeout
+                    = subscribers.get(subscriber);
+            if (timeout == null || timeout.getPayload() != this) {
+                return false; //untracked
+            }
+            if (!subscriber.isActive()) {
+                subscribers.remove(subscriber, timeout);
+                return false; //closed elsewhere
+            }
+            final long deadline = millis(subscriber.getClosedTime());
+            if (deadline > now) {
+                //unreported activity
+                reschedule(subscribers, subscriber, timeout, deadline);
+                return false;
+            }
+            subscribers.remove(subscriber, timeout);
+            subscriber.close();
+            fireEvent(new SecuritySessionUnbound(
+                    session.getSubject().getGuid(), session.getSessionGuid(),
+                    subscriber.getSubscriber().getGuid()));
+            return true;
+        }
+
+        private boolean expireSession(long now) {
+            final String sessionGuid = session.getSessionGuid();
+            final TimingWheel.Timeout<Expiring> timeout
+                    = sessions.get(sessionGuid);
+            if (timeout == null || timeout.getPayload() != this) {
+                return false; //untracked
+            }
+            if (!session.isActive()) {
+                sessions.remove(sessionGuid, timeout);
+                return false; //closed elsewhere
+            }
+            final long deadline = millis(session.getCloseTime());
+            if (deadline > now) {
+                //unreported activity
+                reschedule(sessions, sessionGuid, timeout, deadline);
+                return false;
+            }
+            sessions.remove(sessionGuid, timeout);
+            for (SessionSubscriber s : session.getSubscribers()) {
+                untrack(s); //closed with the session
+            }
+            session.close();
+            fireEvent(new SecuritySessionClosed(session.getSubject().getGuid(),
+                    sessionGuid, CLOSED_BY,
+                    ZonedDateTime.now(clock)));
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return (subscriber == null)
+                    ? String.format("session '%s'", session.getSessionGuid())
+                    : String.format("subscriber of session '%s'",
+                            session.getSessionGuid());
+        }
+    }
+}
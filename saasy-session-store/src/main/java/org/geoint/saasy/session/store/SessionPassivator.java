@@ -0,0 +1,608 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.session.store;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoint.saasy.IdentityManager;
+import org.geoint.saasy.session.SecuritySession;
+import org.geoint.saasy.session.SessionSubscriber;
+import org.geoint.saasy.session.event.SecuritySessionClosed;
+
+/**
+ * Moves sessions which have been idle past a threshold out of the
+ * {@link SessionStore} and into compact binary files on disk, reactivating
+ * them on first access.
+ * <p>
+ * A session is idle when neither it nor any of its subscribers has been
+ * active for the idle threshold. Each {@link #passivateIdle() passivation}
+ * writes the {@link PassivatedSession state} of the idle sessions found
+ * sequentially to a new file, then removes the sessions from the store, so
+ * they no longer occupy the heap. A session which changed while it was being
+ * written is left in the store, as is an
+ * {@link SecuritySession#UNVERSIONED unversioned} session, whose changes
+ * cannot be detected.
+ * <p>
+ * {@link #findSession(String)} is intended to back
+ * {@link IdentityManager#findSession(String)}: a passivated session is read
+ * from disk and recreated by the {@link Activator} before it is returned, and
+ * returned to the store. When a session is read, up to the read-ahead number
+ * of the following records in the same file are read in the same operation
+ * and held decoded, so many sessions waking together (which were normally
+ * passivated together) are mostly reactivated without further reads.
+ * <p>
+ * A file is deleted once none of its sessions remain passivated. Passivated
+ * sessions do not survive the passivator; {@link #close()} deletes the
+ * remaining files.
+ * <p>
+ * The passivator is {@link Runnable} and is expected to be run periodically
+ * by a scheduler. It may be registered as a {@link SecuritySession.Listener}
+ * to discard passivated sessions which are closed.
+ * <p>
+ * Instances are thread-safe.
+ *
+ * @author steve_siebert
+ */
+public final class SessionPassivator
+        implements SecuritySession.Listener, Runnable, Closeable {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(SessionPassivator.class.getName());
+    public static final Duration DEFAULT_IDLE_THRESHOLD = Duration.ofHours(1);
+    public static final int DEFAULT_READ_AHEAD = 64;
+    private static final String FILE_PREFIX = "passivated-";
+    private static final int LOCK_BITS = 6;
+
+    private final SessionStore store;
+    private final Path directory;
+    private final Activator activator;
+    private final SessionExpiry expiry;
+    private final long idleMillis;
+    private final int readAhead;
+    private final Clock clock;
+    private final ConcurrentMap<String, Record> passivated
+            = new ConcurrentHashMap<>();
+    private final Map<Record, PassivatedSession> prefetched;
+    private final Object[] locks = new Object[1 << LOCK_BITS];
+    private final AtomicLong fileSequence = new AtomicLong();
+
+    private SessionPassivator(Builder builder) {
+        this.store = builder.store;
+        this.directory = builder.directory;
+        this.activator = builder.activator;
+        this.expiry = builder.expiry;
+        this.idleMillis = builder.idleThreshold.toMillis();
+        this.readAhead = builder.readAhead;
+        this.clock = builder.clock;
+        this.prefetched = new LinkedHashMap<Record, PassivatedSession>(
+                readAhead * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Record, PassivatedSession> eldest) {
+                return size() > Math.max(1, readAhead);
+            }
+        };
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Passivator of the sessions of the store.
+     *
+     * @param store session store
+     * @param directory directory passivated sessions are written to
+     * @param activator recreates sessions from their passivated state
+     * @return builder
+     */
+    public static Builder builder(SessionStore store, Path directory,
+            Activator activator) {
+        return new Builder(store, directory, activator);
+    }
+
+    /**
+     * Return the session, reactivating it if it is passivated.
+     *
+     * @param sessionGuid session guid
+     * @return session, if open or passivated
+     * @throws UncheckedIOException if the passivated session could not be
+     * read
+     */
+    public Optional<SecuritySession> findSession(String sessionGuid) {
+        Optional<SecuritySession> session = store.findSession(sessionGuid);
+        if (session.isPresent() || !passivated.containsKey(sessionGuid)) {
+            return session;
+        }
+        synchronized (lockFor(sessionGuid)) {
+            session = store.findSession(sessionGuid);
+            if (session.isPresent()) {
+                return session;
+            }
+            final Record record = passivated.get(sessionGuid);
+            if (record == null) {
+                return Optional.empty();
+            }
+            final SecuritySession activated = activator.activate(read(record));
+            store.add(activated);
+            if (expiry != null) {
+                expiry.track(activated);
+            }
+            discard(sessionGuid, record);
+            LOGGER.finer(() -> String.format("Reactivated session '%s'.",
+                    sessionGuid));
+            return Optional.of(activated);
+        }
+    }
+
+    /**
+     * Check if the session is passivated.
+     *
+     * @param sessionGuid session guid
+     * @return true if the session is passivated
+     */
+    public boolean isPassivated(String sessionGuid) {
+        return passivated.containsKey(sessionGuid);
+    }
+
+    /**
+     * Number of passivated sessions.
+     *
+     * @return passivated sessions
+     */
+    public int size() {
+        return passivated.size();
+    }
+
+    /**
+     * Passivate the sessions of the store which are idle, and discard
+     * passivated sessions whose close time has passed.
+     *
+     * @return number of sessions passivated
+     * @throws UncheckedIOException if the sessions could not be written
+     */
+    public int passivateIdle() {
+        final long now = clock.millis();
+        discardExpired(now);
+
+        List<SecuritySession> idle = new ArrayList<>();
+        store.forEach((s) -> {
+            if (s.isActive() && s.getVersion() != SecuritySession.UNVERSIONED
+                    && now - lastActivity(s) >= idleMillis) {
+                idle.add(s);
+            }
+        });
+        if (idle.isEmpty()) {
+            return 0;
+        }
+
+        final Segment segment;
+        final List<Record> records = new ArrayList<>(idle.size());
+        try {
+            segment = write(idle, records);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to passivate idle "
+                    + "sessions.", ex);
+        }
+
+        int count = 0;
+        for (int i = 0; i < idle.size(); i++) {
+            final SecuritySession s = idle.get(i);
+            final Record r = records.get(i);
+            synchronized (lockFor(s.getSessionGuid())) {
+                final boolean unchanged = s.isActive()
+                        && s.getVersion() == r.version
+                        && now - lastActivity(s) >= idleMillis
+                        && store.findSession(s.getSessionGuid())
+                        .map((o) -> o == s).orElse(false);
+                if (unchanged) {
+                    passivated.put(s.getSessionGuid(), r);
+                    store.remove(s.getSessionGuid());
+                    if (expiry != null) {
+                        expiry.untrack(s);
+                    }
+                    count++;
+                } else {
+                    segment.release();
+                }
+            }
+        }
+        final int total = count;
+        LOGGER.fine(() -> String.format("Passivated %d of %d idle sessions to "
+                + "%s.", total, idle.size(), segment.path));
+        return count;
+    }
+
+    @Override
+    public void run() {
+        try {
+            passivateIdle();
+        } catch (UncheckedIOException ex) {
+            LOGGER.log(Level.WARNING, "Session passivation failed.", ex);
+        }
+    }
+
+    @Override
+    public void sessionClosed(SecuritySessionClosed closed) {
+        final String guid = closed.getSessionGuid();
+        synchronized (lockFor(guid)) {
+            final Record r = passivated.get(guid);
+            if (r != null) {
+                discard(guid, r);
+            }
+        }
+    }
+
+    /**
+     * Discard all passivated sessions, deleting their files.
+     */
+    @Override
+    public void close() {
+        for (Map.Entry<String, Record> e : passivated.entrySet()) {
+            synchronized (lockFor(e.getKey())) {
+                if (passivated.remove(e.getKey(), e.getValue())) {
+                    e.getValue().segment.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Discard the passivated sessions whose close time has passed, closing
+     * them through the expiry, as it would had they stayed in the store.
+     */
+    private void discardExpired(long now) {
+        for (Map.Entry<String, Record> e : passivated.entrySet()) {
+            final Record r = e.getValue();
+            if (r.closeMillis <= now) {
+                final boolean discarded;
+                synchronized (lockFor(e.getKey())) {
+                    discarded = discard(e.getKey(), r);
+                }
+                if (discarded && expiry != null) {
+                    expiry.expired(r.subjectGuid, r.sessionGuid);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the passivated session record; called holding the session lock.
+     *
+     * @return true if the record was removed
+     */
+    private boolean discard(String sessionGuid, Record record) {
+        if (passivated.remove(sessionGuid, record)) {
+            synchronized (prefetched) {
+                prefetched.remove(record);
+            }
+            record.segment.release();
+            return true;
+        }
+        return false;
+    }
+
+    private Segment write(List<SecuritySession> sessions, List<Record> records)
+            throws IOException {
+        final Path path = directory.resolve(FILE_PREFIX
+                + fileSequence.incrementAndGet() + ".bin");
+        final Segment segment = new Segment(path, sessions.size());
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+        DataOutputStream record = new DataOutputStream(buffer);
+        try {
+            try (OutputStream out = new BufferedOutputStream(
+                    Files.newOutputStream(path))) {
+                long offset = 0;
+                for (SecuritySession s : sessions) {
+                    final PassivatedSession state = PassivatedSession.of(s);
+                    buffer.reset();
+                    state.writeTo(record);
+                    buffer.writeTo(out);
+                    Record r = new Record(segment, records.size(),
+                            state.getSessionGuid(), state.getSubjectGuid(),
+                            offset, buffer.size(), state.getVersion(),
+                            millis(state.getCloseTime()));
+                    segment.records[r.ordinal] = r;
+                    records.add(r);
+                    offset += buffer.size();
+                }
+            }
+            segment.open();
+        } catch (IOException | RuntimeException ex) {
+            //do not leave a partial file behind
+            records.clear();
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                ex.addSuppressed(e);
+            }
+            throw ex;
+        }
+        return segment;
+    }
+
+    /**
+     * Read the passivated session, reading ahead the records following it in
+     * the same file; called holding the session lock.
+     */
+    private PassivatedSession read(Record record) {
+        synchronized (prefetched) {
+            final PassivatedSession state = prefetched.remove(record);
+            if (state != null) {
+                return state;
+            }
+        }
+        final Segment segment = record.segment;
+        int last = record.ordinal;
+        while (last + 1 < segment.records.length
+                && last - record.ordinal < readAhead) {
+            last++;
+        }
+        final Record end = segment.records[last];
+        final int length = (int) (end.offset + end.length - record.offset);
+        final ByteBuffer bytes = ByteBuffer.allocate(length);
+        try {
+            while (bytes.hasRemaining()) {
+                if (segment.channel.read(bytes,
+                        record.offset + bytes.position()) < 0) {
+                    throw new IOException("Unexpected end of " + segment.path);
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to read passivated "
+                    + "session.", ex);
+        }
+
+        PassivatedSession requested = null;
+        for (int i = record.ordinal; i <= last; i++) {
+            final Record r = segment.records[i];
+            if (r != record && !needsPrefetch(r)) {
+                continue;
+            }
+            final PassivatedSession state = decode(bytes.array(),
+                    (int) (r.offset - record.offset), r.length);
+            if (r == record) {
+                requested = state;
+            } else {
+                synchronized (prefetched) {
+                    prefetched.put(r, state);
+                }
+            }
+        }
+        return requested;
+    }
+
+    private boolean needsPrefetch(Record r) {
+        if (passivated.get(r.sessionGuid) != r) {
+            return false;
+        }
+        synchronized (prefetched) {
+            return !prefetched.containsKey(r);
+        }
+    }
+
+    private static PassivatedSession decode(byte[] bytes, int offset,
+            int length) {
+        try {
+            return PassivatedSession.readFrom(new DataInputStream(
+                    new ByteArrayInputStream(bytes, offset, length)));
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to decode passivated "
+                    + "session.", ex);
+        }
+    }
+
+    private static long lastActivity(SecuritySession session) {
+        long last = millis(session.getCreatedTime());
+        for (SessionSubscriber s : session.getSubscribers()) {
+            final ZonedDateTime t = s.getLastActivityTime();
+            if (t != null) {
+                last = Math.max(last, millis(t));
+            }
+        }
+        return last;
+    }
+
+    private static long millis(ZonedDateTime time) {
+        return (time == null) ? Long.MAX_VALUE : time.toInstant().toEpochMilli();
+    }
+
+    private Object lockFor(String sessionGuid) {
+        return locks[Stripes.index(sessionGuid, LOCK_BITS)];
+    }
+
+    /**
+     * Recreates a session from its passivated state.
+     */
+    @FunctionalInterface
+    public interface Activator {
+
+        /**
+         * Recreate the session.
+         *
+         * @param state passivated session state
+         * @return active session
+         */
+        SecuritySession activate(PassivatedSession state);
+    }
+
+    /**
+     * A file of passivated sessions, deleted once none remain passivated.
+     */
+    private static final class Segment {
+
+        private final Path path;
+        private final Record[] records;
+        private final AtomicInteger live;
+        private FileChannel channel;
+
+        private Segment(Path path, int size) {
+            this.path = path;
+            this.records = new Record[size];
+            this.live = new AtomicInteger(size);
+        }
+
+        private void open() throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        }
+
+        private void release() {
+            if (live.decrementAndGet() == 0) {
+                try {
+                    channel.close();
+                    Files.deleteIfExists(path);
+                } catch (IOException ex) {
+                    LOGGER.log(Level.WARNING, ex, () -> String.format(
+                            "Unable to delete passivated session file %s.",
+                            path));
+                }
+            }
+        }
+    }
+
+    /**
+     * Location of a passivated session in its file.
+     */
+    private static final class Record {
+
+        private final Segment segment;
+        private final int ordinal;
+        private final String sessionGuid;
+        private final String subjectGuid;
+        private final long offset;
+        private final int length;
+        private final long version;
+        private final long closeMillis;
+
+        private Record(Segment segment, int ordinal, String sessionGuid,
+                String subjectGuid, long offset, int length, long version,
+                long closeMillis) {
+            this.segment = segment;
+            this.ordinal = ordinal;
+            this.sessionGuid = sessionGuid;
+            this.subjectGuid = subjectGuid;
+            this.offset = offset;
+            this.length = length;
+            this.version = version;
+            this.closeMillis = closeMillis;
+        }
+    }
+
+    public static final class Builder {
+
+        private final SessionStore store;
+        private final Path directory;
+        private final Activator activator;
+        private SessionExpiry expiry;
+        private Duration idleThreshold = DEFAULT_IDLE_THRESHOLD;
+        private int readAhead = DEFAULT_READ_AHEAD;
+        private Clock clock = Clock.systemUTC();
+
+        private Builder(SessionStore store, Path directory,
+                Activator activator) {
+            this.store = Objects.requireNonNull(store);
+            this.directory = Objects.requireNonNull(directory);
+            this.activator = Objects.requireNonNull(activator);
+        }
+
+        /**
+         * Duration without session or subscriber activity after which a
+         * session is passivated.
+         *
+         * @param threshold idle threshold
+         * @return this builder (fluid interface)
+         */
+        public Builder idleThreshold(Duration threshold) {
+            this.idleThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * Maximum number of following records read, and held, when a
+         * passivated session is read.
+         *
+         * @param records read-ahead records, zero to disable
+         * @return this builder (fluid interface)
+         */
+        public Builder readAhead(int records) {
+            if (records < 0) {
+                throw new IllegalArgumentException("Read-ahead must not be "
+                        + "negative.");
+            }
+            this.readAhead = records;
+            return this;
+        }
+
+        /**
+         * Expiry tracking the sessions of the store; passivated sessions are
+         * untracked, and tracked again when reactivated.
+         * <p>
+         * A passivated session whose close time passes is discarded and its
+         * closing is reported to the listeners of the expiry. Without an
+         * expiry such sessions are discarded silently, as sessions of the
+         * store are then never closed on expiry either.
+         *
+         * @param expiry session expiry
+         * @return this builder (fluid interface)
+         */
+        public Builder expiry(SessionExpiry expiry) {
+            this.expiry = expiry;
+            return this;
+        }
+
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Create the passivator, creating the directory if required.
+         *
+         * @return passivator
+         * @throws IOException if the directory could not be created
+         */
+        public SessionPassivator build() throws IOException {
+            Files.createDirectories(directory);
+            return new SessionPassivator(this);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.session.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import org.geoint.saasy.IdentityManager;
+import org.geoint.saasy.SecuritySubject;
+import org.geoint.saasy.session.SecuritySession;
+import org.geoint.saasy.session.event.SecuritySessionClosed;
+
+/**
+ * Sharded, in-memory store of open security sessions, suitable for backing
+ * {@link IdentityManager#findSession(String)} and
+ * {@link SecuritySubject#currentSession()} with millions of open sessions.
+ * <p>
+ * Sessions are indexed by session GUID, and a secondary index maps each
+ * subject GUID to its open sessions. Both indexes are split into
+ * independently sized shards so no single hash table grows to hold every
+ * session, keeping resizes small and allowing the shards to be walked
+ * independently.
+ * <p>
+ * Most subjects have a single open session, so the subject index holds the
+ * session itself rather than a collection, only holding an array once a
+ * subject has more than one open session.
+ * <p>
+ * The store may be registered as a {@link SecuritySession.Listener} to remove
+ * sessions as they are closed.
+ * <p>
+ * Instances are thread-safe. Adding and removing the same session
+ * concurrently is not supported.
+ *
+ * @author steve_siebert
+ */
+public class SessionStore implements SecuritySession.Listener {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(SessionStore.class.getName());
+    public static final int DEFAULT_EXPECTED_SESSIONS = 1024;
+    public static final int DEFAULT_SHARDS = 64;
+
+    private final Shard[] shards;
+    private final int shardBits;
+
+    /**
+     * Store with the {@link #DEFAULT_EXPECTED_SESSIONS default} expected
+     * number of sessions and {@link #DEFAULT_SHARDS default shards}.
+     */
+    public SessionStore() {
+        this(DEFAULT_EXPECTED_SESSIONS, DEFAULT_SHARDS);
+    }
+
+    /**
+     * Store sized for the expected number of open sessions.
+     *
+     * @param expectedSessions expected number of open sessions
+     * @param numShards number of shards, rounded up to a power of two
+     */
+    public SessionStore(int expectedSessions, int numShards) {
+        if (expectedSessions < 0 || numShards < 1) {
+            throw new IllegalArgumentException("Expected sessions must not be "
+                    + "negative and the number of shards must be positive.");
+        }
+        final int n = (numShards == 1)
+                ? 1
+                : Integer.highestOneBit(numShards - 1) << 1;
+        final int shardCapacity = expectedSessions / n + 1;
+        this.shards = new Shard[n];
+        this.shardBits = Integer.numberOfTrailingZeros(n);
+        for (int i = 0; i < n; i++) {
+            shards[i] = new Shard(shardCapacity);
+        }
+    }
+
+    /**
+     * Return the open session with the GUID.
+     *
+     * @param sessionGuid session GUID
+     * @return session, if stored
+     */
+    public Optional<SecuritySession> findSession(String sessionGuid) {
+        return Optional.ofNullable(shardFor(sessionGuid).sessions.get(sessionGuid));
+    }
+
+    /**
+     * Return the open sessions of the subject, in the order they were added.
+     *
+     * @param subjectGuid subject GUID
+     * @return subject sessions, empty if the subject has no open session
+     */
+    public List<SecuritySession> findSubjectSessions(String subjectGuid) {
+        final Object indexed = shardFor(subjectGuid).subjects.get(subjectGuid);
+        if (indexed == null) {
+            return Collections.emptyList();
+        } else if (indexed instanceof SecuritySession) {
+            return Collections.singletonList((SecuritySession) indexed);
+        }
+        return Collections.unmodifiableList(
+                Arrays.asList((SecuritySession[]) indexed));
+    }
+
+    /**
+     * Return the most recently added active session of the subject.
+     *
+     * @param subjectGuid subject GUID
+     * @return current subject session, if the subject has an active session
+     */
+    public Optional<SecuritySession> currentSession(String subjectGuid) {
+        final Object indexed = shardFor(subjectGuid).subjects.get(subjectGuid);
+        if (indexed instanceof SecuritySession) {
+            final SecuritySession s = (SecuritySession) indexed;
+            return s.isActive() ? Optional.of(s) : Optional.empty();
+        } else if (indexed != null) {
+            final SecuritySession[] sessions = (SecuritySession[]) indexed;
+            for (int i = sessions.length - 1; i >= 0; i--) {
+                if (sessions[i].isActive()) {
+                    return Optional.of(sessions[i]);
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Add an open session to the store.
+     *
+     * @param session session
+     * @return true if the session was added, false if a session with the same
+     * GUID is already stored
+     */
+    public boolean add(SecuritySession session) {
+        final String sessionGuid = session.getSessionGuid();
+        final String subjectGuid = Objects.requireNonNull(
+                session.getSubject(), "Stored sessions require a subject.")
+                .getGuid();
+        if (shardFor(sessionGuid).sessions.putIfAbsent(sessionGuid, session)
+                != null) {
+            return false;
+        }
+        shardFor(subjectGuid).subjects.compute(subjectGuid,
+                (k, indexed) -> indexAdd(indexed, session));
+        LOGGER.finest(() -> String.format("Stored session '%s' of subject "
+                + "'%s'.", sessionGuid, subjectGuid));
+        return true;
+    }
+
+    /**
+     * Remove a session from the store.
+     *
+     * @param sessionGuid session GUID
+     * @return the removed session, if it was stored
+     */
+    public Optional<SecuritySession> remove(String sessionGuid) {
+        final SecuritySession removed
+                = shardFor(sessionGuid).sessions.remove(sessionGuid);
+        if (removed == null) {
+            return Optional.empty();
+        }
+        final String subjectGuid = removed.getSubject().getGuid();
+        shardFor(subjectGuid).subjects.computeIfPresent(subjectGuid,
+                (k, indexed) -> indexRemove(indexed, removed));
+        LOGGER.finest(() -> String.format("Removed session '%s' of subject "
+                + "'%s'.", sessionGuid, subjectGuid));
+        return Optional.of(removed);
+    }
+
+    /**
+     * Number of stored sessions.
+     *
+     * @return number of sessions
+     */
+    public int size() {
+        int size = 0;
+        for (Shard s : shards) {
+            size += s.sessions.size();
+        }
+        return size;
+    }
+
+    /**
+     * Provide each stored session to the consumer, shard by shard.
+     * <p>
+     * The iteration is weakly consistent; sessions added or removed during
+     * iteration may or may not be provided.
+     *
+     * @param consumer session consumer
+     */
+    public void forEach(Consumer<? super SecuritySession> consumer) {
+        for (Shard s : shards) {
+            s.sessions.values().forEach(consumer);
+        }
+    }
+
+    @Override
+    public void sessionClosed(SecuritySessionClosed closed) {
+        remove(closed.getSessionGuid());
+    }
+
+    private Shard shardFor(String guid) {
+        return shards[Stripes.index(guid, shardBits)];
+    }
+
+    private static Object indexAdd(Object indexed, SecuritySession session) {
+        if (indexed == null) {
+            return session;
+        } else if (indexed instanceof SecuritySession) {
+            return new SecuritySession[]{(SecuritySession) indexed, session};
+        }
+        final SecuritySession[] sessions = (SecuritySession[]) indexed;
+        final SecuritySession[] added
+                = Arrays.copyOf(sessions, sessions.length + 1);
+        added[sessions.length] = session;
+        return added;
+    }
+
+    private static Object indexRemove(Object indexed, SecuritySession session) {
+        if (indexed == session) {
+            return null;
+        } else if (!(indexed instanceof SecuritySession[])) {
+            return indexed;
+        }
+        final SecuritySession[] sessions = (SecuritySession[]) indexed;
+        final List<SecuritySession> remaining = new ArrayList<>(sessions.length);
+        for (SecuritySession s : sessions) {
+            if (s != session) {
+                remaining.add(s);
+            }
+        }
+        switch (remaining.size()) {
+            case 0:
+                return null;
+            case 1:
+                return remaining.get(0);
+            default:
+                return remaining.toArray(new SecuritySession[remaining.size()]);
+        }
+    }
+
+    private static final class Shard {
+
+        private final ConcurrentHashMap<String, SecuritySession> sessions;
+        private final ConcurrentHashMap<String, Object> subjects; //SecuritySession or SecuritySession[]
+
+        private Shard(int capacity) {
+            this.sessions = new ConcurrentHashMap<>(capacity);
+            this.subjects = new ConcurrentHashMap<>(capacity);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.session.store;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.function.Supplier;
+import org.geoint.saasy.SecurityToken;
+import org.geoint.saasy.SignedSecurityToken;
+import org.geoint.saasy.session.SecuritySession;
+
+/**
+ * Caches the token, and its encoded form, of a session against the
+ * {@link SecuritySession#getVersion() session version}.
+ * <p>
+ * The session is only {@link SecuritySession#tokenize(SecurityToken.Builder)
+ * tokenized}, and the token only encoded, when the session version has
+ * changed since the cached token was created; otherwise the cached token and
+ * encoding are returned. An {@link SecuritySession#UNVERSIONED unversioned}
+ * session is tokenized on every request and its token is not cached.
+ * <p>
+ * A session implementation would normally hold one cache for the life of
+ * the session, implementing {@code tokenize} by appending its content to the
+ * builder, and serving its token to callers through the cache:
+ * <pre>
+ * public String getTokenString() {
+ *     return tokenCache.asString(this); //calls tokenize when changed
+ * }
+ * </pre>
+ * <p>
+ * The version is read before the session is tokenized, so a change made
+ * while tokenizing causes the next request to tokenize again rather than a
+ * stale token to be cached against the new version.
+ * <p>
+ * Instances are thread-safe; concurrent requests after a change may each
+ * tokenize the session.
+ *
+ * @author steve_siebert
+ */
+public final class SessionTokenCache {
+
+    /**
+     * Time before expiry a cached signed token is replaced, so a token is not
+     * handed out just before it stops verifying.
+     */
+    public static final Duration DEFAULT_RENEWAL_MARGIN
+            = Duration.ofMinutes(1);
+
+    private final Supplier<SecurityToken.Builder> builders;
+    private final Clock clock;
+    private final Duration renewalMargin;
+    private volatile Cached cached;
+
+    /**
+     * Cache creating tokens with builders from the provided supplier, using
+     * the system clock and {@link #DEFAULT_RENEWAL_MARGIN}.
+     *
+     * @param builders token builder supplier
+     */
+    public SessionTokenCache(Supplier<SecurityToken.Builder> builders) {
+        this(builders, Clock.systemUTC(), DEFAULT_RENEWAL_MARGIN);
+    }
+
+    /**
+     * Cache creating tokens with builders from the provided supplier.
+     *
+     * @param builders token builder supplier
+     * @param clock clock compared to signed token expiry, normally the clock
+     * of the token signer
+     * @param renewalMargin time before expiry a signed token is replaced
+     * @throws IllegalArgumentException if the margin is negative
+     */
+    public SessionTokenCache(Supplier<SecurityToken.Builder> builders,
+            Clock clock, Duration renewalMargin) {
+        if (renewalMargin.isNegative()) {
+            throw new IllegalArgumentException("Token renewal margin must not "
+                    + "be negative.");
+        }
+        this.builders = Objects.requireNonNull(builders);
+        this.clock = Objects.requireNonNull(clock);
+        this.renewalMargin = renewalMargin;
+    }
+
+    /**
+     * The token of the session at its current version.
+     *
+     * @param session session
+     * @return session token
+     */
+    public SecurityToken getToken(SecuritySession session) {
+        return current(session).token;
+    }
+
+    /**
+     * The {@link SecurityToken#asString() encoded} token of the session at its
+     * current version.
+     *
+     * @param session session
+     * @return encoded session token
+     */
+    public String asString(SecuritySession session) {
+        return current(session).encoded;
+    }
+
+    /**
+     * Discard the cached token.
+     */
+    public void invalidate() {
+        cached = null;
+    }
+
+    private Cached current(SecuritySession session) {
+        final long version = session.getVersion();
+        Cached c = cached;
+        if (c == null || c.version != version
+                || version == SecuritySession.UNVERSIONED
+                || !clock.instant().isBefore(c.renewAt)) {
+            SecurityToken.Builder builder = builders.get();
+            session.tokenize(builder);
+            SecurityToken token = builder.create();
+            c = new Cached(version, token, token.asString(), renewAt(token));
+            if (version != SecuritySession.UNVERSIONED) {
+                cached = c;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Time the token is replaced, even if the session is unchanged.
+     */
+    private Instant renewAt(SecurityToken token) {
+        if (!(token instanceof SignedSecurityToken)) {
+            return Instant.MAX;
+        }
+        final Instant expires = ((SignedSecurityToken) token).getExpires();
+        final Instant now = clock.instant();
+        if (!now.isBefore(expires)) {
+            return expires;
+        }
+        final Duration halfLife = Duration.between(now, expires).dividedBy(2);
+        return expires.minus(halfLife.compareTo(renewalMargin) < 0
+                ? halfLife
+                : renewalMargin);
+    }
+
+    private static final class Cached {
+
+        private final long version;
+        private final SecurityToken token;
+        private final String encoded;
+        private final Instant renewAt;
+
+        private Cached(long version, SecurityToken token, String encoded,
+                Instant renewAt) {
+            this.version = version;
+            this.token = token;
+            this.encoded = encoded;
+            this.renewAt = renewAt;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.session.store;
+
+/**
+ * Selects the stripe (lock, shard or buffer) of a power-of-two sized striped
+ * structure for a key.
+ * <p>
+ * The key hash is spread with a Fibonacci multiplier and the stripe is taken
+ * from the high bits of the product, leaving the low bits of the hash free
+ * for hash table buckets within a stripe.
+ *
+ * @author steve_siebert
+ */
+final class Stripes {
+
+    private static final int SPREAD = 0x9E3779B9;
+
+    private Stripes() {
+    }
+
+    /**
+     * Stripe index of a key.
+     *
+     * @param key key
+     * @param bits log2 of the number of stripes, 0 to 31
+     * @return stripe index, between 0 (inclusive) and 1 &lt;&lt; bits
+     */
+    static int index(Object key, int bits) {
+        return index(key.hashCode(), bits);
+    }
+
+    /**
+     * Stripe index of a key hash.
+     *
+     * @param hash key hash
+     * @param bits log2 of the number of stripes, 0 to 31
+     * @return stripe index, between 0 (inclusive) and 1 &lt;&lt; bits
+     */
+    static int index(int hash, int bits) {
+        //a shift of 32 is a no-op in java, a single stripe is always 0
+        return (bits == 0) ? 0 : (hash * SPREAD) >>> (32 - bits);
+    }
+}
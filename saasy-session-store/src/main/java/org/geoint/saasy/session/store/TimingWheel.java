@@ -0,0 +1,262 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.session.store;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel tracking deadlines at a fixed tick resolution.
+ * <p>
+ * The wheel has {@value #LEVELS} levels of {@value #WHEEL_SIZE} buckets; each
+ * bucket of a level spans {@value #WHEEL_SIZE} times the ticks of a bucket of
+ * the level below. A deadline is placed in the lowest level whose range
+ * covers it, and entries of a higher level bucket are cascaded to the lower
+ * levels when the wheel reaches that bucket. Deadlines beyond the range of
+ * the wheel are held in its furthest bucket and re-placed when cascaded.
+ * <p>
+ * Buckets are intrusive doubly linked lists, so scheduling, rescheduling, and
+ * cancelling a deadline are constant time regardless of how many deadlines
+ * are tracked. Deadlines are rounded up to the next tick and never expire
+ * early.
+ * <p>
+ * Instances are thread-safe.
+ *
+ * @param <T> deadline payload type
+ * @author steve_siebert
+ */
+final class TimingWheel<T> {
+
+    private static final int WHEEL_BITS = 6;
+    static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    static final int LEVELS = 4;
+    private static final long MAX_DELTA = 1L << (WHEEL_BITS * LEVELS);
+
+    private final long tickMillis;
+    private final Timeout<T>[][] buckets; //bucket list head sentinels
+    private long currentTick; //last processed tick
+    private int size;
+
+    /**
+     * Create a wheel.
+     *
+     * @param tickMillis tick resolution in milliseconds
+     * @param startMillis current time in milliseconds
+     */
+    TimingWheel(long tickMillis, long startMillis) {
+        if (tickMillis < 1) {
+            throw new IllegalArgumentException("Timing wheel tick must be "
+                    + "positive.");
+        }
+        this.tickMillis = tickMillis;
+        this.currentTick = startMillis / tickMillis;
+        @SuppressWarnings("unchecked")
+        final Timeout<T>[][] heads
+                = (Timeout<T>[][]) new Timeout<?>[LEVELS][WHEEL_SIZE];
+        this.buckets = heads;
+        for (Timeout<T>[] level : buckets) {
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                Timeout<T> head = new Timeout<>(null);
+                head.prev = head;
+                head.next = head;
+                level[i] = head;
+            }
+        }
+    }
+
+    /**
+     * Schedule a new deadline.
+     *
+     * @param payload deadline payload
+     * @param deadlineMillis deadline in milliseconds
+     * @return scheduled timeout, used to reschedule or cancel the deadline
+     */
+    synchronized Timeout<T> schedule(T payload, long deadlineMillis) {
+        Timeout<T> timeout = new Timeout<>(payload);
+        timeout.deadlineTick = toTick(deadlineMillis);
+        place(timeout);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * Move a deadline, scheduling it again if it had expired or was
+     * cancelled.
+     *
+     * @param timeout scheduled timeout
+     * @param deadlineMillis new deadline in milliseconds
+     */
+    synchronized void reschedule(Timeout<T> timeout, long deadlineMillis) {
+        final long tick = toTick(deadlineMillis);
+        if (timeout.isScheduled()) {
+            if (tick == timeout.deadlineTick) {
+                return;
+            }
+            unlink(timeout);
+        } else {
+            size++;
+        }
+        timeout.deadlineTick = tick;
+        place(timeout);
+    }
+
+    /**
+     * Cancel a deadline.
+     *
+     * @param timeout scheduled timeout
+     * @return true if the deadline was scheduled
+     */
+    synchronized boolean cancel(Timeout<T> timeout) {
+        if (!timeout.isScheduled()) {
+            return false;
+        }
+        unlink(timeout);
+        size--;
+        return true;
+    }
+
+    /**
+     * Advance the wheel to the provided time, returning the payloads of all
+     * deadlines which expired.
+     *
+     * @param nowMillis current time in milliseconds
+     * @return expired payloads, in deadline order
+     */
+    synchronized List<T> advance(long nowMillis) {
+        final long nowTick = nowMillis / tickMillis;
+        List<T> expired = new ArrayList<>();
+        while (currentTick < nowTick) {
+            currentTick++;
+            cascade();
+            final Timeout<T> head
+                    = buckets[0][(int) (currentTick & WHEEL_MASK)];
+            Timeout<T> t = head.next;
+            while (t != head) {
+                final Timeout<T> next = t.next;
+                unlink(t);
+                if (t.deadlineTick <= currentTick) {
+                    size--;
+                    expired.add(t.payload);
+                } else {
+                    place(t); //defensive, entries are placed exactly
+                }
+                t = next;
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Number of scheduled deadlines.
+     *
+     * @return scheduled deadlines
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    long getTickMillis() {
+        return tickMillis;
+    }
+
+    private long toTick(long millis) {
+        //round up so a deadline never expires early
+        return (millis + tickMillis - 1) / tickMillis;
+    }
+
+    /**
+     * Cascade the higher level buckets reached by the current tick into the
+     * lower levels.
+     */
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            if ((currentTick & ((1L << (WHEEL_BITS * level)) - 1)) != 0) {
+                return; //lower level has not wrapped
+            }
+            final Timeout<T> head = buckets[level][index(currentTick, level)];
+            Timeout<T> t = head.next;
+            while (t != head) {
+                final Timeout<T> next = t.next;
+                unlink(t);
+                place(t, currentTick); //current tick is yet to be processed
+                t = next;
+            }
+        }
+    }
+
+    private void place(Timeout<T> timeout) {
+        place(timeout, currentTick + 1);
+    }
+
+    private void place(Timeout<T> timeout, long earliestTick) {
+        long tick = Math.max(timeout.deadlineTick, earliestTick);
+        long delta = tick - currentTick;
+        if (delta >= MAX_DELTA) {
+            //beyond the wheel, hold in the furthest bucket until cascaded
+            tick = currentTick + MAX_DELTA - 1;
+            delta = MAX_DELTA - 1;
+        }
+        int level = 0;
+        while (delta >= (1L << (WHEEL_BITS * (level + 1)))) {
+            level++;
+        }
+        link(buckets[level][index(tick, level)], timeout);
+    }
+
+    private static int index(long tick, int level) {
+        return (int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+    }
+
+    private static <T> void link(Timeout<T> head, Timeout<T> t) {
+        t.prev = head.prev;
+        t.next = head;
+        head.prev.next = t;
+        head.prev = t;
+    }
+
+    private static <T> void unlink(Timeout<T> t) {
+        t.prev.next = t.next;
+        t.next.prev = t.prev;
+        t.prev = null;
+        t.next = null;
+    }
+
+    /**
+     * A scheduled deadline.
+     *
+     * @param <T> payload type
+     */
+    static final class Timeout<T> {
+
+        private final T payload;
+        private long deadlineTick;
+        private Timeout<T> prev;
+        private Timeout<T> next;
+
+        private Timeout(T payload) {
+            this.payload = payload;
+        }
+
+        T getPayload() {
+            return payload;
+        }
+
+        private boolean isScheduled() {
+            return next != null;
+        }
+    }
+}
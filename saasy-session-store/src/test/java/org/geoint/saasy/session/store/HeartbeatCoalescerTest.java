@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.session.store;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.geoint.saasy.session.SecuritySession;
+import org.geoint.saasy.session.SessionSubscriber;
+import org.geoint.saasy.session.event.SecuritySessionSubscriberHeartbeat;
+import org.geoint.saasy.spi.constraint.MockSession;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author steve_siebert
+ */
+public class HeartbeatCoalescerTest {
+
+    private MockClock clock;
+    private Map<SessionSubscriber, ZonedDateTime> activity;
+    private HeartbeatCoalescer coalescer;
+    private List<SecuritySessionSubscriberHeartbeat> events;
+
+    @Before
+    public void setup() {
+        clock = new MockClock(1_000_000);
+        activity = new HashMap<>();
+        coalescer = new HeartbeatCoalescer(clock,
+                (session, subscriber, last) -> activity.put(subscriber, last));
+        events = new ArrayList<>();
+        coalescer.addListener(new SecuritySession.Listener() {
+            @Override
+            public void subscriberHeartbeat(SecuritySessionSubscriberHeartbeat h) {
+                events.add(h);
+            }
+        });
+    }
+
+    /**
+     * Test heartbeats are not applied until flushed, and then once per
+     * subscriber.
+     */
+    @Test
+    public void testCoalesced() {
+        MockSession session = MockSession.forSubject("subject");
+        MockSubscriber tab1 = new MockSubscriber("tab1", null);
+        MockSubscriber tab2 = new MockSubscriber("tab2", null);
+        for (int i = 0; i < 5; i++) {
+            coalescer.heartbeat(session, tab1);
+            clock.advance(10);
+        }
+        coalescer.heartbeat(session, tab2);
+        assertTrue(events.isEmpty());
+        assertTrue(activity.isEmpty());
+
+        assertEquals(2, coalescer.flush());
+        assertEquals(2, events.size());
+        SecuritySessionSubscriberHeartbeat h = events.stream()
+                .filter((e) -> e.getSubscriberGuid().equals("tab1"))
+                .findFirst().get();
+        assertEquals(5, h.getCount());
+        assertEquals(session.getSessionGuid(), h.getSessionGuid());
+        assertEquals(1_000_040,
+                h.getLastHeartbeatTime().toInstant().toEpochMilli());
+        assertEquals(h.getLastHeartbeatTime(), activity.get(tab1));
+
+        //drained
+        assertEquals(0, coalescer.flush());
+        assertEquals(2, events.size());
+    }
+
+    /**
+     * Test no heartbeats are lost when recorded concurrently with flushes.
+     */
+    @Test
+    public void testConcurrentHeartbeats() throws Exception {
+        final int threads = 4;
+        final int beats = 10_000;
+        final MockSession session = MockSession.forSubject("subject");
+        final MockSubscriber tab = new MockSubscriber("tab", null);
+        ExecutorService exec = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            exec.execute(() -> {
+                for (int i = 0; i < beats; i++) {
+                    coalescer.heartbeat(session, tab);
+                }
+                done.countDown();
+            });
+        }
+        while (!done.await(1, TimeUnit.MILLISECONDS)) {
+            coalescer.flush();
+        }
+        coalescer.flush();
+        exec.shutdown();
+        assertEquals(threads * beats, events.stream()
+                .mapToInt(SecuritySessionSubscriberHeartbeat::getCount).sum());
+    }
+}
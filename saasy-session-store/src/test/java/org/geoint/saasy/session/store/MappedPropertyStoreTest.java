@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.session.store;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import org.geoint.saasy.session.event.SecuritySessionClosed;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author steve_siebert
+ */
+public class MappedPropertyStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testPutFind() throws Exception {
+        try (MappedPropertyStore store = open()) {
+            assertNull(store.putProperty("s1", "locale", "en_US"));
+            assertNull(store.putProperty("s1", "theme", "dark"));
+            assertEquals("dark", store.putProperty("s1", "theme", "light"));
+            assertEquals(Optional.of("light"), store.findProperty("s1", "theme"));
+            assertEquals(Optional.of("en_US"), store.findProperty("s1", "locale"));
+            assertFalse(store.findProperty("s1", "other").isPresent());
+            assertFalse(store.findProperty("s2", "theme").isPresent());
+
+            Map<String, String> props = store.getProperties("s1");
+            assertEquals(2, props.size());
+            assertEquals("light", props.get("theme"));
+        }
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        try (MappedPropertyStore store = open()) {
+            store.putProperty("s1", "a", "1");
+            store.putProperty("s1", "b", "2");
+            assertEquals("1", store.removeProperty("s1", "a"));
+            assertNull(store.removeProperty("s1", "a"));
+            assertEquals(1, store.size());
+            store.removeProperty("s1", "b");
+            assertEquals(0, store.size());
+
+            store.putProperty("s2", "a", "1");
+            store.sessionClosed(new SecuritySessionClosed("subject", "s2",
+                    "test", ZonedDateTime.now()));
+            assertTrue(store.getProperties("s2").isEmpty());
+        }
+    }
+
+    /**
+     * Test properties survive reopening the store, and that freed chunks are
+     * reused after reopening.
+     */
+    @Test
+    public void testWarmStart() throws Exception {
+        final Path file = tmp.getRoot().toPath().resolve("props");
+        Map<String, Map<String, String>> expected = new HashMap<>();
+        try (MappedPropertyStore store = MappedPropertyStore.open(file, 4)) {
+            for (int i = 0; i < 5_000; i++) {
+                final String guid = "session-" + i;
+                final String value = repeat('v', i % 300);
+                store.putProperty(guid, "p" + (i % 7), value);
+                store.putProperty(guid, "q", "" + i);
+                expected.computeIfAbsent(guid, (k) -> new HashMap<>())
+                        .put("p" + (i % 7), value);
+                expected.get(guid).put("q", "" + i);
+            }
+        }
+        final long size = Files.size(file);
+        try (MappedPropertyStore store = MappedPropertyStore.open(file)) {
+            assertEquals(expected.size(), store.size());
+            for (Map.Entry<String, Map<String, String>> e : expected.entrySet()) {
+                assertEquals(e.getValue(), store.getProperties(e.getKey()));
+            }
+            //overwrites reuse freed chunks rather than growing the file
+            for (int i = 0; i < 5_000; i++) {
+                store.putProperty("session-" + i, "q", "" + (i + 1));
+            }
+            assertEquals(Optional.of("1"), store.findProperty("session-0", "q"));
+        }
+        assertEquals(size, Files.size(file));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRecordTooLarge() throws Exception {
+        try (MappedPropertyStore store = open()) {
+            store.putProperty("s1", "big",
+                    repeat('x', MappedPropertyStore.MAX_RECORD));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosed() throws Exception {
+        MappedPropertyStore store = open();
+        store.close();
+        store.findProperty("s1", "a");
+    }
+
+    private MappedPropertyStore open() throws Exception {
+        return MappedPropertyStore.open(tmp.newFile().toPath(), 4);
+    }
+
+    private static String repeat(char c, int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.session.store;
+
+import java.time.ZonedDateTime;
+import java.util.function.Consumer;
+import org.geoint.saasy.SecuritySubject;
+import org.geoint.saasy.session.SessionSubscriber;
+import org.geoint.saasy.session.event.SecuritySessionClosed;
+import org.geoint.saasy.spi.constraint.MockSubject;
+
+/**
+ * Mock session subscriber, with a settable close time, used for testing.
+ *
+ * @author steve_siebert
+ */
+public class MockSubscriber implements SessionSubscriber {
+
+    private final SecuritySubject subscriber;
+    private final ZonedDateTime createdTime = ZonedDateTime.now();
+    private volatile ZonedDateTime closedTime;
+    private volatile ZonedDateTime lastActivityTime = createdTime;
+    private volatile boolean active = true;
+
+    public MockSubscriber(String subscriberGuid, ZonedDateTime closedTime) {
+        this.subscriber = new MockSubject(subscriberGuid);
+        this.closedTime = closedTime;
+    }
+
+    @Override
+    public SecuritySubject getSubscriber() {
+        return subscriber;
+    }
+
+    @Override
+    public ZonedDateTime getCreatedTime() {
+        return createdTime;
+    }
+
+    @Override
+    public ZonedDateTime getClosedTime() {
+        return closedTime;
+    }
+
+    public void setClosedTime(ZonedDateTime closedTime) {
+        this.closedTime = closedTime;
+    }
+
+    @Override
+    public ZonedDateTime getLastActivityTime() {
+        return lastActivityTime;
+    }
+
+    public void setLastActivityTime(ZonedDateTime lastActivityTime) {
+        this.lastActivityTime = lastActivityTime;
+    }
+
+    @Override
+    public boolean isActive() {
+        return active;
+    }
+
+    @Override
+    public void setSessionCloseHandler(Consumer<SecuritySessionClosed> callback) {
+    }
+
+    @Override
+    public void close() {
+        active = false;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.session.store;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author steve_siebert
+ */
+public class NonceServiceTest {
+
+    private static final String BASE64
+            = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+
+    private MockClock clock;
+    private NonceService nonces;
+
+    @Before
+    public void setup() {
+        clock = new MockClock(1_000_000);
+        nonces = new NonceService(Duration.ofMillis(100), 5, 2, 1_000, clock);
+    }
+
+    @Test
+    public void testUniqueAcrossThreads() throws Exception {
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        List<Future<List<String>>> results = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            results.add(exec.submit(() -> {
+                List<String> generated = new ArrayList<>();
+                for (int i = 0; i < 5_000; i++) {
+                    generated.add(nonces.generateNonce());
+                }
+                return generated;
+            }));
+        }
+        Set<String> all = new HashSet<>();
+        for (Future<List<String>> f : results) {
+            all.addAll(f.get());
+        }
+        exec.shutdown();
+        assertEquals(20_000, all.size());
+    }
+
+    @Test
+    public void testReplayRejected() {
+        String nonce = nonces.generateNonce();
+        assertTrue(nonces.verifyNonce(nonce));
+        assertFalse(nonces.verifyNonce(nonce));
+        assertTrue(nonces.verifyNonce(nonces.generateNonce()));
+    }
+
+    /**
+     * Test replays are rejected after the window has been folded into a
+     * Bloom filter, and unused nonces of that window are still accepted.
+     */
+    @Test
+    public void testReplayRejectedFromBloom() {
+        List<String> used = new ArrayList<>();
+        List<String> unused = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            String n = nonces.generateNonce();
+            assertTrue(nonces.verifyNonce(n));
+            used.add(n);
+            unused.add(nonces.generateNonce());
+        }
+        clock.advance(300); //beyond the exact windows
+        int accepted = 0;
+        for (int i = 0; i < used.size(); i++) {
+            assertFalse(nonces.verifyNonce(used.get(i)));
+            accepted += nonces.verifyNonce(unused.get(i)) ? 1 : 0;
+            assertFalse(nonces.verifyNonce(unused.get(i)));
+        }
+        assertEquals(unused.size(), accepted);
+    }
+
+    @Test
+    public void testExpired() {
+        String nonce = nonces.generateNonce();
+        clock.advance(500);
+        assertFalse(nonces.verifyNonce(nonce));
+    }
+
+    /**
+     * Test that another encoding of a used nonce, padded or with different
+     * unused trailing bits, is rejected as a replay.
+     */
+    @Test
+    public void testReplayAlternateEncodingRejected() {
+        String nonce = nonces.generateNonce();
+        assertTrue(nonces.verifyNonce(nonce));
+        assertFalse(nonces.verifyNonce(nonce + "=="));
+        final int last = nonce.length() - 1;
+        String flipped = nonce.substring(0, last)
+                + BASE64.charAt(BASE64.indexOf(nonce.charAt(last)) ^ 1);
+        assertNotEquals(nonce, flipped);
+        assertArrayEquals(Base64.getUrlDecoder().decode(nonce),
+                Base64.getUrlDecoder().decode(flipped));
+        assertFalse(nonces.verifyNonce(flipped));
+
+        clock.advance(300); //beyond the exact windows
+        assertFalse(nonces.verifyNonce(nonce + "=="));
+    }
+
+    /**
+     * Test that nonces not issued by the service are rejected, and do not
+     * consume the nonce they were forged from.
+     */
+    @Test
+    public void testForgedRejected() {
+        String nonce = nonces.generateNonce();
+        byte[] forged = Base64.getUrlDecoder().decode(nonce);
+        forged[10] ^= 1; //alter the random bytes
+        assertFalse(nonces.verifyNonce(Base64.getUrlEncoder()
+                .withoutPadding().encodeToString(forged)));
+        assertTrue(nonces.verifyNonce(nonce));
+
+        NonceService other = new NonceService(Duration.ofMillis(100), 5, 2,
+                1_000, clock);
+        assertFalse(nonces.verifyNonce(other.generateNonce()));
+    }
+
+    /**
+     * Test that services sharing a key accept each others nonces.
+     */
+    @Test
+    public void testSharedKey() {
+        byte[] secret = new byte[32];
+        NonceService a = new NonceService(Duration.ofMillis(100), 5, 2,
+                1_000, clock, secret);
+        NonceService b = new NonceService(Duration.ofMillis(100), 5, 2,
+                1_000, clock, secret);
+        assertTrue(b.verifyNonce(a.generateNonce()));
+    }
+
+    @Test
+    public void testMalformed() {
+        assertFalse(nonces.verifyNonce("junk"));
+        assertFalse(nonces.verifyNonce(""));
+        assertFalse(nonces.verifyNonce(null));
+    }
+}
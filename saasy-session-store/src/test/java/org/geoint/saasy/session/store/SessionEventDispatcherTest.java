@@ -0,0 +1,277 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.session.store;
+
+import java.lang.ref.WeakReference;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.geoint.saasy.session.SecuritySession;
+import org.geoint.saasy.session.event.SecuritySessionClosed;
+import org.geoint.saasy.session.event.SecuritySessionUnbound;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author steve_siebert
+ */
+public class SessionEventDispatcherTest {
+
+    /**
+     * Test every listener receives every event, in publication order, when
+     * publishers block on a full buffer.
+     */
+    @Test
+    public void testDeliveredInOrder() throws Exception {
+        RecordingListener a = new RecordingListener(null);
+        RecordingListener b = new RecordingListener(null);
+        SessionEventDispatcher dispatcher = SessionEventDispatcher.builder()
+                .bufferSize(16)
+                .waitStrategy(SessionEventDispatcher.WaitStrategy.YIELDING)
+                .listener(a)
+                .listener(b)
+                .build();
+        for (int i = 0; i < 1_000; i++) {
+            dispatcher.sessionClosed(closed("s" + i));
+        }
+        dispatcher.subscriberUnbound(
+                new SecuritySessionUnbound("subject", "s0", "app"));
+        dispatcher.close();
+
+        for (RecordingListener l : new RecordingListener[]{a, b}) {
+            assertEquals(1_000, l.closed.size());
+            for (int i = 0; i < 1_000; i++) {
+                assertEquals("s" + i, l.closed.get(i).getSessionGuid());
+            }
+            assertEquals(1, l.unbound.size());
+        }
+        assertEquals(0, dispatcher.getDropped());
+    }
+
+    /**
+     * Test a single publisher delivers every event in order.
+     */
+    @Test
+    public void testSinglePublisher() throws Exception {
+        RecordingListener a = new RecordingListener(null);
+        SessionEventDispatcher dispatcher = SessionEventDispatcher.builder()
+                .bufferSize(16)
+                .singlePublisher()
+                .listener(a)
+                .build();
+        for (int i = 0; i < 1_000; i++) {
+            dispatcher.sessionClosed(closed("s" + i));
+        }
+        dispatcher.close();
+        assertEquals(1_000, a.closed.size());
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals("s" + i, a.closed.get(i).getSessionGuid());
+        }
+    }
+
+    /**
+     * Test concurrent publishers each have their events delivered once.
+     */
+    @Test
+    public void testConcurrentPublishers() throws Exception {
+        RecordingListener a = new RecordingListener(null);
+        SessionEventDispatcher dispatcher = SessionEventDispatcher.builder()
+                .bufferSize(16)
+                .listener(a)
+                .build();
+        Thread[] publishers = new Thread[4];
+        for (int p = 0; p < publishers.length; p++) {
+            final String prefix = "p" + p + "-";
+            publishers[p] = new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    dispatcher.sessionClosed(closed(prefix + i));
+                }
+            });
+            publishers[p].start();
+        }
+        for (Thread t : publishers) {
+            t.join();
+        }
+        dispatcher.close();
+        assertEquals(2_000, a.closed.stream()
+                .map(SecuritySessionClosed::getSessionGuid)
+                .distinct().count());
+    }
+
+    /**
+     * Test the buffer does not keep delivered events reachable.
+     */
+    @Test
+    public void testDeliveredEventsReleased() throws Exception {
+        CountDownLatch delivered = new CountDownLatch(2);
+        SecuritySession.Listener counting = new SecuritySession.Listener() {
+            @Override
+            public void sessionClosed(SecuritySessionClosed closed) {
+                delivered.countDown();
+            }
+        };
+        SessionEventDispatcher dispatcher = SessionEventDispatcher.builder()
+                .listener(counting)
+                .listener(counting)
+                .build();
+        SecuritySessionClosed closed = closed("s1");
+        WeakReference<SecuritySessionClosed> event
+                = new WeakReference<>(closed);
+        dispatcher.sessionClosed(closed);
+        closed = null;
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 50 && event.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(event.get());
+        dispatcher.close();
+    }
+
+    /**
+     * Test a stalled listener does not block publishers with the drop policy.
+     */
+    @Test
+    public void testDropWhenFull() throws Exception {
+        CountDownLatch stall = new CountDownLatch(1);
+        RecordingListener slow = new RecordingListener(stall);
+        SessionEventDispatcher dispatcher = SessionEventDispatcher.builder()
+                .bufferSize(8)
+                .overflow(SessionEventDispatcher.OverflowPolicy.DROP)
+                .listener(slow)
+                .build();
+        for (int i = 0; i < 100; i++) {
+            dispatcher.sessionClosed(closed("s" + i));
+        }
+        stall.countDown();
+        dispatcher.close();
+        assertEquals(100, slow.closed.size() + dispatcher.getDropped());
+        assertTrue(dispatcher.getDropped() >= 100 - 9);
+    }
+
+    /**
+     * Test an interrupted publisher blocked on a full buffer drops the event
+     * and keeps its interrupt status.
+     */
+    @Test
+    public void testBlockedPublisherInterrupted() throws Exception {
+        CountDownLatch stall = new CountDownLatch(1);
+        SessionEventDispatcher dispatcher = blockingDispatcher(stall);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Thread publisher = new Thread(() -> {
+            dispatcher.sessionClosed(closed("s1"));
+            interrupted.set(Thread.currentThread().isInterrupted());
+        });
+        publisher.start();
+        publisher.interrupt();
+        publisher.join(5_000);
+        assertFalse(publisher.isAlive());
+        assertTrue(interrupted.get());
+        assertEquals(1, dispatcher.getDropped());
+        stall.countDown();
+        dispatcher.close();
+    }
+
+    /**
+     * Test a publisher blocked on a full buffer fails when the dispatcher is
+     * closed.
+     */
+    @Test
+    public void testBlockedPublisherClosed() throws Exception {
+        CountDownLatch stall = new CountDownLatch(1);
+        SessionEventDispatcher dispatcher = blockingDispatcher(stall);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread publisher = new Thread(() -> {
+            try {
+                dispatcher.sessionClosed(closed("s1"));
+            } catch (IllegalStateException ex) {
+                failure.set(ex);
+            }
+        });
+        publisher.start();
+        Thread closer = new Thread(dispatcher::close);
+        closer.start();
+        publisher.join(5_000);
+        assertFalse(publisher.isAlive());
+        assertTrue(failure.get() instanceof IllegalStateException);
+        stall.countDown();
+        closer.join();
+    }
+
+    /**
+     * Dispatcher with a full buffer, its only listener stalled delivering
+     * the first event.
+     */
+    private static SessionEventDispatcher blockingDispatcher(
+            CountDownLatch stall) {
+        SessionEventDispatcher dispatcher = SessionEventDispatcher.builder()
+                .bufferSize(1)
+                .overflow(SessionEventDispatcher.OverflowPolicy.BLOCK)
+                .listener(new RecordingListener(stall))
+                .build();
+        dispatcher.sessionClosed(closed("s0"));
+        return dispatcher;
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosed() throws Exception {
+        SessionEventDispatcher dispatcher = SessionEventDispatcher.builder()
+                .listener(new RecordingListener(null))
+                .build();
+        dispatcher.close();
+        dispatcher.sessionClosed(closed("s"));
+    }
+
+    private static SecuritySessionClosed closed(String sessionGuid) {
+        return new SecuritySessionClosed("subject", sessionGuid, "test",
+                ZonedDateTime.now());
+    }
+
+    private static class RecordingListener implements SecuritySession.Listener {
+
+        private final CountDownLatch stall;
+        private final List<SecuritySessionClosed> closed
+                = new CopyOnWriteArrayList<>();
+        private final List<SecuritySessionUnbound> unbound
+                = new CopyOnWriteArrayList<>();
+
+        private RecordingListener(CountDownLatch stall) {
+            this.stall = stall;
+        }
+
+        @Override
+        public void sessionClosed(SecuritySessionClosed event) {
+            if (stall != null) {
+                try {
+                    stall.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            closed.add(event);
+        }
+
+        @Override
+        public void subscriberUnbound(SecuritySessionUnbound event) {
+            unbound.add(event);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.session.store;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.geoint.saasy.session.SecuritySession;
+import org.geoint.saasy.session.event.SecuritySessionClosed;
+import org.geoint.saasy.session.event.SecuritySessionUnbound;
+import org.geoint.saasy.spi.constraint.MockSession;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author steve_siebert
+ */
+public class SessionExpiryTest {
+
+    private MockClock clock;
+    private SessionExpiry expiry;
+    private List<SecuritySessionClosed> closed;
+    private List<SecuritySessionUnbound> unbound;
+
+    @Before
+    public void setup() {
+        clock = new MockClock(1_000_000);
+        expiry = new SessionExpiry(Duration.ofMillis(100), clock);
+        closed = new ArrayList<>();
+        unbound = new ArrayList<>();
+        expiry.addListener(new SecuritySession.Listener() {
+            @Override
+            public void sessionClosed(SecuritySessionClosed event) {
+                closed.add(event);
+            }
+
+            @Override
+            public void subscriberUnbound(SecuritySessionUnbound event) {
+                unbound.add(event);
+            }
+        });
+    }
+
+    @Test
+    public void testSessionExpires() {
+        MockSession session = session(1_000);
+        expiry.track(session);
+        clock.advance(900);
+        assertEquals(0, expiry.expire());
+        assertTrue(session.isActive());
+
+        clock.advance(100);
+        assertEquals(1, expiry.expire());
+        assertFalse(session.isActive());
+        assertEquals(1, closed.size());
+        assertEquals(session.getSessionGuid(), closed.get(0).getSessionGuid());
+        assertEquals(SessionExpiry.CLOSED_BY, closed.get(0).getClosedBy());
+        assertEquals(0, expiry.size());
+    }
+
+    @Test
+    public void testTouchMovesDeadline() {
+        MockSession session = session(1_000);
+        expiry.track(session);
+        session.setCloseTime(at(5_000));
+        expiry.touch(session);
+        clock.advance(1_000);
+        assertEquals(0, expiry.expire());
+        clock.advance(4_000);
+        assertEquals(1, expiry.expire());
+    }
+
+    @Test
+    public void testUnreportedActivityHonored() {
+        MockSession session = session(1_000);
+        expiry.track(session);
+        session.setCloseTime(at(3_000)); //activity without touch
+        clock.advance(1_000);
+        assertEquals(0, expiry.expire());
+        assertTrue(session.isActive());
+        clock.advance(2_000);
+        assertEquals(1, expiry.expire());
+    }
+
+    @Test
+    public void testSubscriberExpires() {
+        MockSession session = session(10_000);
+        MockSubscriber subscriber = new MockSubscriber("app", at(500));
+        session.addSubscriber(subscriber);
+        expiry.track(session);
+        clock.advance(500);
+        assertEquals(1, expiry.expire());
+        assertFalse(subscriber.isActive());
+        assertTrue(session.isActive());
+        assertEquals(1, unbound.size());
+        assertEquals("app", unbound.get(0).getSubscriberGuid());
+        assertEquals(1, expiry.size());
+    }
+
+    @Test
+    public void testClosedElsewhereNotNotified() {
+        MockSession session = session(1_000);
+        expiry.track(session);
+        session.close();
+        clock.advance(1_000);
+        assertEquals(0, expiry.expire());
+        assertTrue(closed.isEmpty());
+    }
+
+    @Test
+    public void testStoreRemovesExpired() {
+        SessionStore store = new SessionStore();
+        expiry.addListener(store);
+        MockSession session = session(1_000);
+        store.add(session);
+        expiry.track(session);
+        clock.advance(1_000);
+        expiry.expire();
+        assertFalse(store.findSession(session.getSessionGuid()).isPresent());
+    }
+
+    /**
+     * Test a touch racing an untrack never leaves a deadline in the wheel
+     * which is no longer tracked.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testTouchRacingUntrack() throws Exception {
+        MockSession session = session(1_000);
+        Thread toucher = new Thread(() -> {
+            for (int i = 0; i < 100_000; i++) {
+                expiry.touch(session);
+            }
+        });
+        toucher.start();
+        while (toucher.isAlive()) {
+            expiry.untrack(session);
+        }
+        expiry.untrack(session);
+        assertEquals(0, expiry.size());
+    }
+
+    private MockSession session(long ttlMillis) {
+        MockSession session = MockSession.forSubject("subject");
+        session.setCloseTime(at(ttlMillis));
+        return session;
+    }
+
+    private ZonedDateTime at(long deltaMillis) {
+        return ZonedDateTime.now(clock).plusNanos(deltaMillis * 1_000_000);
+    }
+}
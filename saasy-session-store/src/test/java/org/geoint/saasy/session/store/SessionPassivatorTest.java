@@ -0,0 +1,261 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.session.store;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.geoint.saasy.authc.SubjectAuthenticated;
+import org.geoint.saasy.session.SecuritySession;
+import org.geoint.saasy.session.event.SecuritySessionClosed;
+import org.geoint.saasy.spi.constraint.MockSession;
+import org.geoint.saasy.spi.constraint.MockSubject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author steve_siebert
+ */
+public class SessionPassivatorTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private MockClock clock;
+    private SessionStore store;
+    private Path directory;
+    private List<PassivatedSession> activated;
+    private SessionPassivator passivator;
+
+    @Before
+    public void setup() throws Exception {
+        clock = new MockClock(System.currentTimeMillis());
+        store = new SessionStore();
+        directory = tmp.getRoot().toPath().resolve("passivated");
+        activated = new ArrayList<>();
+        passivator = SessionPassivator.builder(store, directory, (state) -> {
+            activated.add(state);
+            MockSession s = new MockSession(state.getSessionGuid(),
+                    new MockSubject(state.getSubjectGuid()), null);
+            state.getProperties().forEach(s::change);
+            state.getAuthentications().forEach(s::addAuthentication);
+            s.setCreatedTime(state.getCreatedTime());
+            s.setCloseTime(state.getCloseTime());
+            return s;
+        })
+                .idleThreshold(Duration.ofMinutes(10))
+                .readAhead(4)
+                .clock(clock)
+                .build();
+    }
+
+    /**
+     * Test an idle session is removed from the store and reactivated with
+     * its state on first access.
+     */
+    @Test
+    public void testPassivateAndReactivate() throws Exception {
+        MockSession idle = session();
+        idle.change("locale", "en_US");
+        idle.addAuthentication(new SubjectAuthenticated("subject", "password",
+                ZonedDateTime.now(clock), 2, "10.0.0.1"));
+        MockSubscriber sub = new MockSubscriber("app", null);
+        idle.addSubscriber(sub);
+        store.add(idle);
+        MockSession busy = session();
+        store.add(busy);
+
+        clock.advance(11 * 60_000);
+        sub.setLastActivityTime(ZonedDateTime.now(clock).minusMinutes(11));
+        MockSubscriber active = new MockSubscriber("app", null);
+        active.setLastActivityTime(ZonedDateTime.now(clock));
+        busy.addSubscriber(active);
+
+        assertEquals(1, passivator.passivateIdle());
+        assertTrue(passivator.isPassivated(idle.getSessionGuid()));
+        assertEquals(1, store.size());
+        assertEquals(1, files());
+
+        SecuritySession found = passivator.findSession(idle.getSessionGuid())
+                .get();
+        assertNotSame(idle, found);
+        assertEquals("en_US", found.findProperty("locale").get());
+        assertEquals(1, found.getAuthentications().size());
+        assertEquals("10.0.0.1", found.getAuthentications().iterator().next()
+                .getRemoteAddress().get());
+        assertEquals(1, activated.get(0).getSubscribers().size());
+        assertEquals("app", activated.get(0).getSubscribers().get(0)
+                .getSubscriberGuid());
+
+        assertFalse(passivator.isPassivated(idle.getSessionGuid()));
+        assertSame(found, store.findSession(idle.getSessionGuid()).get());
+        assertSame(found, passivator.findSession(idle.getSessionGuid()).get());
+        assertEquals(0, files());
+    }
+
+    /**
+     * Test sessions woken together are read ahead.
+     */
+    @Test
+    public void testReadAhead() throws Exception {
+        List<MockSession> sessions = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            MockSession s = session();
+            s.change("n", "" + i);
+            sessions.add(s);
+            store.add(s);
+        }
+        clock.advance(11 * 60_000);
+        assertEquals(10, passivator.passivateIdle());
+        assertEquals(0, store.size());
+
+        for (int i = 0; i < 10; i++) {
+            SecuritySession s = passivator.findSession(
+                    sessions.get(i).getSessionGuid()).get();
+            assertEquals("" + i, s.findProperty("n").get());
+        }
+        assertEquals(0, passivator.size());
+        assertEquals(0, files());
+    }
+
+    @Test
+    public void testChangedSessionNotPassivated() throws Exception {
+        AtomicInteger writes = new AtomicInteger();
+        MockSession s = new MockSession(new MockSubject("subject"), null) {
+            @Override
+            public long getVersion() {
+                //changes after its state is written
+                return writes.getAndIncrement();
+            }
+        };
+        s.setCreatedTime(ZonedDateTime.now(clock));
+        store.add(s);
+        clock.advance(11 * 60_000);
+        assertEquals(0, passivator.passivateIdle());
+        assertTrue(store.findSession(s.getSessionGuid()).isPresent());
+        assertEquals(0, files());
+    }
+
+    @Test
+    public void testUnversionedSessionNotPassivated() throws Exception {
+        MockSession s = new MockSession(new MockSubject("subject"), null) {
+            @Override
+            public long getVersion() {
+                return SecuritySession.UNVERSIONED;
+            }
+        };
+        s.setCreatedTime(ZonedDateTime.now(clock));
+        store.add(s);
+        clock.advance(11 * 60_000);
+        assertEquals(0, passivator.passivateIdle());
+        assertTrue(store.findSession(s.getSessionGuid()).isPresent());
+        assertEquals(0, files());
+    }
+
+    @Test
+    public void testClosedDiscarded() throws Exception {
+        MockSession s = session();
+        store.add(s);
+        clock.advance(11 * 60_000);
+        passivator.passivateIdle();
+        passivator.sessionClosed(new SecuritySessionClosed("subject",
+                s.getSessionGuid(), "test", ZonedDateTime.now(clock)));
+        assertFalse(passivator.findSession(s.getSessionGuid()).isPresent());
+        assertEquals(0, files());
+    }
+
+    /**
+     * Test a passivated session whose close time passes is discarded and
+     * closed through the expiry.
+     */
+    @Test
+    public void testExpiredClosed() throws Exception {
+        SessionExpiry expiry = new SessionExpiry(Duration.ofSeconds(1), clock);
+        List<SecuritySessionClosed> closed = new ArrayList<>();
+        expiry.addListener(new SecuritySession.Listener() {
+            @Override
+            public void sessionClosed(SecuritySessionClosed event) {
+                closed.add(event);
+            }
+        });
+        passivator = SessionPassivator.builder(store, directory,
+                (state) -> null)
+                .idleThreshold(Duration.ofMinutes(10))
+                .expiry(expiry)
+                .clock(clock)
+                .build();
+        MockSession s = session();
+        store.add(s);
+        clock.advance(11 * 60_000);
+        assertEquals(1, passivator.passivateIdle());
+
+        clock.advance(Duration.ofDays(1).toMillis());
+        passivator.passivateIdle();
+        assertFalse(passivator.isPassivated(s.getSessionGuid()));
+        assertEquals(0, files());
+        assertEquals(1, closed.size());
+        assertEquals(s.getSessionGuid(), closed.get(0).getSessionGuid());
+        assertEquals("subject", closed.get(0).getSubjectGuid());
+        assertEquals(SessionExpiry.CLOSED_BY, closed.get(0).getClosedBy());
+    }
+
+    /**
+     * Test a failed write does not leave a partial file.
+     */
+    @Test
+    public void testFailedWriteDeleted() throws Exception {
+        MockSession s = new MockSession(new MockSubject("subject"), null) {
+            @Override
+            public Map<String, String> getProperties() {
+                throw new IllegalStateException("unreadable");
+            }
+        };
+        s.setCreatedTime(ZonedDateTime.now(clock));
+        store.add(s);
+        clock.advance(11 * 60_000);
+        try {
+            passivator.passivateIdle();
+            fail("passivated an unreadable session");
+        } catch (IllegalStateException ex) {
+            assertEquals(0, files());
+            assertFalse(passivator.isPassivated(s.getSessionGuid()));
+            assertTrue(store.findSession(s.getSessionGuid()).isPresent());
+        }
+    }
+
+    private MockSession session() {
+        MockSession s = MockSession.forSubject("subject");
+        s.setCreatedTime(ZonedDateTime.now(clock));
+        s.setCloseTime(ZonedDateTime.now(clock).plusDays(1));
+        return s;
+    }
+
+    private long files() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.session.store;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.geoint.saasy.session.SecuritySession;
+import org.geoint.saasy.session.event.SecuritySessionClosed;
+import org.geoint.saasy.spi.constraint.MockSession;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author steve_siebert
+ */
+public class SessionStoreTest {
+
+    @Test
+    public void testFindSession() {
+        SessionStore store = new SessionStore();
+        MockSession session = MockSession.forSubject("subject");
+        assertTrue(store.add(session));
+        assertFalse(store.add(session));
+        assertSame(session, store.findSession(session.getSessionGuid()).get());
+        assertFalse(store.findSession("unknown").isPresent());
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testSubjectIndex() {
+        SessionStore store = new SessionStore(16, 4);
+        MockSession first = MockSession.forSubject("subject");
+        MockSession second = MockSession.forSubject("subject");
+        MockSession third = MockSession.forSubject("subject");
+        store.add(first);
+        store.add(second);
+        store.add(third);
+        store.add(MockSession.forSubject("other"));
+
+        assertEquals(Arrays.asList(first, second, third),
+                store.findSubjectSessions("subject"));
+        assertSame(third, store.currentSession("subject").get());
+
+        //closed sessions are not current
+        third.close();
+        assertSame(second, store.currentSession("subject").get());
+
+        store.remove(second.getSessionGuid());
+        store.remove(third.getSessionGuid());
+        assertEquals(Arrays.asList(first), store.findSubjectSessions("subject"));
+        store.remove(first.getSessionGuid());
+        assertTrue(store.findSubjectSessions("subject").isEmpty());
+        assertFalse(store.currentSession("subject").isPresent());
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testSessionClosedRemoves() {
+        SessionStore store = new SessionStore();
+        MockSession session = MockSession.forSubject("subject");
+        store.add(session);
+        store.sessionClosed(new SecuritySessionClosed("subject",
+                session.getSessionGuid(), "subject", null));
+        assertEquals(0, store.size());
+        assertTrue(store.findSubjectSessions("subject").isEmpty());
+    }
+
+    @Test
+    public void testConcurrentSubjectSessions() throws Exception {
+        final SessionStore store = new SessionStore(10_000, 16);
+        final int threads = 4;
+        final int perThread = 1_000;
+        ExecutorService exec = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            exec.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    //every thread adds sessions for the same subjects
+                    store.add(MockSession.forSubject("subject" + (i % 10)));
+                }
+            });
+        }
+        exec.shutdown();
+        assertTrue(exec.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(threads * perThread, store.size());
+        Set<SecuritySession> indexed = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            indexed.addAll(store.findSubjectSessions("subject" + i));
+        }
+        assertEquals(threads * perThread, indexed.size());
+    }
+}
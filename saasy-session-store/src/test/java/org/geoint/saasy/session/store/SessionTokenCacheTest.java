@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.session.store;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import org.geoint.saasy.SecurityToken;
+import org.geoint.saasy.SignedSecurityToken;
+import org.geoint.saasy.TokenSigner;
+import org.geoint.saasy.UnsecureSecurityToken;
+import org.geoint.saasy.session.SecuritySession;
+import org.geoint.saasy.spi.constraint.MockSession;
+import org.geoint.saasy.spi.constraint.MockSubject;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author steve_siebert
+ */
+public class SessionTokenCacheTest {
+
+    @Test
+    public void testCachedUntilChanged() {
+        MockSession session = MockSession.forSubject("subject");
+        SessionTokenCache cache
+                = new SessionTokenCache(UnsecureSecurityToken::builder);
+
+        SecurityToken token = cache.getToken(session);
+        final String encoded = cache.asString(session);
+        assertSame(token, cache.getToken(session));
+        assertSame(encoded, cache.asString(session));
+        assertEquals(1, session.getTokenizations());
+
+        session.change("locale", "en_US");
+        SecurityToken changed = cache.getToken(session);
+        assertNotSame(token, changed);
+        assertEquals("en_US", changed.findAttribute("locale").get());
+        assertEquals(changed.asString(), cache.asString(session));
+        assertEquals(2, session.getTokenizations());
+    }
+
+    /**
+     * Test the token of an unversioned session is never cached.
+     */
+    @Test
+    public void testUnversioned() {
+        MockSession session = new MockSession(new MockSubject("subject"),
+                null) {
+            @Override
+            public long getVersion() {
+                return SecuritySession.UNVERSIONED;
+            }
+        };
+        SessionTokenCache cache
+                = new SessionTokenCache(UnsecureSecurityToken::builder);
+        cache.getToken(session);
+        cache.getToken(session);
+        cache.asString(session);
+        assertEquals(3, session.getTokenizations());
+    }
+
+    @Test
+    public void testInvalidate() {
+        MockSession session = MockSession.forSubject("subject");
+        SessionTokenCache cache
+                = new SessionTokenCache(UnsecureSecurityToken::builder);
+        cache.getToken(session);
+        cache.invalidate();
+        cache.getToken(session);
+        assertEquals(2, session.getTokenizations());
+    }
+
+    /**
+     * Test a cached signed token of an idle session is replaced before it
+     * expires.
+     */
+    @Test
+    public void testSignedTokenRenewedBeforeExpiry() {
+        MutableClock clock = new MutableClock();
+        TokenSigner signer = TokenSigner.builder()
+                .key("k1", "session-token-cache-test-secret!"
+                        .getBytes(StandardCharsets.UTF_8))
+                .clock(clock)
+                .tokenLifetime(Duration.ofMinutes(15))
+                .build();
+        MockSession session = MockSession.forSubject("subject");
+        SessionTokenCache cache = new SessionTokenCache(signer::tokenBuilder,
+                clock, Duration.ofMinutes(1));
+
+        SignedSecurityToken token = (SignedSecurityToken) cache
+                .getToken(session);
+        clock.advance(Duration.ofMinutes(13));
+        assertSame(token, cache.getToken(session));
+        assertEquals(1, session.getTokenizations());
+
+        clock.advance(Duration.ofMinutes(1));
+        SignedSecurityToken renewed = (SignedSecurityToken) cache
+                .getToken(session);
+        assertNotSame(token, renewed);
+        assertEquals(2, session.getTokenizations());
+        assertTrue(renewed.getExpires().isAfter(token.getExpires()));
+        assertEquals(renewed.asString(), cache.asString(session));
+
+        clock.advance(Duration.ofMinutes(15));
+        assertTrue(cache.getToken(session).verifyIntegrity());
+        assertEquals(3, session.getTokenizations());
+    }
+
+    /**
+     * Test a renewal margin longer than the token lifetime does not cause
+     * the token to be recreated on every request.
+     */
+    @Test
+    public void testShortLivedSignedToken() {
+        MutableClock clock = new MutableClock();
+        TokenSigner signer = TokenSigner.builder()
+                .key("k1", "session-token-cache-test-secret!"
+                        .getBytes(StandardCharsets.UTF_8))
+                .clock(clock)
+                .tokenLifetime(Duration.ofSeconds(30))
+                .build();
+        MockSession session = MockSession.forSubject("subject");
+        SessionTokenCache cache = new SessionTokenCache(signer::tokenBuilder,
+                clock, Duration.ofMinutes(1));
+        SecurityToken token = cache.getToken(session);
+        clock.advance(Duration.ofSeconds(10));
+        assertSame(token, cache.getToken(session));
+        clock.advance(Duration.ofSeconds(5));
+        assertNotSame(token, cache.getToken(session));
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private Instant now = Instant.ofEpochSecond(1_500_000_000L);
+
+        private void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
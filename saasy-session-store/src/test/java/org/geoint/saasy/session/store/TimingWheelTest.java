@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.session.store;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author steve_siebert
+ */
+public class TimingWheelTest {
+
+    /**
+     * Test that every deadline, across all levels and beyond the wheel range,
+     * expires on the first tick at or after its deadline.
+     */
+    @Test
+    public void testExpiresOnDeadlineTick() {
+        final long tick = 10;
+        final long start = 1_000_003;
+        TimingWheel<Integer> wheel = new TimingWheel<>(tick, start);
+        Random rand = new Random(7);
+        long range = tick * (1L << 26); //beyond the 24 bit wheel range
+        List<Long> deadlines = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            //bias towards short deadlines, but cover every level
+            long d = start + (long) (Math.pow(rand.nextDouble(), 4) * range);
+            wheel.schedule(deadlines.size(), d);
+            deadlines.add(d);
+        }
+        assertEquals(deadlines.size(), wheel.size());
+
+        Map<Integer, Long> expiredAt = new HashMap<>();
+        long now = start;
+        while (expiredAt.size() < deadlines.size()) {
+            //advance by irregular steps, as a scheduler would
+            now += tick * (1 + rand.nextInt(2_000));
+            for (Integer i : wheel.advance(now)) {
+                assertNull(expiredAt.put(i, now));
+            }
+        }
+        for (int i = 0; i < deadlines.size(); i++) {
+            final long d = deadlines.get(i);
+            final long at = expiredAt.get(i);
+            assertTrue("expired early", at >= d);
+            if (d - start < tick * (1L << 24)) {
+                //never more than a single advance step late
+                assertTrue("expired late", at - d < tick * 2_001);
+            }
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    /**
+     * Test that a deadline expires at exactly its tick when advanced every
+     * tick.
+     */
+    @Test
+    public void testExactTick() {
+        TimingWheel<String> wheel = new TimingWheel<>(1, 0);
+        for (long deadline : new long[]{1, 63, 64, 65, 4095, 4096, 4160,
+            262_144, 300_000}) {
+            wheel.schedule("d", deadline);
+            for (long now = 1; now < deadline; now++) {
+                assertTrue(wheel.advance(now).isEmpty());
+            }
+            assertEquals(1, wheel.advance(deadline).size());
+            wheel = new TimingWheel<>(1, 0);
+        }
+    }
+
+    @Test
+    public void testRescheduleAndCancel() {
+        TimingWheel<String> wheel = new TimingWheel<>(1, 0);
+        TimingWheel.Timeout<String> a = wheel.schedule("a", 10);
+        TimingWheel.Timeout<String> b = wheel.schedule("b", 10);
+        wheel.reschedule(a, 100);
+        assertTrue(wheel.cancel(b));
+        assertFalse(wheel.cancel(b));
+        assertTrue(wheel.advance(99).isEmpty());
+        assertEquals(1, wheel.size());
+        assertEquals("a", wheel.advance(100).get(0));
+
+        //expired timeouts may be scheduled again
+        wheel.reschedule(a, 150);
+        assertEquals(1, wheel.size());
+        assertEquals("a", wheel.advance(150).get(0));
+    }
+}
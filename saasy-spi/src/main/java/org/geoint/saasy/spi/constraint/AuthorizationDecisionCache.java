@@ -0,0 +1,489 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.spi.constraint;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import org.geoint.saasy.SecurityTenant;
+import org.geoint.saasy.authz.Authorization;
+import org.geoint.saasy.authz.AuthorizationProfile;
+import org.geoint.saasy.authz.AuthorizationResult;
+import org.geoint.saasy.authz.event.AuthorizationGranted;
+import org.geoint.saasy.authz.event.AuthorizationRevoked;
+import org.geoint.saasy.event.SecurityTenantDisabled;
+import org.geoint.saasy.event.SecurityTenantEnabled;
+import org.geoint.saasy.event.TenantMembershipDisabled;
+import org.geoint.saasy.event.TenantMembershipEnabled;
+import org.geoint.saasy.event.TenantMembershipEstablished;
+import org.geoint.saasy.session.SecuritySession;
+import org.geoint.saasy.session.event.NoSessionProfile;
+import org.geoint.saasy.session.event.SessionProfileChanged;
+
+/**
+ * Optional, bounded cache of authorization decisions which sits in front of
+ * {@link AuthorizationPlan} evaluation.
+ * <p>
+ * Decisions are keyed by session GUID, resource action, and resource tenant
+ * GUID, so the cache may only be used for resource actions whose decision is
+ * fully determined by those values (for example, tenant-restricted actions).
+ * <p>
+ * Cached decisions are invalidated by the events which may change them:
+ * <ul>
+ * <li>{@link AuthorizationGranted} and {@link AuthorizationRevoked} invalidate
+ * decisions of the subject within the tenant</li>
+ * <li>{@link SessionProfileChanged} and {@link NoSessionProfile} invalidate
+ * decisions of the session</li>
+ * <li>{@link TenantMembershipDisabled}, {@link TenantMembershipEnabled} and
+ * {@link TenantMembershipEstablished} invalidate decisions of the subject
+ * within the tenant</li>
+ * <li>{@link SecurityTenantDisabled} and {@link SecurityTenantEnabled}
+ * invalidate decisions of all sessions of the tenant</li>
+ * </ul>
+ * Enabling events invalidate as well as disabling ones since denied, as well
+ * as authorized, decisions are cached.
+ * The cache must be registered as a {@link SecuritySession.Listener session}
+ * and {@link SecurityTenant.Listener tenant} listener to receive these events.
+ * <p>
+ * Each decision also records the session authorization profile, and its
+ * {@link AuthorizationProfile#getVersion() version}, it was made with. A
+ * cached decision is re-evaluated if the session has since changed to
+ * another profile or the profile version has changed, so a decision is never
+ * served against a different or newer profile even if the profile change
+ * event has not yet been delivered. Versions are only compared within the
+ * same profile, as versions of different profiles are unrelated.
+ * <p>
+ * A decision is only cached if no invalidation happened while it was being
+ * evaluated, so a decision made before an invalidating event is never cached
+ * after the event.
+ * <p>
+ * The cache is split into independently locked shards, each holding at most
+ * its share of the maximum entries and evicting the least recently used
+ * decision when full. All decisions of a session are held in the same shard,
+ * and each shard indexes its decisions by session, by subject within a
+ * tenant, and by tenant, so an invalidation only visits the decisions it
+ * removes.
+ * <p>
+ * Instances are thread-safe.
+ *
+ * @author steve_siebert
+ */
+public class AuthorizationDecisionCache
+        implements SecuritySession.Listener, SecurityTenant.Listener {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(AuthorizationDecisionCache.class.getName());
+    public static final int DEFAULT_MAX_ENTRIES = 65_536;
+    public static final int DEFAULT_SHARDS = 16;
+
+    private final Shard[] shards;
+    //incremented before each invalidation removes decisions
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Cache with {@link #DEFAULT_MAX_ENTRIES default capacity} and
+     * {@link #DEFAULT_SHARDS default shards}.
+     */
+    public AuthorizationDecisionCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_SHARDS);
+    }
+
+    /**
+     * Cache with the specified capacity.
+     *
+     * @param maxEntries maximum number of decisions cached
+     * @param numShards number of independently locked shards, rounded up to a
+     * power of two
+     */
+    public AuthorizationDecisionCache(int maxEntries, int numShards) {
+        if (maxEntries < 1 || numShards < 1) {
+            throw new IllegalArgumentException("Decision cache capacity and "
+                    + "number of shards must be positive.");
+        }
+        final int n = (numShards == 1)
+                ? 1
+                : Integer.highestOneBit(numShards - 1) << 1;
+        final int shardCapacity = Math.max(1, (maxEntries + n - 1) / n);
+        this.shards = new Shard[n];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(shardCapacity, invalidations);
+        }
+    }
+
+    /**
+     * Return the cached decision for the session, resource action, and
+     * resource tenant, evaluating and caching the plan if the decision is not
+     * cached.
+     *
+     * @param resourceAction resource action identity (ie {@link java.lang.reflect.Method})
+     * @param plan authorization plan for the resource action
+     * @param session security session
+     * @param instance resource instance
+     * @param resourceTenantGuid tenant which owns the resource instance
+     * @return authorization result
+     */
+    public AuthorizationResult authorize(Object resourceAction,
+            AuthorizationPlan plan, SecuritySession session, Object instance,
+            String resourceTenantGuid) {
+        final Key key = new Key(session.getSessionGuid(), resourceAction,
+                resourceTenantGuid);
+        final Shard shard = shardFor(key.sessionGuid);
+
+        final AuthorizationProfile profile
+                = session.getAuthorizations().orElse(null);
+        final long profileVersion = (profile == null)
+                ? -1L
+                : profile.getVersion();
+        Decision cached = shard.get(key);
+        if (cached != null && cached.profile == profile
+                && cached.profileVersion == profileVersion) {
+            return cached.result;
+        }
+
+        final long generation = invalidations.get();
+        final AuthorizationResult result = plan.authorize(session, instance);
+        shard.putIfCurrent(key, new Decision(result,
+                new Membership(session.getSubject().getGuid(),
+                        session.getTenancy().getGuid()),
+                profile, profileVersion), generation);
+        return result;
+    }
+
+    /**
+     * Number of decisions currently cached.
+     *
+     * @return number of cached decisions
+     */
+    public int size() {
+        int size = 0;
+        for (Shard s : shards) {
+            size += s.size();
+        }
+        return size;
+    }
+
+    /**
+     * Remove all cached decisions.
+     */
+    public void clear() {
+        invalidations.incrementAndGet();
+        for (Shard s : shards) {
+            s.clear();
+        }
+    }
+
+    /**
+     * Remove all cached decisions for the session.
+     *
+     * @param sessionGuid session GUID
+     */
+    public void invalidateSession(String sessionGuid) {
+        invalidations.incrementAndGet();
+        log(shardFor(sessionGuid).removeSession(sessionGuid));
+    }
+
+    /**
+     * Remove all cached decisions for sessions of the subject within the
+     * tenant.
+     *
+     * @param subjectGuid subject GUID
+     * @param tenantGuid session tenant GUID
+     */
+    public void invalidateMembership(String subjectGuid, String tenantGuid) {
+        final Membership membership = new Membership(subjectGuid, tenantGuid);
+        invalidate((s) -> s.removeMembership(membership));
+    }
+
+    /**
+     * Remove all cached decisions for sessions of the tenant.
+     *
+     * @param tenantGuid session tenant GUID
+     */
+    public void invalidateTenant(String tenantGuid) {
+        invalidate((s) -> s.removeTenant(tenantGuid));
+    }
+
+    @Override
+    public void authorizationGranted(AuthorizationGranted event,
+            Authorization authz) {
+        invalidateMembership(event.getSubjectGuid(), event.getTenantGuid());
+    }
+
+    @Override
+    public void authorizationRevoked(AuthorizationRevoked event) {
+        invalidateMembership(event.getSubjectGuid(), event.getTenantGuid());
+    }
+
+    @Override
+    public void profileChanged(SessionProfileChanged event) {
+        invalidateSession(event.getSessionGuid());
+    }
+
+    @Override
+    public void authorizationsRemoved(NoSessionProfile event) {
+        invalidateSession(event.getSessionGuid());
+    }
+
+    @Override
+    public void disabled(SecurityTenantDisabled disabled) {
+        invalidateTenant(disabled.getTenantGuid());
+    }
+
+    @Override
+    public void memberDisabled(TenantMembershipDisabled disabled) {
+        invalidateMembership(disabled.getSubjectGuid(),
+                disabled.getTenantGuid());
+    }
+
+    @Override
+    public void enabled(SecurityTenantEnabled enabled) {
+        invalidateTenant(enabled.getTenantGuid());
+    }
+
+    @Override
+    public void memberAdded(TenantMembershipEstablished membership) {
+        invalidateMembership(membership.getSubjectGuid(),
+                membership.getTenantGuid());
+    }
+
+    @Override
+    public void memberEnabled(TenantMembershipEnabled enabled) {
+        invalidateMembership(enabled.getSubjectGuid(),
+                enabled.getTenantGuid());
+    }
+
+    private void invalidate(ToIntFunction<Shard> removal) {
+        invalidations.incrementAndGet();
+        int removed = 0;
+        for (Shard s : shards) {
+            removed += removal.applyAsInt(s);
+        }
+        log(removed);
+    }
+
+    private static void log(int removed) {
+        LOGGER.finest(() -> String.format("Invalidated %d cached "
+                + "authorization decisions.", removed));
+    }
+
+    private Shard shardFor(String sessionGuid) {
+        int h = sessionGuid.hashCode();
+        h ^= (h >>> 16);
+        return shards[h & (shards.length - 1)];
+    }
+
+    /**
+     * Access-ordered, size-bounded map of cached decisions, with indexes of
+     * the decision keys by session, membership, and tenant.
+     */
+    private static final class Shard {
+
+        private final LinkedHashMap<Key, Decision> decisions;
+        private final AtomicLong invalidations;
+        private final Map<String, Set<Key>> bySession = new HashMap<>();
+        private final Map<Membership, Set<Key>> byMembership
+                = new HashMap<>();
+        private final Map<String, Set<Key>> byTenant = new HashMap<>();
+
+        private Shard(final int capacity, AtomicLong invalidations) {
+            this.invalidations = invalidations;
+            this.decisions = new LinkedHashMap<Key, Decision>(
+                    Math.min(capacity, 1024), 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<Key, Decision> eldest) {
+                    if (size() > capacity) {
+                        unindex(eldest.getKey(), eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        private synchronized Decision get(Key key) {
+            return decisions.get(key);
+        }
+
+        /**
+         * Cache the decision unless an invalidation started after the
+         * decision evaluation began; an invalidation which started before
+         * the put takes this lock afterwards and removes the decision.
+         */
+        private synchronized void putIfCurrent(Key key, Decision decision,
+                long generation) {
+            if (invalidations.get() == generation) {
+                final Decision replaced = decisions.remove(key);
+                if (replaced != null) {
+                    unindex(key, replaced);
+                }
+                decisions.put(key, decision);
+                index(bySession, key.sessionGuid, key);
+                index(byMembership, decision.membership, key);
+                index(byTenant, decision.membership.tenantGuid, key);
+            }
+        }
+
+        private synchronized int size() {
+            return decisions.size();
+        }
+
+        private synchronized void clear() {
+            decisions.clear();
+            bySession.clear();
+            byMembership.clear();
+            byTenant.clear();
+        }
+
+        private synchronized int removeSession(String sessionGuid) {
+            return remove(bySession.get(sessionGuid));
+        }
+
+        private synchronized int removeMembership(Membership membership) {
+            return remove(byMembership.get(membership));
+        }
+
+        private synchronized int removeTenant(String tenantGuid) {
+            return remove(byTenant.get(tenantGuid));
+        }
+
+        private int remove(Set<Key> indexed) {
+            if (indexed == null) {
+                return 0;
+            }
+            //copied as removal updates the index
+            final ArrayList<Key> keys = new ArrayList<>(indexed);
+            for (Key k : keys) {
+                unindex(k, decisions.remove(k));
+            }
+            return keys.size();
+        }
+
+        private void unindex(Key key, Decision decision) {
+            unindex(bySession, key.sessionGuid, key);
+            unindex(byMembership, decision.membership, key);
+            unindex(byTenant, decision.membership.tenantGuid, key);
+        }
+
+        private static <K> void index(Map<K, Set<Key>> index, K indexKey,
+                Key key) {
+            index.computeIfAbsent(indexKey, (k) -> new HashSet<>()).add(key);
+        }
+
+        private static <K> void unindex(Map<K, Set<Key>> index, K indexKey,
+                Key key) {
+            final Set<Key> keys = index.get(indexKey);
+            if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                index.remove(indexKey);
+            }
+        }
+    }
+
+    private static final class Key {
+
+        private final String sessionGuid;
+        private final Object action;
+        private final String tenantGuid;
+        private final int hash;
+
+        private Key(String sessionGuid, Object action, String tenantGuid) {
+            this.sessionGuid = sessionGuid;
+            this.action = action;
+            this.tenantGuid = tenantGuid;
+            int h = 7;
+            h = 31 * h + sessionGuid.hashCode();
+            h = 31 * h + action.hashCode();
+            h = 31 * h + Objects.hashCode(tenantGuid);
+            this.hash = h ^ (h >>> 16);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return hash == other.hash
+                    && sessionGuid.equals(other.sessionGuid)
+                    && action.equals(other.action)
+                    && Objects.equals(tenantGuid, other.tenantGuid);
+        }
+    }
+
+    /**
+     * Subject within the session tenant.
+     */
+    private static final class Membership {
+
+        private final String subjectGuid;
+        private final String tenantGuid;
+
+        private Membership(String subjectGuid, String tenantGuid) {
+            this.subjectGuid = subjectGuid;
+            this.tenantGuid = tenantGuid;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * subjectGuid.hashCode() + Objects.hashCode(tenantGuid);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Membership)) {
+                return false;
+            }
+            final Membership other = (Membership) obj;
+            return subjectGuid.equals(other.subjectGuid)
+                    && Objects.equals(tenantGuid, other.tenantGuid);
+        }
+    }
+
+    private static final class Decision {
+
+        private final AuthorizationResult result;
+        private final Membership membership;
+        //compared by identity, null if the session had no profile
+        private final AuthorizationProfile profile;
+        private final long profileVersion;
+
+        private Decision(AuthorizationResult result, Membership membership,
+                AuthorizationProfile profile, long profileVersion) {
+            this.result = result;
+            this.membership = membership;
+            this.profile = profile;
+            this.profileVersion = profileVersion;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.spi.constraint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+import org.geoint.saasy.authz.AuthorizationResult;
+import org.geoint.saasy.authz.SecurityConstraint;
+import org.geoint.saasy.session.SecuritySession;
+
+/**
+ * Flat, compiled authorization decision program for a single resource action.
+ * <p>
+ * A plan is created once per resource action and holds the
+ * {@link ConstraintEvaluator evaluators} for every constraint emitted by the
+ * registered {@link SecurityConstraintProvider providers} in parallel arrays.
+ * Authorizing against a plan is a simple loop over those arrays and does not
+ * allocate.
+ * <p>
+ * Evaluation stops at the first {@link AuthorizationResult#DENIED} result,
+ * since the merged result can no longer change. To reach a denial as cheaply
+ * as possible the plan samples the cost and deny rate of each constraint and
+ * periodically re-orders evaluation so that cheap, selective constraints are
+ * evaluated before expensive ones.
+ * <p>
+ * Instances are thread-safe; the constraints of a plan are fixed, while its
+ * evaluation order and statistics change as it is used.
+ *
+ * @see AuthorizationPlanCompiler
+ * @author steve_siebert
+ */
+public final class AuthorizationPlan {
+
+    private static final AuthorizationPlan EMPTY
+            = new AuthorizationPlan(new SecurityConstraint[0],
+                    new ConstraintEvaluator[0], System::nanoTime);
+
+    /*
+     * One in SAMPLE_RATE authorizations (must be a power of two) are sampled, 
+     * evaluating and timing every constraint of the plan.
+     */
+    static final int SAMPLE_RATE = 64;
+    /*
+     * Number of sampled authorizations between re-ordering the plan.
+     */
+    static final int RETUNE_SAMPLES = 256;
+    /*
+     * Deny rate floor used when ranking constraints which have never been 
+     * sampled denying access, keeping their rank finite.
+     */
+    private static final double MIN_DENY_RATE = 0.001;
+
+    private final SecurityConstraint[] constraints;
+    private final ConstraintEvaluator[] evaluators;
+    private final Statistics statistics;
+    private final LongSupplier nanoTime;
+    private volatile int[] order;
+
+    private AuthorizationPlan(SecurityConstraint[] constraints,
+            ConstraintEvaluator[] evaluators, LongSupplier nanoTime) {
+        this.constraints = constraints;
+        this.evaluators = evaluators;
+        this.nanoTime = nanoTime;
+        this.order = new int[evaluators.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        //nothing to re-order with fewer than two constraints
+        this.statistics = (evaluators.length > 1)
+                ? new Statistics(evaluators.length)
+                : null;
+    }
+
+    /**
+     * Plan for an unconstrained resource action, which always abstains.
+     *
+     * @return empty plan
+     */
+    public static AuthorizationPlan empty() {
+        return EMPTY;
+    }
+
+    public static AuthorizationPlan.Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Evaluate the constraints of the plan, returning the merged result.
+     * <p>
+     * Evaluation stops at the first constraint that denies access.
+     *
+     * @param session security session
+     * @param instance resource instance
+     * @return merged authorization result, or
+     * {@link AuthorizationResult#ABSTAIN} if the plan has no constraints
+     */
+    public AuthorizationResult authorize(SecuritySession session,
+            Object instance) {
+        if (statistics != null && (ThreadLocalRandom.current().nextInt()
+                & (SAMPLE_RATE - 1)) == 0) {
+            return sample(session, instance);
+        }
+
+        final int[] steps = order;
+        AuthorizationResult result = AuthorizationResult.ABSTAIN;
+        for (int i = 0; i < steps.length; i++) {
+            AuthorizationResult r
+                    = evaluators[steps[i]].evaluate(session, instance);
+            if (r == AuthorizationResult.DENIED) {
+                return r;
+            }
+            result = result.merge(r);
+        }
+        return result;
+    }
+
+    /**
+     * Evaluate, and time, every constraint of the plan, recording the cost
+     * and deny rate of each.
+     * <p>
+     * Sampled evaluation does not stop on denial so that the statistics of
+     * every constraint are collected independent of the current order.
+     */
+    private AuthorizationResult sample(SecuritySession session,
+            Object instance) {
+        AuthorizationResult result = AuthorizationResult.ABSTAIN;
+        for (int i = 0; i < evaluators.length; i++) {
+            final long start = nanoTime.getAsLong();
+            AuthorizationResult r = evaluators[i].evaluate(session, instance);
+            statistics.record(i, nanoTime.getAsLong() - start,
+                    r == AuthorizationResult.DENIED);
+            result = result.merge(r);
+        }
+        if (statistics.sampled() % RETUNE_SAMPLES == 0) {
+            retune();
+        }
+        return result;
+    }
+
+    /**
+     * Re-order evaluation by expected cost to reach a denial, which is the
+     * average cost of the constraint divided by its deny rate.
+     */
+    synchronized void retune() {
+        final double[] rank = new double[evaluators.length];
+        final Integer[] ranked = new Integer[evaluators.length];
+        for (int i = 0; i < evaluators.length; i++) {
+            rank[i] = statistics.averageCost(i)
+                    / Math.max(statistics.denyRate(i), MIN_DENY_RATE);
+            ranked[i] = i;
+        }
+        Arrays.sort(ranked, (i1, i2) -> Double.compare(rank[i1], rank[i2]));
+
+        int[] tuned = new int[ranked.length];
+        for (int i = 0; i < ranked.length; i++) {
+            tuned[i] = ranked[i];
+        }
+        order = tuned;
+        statistics.decay();
+    }
+
+    /**
+     * Constraints in the order they are currently evaluated.
+     *
+     * @return constraints in evaluation order
+     */
+    public List<SecurityConstraint> getEvaluationOrder() {
+        final int[] steps = order;
+        List<SecurityConstraint> ordered = new ArrayList<>(steps.length);
+        for (int i = 0; i < steps.length; i++) {
+            ordered.add(constraints[steps[i]]);
+        }
+        return Collections.unmodifiableList(ordered);
+    }
+
+    /**
+     * Constraints evaluated by this plan, in the order they were compiled.
+     *
+     * @return plan constraints
+     */
+    public List<SecurityConstraint> getConstraints() {
+        return Collections.unmodifiableList(Arrays.asList(constraints));
+    }
+
+    /**
+     * Number of constraints evaluated by this plan.
+     *
+     * @return number of constraints
+     */
+    public int size() {
+        return constraints.length;
+    }
+
+    public boolean isEmpty() {
+        return constraints.length == 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Authorization plan of %d constraints %s",
+                constraints.length, Arrays.toString(constraints));
+    }
+
+    /**
+     * Sampled evaluation statistics for each constraint of a plan.
+     * <p>
+     * Statistics are decayed on each re-order so the plan follows changes in
+     * the workload. Each counter is decayed atomically, so no concurrently
+     * recorded sample is lost, but the counters of a constraint are not
+     * decayed together and may briefly be inconsistent; the deny rate is
+     * therefore capped at one.
+     */
+    private static final class Statistics {
+
+        private final AtomicLongArray costs;
+        private final AtomicLongArray samples;
+        private final AtomicLongArray denials;
+        private final AtomicLong total = new AtomicLong();
+
+        private Statistics(int size) {
+            this.costs = new AtomicLongArray(size);
+            this.samples = new AtomicLongArray(size);
+            this.denials = new AtomicLongArray(size);
+        }
+
+        private void record(int step, long nanos, boolean denied) {
+            costs.addAndGet(step, nanos);
+            samples.incrementAndGet(step);
+            if (denied) {
+                denials.incrementAndGet(step);
+            }
+        }
+
+        /**
+         * Count a sampled authorization.
+         *
+         * @return total number of sampled authorizations
+         */
+        private long sampled() {
+            return total.incrementAndGet();
+        }
+
+        private double averageCost(int step) {
+            final long n = samples.get(step);
+            return (n == 0) ? 0 : (double) costs.get(step) / n;
+        }
+
+        private double denyRate(int step) {
+            final long n = samples.get(step);
+            return (n == 0) ? 0 : Math.min(1, (double) denials.get(step) / n);
+        }
+
+        private void decay() {
+            for (int i = 0; i < samples.length(); i++) {
+                costs.getAndUpdate(i, (v) -> v / 2);
+                samples.getAndUpdate(i, (v) -> v / 2);
+                denials.getAndUpdate(i, (v) -> v / 2);
+            }
+        }
+    }
+
+    /**
+     * Assembles an authorization plan.
+     * <p>
+     * Instances of the builder are not thread-safe.
+     */
+    public static final class Builder {
+
+        private final List<SecurityConstraint> constraints = new ArrayList<>();
+        private final List<ConstraintEvaluator> evaluators = new ArrayList<>();
+        private LongSupplier nanoTime = System::nanoTime;
+
+        private Builder() {
+        }
+
+        /**
+         * Add a constraint, and its evaluator, to the plan.
+         *
+         * @param constraint security constraint
+         * @param evaluator compiled constraint decision logic
+         * @return this builder (fluid interface)
+         */
+        public Builder step(SecurityConstraint constraint,
+                ConstraintEvaluator evaluator) {
+            constraints.add(constraint);
+            evaluators.add(evaluator);
+            return this;
+        }
+
+        /**
+         * Time source used to sample the cost of each constraint, by default
+         * {@link System#nanoTime()}.
+         *
+         * @param nanoTime nanosecond time source
+         * @return this builder (fluid interface)
+         */
+        Builder nanoTime(LongSupplier nanoTime) {
+            this.nanoTime = nanoTime;
+            return this;
+        }
+
+        public AuthorizationPlan build() {
+            if (constraints.isEmpty()) {
+                return EMPTY;
+            }
+            return new AuthorizationPlan(
+                    constraints.toArray(new SecurityConstraint[constraints.size()]),
+                    evaluators.toArray(new ConstraintEvaluator[evaluators.size()]),
+                    nanoTime);
+        }
+    }
+}
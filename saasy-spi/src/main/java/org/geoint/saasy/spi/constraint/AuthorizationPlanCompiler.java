@@ -0,0 +1,175 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.spi.constraint;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+import org.geoint.saasy.IdentityException;
+import org.geoint.saasy.authz.InvalidConstraintDefinitionException;
+import org.geoint.saasy.authz.SecurityConstraint;
+
+/**
+ * Compiles, and caches, an {@link AuthorizationPlan} for each resource action
+ * from the constraints emitted by the registered
+ * {@link SecurityConstraintProvider providers}.
+ * <p>
+ * Each resource action is compiled only once; subsequent requests for the plan
+ * of the same action return the cached plan.
+ * <p>
+ * A compiler created with a {@link ConstraintRegistry} scanned by this
+ * process returns the {@link AuthorizationPlan#empty() empty plan} for
+ * actions the registry knows to be unconstrained, without consulting the
+ * providers. A registry {@link ConstraintRegistry#isCached() loaded from the
+ * cache} may be stale, so plans are then always compiled from the
+ * providers.
+ * <p>
+ * Instances are thread-safe.
+ *
+ * @author steve_siebert
+ */
+public class AuthorizationPlanCompiler {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(AuthorizationPlanCompiler.class.getName());
+
+    private final SecurityConstraintProvider<?, ?>[] providers;
+    private final ConstraintRegistry registry;
+    private final ConcurrentMap<Method, AuthorizationPlan> plans
+            = new ConcurrentHashMap<>();
+
+    /**
+     * Create a plan compiler from already initialized providers.
+     *
+     * @param providers initialized constraint providers
+     */
+    public AuthorizationPlanCompiler(
+            Collection<? extends SecurityConstraintProvider<?, ?>> providers) {
+        this(providers, null);
+    }
+
+    /**
+     * Create a plan compiler from already initialized providers and the
+     * constraint registry built from the same providers.
+     *
+     * @param providers initialized constraint providers
+     * @param registry constraint registry, may be null
+     */
+    public AuthorizationPlanCompiler(
+            Collection<? extends SecurityConstraintProvider<?, ?>> providers,
+            ConstraintRegistry registry) {
+        this.providers = providers.toArray(
+                new SecurityConstraintProvider<?, ?>[providers.size()]);
+        this.registry = registry;
+    }
+
+    /**
+     * Create a plan compiler using all {@link SecurityConstraintProvider}
+     * implementations discovered by {@link ServiceLoader} on the classpath of
+     * the calling thread, initializing each with the provided properties.
+     *
+     * @param properties provider properties
+     * @return plan compiler
+     * @throws IdentityException if a constraint provider could not be
+     * initialized
+     */
+    public static AuthorizationPlanCompiler load(Map<String, String> properties)
+            throws IdentityException {
+        List<SecurityConstraintProvider<?, ?>> providers = new ArrayList<>();
+        for (SecurityConstraintProvider<?, ?> provider
+                : ServiceLoader.load(SecurityConstraintProvider.class)) {
+            provider.initialize(properties);
+            LOGGER.fine(() -> String.format("Security constraint provider "
+                    + "'%s' was initialized.", provider.getClass().getName()));
+            providers.add(provider);
+        }
+        return new AuthorizationPlanCompiler(providers);
+    }
+
+    /**
+     * Return the authorization plan for the resource action, compiling the
+     * plan if this is the first request for the action.
+     *
+     * @param resourceActionMethod method representing the resource action
+     * @return authorization plan for the action
+     * @throws IllegalStateException if a provider is shutdown
+     * @throws InvalidConstraintDefinitionException if a constraint definition
+     * of the action was invalid
+     */
+    public AuthorizationPlan plan(Method resourceActionMethod)
+            throws IllegalStateException, InvalidConstraintDefinitionException {
+        AuthorizationPlan plan = plans.get(resourceActionMethod);
+        if (plan != null) {
+            return plan;
+        }
+        plan = compile(resourceActionMethod);
+        AuthorizationPlan existing = plans.putIfAbsent(resourceActionMethod, plan);
+        return (existing == null) ? plan : existing;
+    }
+
+    /**
+     * Compile a new authorization plan for the resource action, without
+     * caching.
+     *
+     * @param resourceActionMethod method representing the resource action
+     * @return authorization plan for the action
+     * @throws IllegalStateException if a provider is shutdown
+     * @throws InvalidConstraintDefinitionException if a constraint definition
+     * of the action was invalid
+     */
+    public AuthorizationPlan compile(Method resourceActionMethod)
+            throws IllegalStateException, InvalidConstraintDefinitionException {
+        if (registry != null && !registry.isCached()
+                && registry.isUnconstrained(resourceActionMethod)) {
+            return AuthorizationPlan.empty();
+        }
+        AuthorizationPlan.Builder plan = AuthorizationPlan.builder();
+        for (SecurityConstraintProvider<?, ?> provider : providers) {
+            addSteps(plan, provider, resourceActionMethod);
+        }
+        AuthorizationPlan compiled = plan.build();
+        LOGGER.finest(() -> String.format("Compiled authorization plan for "
+                + "resource action '%s': %s", resourceActionMethod.toString(),
+                compiled.toString()));
+        return compiled;
+    }
+
+    /**
+     * Synchronously shut down all constraint providers used by this compiler.
+     */
+    public void shutdown() {
+        for (SecurityConstraintProvider<?, ?> provider : providers) {
+            provider.shutdown();
+        }
+        plans.clear();
+    }
+
+    private static <C extends SecurityConstraint> void addSteps(
+            AuthorizationPlan.Builder plan,
+            SecurityConstraintProvider<C, ?> provider,
+            Method resourceActionMethod)
+            throws InvalidConstraintDefinitionException {
+        for (C constraint : provider.actionConstraints(resourceActionMethod)) {
+            plan.step(constraint, provider.createEvaluator(constraint));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.spi.constraint;
+
+import org.geoint.saasy.authz.AuthorizationResult;
+import org.geoint.saasy.authz.SecurityConstraint;
+import org.geoint.saasy.session.SecuritySession;
+
+/**
+ * Compiled decision logic for a single {@link SecurityConstraint}.
+ * <p>
+ * Evaluators are created once per constraint by the
+ * {@link SecurityConstraintProvider provider} of the constraint and are then
+ * called on every authorization of the constrained resource action, so
+ * implementations should do any expensive resolution at creation time.
+ * <p>
+ * Implementations must be thread-safe.
+ *
+ * @see AuthorizationPlan
+ * @author steve_siebert
+ */
+@FunctionalInterface
+public interface ConstraintEvaluator {
+
+    /**
+     * Determine if the session is authorized to invoke the constrained action
+     * on the resource instance.
+     *
+     * @param session security session
+     * @param instance resource instance
+     * @return authorization result
+     */
+    AuthorizationResult evaluate(SecuritySession session, Object instance);
+}
@@ -0,0 +1,718 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.spi.constraint;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.geoint.saasy.authz.InvalidConstraintDefinitionException;
+import org.geoint.saasy.authz.SecurityConstraint;
+import org.geoint.saasy.event.ResourceSecurityRegistered;
+
+/**
+ * Registry of the constrained resource actions of a set of scanned resource
+ * classes.
+ * <p>
+ * The registry records, for each scanned class, which of its public resource
+ * actions are constrained by at least one {@link SecurityConstraintProvider}
+ * and a description of those constraints. It does not hold the constraints
+ * themselves; an {@link AuthorizationPlanCompiler} created with a freshly
+ * scanned registry uses it to skip the providers entirely for actions the
+ * registry knows to be unconstrained, compiling plans only for the
+ * constrained actions. A registry loaded from the cache is only descriptive;
+ * the compiler always consults the providers for it.
+ * <p>
+ * Registries are created by a {@link Builder}, which either scans the
+ * candidate classes in parallel or, if a registry was previously persisted
+ * for the same classpath, loads it from the on-disk cache.
+ * <p>
+ * Instances are immutable and thread-safe.
+ *
+ * @author steve_siebert
+ */
+public final class ConstraintRegistry {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(ConstraintRegistry.class.getName());
+    private static final int CACHE_MAGIC = 0x53434f52; //SCOR
+    private static final int CACHE_FORMAT = 1;
+
+    private final String classpathHash;
+    private final Set<String> scannedClasses;
+    private final Map<String, ResourceSecurityRegistered> actions; //key: class#descriptor
+    private final boolean cached;
+
+    private ConstraintRegistry(String classpathHash, Set<String> scannedClasses,
+            Map<String, ResourceSecurityRegistered> actions, boolean cached) {
+        this.classpathHash = classpathHash;
+        this.scannedClasses = Collections.unmodifiableSet(scannedClasses);
+        this.actions = Collections.unmodifiableMap(actions);
+        this.cached = cached;
+    }
+
+    public static Builder builder(
+            Collection<? extends SecurityConstraintProvider<?, ?>> providers) {
+        return new Builder(providers);
+    }
+
+    /**
+     * Determine if the class was scanned when this registry was built.
+     *
+     * @param resourceClass resource class
+     * @return true if the class was scanned
+     */
+    public boolean isScanned(Class<?> resourceClass) {
+        return scannedClasses.contains(resourceClass.getName());
+    }
+
+    /**
+     * Determine if the resource action is constrained.
+     *
+     * @param resourceActionMethod method representing the resource action
+     * @return true if the action was registered with at least one constraint
+     */
+    public boolean isConstrained(Method resourceActionMethod) {
+        return actions.containsKey(key(resourceActionMethod));
+    }
+
+    /**
+     * Determine if the resource action is known to be unconstrained, which is
+     * the case if its declaring class was scanned and the action was not
+     * registered.
+     *
+     * @param resourceActionMethod method representing the resource action
+     * @return true if the action is known to be unconstrained, false if the
+     * action is constrained or was not scanned
+     */
+    public boolean isUnconstrained(Method resourceActionMethod) {
+        return isScanned(resourceActionMethod.getDeclaringClass())
+                && !isConstrained(resourceActionMethod);
+    }
+
+    /**
+     * Registrations of the constrained resource actions, ordered by resource
+     * class and action.
+     *
+     * @return action registrations
+     */
+    public Collection<ResourceSecurityRegistered> getRegistrations() {
+        return actions.values();
+    }
+
+    /**
+     * Hash of the classpath, candidate classes, and providers this registry
+     * was built for.
+     *
+     * @return hex encoded hash
+     */
+    public String getClasspathHash() {
+        return classpathHash;
+    }
+
+    /**
+     * Determine if this registry was loaded from the on-disk cache rather
+     * than scanned.
+     *
+     * @return true if loaded from the cache
+     */
+    public boolean isCached() {
+        return cached;
+    }
+
+    /**
+     * Number of constrained resource actions.
+     *
+     * @return number of registered actions
+     */
+    public int size() {
+        return actions.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Constraint registry of %d constrained actions "
+                + "from %d classes (classpath %s)", actions.size(),
+                scannedClasses.size(), classpathHash);
+    }
+
+    /**
+     * Return the action descriptor of a resource method, the method name and
+     * its parameter types, ie {@code update(java.lang.String,int)}.
+     *
+     * @param resourceActionMethod method representing the resource action
+     * @return action descriptor
+     */
+    public static String descriptor(Method resourceActionMethod) {
+        return Arrays.stream(resourceActionMethod.getParameterTypes())
+                .map(Class::getTypeName)
+                .collect(Collectors.joining(",",
+                        resourceActionMethod.getName() + "(", ")"));
+    }
+
+    private static String key(Method resourceActionMethod) {
+        return key(resourceActionMethod.getDeclaringClass().getName(),
+                descriptor(resourceActionMethod));
+    }
+
+    private static String key(String className, String descriptor) {
+        return className + '#' + descriptor;
+    }
+
+    /**
+     * Builds a {@link ConstraintRegistry}, scanning candidate classes in
+     * parallel on a fork-join pool or loading a previously persisted registry
+     * from the cache directory.
+     * <p>
+     * A persisted registry is keyed by a hash of the classpath entries (the
+     * path and content of each file, or the name, CRC and size of each jar
+     * entry), the candidate class names, and the provider classes. Any change
+     * to these results in a rescan; file timestamps, which reproducible
+     * builds pin, are not relied on.
+     * <p>
+     * The cache file is named by the classpath entry paths, candidates, and
+     * providers alone, so a rescan replaces the file previously written for
+     * the same configuration. Cache files of other configurations sharing the
+     * directory are never removed; pruning them is left to the operator.
+     */
+    public static final class Builder {
+
+        private static final int SCAN_THRESHOLD = 16;
+
+        private final List<SecurityConstraintProvider<?, ?>> providers;
+        private final Set<String> candidates = new TreeSet<>();
+        private final List<Consumer<ResourceSecurityRegistered>> listeners
+                = new ArrayList<>();
+        private ClassLoader loader;
+        private String classpath = System.getProperty("java.class.path", "");
+        private Path cacheDirectory;
+        private ForkJoinPool pool;
+
+        private Builder(
+                Collection<? extends SecurityConstraintProvider<?, ?>> providers) {
+            this.providers = new ArrayList<>(providers);
+        }
+
+        /**
+         * Add the classes to scan.
+         *
+         * @param classNames binary names of the candidate resource classes
+         * @return this builder (fluid interface)
+         */
+        public Builder candidates(Collection<String> classNames) {
+            candidates.addAll(classNames);
+            return this;
+        }
+
+        /**
+         * Add the classes to scan.
+         *
+         * @param classes candidate resource classes
+         * @return this builder (fluid interface)
+         */
+        public Builder candidates(Class<?>... classes) {
+            for (Class<?> c : classes) {
+                candidates.add(c.getName());
+            }
+            return this;
+        }
+
+        /**
+         * Class loader used to load the candidate classes, by default the
+         * context class loader of the thread calling {@link #build()}.
+         *
+         * @param loader candidate class loader
+         * @return this builder (fluid interface)
+         */
+        public Builder classLoader(ClassLoader loader) {
+            this.loader = loader;
+            return this;
+        }
+
+        /**
+         * Classpath used to key the persisted registry, by default the
+         * {@code java.class.path} system property.
+         *
+         * @param classpath path separated classpath entries
+         * @return this builder (fluid interface)
+         */
+        public Builder classpath(String classpath) {
+            this.classpath = classpath;
+            return this;
+        }
+
+        /**
+         * Persist the registry to, and load it from, the provided directory.
+         * <p>
+         * By default the registry is not persisted.
+         *
+         * @param directory cache directory
+         * @return this builder (fluid interface)
+         */
+        public Builder cache(Path directory) {
+            this.cacheDirectory = directory;
+            return this;
+        }
+
+        /**
+         * Fork-join pool used to scan the candidate classes, by default the
+         * {@link ForkJoinPool#commonPool() common pool}.
+         *
+         * @param pool scan pool
+         * @return this builder (fluid interface)
+         */
+        public Builder pool(ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        /**
+         * Notify the listener of a {@link ResourceSecurityRegistered} event
+         * for each constrained resource action of the built registry, whether
+         * scanned or loaded from the cache.
+         * <p>
+         * Listeners are notified on the thread calling {@link #build()}, in
+         * resource class and action order.
+         *
+         * @param listener registration listener
+         * @return this builder (fluid interface)
+         */
+        public Builder listener(Consumer<ResourceSecurityRegistered> listener) {
+            listeners.add(listener);
+            return this;
+        }
+
+        /**
+         * Build the registry.
+         *
+         * @return constraint registry
+         * @throws IllegalStateException if a provider is shutdown
+         * @throws InvalidConstraintDefinitionException if a constraint
+         * definition of a candidate class was invalid
+         */
+        public ConstraintRegistry build()
+                throws IllegalStateException, InvalidConstraintDefinitionException {
+            final ClassLoader cl = (loader != null)
+                    ? loader
+                    : Thread.currentThread().getContextClassLoader();
+            final String hash = hash(true);
+            final Path cacheFile = (cacheDirectory == null)
+                    ? null
+                    : cacheDirectory.resolve("constraint-registry-"
+                            + hash(false));
+
+            ConstraintRegistry registry = (cacheFile == null)
+                    ? null
+                    : read(cacheFile, hash);
+            if (registry == null) {
+                registry = scan(cl, hash);
+                if (cacheFile != null) {
+                    write(cacheFile, registry);
+                }
+            }
+
+            for (ResourceSecurityRegistered r : registry.getRegistrations()) {
+                for (Consumer<ResourceSecurityRegistered> l : listeners) {
+                    l.accept(r);
+                }
+            }
+            return registry;
+        }
+
+        private ConstraintRegistry scan(ClassLoader cl, String hash)
+                throws InvalidConstraintDefinitionException {
+            final long start = System.nanoTime();
+            final ForkJoinPool scanPool = (pool != null)
+                    ? pool
+                    : ForkJoinPool.commonPool();
+            final List<ScannedClass> scanned;
+            try {
+                scanned = scanPool.invoke(new ScanTask(
+                        new ArrayList<>(candidates), cl));
+            } catch (ScanFailure ex) {
+                throw ex.getCause();
+            }
+
+            Set<String> classes = new HashSet<>();
+            Map<String, ResourceSecurityRegistered> actions = new TreeMap<>();
+            for (ScannedClass c : scanned) {
+                classes.add(c.className);
+                for (ResourceSecurityRegistered r : c.actions) {
+                    actions.put(key(c.className, r.getAction()), r);
+                }
+            }
+            LOGGER.fine(() -> String.format("Scanned %d resource classes, "
+                    + "registering %d constrained actions, in %d ms.",
+                    classes.size(), actions.size(),
+                    (System.nanoTime() - start) / 1_000_000));
+            return new ConstraintRegistry(hash, classes, actions, false);
+        }
+
+        private ScannedClass scanClass(String className, ClassLoader cl)
+                throws InvalidConstraintDefinitionException {
+            final Class<?> resourceClass;
+            try {
+                resourceClass = Class.forName(className, false, cl);
+            } catch (ClassNotFoundException | LinkageError ex) {
+                LOGGER.log(Level.WARNING, ex, () -> String.format("Unable to "
+                        + "load candidate resource class '%s', it will not be "
+                        + "registered.", className));
+                return null;
+            }
+
+            final Package pkg = resourceClass.getPackage();
+            final String namespace = (pkg == null) ? "" : pkg.getName();
+            final String version = (pkg == null)
+                    ? null
+                    : pkg.getImplementationVersion();
+            final String type = namespace.isEmpty()
+                    ? className
+                    : className.substring(namespace.length() + 1);
+
+            List<ResourceSecurityRegistered> actions = new ArrayList<>();
+            for (Method m : resourceClass.getDeclaredMethods()) {
+                if (!Modifier.isPublic(m.getModifiers()) || m.isSynthetic()) {
+                    continue;
+                }
+                List<String> constraints = new ArrayList<>();
+                for (SecurityConstraintProvider<?, ?> provider : providers) {
+                    for (SecurityConstraint c : provider.actionConstraints(m)) {
+                        constraints.add(c.toString());
+                    }
+                }
+                if (!constraints.isEmpty()) {
+                    actions.add(new ResourceSecurityRegistered(namespace,
+                            version, type, descriptor(m), constraints));
+                }
+            }
+            return new ScannedClass(className, actions);
+        }
+
+        /**
+         * Hash the registry configuration.
+         *
+         * @param contents include the size and modification time of the
+         * classpath files, otherwise only the entry paths are hashed
+         * @return hex encoded hash
+         */
+        private String hash(boolean contents) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                update(digest, Integer.toString(CACHE_FORMAT));
+                for (String entry : classpath.split(File.pathSeparator)) {
+                    if (entry.isEmpty()) {
+                        continue;
+                    }
+                    update(digest, entry);
+                    if (contents) {
+                        hashEntry(digest, new File(entry).toPath());
+                    }
+                }
+                for (String c : candidates) {
+                    update(digest, c);
+                }
+                for (SecurityConstraintProvider<?, ?> p : providers) {
+                    update(digest, p.getClass().getName());
+                }
+                StringBuilder hex = new StringBuilder();
+                for (byte b : digest.digest()) {
+                    hex.append(String.format("%02x", b));
+                }
+                return hex.toString();
+            } catch (NoSuchAlgorithmException ex) {
+                //SHA-256 is required of all java platforms
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        private static void hashEntry(MessageDigest digest, Path entry) {
+            if (Files.isDirectory(entry)) {
+                //directory timestamps do not reflect changes to nested files
+                try (Stream<Path> files = Files.walk(entry)) {
+                    files.filter(Files::isRegularFile)
+                            .sorted()
+                            .forEach((f) -> {
+                                update(digest, entry.relativize(f).toString());
+                                hashFile(digest, f);
+                            });
+                } catch (IOException ex) {
+                    update(digest, ex.toString());
+                }
+            } else {
+                hashFile(digest, entry);
+            }
+        }
+
+        /**
+         * Hash the content of the file; a jar is hashed by the name, CRC,
+         * and size of each of its entries, without inflating them.
+         */
+        private static void hashFile(MessageDigest digest, Path file) {
+            final String name = file.getFileName().toString();
+            if (name.endsWith(".jar") || name.endsWith(".zip")) {
+                try (ZipFile zip = new ZipFile(file.toFile())) {
+                    final Enumeration<? extends ZipEntry> entries
+                            = zip.entries();
+                    while (entries.hasMoreElements()) {
+                        final ZipEntry e = entries.nextElement();
+                        update(digest, e.getName() + ":" + e.getCrc() + ":"
+                                + e.getSize());
+                    }
+                    return;
+                } catch (IOException ex) {
+                    //not a readable archive, hash its bytes
+                }
+            }
+            try (InputStream in = Files.newInputStream(file)) {
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    digest.update(buffer, 0, read);
+                }
+                digest.update((byte) 0);
+            } catch (IOException ex) {
+                update(digest, ex.toString());
+            }
+        }
+
+        private static void update(MessageDigest digest, String value) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+
+        private static ConstraintRegistry read(Path cacheFile, String hash) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+                if (in.readInt() != CACHE_MAGIC
+                        || in.readInt() != CACHE_FORMAT
+                        || !in.readUTF().equals(hash)) {
+                    LOGGER.fine(() -> String.format("Ignoring constraint "
+                            + "registry cache '%s', it does not match the "
+                            + "current classpath.", cacheFile));
+                    return null;
+                }
+                Set<String> classes = new HashSet<>();
+                Map<String, ResourceSecurityRegistered> actions
+                        = new TreeMap<>();
+                final int numClasses = in.readInt();
+                for (int i = 0; i < numClasses; i++) {
+                    final String className = in.readUTF();
+                    final String namespace = in.readUTF();
+                    final String version = in.readBoolean()
+                            ? in.readUTF()
+                            : null;
+                    final String type = namespace.isEmpty()
+                            ? className
+                            : className.substring(namespace.length() + 1);
+                    classes.add(className);
+                    final int numActions = in.readInt();
+                    for (int a = 0; a < numActions; a++) {
+                        final String action = in.readUTF();
+                        final String[] constraints = new String[in.readInt()];
+                        for (int c = 0; c < constraints.length; c++) {
+                            constraints[c] = in.readUTF();
+                        }
+                        actions.put(key(className, action),
+                                new ResourceSecurityRegistered(namespace,
+                                        version, type, action,
+                                        Arrays.asList(constraints)));
+                    }
+                }
+                LOGGER.fine(() -> String.format("Loaded constraint registry "
+                        + "of %d constrained actions from cache '%s'.",
+                        actions.size(), cacheFile));
+                return new ConstraintRegistry(hash, classes, actions, true);
+            } catch (NoSuchFileException ex) {
+                return null;
+            } catch (IOException | RuntimeException ex) {
+                LOGGER.log(Level.WARNING, ex, () -> String.format("Unable to "
+                        + "read constraint registry cache '%s', classes will "
+                        + "be rescanned.", cacheFile));
+                return null;
+            }
+        }
+
+        private static void write(Path cacheFile, ConstraintRegistry registry) {
+            //group registrations by class, including classes without actions
+            Map<String, List<ResourceSecurityRegistered>> byClass
+                    = new TreeMap<>();
+            for (String c : registry.scannedClasses) {
+                byClass.put(c, new ArrayList<>());
+            }
+            for (Map.Entry<String, ResourceSecurityRegistered> e
+                    : registry.actions.entrySet()) {
+                final String key = e.getKey();
+                byClass.get(key.substring(0, key.indexOf('#')))
+                        .add(e.getValue());
+            }
+
+            Path tmp = null;
+            try {
+                Files.createDirectories(cacheFile.getParent());
+                tmp = Files.createTempFile(cacheFile.getParent(),
+                        "constraint-registry", ".tmp");
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                    out.writeInt(CACHE_MAGIC);
+                    out.writeInt(CACHE_FORMAT);
+                    out.writeUTF(registry.classpathHash);
+                    out.writeInt(byClass.size());
+                    for (Map.Entry<String, List<ResourceSecurityRegistered>> e
+                            : byClass.entrySet()) {
+                        final String className = e.getKey();
+                        final int lastDot = className.lastIndexOf('.');
+                        out.writeUTF(className);
+                        out.writeUTF((lastDot < 0)
+                                ? ""
+                                : className.substring(0, lastDot));
+                        final String version = e.getValue().isEmpty()
+                                ? null
+                                : e.getValue().get(0).getVersion();
+                        out.writeBoolean(version != null);
+                        if (version != null) {
+                            out.writeUTF(version);
+                        }
+                        out.writeInt(e.getValue().size());
+                        for (ResourceSecurityRegistered r : e.getValue()) {
+                            out.writeUTF(r.getAction());
+                            out.writeInt(r.getConstraints().size());
+                            for (String c : r.getConstraints()) {
+                                out.writeUTF(c);
+                            }
+                        }
+                    }
+                }
+                Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                LOGGER.fine(() -> String.format("Wrote constraint registry "
+                        + "cache '%s'.", cacheFile));
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, ex, () -> String.format("Unable to "
+                        + "write constraint registry cache '%s'.", cacheFile));
+                if (tmp != null) {
+                    try {
+                        Files.deleteIfExists(tmp);
+                    } catch (IOException e) {
+                        LOGGER.log(Level.FINE, e, () -> String.format(
+                                "Unable to remove partial constraint "
+                                + "registry cache '%s'.", cacheFile));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Scans a range of the candidate classes, splitting the range until
+         * it is small enough to scan directly.
+         */
+        private final class ScanTask extends RecursiveTask<List<ScannedClass>> {
+
+            private final List<String> classNames;
+            private final ClassLoader cl;
+
+            private ScanTask(List<String> classNames, ClassLoader cl) {
+                this.classNames = classNames;
+                this.cl = cl;
+            }
+
+            @Override
+            protected List<ScannedClass> compute() {
+                if (classNames.size() > SCAN_THRESHOLD) {
+                    final int mid = classNames.size() / 2;
+                    ScanTask left = new ScanTask(classNames.subList(0, mid), cl);
+                    ScanTask right = new ScanTask(
+                            classNames.subList(mid, classNames.size()), cl);
+                    left.fork();
+                    List<ScannedClass> scanned = new ArrayList<>(right.compute());
+                    scanned.addAll(left.join());
+                    return scanned;
+                }
+
+                List<ScannedClass> scanned = new ArrayList<>(classNames.size());
+                for (String className : classNames) {
+                    try {
+                        ScannedClass c = scanClass(className, cl);
+                        if (c != null) {
+                            scanned.add(c);
+                        }
+                    } catch (InvalidConstraintDefinitionException ex) {
+                        throw new ScanFailure(ex);
+                    }
+                }
+                return scanned;
+            }
+        }
+    }
+
+    private static final class ScannedClass {
+
+        private final String className;
+        private final List<ResourceSecurityRegistered> actions;
+
+        private ScannedClass(String className,
+                List<ResourceSecurityRegistered> actions) {
+            this.className = className;
+            this.actions = actions;
+        }
+    }
+
+    /**
+     * Carries a checked constraint definition failure out of a scan task.
+     */
+    private static final class ScanFailure extends RuntimeException {
+
+        private ScanFailure(InvalidConstraintDefinitionException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized InvalidConstraintDefinitionException getCause() {
+            return (InvalidConstraintDefinitionException) super.getCause();
+        }
+    }
+}
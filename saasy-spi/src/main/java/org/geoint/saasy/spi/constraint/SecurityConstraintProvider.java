@@ -17,9 +17,12 @@ package org.geoint.saasy.spi.constraint;
 
 import java.lang.reflect.Method;
 import java.util.Map;
+import java.util.Optional;
 import org.geoint.saasy.IdentityException;
 import org.geoint.saasy.UnsupportedSecurityTokenException;
 import org.geoint.saasy.authz.Authorization;
+import org.geoint.saasy.authz.AuthorizationProfile;
+import org.geoint.saasy.authz.AuthorizationResult;
 import org.geoint.saasy.authz.InvalidConstraintDefinitionException;
 import org.geoint.saasy.authz.SecurityConstraint;
 
@@ -71,6 +74,45 @@ public interface SecurityConstraintProvider<C extends SecurityConstraint, A exte
     A createAuthorization(C constraint)
             throws UnsupportedSecurityTokenException, IllegalStateException;
 
+    /**
+     * Create the decision logic used to evaluate a constraint created by this
+     * provider.
+     * <p>
+     * Evaluators are created once per constraint and cached within an
+     * {@link AuthorizationPlan}, so any resolution required to evaluate the
+     * constraint should be done here rather than at evaluation.
+     * <p>
+     * The default implementation {@link #createAuthorization(SecurityConstraint)
+     * creates the authorization} of the constraint once, and authorizes a
+     * session whose {@link AuthorizationProfile profile} contains that
+     * authorization, denying all others. Providers whose decision depends on
+     * more than the granted authorizations must override this method.
+     *
+     * @param constraint constraint
+     * @return constraint evaluator
+     * @throws IllegalStateException if the provider is shutdown
+     * @throws InvalidConstraintDefinitionException if the constraint could not
+     * be evaluated by this provider
+     */
+    default ConstraintEvaluator createEvaluator(C constraint)
+            throws IllegalStateException, InvalidConstraintDefinitionException {
+        final A required;
+        try {
+            required = createAuthorization(constraint);
+        } catch (UnsupportedSecurityTokenException ex) {
+            throw new InvalidConstraintDefinitionException(String.format(
+                    "Authorization for constraint '%s' could not be created.",
+                    constraint), ex);
+        }
+        return (session, instance) -> {
+            final Optional<AuthorizationProfile> profile
+                    = session.getAuthorizations();
+            return (profile.isPresent() && profile.get().contains(required))
+                    ? AuthorizationResult.AUTHORIZED
+                    : AuthorizationResult.DENIED;
+        };
+    }
+
 //    String format(C constraint);
 //
 //    C parseConstraint(String formatted)
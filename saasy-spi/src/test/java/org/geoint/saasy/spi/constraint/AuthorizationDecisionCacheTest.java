@@ -0,0 +1,258 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.spi.constraint;
+
+import java.time.ZonedDateTime;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.geoint.saasy.authz.Authorization;
+import org.geoint.saasy.authz.AuthorizationResult;
+import org.geoint.saasy.authz.BitmapAuthorizationProfile;
+import org.geoint.saasy.authz.SecurityConstraint;
+import org.geoint.saasy.authz.event.AuthorizationRevoked;
+import org.geoint.saasy.event.SecurityTenantDisabled;
+import org.geoint.saasy.event.SecurityTenantEnabled;
+import org.geoint.saasy.event.TenantMembershipDisabled;
+import org.geoint.saasy.event.TenantMembershipEnabled;
+import org.geoint.saasy.event.TenantMembershipEstablished;
+import org.geoint.saasy.session.event.SessionProfileChanged;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author steve_siebert
+ */
+public class AuthorizationDecisionCacheTest {
+
+    private static final String ACTION = "increment";
+    private static final String RESOURCE_TENANT = "resourceTenant";
+
+    private AtomicInteger evaluations;
+    private AuthorizationPlan plan;
+    private AuthorizationDecisionCache cache;
+
+    @Before
+    public void setup() {
+        evaluations = new AtomicInteger();
+        plan = AuthorizationPlan.builder()
+                .step(new SecurityConstraint() {
+                }, (s, i) -> {
+                    evaluations.incrementAndGet();
+                    return AuthorizationResult.AUTHORIZED;
+                }).build();
+        cache = new AuthorizationDecisionCache(128, 4);
+    }
+
+    /**
+     * Test that a repeated decision is not re-evaluated.
+     */
+    @Test
+    public void testDecisionCached() {
+        MockSession session = MockSession.forTenant("subject", "tenant");
+        assertEquals(AuthorizationResult.AUTHORIZED, authorize(session));
+        assertEquals(AuthorizationResult.AUTHORIZED, authorize(session));
+        assertEquals(1, evaluations.get());
+        assertEquals(1, cache.size());
+    }
+
+    /**
+     * Test that the cache does not exceed its capacity.
+     */
+    @Test
+    public void testBounded() {
+        for (int i = 0; i < 1_000; i++) {
+            authorize(MockSession.forTenant("subject", "tenant"));
+        }
+        assertTrue(cache.size() <= 128);
+    }
+
+    /**
+     * Test that a decision made against an older profile version is
+     * re-evaluated, without waiting for an invalidation event.
+     */
+    @Test
+    public void testProfileVersionStale() {
+        MockSession session = MockSession.forTenant("subject", "tenant");
+        BitmapAuthorizationProfile profile
+                = new BitmapAuthorizationProfile(session.getSubject());
+        session.setAuthorizations(profile);
+        authorize(session);
+        authorize(session);
+        assertEquals(1, evaluations.get());
+
+        profile.grant(new Authorization() {
+        });
+        authorize(session);
+        authorize(session);
+        assertEquals(2, evaluations.get());
+    }
+
+    /**
+     * Test that a decision made under one profile is not served once the
+     * session changes to another profile at the same version.
+     */
+    @Test
+    public void testProfileSwitchStale() {
+        MockSession session = MockSession.forTenant("subject", "tenant");
+        BitmapAuthorizationProfile first
+                = new BitmapAuthorizationProfile(session.getSubject());
+        BitmapAuthorizationProfile second
+                = new BitmapAuthorizationProfile(session.getSubject());
+        assertEquals(first.getVersion(), second.getVersion());
+
+        session.setAuthorizations(first);
+        authorize(session);
+        session.setAuthorizations(second);
+        authorize(session);
+        authorize(session);
+        assertEquals(2, evaluations.get());
+    }
+
+    /**
+     * Test that a profile change invalidates only the session decisions.
+     */
+    @Test
+    public void testProfileChangeInvalidatesSession() {
+        MockSession changed = MockSession.forTenant("subject", "tenant");
+        MockSession other = MockSession.forTenant("other", "tenant");
+        authorize(changed);
+        authorize(other);
+
+        cache.profileChanged(new SessionProfileChanged("subject",
+                changed.getSessionGuid(), "membership"));
+        assertEquals(1, cache.size());
+        authorize(changed);
+        authorize(other);
+        assertEquals(3, evaluations.get());
+    }
+
+    /**
+     * Test that a revoked authorization invalidates the subject decisions
+     * within the tenant only.
+     */
+    @Test
+    public void testRevokeInvalidatesMembership() {
+        authorize(MockSession.forTenant("subject", "tenant"));
+        authorize(MockSession.forTenant("subject", "otherTenant"));
+        authorize(MockSession.forTenant("other", "tenant"));
+
+        cache.authorizationRevoked(new AuthorizationRevoked("subject",
+                "tenant", "membership", "authz", "admin", ZonedDateTime.now()));
+        assertEquals(2, cache.size());
+    }
+
+    /**
+     * Test that a disabled tenant invalidates all session decisions of the
+     * tenant.
+     */
+    @Test
+    public void testTenantDisabledInvalidatesTenant() {
+        authorize(MockSession.forTenant("subject", "tenant"));
+        authorize(MockSession.forTenant("other", "tenant"));
+        authorize(MockSession.forTenant("subject", "otherTenant"));
+
+        cache.disabled(new SecurityTenantDisabled("tenant", "admin",
+                ZonedDateTime.now()));
+        assertEquals(1, cache.size());
+    }
+
+    /**
+     * Test that a denied decision is re-evaluated once the tenant or
+     * membership is enabled or the membership is established.
+     */
+    @Test
+    public void testEnablingInvalidatesDenied() {
+        plan = AuthorizationPlan.builder()
+                .step(new SecurityConstraint() {
+                }, (s, i) -> {
+                    evaluations.incrementAndGet();
+                    return AuthorizationResult.DENIED;
+                }).build();
+        MockSession session = MockSession.forTenant("subject", "tenant");
+        MockSession other = MockSession.forTenant("subject", "otherTenant");
+        assertEquals(AuthorizationResult.DENIED, authorize(session));
+        authorize(other);
+
+        cache.memberEnabled(new TenantMembershipEnabled("subject", "tenant",
+                "membership", "admin", ZonedDateTime.now()));
+        assertEquals(1, cache.size());
+        authorize(session);
+
+        cache.memberAdded(new TenantMembershipEstablished("subject", "tenant",
+                "membership"));
+        assertEquals(1, cache.size());
+        authorize(session);
+
+        cache.enabled(new SecurityTenantEnabled("tenant", "admin",
+                ZonedDateTime.now()));
+        assertEquals(1, cache.size());
+        authorize(session);
+        assertEquals(5, evaluations.get());
+    }
+
+    /**
+     * Test that evicted and replaced decisions are not left in the
+     * invalidation indexes.
+     */
+    @Test
+    public void testEvictedUnindexed() {
+        MockSession session = MockSession.forTenant("subject", "tenant");
+        BitmapAuthorizationProfile profile
+                = new BitmapAuthorizationProfile(session.getSubject());
+        session.setAuthorizations(profile);
+        authorize(session);
+        profile.grant(new Authorization() {
+        });
+        authorize(session);
+        assertEquals(1, cache.size());
+        for (int i = 0; i < 1_000; i++) {
+            authorize(MockSession.forTenant("subject" + i, "tenant"));
+        }
+        cache.invalidateSession(session.getSessionGuid());
+        cache.invalidateTenant("tenant");
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Test that a decision evaluated before an invalidation, but completed
+     * after it, is not cached.
+     */
+    @Test
+    public void testInvalidatedDuringEvaluation() {
+        final MockSession session = MockSession.forTenant("subject", "tenant");
+        AuthorizationPlan invalidating = AuthorizationPlan.builder()
+                .step(new SecurityConstraint() {
+                }, (s, i) -> {
+                    evaluations.incrementAndGet();
+                    cache.memberDisabled(new TenantMembershipDisabled(
+                            "subject", "tenant", "membership", "admin",
+                            ZonedDateTime.now()));
+                    return AuthorizationResult.AUTHORIZED;
+                }).build();
+        assertEquals(AuthorizationResult.AUTHORIZED, cache.authorize(ACTION,
+                invalidating, session, this, RESOURCE_TENANT));
+        assertEquals(0, cache.size());
+
+        authorize(session);
+        assertEquals(1, cache.size());
+        assertEquals(2, evaluations.get());
+    }
+
+    private AuthorizationResult authorize(MockSession session) {
+        return cache.authorize(ACTION, plan, session, this, RESOURCE_TENANT);
+    }
+}
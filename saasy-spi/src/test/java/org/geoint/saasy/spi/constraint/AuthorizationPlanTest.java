@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.spi.constraint;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.geoint.saasy.authz.AuthorizationResult;
+import org.geoint.saasy.authz.SecurityConstraint;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author steve_siebert
+ */
+public class AuthorizationPlanTest {
+
+    /**
+     * Test that an unconstrained plan abstains.
+     */
+    @Test
+    public void testEmptyPlanAbstains() {
+        AuthorizationPlan plan = AuthorizationPlan.builder().build();
+        assertTrue(plan.isEmpty());
+        assertEquals(AuthorizationResult.ABSTAIN, plan.authorize(null, this));
+    }
+
+    /**
+     * Test that results are merged across constraints.
+     */
+    @Test
+    public void testMergedResult() {
+        AuthorizationPlan plan = AuthorizationPlan.builder()
+                .step(new MockConstraint(), (s, i) -> AuthorizationResult.ABSTAIN)
+                .step(new MockConstraint(), (s, i) -> AuthorizationResult.AUTHORIZED)
+                .build();
+        assertEquals(AuthorizationResult.AUTHORIZED, plan.authorize(null, this));
+    }
+
+    /**
+     * Test that evaluation stops at the first denial.
+     */
+    @Test
+    public void testShortCircuitOnDenied() {
+        AtomicInteger evaluated = new AtomicInteger();
+        AuthorizationPlan plan = AuthorizationPlan.builder()
+                .step(new MockConstraint(), (s, i) -> AuthorizationResult.DENIED)
+                .step(new MockConstraint(), (s, i) -> {
+                    evaluated.incrementAndGet();
+                    return AuthorizationResult.AUTHORIZED;
+                })
+                .build();
+
+        final int authorizations = 10_000;
+        for (int i = 0; i < authorizations; i++) {
+            assertEquals(AuthorizationResult.DENIED, plan.authorize(null, this));
+        }
+        //only sampled authorizations evaluate every constraint
+        assertTrue(evaluated.get() < authorizations / 4);
+    }
+
+    /**
+     * Test that a selective constraint is moved ahead of one that never
+     * denies, each sampled at the same cost.
+     */
+    @Test
+    public void testSelectiveConstraintOrderedFirst() {
+        MockConstraint permissive = new MockConstraint();
+        MockConstraint selective = new MockConstraint();
+        AtomicInteger count = new AtomicInteger();
+        AtomicLong nanos = new AtomicLong();
+        AuthorizationPlan plan = AuthorizationPlan.builder()
+                .nanoTime(() -> nanos.addAndGet(100))
+                .step(permissive, (s, i) -> AuthorizationResult.AUTHORIZED)
+                .step(selective, (s, i) -> (count.incrementAndGet() % 2 == 0)
+                        ? AuthorizationResult.DENIED
+                        : AuthorizationResult.AUTHORIZED)
+                .build();
+        assertSame(permissive, plan.getEvaluationOrder().get(0));
+
+        final int authorizations = AuthorizationPlan.SAMPLE_RATE
+                * AuthorizationPlan.RETUNE_SAMPLES * 4;
+        for (int i = 0; i < authorizations; i++) {
+            plan.authorize(null, this);
+        }
+        assertSame(selective, plan.getEvaluationOrder().get(0));
+        assertEquals(permissive, plan.getConstraints().get(0));
+    }
+
+    private static final class MockConstraint implements SecurityConstraint {
+    }
+}
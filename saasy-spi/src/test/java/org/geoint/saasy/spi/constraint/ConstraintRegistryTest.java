@@ -0,0 +1,235 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.spi.constraint;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.geoint.saasy.event.ResourceSecurityRegistered;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author steve_siebert
+ */
+public class ConstraintRegistryTest {
+
+    private Path cache;
+    private MockConstraintProvider provider;
+
+    @Before
+    public void setup() throws IOException {
+        cache = Files.createTempDirectory("saasy-registry");
+        provider = new MockConstraintProvider();
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        try (Stream<Path> files = Files.list(cache)) {
+            files.forEach((f) -> f.toFile().delete());
+        }
+        Files.deleteIfExists(cache);
+    }
+
+    /**
+     * Test that only the constrained action is registered, with an event.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testScan() throws Exception {
+        List<ResourceSecurityRegistered> events = new ArrayList<>();
+        ConstraintRegistry registry = builder()
+                .pool(new ForkJoinPool(2))
+                .listener(events::add)
+                .build();
+
+        assertFalse(registry.isCached());
+        assertEquals(1, registry.size());
+        assertTrue(registry.isConstrained(MockResource.class
+                .getMethod("update", String.class, int.class)));
+        assertTrue(registry.isUnconstrained(MockResource.class
+                .getMethod("read")));
+        assertFalse(registry.isUnconstrained(Object.class
+                .getMethod("toString")));
+
+        assertEquals(1, events.size());
+        ResourceSecurityRegistered event = events.get(0);
+        assertEquals("org.geoint.saasy.spi.constraint", event.getNamespace());
+        assertEquals("MockResource", event.getType());
+        assertEquals("update(java.lang.String,int)", event.getAction());
+        assertEquals(Collections.singleton("mock"), event.getConstraints());
+    }
+
+    /**
+     * Test that a second build for the same classpath loads the persisted
+     * registry instead of rescanning.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCached() throws Exception {
+        ConstraintRegistry scanned = builder().build();
+        final int inspected = provider.getInspected();
+        assertTrue(inspected > 0);
+
+        List<ResourceSecurityRegistered> events = new ArrayList<>();
+        ConstraintRegistry loaded = builder().listener(events::add).build();
+        assertTrue(loaded.isCached());
+        assertEquals(inspected, provider.getInspected());
+        assertEquals(scanned.getClasspathHash(), loaded.getClasspathHash());
+        assertEquals(new ArrayList<>(scanned.getRegistrations()),
+                new ArrayList<>(loaded.getRegistrations()));
+        assertEquals(1, events.size());
+        assertTrue(loaded.isUnconstrained(MockResource.class
+                .getMethod("read")));
+    }
+
+    /**
+     * Test that a classpath change results in a rescan.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testClasspathChanged() throws Exception {
+        builder().build();
+        ConstraintRegistry rescanned = builder()
+                .classpath(cache.toString())
+                .build();
+        assertFalse(rescanned.isCached());
+    }
+
+    /**
+     * Test that registries of different classpaths sharing a cache directory
+     * do not remove each others cache, and a rescan replaces the cache of the
+     * same classpath.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSharedCacheDirectory() throws Exception {
+        builder().build();
+        assertFalse(builder().classpath(cache.toString()).build().isCached());
+        assertTrue(builder().build().isCached());
+        try (Stream<Path> files = Files.list(cache)) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    /**
+     * Test that the compiler skips the providers for unconstrained actions.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCompilerSkipsUnconstrained() throws Exception {
+        ConstraintRegistry registry = builder().build();
+        AuthorizationPlanCompiler compiler = new AuthorizationPlanCompiler(
+                Collections.singletonList(provider), registry);
+        final int inspected = provider.getInspected();
+
+        assertTrue(compiler.plan(MockResource.class.getMethod("read"))
+                .isEmpty());
+        assertEquals(inspected, provider.getInspected());
+        assertEquals(1, compiler.plan(MockResource.class
+                .getMethod("update", String.class, int.class)).size());
+    }
+
+    /**
+     * Test that a content change to a classpath file or jar, keeping its size
+     * and modification time, results in a rescan.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testContentChanged() throws Exception {
+        Path dir = Files.createTempDirectory("saasy-classpath");
+        try {
+            Path file = dir.resolve("Resource.class");
+            Path jar = dir.resolve("resources.jar");
+            write(file, jar, "a");
+            final String classpath = file + File.pathSeparator + jar;
+            builder().classpath(classpath).build();
+            assertTrue(builder().classpath(classpath).build().isCached());
+
+            write(file, jar, "b");
+            assertFalse(builder().classpath(classpath).build().isCached());
+            Files.delete(file);
+            Files.delete(jar);
+        } finally {
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * Test that the compiler does not skip the providers for actions a
+     * cached, possibly stale, registry considers unconstrained.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCompilerConsultsProvidersWhenCached() throws Exception {
+        builder().build();
+        ConstraintRegistry cached = builder().build();
+        assertTrue(cached.isCached());
+        AuthorizationPlanCompiler compiler = new AuthorizationPlanCompiler(
+                Collections.singletonList(provider), cached);
+        final int inspected = provider.getInspected();
+        assertTrue(compiler.plan(MockResource.class.getMethod("read"))
+                .isEmpty());
+        assertTrue(provider.getInspected() > inspected);
+    }
+
+    /**
+     * Write the content to the file and as the single entry of the jar, with
+     * a fixed modification time as a reproducible build would.
+     */
+    private static void write(Path file, Path jar, String content)
+            throws IOException {
+        final FileTime pinned = FileTime.fromMillis(315532800000L);
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, pinned);
+        try (ZipOutputStream out = new ZipOutputStream(
+                Files.newOutputStream(jar))) {
+            ZipEntry entry = new ZipEntry("Resource.class");
+            entry.setTime(pinned.toMillis());
+            out.putNextEntry(entry);
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+        Files.setLastModifiedTime(jar, pinned);
+    }
+
+    private ConstraintRegistry.Builder builder() {
+        return ConstraintRegistry.builder(Collections.singletonList(provider))
+                .candidates(MockResource.class, ConstraintRegistryTest.class)
+                .classpath("")
+                .cache(cache);
+    }
+}
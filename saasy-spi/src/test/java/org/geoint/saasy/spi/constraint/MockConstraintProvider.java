@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.spi.constraint;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.geoint.saasy.authz.Authorization;
+import org.geoint.saasy.authz.AuthorizationResult;
+import org.geoint.saasy.authz.SecurityConstraint;
+
+/**
+ * Mock constraint provider which constrains methods annotated with
+ * {@link Restricted}, counting the methods it was asked to inspect.
+ *
+ * @author steve_siebert
+ */
+public class MockConstraintProvider
+        implements SecurityConstraintProvider<MockConstraintProvider.MockConstraint, Authorization> {
+
+    private static final MockConstraint[] NO_CONSTRAINTS = new MockConstraint[0];
+
+    private final AtomicInteger inspected = new AtomicInteger();
+
+    @Override
+    public void initialize(Map<String, String> properties) {
+    }
+
+    @Override
+    public MockConstraint[] actionConstraints(Method resourceActionMethod) {
+        inspected.incrementAndGet();
+        return resourceActionMethod.isAnnotationPresent(Restricted.class)
+                ? new MockConstraint[]{new MockConstraint()}
+                : NO_CONSTRAINTS;
+    }
+
+    @Override
+    public Authorization createAuthorization(MockConstraint constraint) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ConstraintEvaluator createEvaluator(MockConstraint constraint) {
+        return (s, i) -> AuthorizationResult.AUTHORIZED;
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    public int getInspected() {
+        return inspected.get();
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    public @interface Restricted {
+
+    }
+
+    public static final class MockConstraint implements SecurityConstraint {
+
+        @Override
+        public String toString() {
+            return "mock";
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.spi.constraint;
+
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.geoint.saasy.SecuritySubject;
+import org.geoint.saasy.SecurityTenant;
+import org.geoint.saasy.SecurityToken;
+import org.geoint.saasy.TenantMembership;
+import org.geoint.saasy.authc.SubjectAuthenticated;
+import org.geoint.saasy.authz.AuthorizationProfile;
+import org.geoint.saasy.session.SecuritySession;
+import org.geoint.saasy.session.SessionSubscriber;
+import org.geoint.saasy.session.SubscribedSession;
+
+/**
+ * Mock security session, with a subject and tenancy, used for testing.
+ *
+ * @author steve_siebert
+ */
+public class MockSession implements SecuritySession {
+
+    private final String sessionGuid;
+    private final SecuritySubject subject;
+    private final SecurityTenant tenancy;
+    private AuthorizationProfile authorizations;
+    private volatile boolean active = true;
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicInteger tokenizations = new AtomicInteger();
+    private final Map<String, String> properties = new ConcurrentHashMap<>();
+    private final Set<SubjectAuthenticated> authentications
+            = new CopyOnWriteArraySet<>();
+    private volatile ZonedDateTime createdTime = ZonedDateTime.now();
+    private volatile ZonedDateTime closeTime
+            = ZonedDateTime.now().plusYears(1);
+    private final Set<SessionSubscriber> subscribers
+            = new CopyOnWriteArraySet<>();
+
+    public MockSession(SecuritySubject subject, SecurityTenant tenancy) {
+        this(UUID.randomUUID().toString(), subject, tenancy);
+    }
+
+    public MockSession(String sessionGuid, SecuritySubject subject,
+            SecurityTenant tenancy) {
+        this.sessionGuid = sessionGuid;
+        this.subject = subject;
+        this.tenancy = tenancy;
+    }
+
+    public static MockSession forSubject(String subjectGuid) {
+        return new MockSession(new MockSubject(subjectGuid), null);
+    }
+
+    public static MockSession forTenant(String tenantGuid) {
+        return forTenant(UUID.randomUUID().toString(), tenantGuid);
+    }
+
+    public static MockSession forTenant(String subjectGuid, String tenantGuid) {
+        return new MockSession(new MockSubject(subjectGuid),
+                new MockTenant(tenantGuid));
+    }
+
+    @Override
+    public String getSessionGuid() {
+        return sessionGuid;
+    }
+
+    @Override
+    public String getSubjectName() {
+        return sessionGuid;
+    }
+
+    @Override
+    public SecuritySubject getSubject() {
+        return subject;
+    }
+
+    @Override
+    public SecurityTenant getTenancy() {
+        return tenancy;
+    }
+
+    @Override
+    public int getAssuranceLevel() {
+        return 0;
+    }
+
+    @Override
+    public SubjectAuthenticated authenticate(Object cred) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Set<SubjectAuthenticated> getAuthentications() {
+        return Collections.unmodifiableSet(authentications);
+    }
+
+    public void addAuthentication(SubjectAuthenticated authentication) {
+        authentications.add(authentication);
+    }
+
+    @Override
+    public Optional<TenantMembership> getProfile() {
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<AuthorizationProfile> getAuthorizations() {
+        return Optional.ofNullable(authorizations);
+    }
+
+    public void setAuthorizations(AuthorizationProfile authorizations) {
+        this.authorizations = authorizations;
+    }
+
+    @Override
+    public ZonedDateTime getCreatedTime() {
+        return createdTime;
+    }
+
+    public void setCreatedTime(ZonedDateTime createdTime) {
+        this.createdTime = createdTime;
+    }
+
+    @Override
+    public ZonedDateTime getCloseTime() {
+        return closeTime;
+    }
+
+    public void setCloseTime(ZonedDateTime closeTime) {
+        this.closeTime = closeTime;
+    }
+
+    @Override
+    public Map<String, String> getProperties() {
+        return Collections.unmodifiableMap(properties);
+    }
+
+    @Override
+    public Optional<String> findProperty(String name) {
+        return Optional.ofNullable(properties.get(name));
+    }
+
+    @Override
+    public String getProperty(String name, Supplier<String> defaultValue) {
+        return findProperty(name).orElseGet(defaultValue);
+    }
+
+    @Override
+    public boolean isActive() {
+        return active;
+    }
+
+    @Override
+    public Set<SessionSubscriber> getSubscribers() {
+        return Collections.unmodifiableSet(subscribers);
+    }
+
+    public void addSubscriber(SessionSubscriber subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    @Override
+    public SubscribedSession subscribe() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Simulate a session change, increasing the session version.
+     *
+     * @param property session property
+     * @param value session property value
+     */
+    public void change(String property, String value) {
+        properties.put(property, value);
+        version.incrementAndGet();
+    }
+
+    public int getTokenizations() {
+        return tokenizations.get();
+    }
+
+    @Override
+    public void tokenize(SecurityToken.Builder tokenBuilder) {
+        tokenizations.incrementAndGet();
+        tokenBuilder.attribute("sessionGuid", sessionGuid);
+        properties.forEach(tokenBuilder::attribute);
+    }
+
+    @Override
+    public void close() {
+        active = false;
+        subscribers.forEach(SessionSubscriber::close);
+        subscribers.clear();
+    }
+
+}
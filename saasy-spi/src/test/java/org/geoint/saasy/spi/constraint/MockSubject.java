@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.spi.constraint;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.Set;
+import org.geoint.saasy.SecuritySubject;
+import org.geoint.saasy.SecurityTenant;
+import org.geoint.saasy.TenantMembership;
+import org.geoint.saasy.authc.SecurityCredential;
+import org.geoint.saasy.authc.SubjectAuthenticated;
+import org.geoint.saasy.authc.event.AuthenticationCredentialGranted;
+import org.geoint.saasy.authc.event.AuthenticationCredentialRevoked;
+import org.geoint.saasy.event.SecuritySubjectDisabled;
+import org.geoint.saasy.event.SecuritySubjectEnabled;
+import org.geoint.saasy.session.SecuritySession;
+
+/**
+ * Mock subject used for testing.
+ *
+ * @author steve_siebert
+ */
+public class MockSubject implements SecuritySubject {
+
+    private final String guid;
+
+    public MockSubject(String guid) {
+        this.guid = guid;
+    }
+
+    @Override
+    public String getGuid() {
+        return guid;
+    }
+
+    @Override
+    public String getName() {
+        return guid;
+    }
+
+    @Override
+    public Set<SecurityCredential> getCredentials() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public AuthenticationCredentialGranted grantCredential(
+            SecurityCredential credential) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public AuthenticationCredentialRevoked revokeCredential(
+            SecurityCredential credential) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Optional<SubjectAuthenticated> getLastAuthenticated() {
+        return Optional.empty();
+    }
+
+    @Override
+    public int getNumFailedAttempts() {
+        return 0;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public SecuritySubjectDisabled disable() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SecuritySubjectEnabled enable() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TenantMembership.Builder createMembership(SecurityTenant tenant) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Set<TenantMembership> getMemerships() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public boolean isSessionOpen() {
+        return false;
+    }
+
+    @Override
+    public Optional<SecuritySession> currentSession() {
+        return Optional.empty();
+    }
+
+    @Override
+    public SubjectAuthenticated authenticate(Object cred) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Optional<String> getLastUsedMembershipName() {
+        return Optional.empty();
+    }
+
+    @Override
+    public void addListener(SecuritySubject.Listener listener) {
+    }
+
+    @Override
+    public void removeListener(SecuritySubject.Listener listener) {
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.spi.constraint;
+
+import java.util.Collections;
+import java.util.Set;
+import org.geoint.saasy.SecuritySubject;
+import org.geoint.saasy.SecurityTenant;
+import org.geoint.saasy.TenantDictionary;
+import org.geoint.saasy.TenantMembership;
+import org.geoint.saasy.event.SecurityTenantDisabled;
+import org.geoint.saasy.event.SecurityTenantEnabled;
+
+/**
+ * Mock tenant used for testing.
+ *
+ * @author steve_siebert
+ */
+public class MockTenant implements SecurityTenant {
+
+    private final String guid;
+    private final int tenantId;
+
+    public MockTenant(String guid) {
+        this.guid = guid;
+        this.tenantId = TenantDictionary.idOf(guid);
+    }
+
+    @Override
+    public String getGuid() {
+        return guid;
+    }
+
+    @Override
+    public int getTenantId() {
+        return tenantId;
+    }
+
+    @Override
+    public String getName() {
+        return guid;
+    }
+
+    @Override
+    public TenantMembership.Builder createMembership(SecuritySubject subject) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Set<TenantMembership> getMembers() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public SecurityTenantDisabled disable() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SecurityTenantEnabled enable() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void addListener(SecurityTenant.Listener listener) {
+    }
+
+    @Override
+    public void removeListener(SecurityTenant.Listener listener) {
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 geoint.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.geoint.saasy.spi.constraint;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import org.geoint.saasy.authz.Authorization;
+import org.geoint.saasy.authz.AuthorizationResult;
+import org.geoint.saasy.authz.BitmapAuthorizationProfile;
+import org.geoint.saasy.authz.SecurityConstraint;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author steve_siebert
+ */
+public class SecurityConstraintProviderTest {
+
+    private static final Authorization REQUIRED = new Authorization() {
+    };
+
+    /**
+     * Test the default evaluator authorizes only sessions whose profile holds
+     * the authorization created for the constraint.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testDefaultEvaluator() throws Exception {
+        ConstraintEvaluator evaluator = new AuthorizationProvider()
+                .createEvaluator(new SecurityConstraint() {
+                });
+
+        MockSession session = MockSession.forTenant("subject", "tenant");
+        assertEquals(AuthorizationResult.DENIED,
+                evaluator.evaluate(session, this));
+
+        BitmapAuthorizationProfile profile
+                = new BitmapAuthorizationProfile(session.getSubject());
+        session.setAuthorizations(profile);
+        assertEquals(AuthorizationResult.DENIED,
+                evaluator.evaluate(session, this));
+
+        profile.grant(REQUIRED);
+        assertEquals(AuthorizationResult.AUTHORIZED,
+                evaluator.evaluate(session, this));
+    }
+
+    /**
+     * Provider which only defines the authorization of its constraints.
+     */
+    private static final class AuthorizationProvider
+            implements SecurityConstraintProvider<SecurityConstraint, Authorization> {
+
+        @Override
+        public void initialize(Map<String, String> properties) {
+        }
+
+        @Override
+        public SecurityConstraint[] actionConstraints(
+                Method resourceActionMethod) {
+            return new SecurityConstraint[0];
+        }
+
+        @Override
+        public Authorization createAuthorization(
+                SecurityConstraint constraint) {
+            return REQUIRED;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}